@@ -746,19 +746,17 @@ public class HttpConnection {
             
             // START IA/HERITRIX change
             Recorder httpRecorder = Recorder.getHttpRecorder();
+            socketInputStream = new BufferedInputStream(
+                socket.getInputStream(), inbuffersize);
+            socketOutputStream = new BufferedOutputStream(
+                socket.getOutputStream(), outbuffersize);
             if (httpRecorder == null || (isSecure() && isProxied())) {
                 // no recorder, OR defer recording for pre-tunnel leg
-                inputStream = new BufferedInputStream(
-                    socket.getInputStream(), inbuffersize);
-                outputStream = new BufferedOutputStream(
-                    socket.getOutputStream(), outbuffersize);
+                inputStream = socketInputStream;
+                outputStream = socketOutputStream;
             } else {
-                inputStream = httpRecorder.inputWrap((InputStream)
-                        (new BufferedInputStream(socket.getInputStream(),
-                        inbuffersize)));
-                outputStream = httpRecorder.outputWrap((OutputStream)
-                        (new BufferedOutputStream(socket.getOutputStream(), 
-                        outbuffersize)));
+                inputStream = httpRecorder.inputWrap(socketInputStream);
+                outputStream = httpRecorder.outputWrap(socketOutputStream);
             }
             // END IA/HERITRIX change
 
@@ -821,16 +819,14 @@ public class HttpConnection {
 
         // START IA/HERITRIX change
         Recorder httpRecorder = Recorder.getHttpRecorder();
+        socketInputStream = new BufferedInputStream(socket.getInputStream(), inbuffersize);
+        socketOutputStream = new BufferedOutputStream(socket.getOutputStream(), outbuffersize);
         if (httpRecorder == null) {
-        inputStream = new BufferedInputStream(socket.getInputStream(), inbuffersize);
-        outputStream = new BufferedOutputStream(socket.getOutputStream(), outbuffersize);
+            inputStream = socketInputStream;
+            outputStream = socketOutputStream;
         } else {
-            inputStream = httpRecorder.inputWrap((InputStream)
-                    (new BufferedInputStream(socket.getInputStream(),
-                    inbuffersize)));
-            outputStream = httpRecorder.outputWrap((OutputStream)
-                (new BufferedOutputStream(socket.getOutputStream(), 
-                outbuffersize)));
+            inputStream = httpRecorder.inputWrap(socketInputStream);
+            outputStream = httpRecorder.outputWrap(socketOutputStream);
         }
         // END IA/HERITRIX change
 
@@ -1173,6 +1169,32 @@ public class HttpConnection {
         // close output stream?
     }
 
+    // BEGIN IA/HERITRIX CHANGES
+    /**
+     * Re-point recording of this open connection's traffic at the given
+     * Recorder (or at none, if null), for reuse of a persistent connection
+     * by a later request, perhaps on another thread. The buffered socket
+     * streams are kept, so bytes already read ahead of the previous
+     * response stay in place to be recorded by the next; each request's
+     * recording holds exactly the bytes of its own exchange.
+     *
+     * @param httpRecorder Recorder to wrap streams with, or null
+     * @throws IOException if the recorder cannot be opened
+     */
+    public void attachRecorder(Recorder httpRecorder) throws IOException {
+        if (!isOpen || socketInputStream == null) {
+            return;
+        }
+        if (httpRecorder == null || (isSecure() && isProxied() && !tunnelEstablished)) {
+            inputStream = socketInputStream;
+            outputStream = socketOutputStream;
+        } else {
+            inputStream = httpRecorder.inputWrap(socketInputStream);
+            outputStream = httpRecorder.outputWrap(socketOutputStream);
+        }
+    }
+    // END IA/HERITRIX CHANGES
+
     /**
      * Closes the socket and streams.
      */
@@ -1251,6 +1273,9 @@ public class HttpConnection {
         // no longer care about previous responses...
         lastResponseInputStream = null;
 
+        socketInputStream = null;
+        socketOutputStream = null;
+
         if (null != outputStream) {
             OutputStream temp = outputStream;
             outputStream = null;
@@ -1374,6 +1399,12 @@ public class HttpConnection {
 
     /** My OutputStream. */
     private OutputStream outputStream = null;
+
+    // BEGIN IA/HERITRIX CHANGES
+    /** buffered socket streams, beneath any Recorder wrapping */
+    private InputStream socketInputStream = null;
+    private OutputStream socketOutputStream = null;
+    // END IA/HERITRIX CHANGES
     
     /** An {@link InputStream} for the response to an individual request. */
     private InputStream lastResponseInputStream = null;
@@ -41,7 +41,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.archive.checkpointing.Checkpoint;
-import org.archive.checkpointing.Checkpointable;
+import org.archive.checkpointing.PhasedCheckpointable;
 import org.archive.spring.ConfigPath;
 import org.archive.util.FilesystemLinkMaker;
 import org.archive.util.IdentityCacheable;
@@ -71,7 +71,7 @@ import com.sleepycat.je.util.DbBackup;
  * @contributor pjack
  * @contributor gojomo
  */
-public class BdbModule implements Lifecycle, Checkpointable, Closeable, DisposableBean {
+public class BdbModule implements Lifecycle, PhasedCheckpointable, Closeable, DisposableBean {
     final private static Logger LOGGER = 
         Logger.getLogger(BdbModule.class.getName()); 
 
@@ -205,6 +205,19 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         this.useHardLinkCheckpoints = useHardLinkCheckpoints;
     }
     
+    /**
+     * Most objects each object cache (as of hosts, servers, or queues) 
+     * holds strongly in memory; others stay in memory only while in use 
+     * elsewhere. 
+     */
+    protected int objectCacheMaxInMemory = 50000;
+    public int getObjectCacheMaxInMemory() {
+        return objectCacheMaxInMemory;
+    }
+    public void setObjectCacheMaxInMemory(int objectCacheMaxInMemory) {
+        this.objectCacheMaxInMemory = objectCacheMaxInMemory;
+    }
+    
     private transient EnhancedEnvironment bdbEnvironment;
         
     private transient StoredClassCatalog classCatalog;
@@ -400,6 +413,7 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
             }
         }
         ObjectIdentityBdbManualCache<V> oic = new ObjectIdentityBdbManualCache<V>();
+        oic.setMaxInMemory(getObjectCacheMaxInMemory());
         oic.initialize(bdbEnvironment, dbName, valueClass, classCatalog);
         oiCaches.put(dbName, oic);
         return oic;
@@ -440,6 +454,14 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         out.defaultWriteObject();
     }
     
+    /**
+     * Checkpoint after all beans which may write to BDB databases during
+     * their own doCheckpoint(). 
+     */
+    public int getCheckpointPhase() {
+        return STORAGE_PHASE;
+    }
+
     public void startCheckpoint(Checkpoint checkpointInProgress) {}
 
     public void doCheckpoint(final Checkpoint checkpointInProgress) throws IOException {
@@ -25,6 +25,8 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,10 +51,16 @@ public class Checkpoint implements InitializingBean {
     public static final DecimalFormat INDEX_FORMAT = new DecimalFormat("00000");
     /** Name of file written with timestamp into valid checkpoints */
     public static final String VALIDITY_STAMP_FILENAME = "valid";
+    /** Name of file written with per-bean timings of each stage */
+    public static final String TIMINGS_FILENAME = "timings.json";
     
     protected String name;
     protected String shortName;
-    protected boolean success = false;
+    protected volatile boolean success = false;
+    
+    /** stage name to (bean name to milliseconds taken), in order noted */
+    protected Map<String,Map<String,Long>> timings = 
+        new LinkedHashMap<String,Map<String,Long>>();
     
     /**
      * Checkpoints directory; either an absolute path, or relative to the 
@@ -122,6 +130,50 @@ public class Checkpoint implements InitializingBean {
         }
     }
  
+    /**
+     * Note the time some bean (or other named participant) took in some
+     * stage of this checkpoint. Safe for concurrent use.
+     * 
+     * @param stage stage name, as "doCheckpoint"
+     * @param beanName bean name
+     * @param millis elapsed milliseconds
+     */
+    public synchronized void noteTiming(String stage, String beanName, long millis) {
+        Map<String,Long> stageTimings = timings.get(stage);
+        if(stageTimings == null) {
+            stageTimings = new LinkedHashMap<String,Long>();
+            timings.put(stage, stageTimings);
+        }
+        stageTimings.put(beanName, millis);
+    }
+    
+    /**
+     * Write all timings noted so far into the checkpoint directory, as 
+     * a JSON object of stage names to objects of bean names to 
+     * milliseconds. 
+     */
+    public synchronized void writeTimings() {
+        JSONObject json = new JSONObject();
+        try {
+            for(Map.Entry<String,Map<String,Long>> stage : timings.entrySet()) {
+                JSONObject stageJson = new JSONObject();
+                for(Map.Entry<String,Long> bean : stage.getValue().entrySet()) {
+                    stageJson.put(bean.getKey(), bean.getValue().longValue());
+                }
+                json.put(stage.getKey(), stageJson);
+            }
+            FileUtils.writeStringToFile(
+                    new File(getCheckpointDir().getFile(), TIMINGS_FILENAME),
+                    json.toString(1));
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            // informational only; checkpoint remains usable
+            LOGGER.log(Level.WARNING,"unable to save checkpoint timings",e);
+        }
+    }
+ 
     public void saveJson(String beanName, JSONObject json) {
         try {
             File targetFile = new File(getCheckpointDir().getFile(),beanName);
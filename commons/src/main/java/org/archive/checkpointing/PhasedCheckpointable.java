@@ -0,0 +1,50 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.checkpointing;
+
+/**
+ * Checkpointable whose doCheckpoint() must run in a particular phase 
+ * relative to other beans'. CheckpointService runs the doCheckpoint() 
+ * of all beans in the same phase concurrently, and phases one after 
+ * another in ascending order. Beans not implementing this interface are
+ * in DEFAULT_PHASE.
+ * 
+ * So the doCheckpoint() of every plain Checkpointable now runs 
+ * concurrently with those of all other DEFAULT_PHASE beans, on a 
+ * checkpoint thread rather than the caller's: it must be thread-safe 
+ * against them, synchronizing on any state it shares with another bean.
+ * A bean which can't be made so should implement this interface to
+ * checkpoint in a phase of its own. 
+ */
+public interface PhasedCheckpointable extends Checkpointable {
+    /** phase of plain Checkpointables */
+    public static final int DEFAULT_PHASE = 0;
+    /** 
+     * phase of shared stores which other beans may write to during their
+     * own doCheckpoint() (as with BdbModule's databases), and which so 
+     * must checkpoint after them
+     */
+    public static final int STORAGE_PHASE = 100;
+
+    /**
+     * @return phase in which to run doCheckpoint()
+     */
+    int getCheckpointPhase();
+}
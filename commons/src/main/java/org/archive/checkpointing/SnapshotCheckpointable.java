@@ -0,0 +1,34 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.checkpointing;
+
+/**
+ * Checkpointable whose startCheckpoint() captures a snapshot of all the
+ * state its doCheckpoint() will save, so that doCheckpoint() needn't 
+ * run while the crawl is held still. CheckpointService lets the crawl 
+ * resume (calling the finishCheckpoint() of other beans, which releases
+ * their locks) without waiting for such beans' doCheckpoint(); the 
+ * checkpoint is only marked valid once they too complete. 
+ * 
+ * As it may run after other beans' checkpointing, doCheckpoint() of such
+ * beans must not write through other beans (as into BdbModule databases).
+ */
+public interface SnapshotCheckpointable extends Checkpointable {
+}
@@ -24,6 +24,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -44,12 +45,22 @@ public class KeyedProperties extends ConcurrentHashMap<String,Object> {
      * TODO: consider if deterministic ordered list is important */
     protected HashSet<String> externalPaths = new HashSet<String>(); 
     
+    /** full override keys (externalPath + local key name), by local key;
+     * rebuilt lazily whenever externalPaths changes */
+    protected transient ConcurrentHashMap<String,String[]> overrideKeys; 
+    
+    /** resolved override values, by overlay-name-list then local key */
+    protected transient volatile ResolvedOverrides resolved; 
+    
     /**
      * Add a path by which the outside world can reach this map
      * @param path String path
      */
     public void addExternalPath(String path) {
-        externalPaths.add(path);
+        if(externalPaths.add(path)) {
+            overrideKeys = null;
+            resolved = null; 
+        }
     }
 
     /**
@@ -60,13 +71,47 @@ public class KeyedProperties extends ConcurrentHashMap<String,Object> {
      */
     public Object get(String key) {
         ArrayList<OverlayContext> overlays = threadOverrides.get();
+        if(overlays.isEmpty() || externalPaths.isEmpty()) {
+            // no sheet could possibly target this map
+            return super.get(key);
+        }
+        if(overlays.size()==1) {
+            // usual case: a single CrawlURI's overlays in effect; the
+            // resolved value depends only on its list of overlay names
+            List<String> names = overlays.get(0).getOverlayNames();
+            if(names.isEmpty()) {
+                return super.get(key);
+            }
+            ResolvedOverrides cache = getResolvedOverrides();
+            Object val = cache.get(names, key);
+            if(val==null) {
+                val = findOverride(overlays, key);
+                cache.put(names, key, val==null ? NO_OVERRIDE : val);
+            }
+            return (val==null || val==NO_OVERRIDE) ? super.get(key) : val;
+        }
+        Object val = findOverride(overlays, key);
+        return val!=null ? val : super.get(key);
+    }
+
+    /**
+     * Walk the given overlay contexts, most-recently-pushed first, 
+     * for an override of the given local key. 
+     * 
+     * @param overlays OverlayContexts in effect
+     * @param key local key
+     * @return override value, or null if none
+     */
+    protected Object findOverride(List<OverlayContext> overlays, String key) {
+        String[] keys = getOverrideKeys(key);
         for(int i = overlays.size()-1; i>=0; i--) {
             OverlayContext ocontext = overlays.get(i); 
-            for(int j = ocontext.getOverlayNames().size()-1; j>=0; j--) {
-                String name = ocontext.getOverlayNames().get(j);
+            List<String> names = ocontext.getOverlayNames();
+            for(int j = names.size()-1; j>=0; j--) {
+                String name = names.get(j);
                 Map<String,Object> m = ocontext.getOverlayMap(name);
                 if (m != null) { 
-                    for(String ok : getOverrideKeys(key)) {
+                    for(String ok : keys) {
                         Object val = m.get(ok);
                         if(val!=null) {
                             return val;
@@ -77,30 +122,112 @@ public class KeyedProperties extends ConcurrentHashMap<String,Object> {
                 }
             }
         }
-
-        return super.get(key);
+        return null; 
     }
 
     /**
      * Compose the complete keys (externalPath + local key name) to use
-     * for checking for contextual overrides. 
+     * for checking for contextual overrides. Composed once per local 
+     * key (until another external path is added). 
      * 
      * @param key local key to compose
-     * @return List of full keys to check
+     * @return full keys to check
      */
-    protected List<String> getOverrideKeys(String key) {
-        ArrayList<String> keys = new ArrayList<String>(externalPaths.size());
-        for(String path : externalPaths) {
-            keys.add(path+"."+key);
+    protected String[] getOverrideKeys(String key) {
+        ConcurrentHashMap<String,String[]> byKey = overrideKeys;
+        if(byKey==null) {
+            byKey = new ConcurrentHashMap<String,String[]>();
+            overrideKeys = byKey; 
+        }
+        String[] keys = byKey.get(key);
+        if(keys==null) {
+            ArrayList<String> composed = new ArrayList<String>(externalPaths.size());
+            for(String path : externalPaths) {
+                composed.add(path+"."+key);
+            }
+            keys = composed.toArray(new String[composed.size()]);
+            byKey.put(key, keys);
         }
         return keys;
     }
+    
+    /**
+     * @return resolved-overrides cache current with the latest sheet 
+     * changes, replacing any stale one
+     */
+    protected ResolvedOverrides getResolvedOverrides() {
+        ResolvedOverrides cache = resolved;
+        long generation = overlaysGeneration.get(); 
+        if(cache==null || cache.generation!=generation) {
+            cache = new ResolvedOverrides(generation);
+            resolved = cache; 
+        }
+        return cache;
+    }
+    
+    /** marker for a cached lookup that found no override */
+    protected static final Object NO_OVERRIDE = new Object(); 
+    
+    /** bound on distinct overlay-name-lists remembered per map */
+    protected static final int MAX_RESOLVED_NAME_LISTS = 1000;
+    
+    /**
+     * Override values previously resolved for each overlay-name-list, 
+     * valid as long as no sheet changes (as tracked by the global 
+     * overlays generation). Lookups are by the live name list, so 
+     * a hit allocates nothing; stored name lists are copies. 
+     */
+    protected static class ResolvedOverrides {
+        final long generation; 
+        final ConcurrentHashMap<List<String>,ConcurrentHashMap<String,Object>> byNames = 
+            new ConcurrentHashMap<List<String>,ConcurrentHashMap<String,Object>>();
+        
+        ResolvedOverrides(long generation) {
+            this.generation = generation;
+        }
+        
+        Object get(List<String> names, String key) {
+            ConcurrentHashMap<String,Object> values = byNames.get(names);
+            return values==null ? null : values.get(key); 
+        }
+        
+        void put(List<String> names, String key, Object val) {
+            ConcurrentHashMap<String,Object> values = byNames.get(names);
+            if(values==null) {
+                if(byNames.size() >= MAX_RESOLVED_NAME_LISTS) {
+                    byNames.clear(); 
+                }
+                values = new ConcurrentHashMap<String,Object>();
+                ConcurrentHashMap<String,Object> prev = 
+                    byNames.putIfAbsent(new ArrayList<String>(names), values);
+                if(prev!=null) {
+                    values = prev; 
+                }
+            }
+            values.put(key, val);
+        }
+    }
 
     
     //
     // CLASS SERVICES
     //
     
+    /**
+     * Count of changes to any overlay sheets; bumping it invalidates 
+     * all cached override resolutions. 
+     */
+    private static final AtomicLong overlaysGeneration = new AtomicLong(0);
+    
+    /**
+     * Note that the contents of some overlay map (sheet) have changed, 
+     * so previously-resolved overrides may no longer be valid. Must be
+     * called after any change to a sheet in use. 
+     */
+    static public void overlaysChanged() {
+        overlaysGeneration.incrementAndGet(); 
+    }
+    
     /**
      * ThreadLocal (contextual) collection of pushed override maps
      */
@@ -63,7 +63,63 @@ public class Sheet implements BeanFactoryAware, BeanNameAware {
      * property) and their changed value when this Sheet of overrides
      * is in effect
      */
-    protected Map<String,Object> map = new ConcurrentHashMap<String, Object>(); 
+    protected Map<String,Object> map = new OverlayMap(); 
+    
+    /**
+     * ConcurrentHashMap which notes every change made through its own 
+     * methods with KeyedProperties.overlaysChanged(), so that overrides 
+     * already resolved from it are not reused once stale. 
+     */
+    protected static class OverlayMap extends ConcurrentHashMap<String,Object> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Object put(String key, Object value) {
+            Object prev = super.put(key, value);
+            KeyedProperties.overlaysChanged();
+            return prev;
+        }
+        @Override
+        public Object putIfAbsent(String key, Object value) {
+            Object prev = super.putIfAbsent(key, value);
+            KeyedProperties.overlaysChanged();
+            return prev;
+        }
+        @Override
+        public void putAll(Map<? extends String, ? extends Object> m) {
+            super.putAll(m);
+            KeyedProperties.overlaysChanged();
+        }
+        @Override
+        public Object remove(Object key) {
+            Object prev = super.remove(key);
+            KeyedProperties.overlaysChanged();
+            return prev;
+        }
+        @Override
+        public boolean remove(Object key, Object value) {
+            boolean removed = super.remove(key, value);
+            KeyedProperties.overlaysChanged();
+            return removed;
+        }
+        @Override
+        public Object replace(String key, Object value) {
+            Object prev = super.replace(key, value);
+            KeyedProperties.overlaysChanged();
+            return prev;
+        }
+        @Override
+        public boolean replace(String key, Object oldValue, Object newValue) {
+            boolean replaced = super.replace(key, oldValue, newValue);
+            KeyedProperties.overlaysChanged();
+            return replaced;
+        }
+        @Override
+        public void clear() {
+            super.clear();
+            KeyedProperties.overlaysChanged();
+        }
+    }
     
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         this.beanFactory = beanFactory;
@@ -153,5 +209,6 @@ public class Sheet implements BeanFactoryAware, BeanNameAware {
                 throw tme2;
             }
         }
+        KeyedProperties.overlaysChanged();
     }
 }
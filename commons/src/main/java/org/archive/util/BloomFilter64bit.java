@@ -164,14 +164,7 @@ public class BloomFilter64bit implements Serializable, BloomFilter {
         }
 
         
-        int arrayOfArraysLength = (int)((lenInLongs+SUBARRAY_LENGTH_IN_LONGS-1)/SUBARRAY_LENGTH_IN_LONGS);
-        bits = new long[ (int)(arrayOfArraysLength) ][];
-        // ensure last subarray is no longer than necessary
-        long lenInLongsRemaining = lenInLongs; 
-        for(int i = 0; i < bits.length; i++) {
-            bits[i] = new long[(int)Math.min(lenInLongsRemaining,SUBARRAY_LENGTH_IN_LONGS)];
-            lenInLongsRemaining -= bits[i].length;
-        }
+        bits = allocateBits(lenInLongs);
 
         if ( DEBUG ) System.err.println( "Number of bits: " + m );
 
@@ -183,6 +176,25 @@ public class BloomFilter64bit implements Serializable, BloomFilter {
         }
     }
 
+    /**
+     * Allocate the bitfield as an array of subarrays of at most 
+     * SUBARRAY_LENGTH_IN_LONGS longs each. 
+     * 
+     * @param lenInLongs total length of bitfield, in longs
+     * @return allocated bitfield
+     */
+    protected long[][] allocateBits(long lenInLongs) {
+        int arrayOfArraysLength = (int)((lenInLongs+SUBARRAY_LENGTH_IN_LONGS-1)/SUBARRAY_LENGTH_IN_LONGS);
+        long[][] subarrays = new long[ (int)(arrayOfArraysLength) ][];
+        // ensure last subarray is no longer than necessary
+        long lenInLongsRemaining = lenInLongs; 
+        for(int i = 0; i < subarrays.length; i++) {
+            subarrays[i] = new long[(int)Math.min(lenInLongsRemaining,SUBARRAY_LENGTH_IN_LONGS)];
+            lenInLongsRemaining -= subarrays[i].length;
+        }
+        return subarrays;
+    }
+
     /** The number of character sequences in the filter.
      *
      * @return the number of character sequences in the filter (but 
@@ -0,0 +1,218 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A BloomFilter64bit safe for concurrent add()/contains() from many
+ * threads, with little contention between them.
+ *
+ * Bits are set by compare-and-swap on the containing long word, so
+ * concurrent adds never lose each other's bits (as unsynchronized
+ * read-modify-write of a plain long[] can). The bitfield keeps the
+ * superclass layout: subarrays of up to 2^26 longs (512MiB) each, so
+ * filters of more than 2^31 longs remain possible.
+ *
+ * Bit-setting alone cannot ensure that, of two threads simultaneously
+ * adding the same item, exactly one sees add() return true. So adds are
+ * also striped over a set of locks, chosen by the item's first bit
+ * index: the same item always takes the same lock, while different items
+ * rarely contend. (Setting lockStripes to 0 drops this guarantee, for
+ * callers which don't need it.) The count of successful adds is striped
+ * the same way, so that counting does not become the point of contention.
+ *
+ * Hashing, sizing, and hence false-positive behavior are identical to
+ * BloomFilter64bit.
+ */
+public class ConcurrentBloomFilter64bit extends BloomFilter64bit {
+    private static final long serialVersionUID = 1L;
+
+    /** number of add-count stripes; a power of 2 */
+    protected final static int COUNT_STRIPES = 32;
+    /** spacing, in longs, between stripes, to keep each on its own cache line */
+    protected final static int COUNT_STRIPE_SPACING = 8;
+
+    /** default number of add lock stripes */
+    protected final static int DEFAULT_LOCK_STRIPES = 256;
+
+    /** number of add lock stripes; a power of 2, or 0 for no locking */
+    protected int lockStripes = DEFAULT_LOCK_STRIPES;
+    protected transient Object[] locks = createLocks(DEFAULT_LOCK_STRIPES);
+
+    /** The underlying bit vector, as CAS-updatable subarrays */
+    final protected AtomicLongArray[] atomicBits;
+    /** striped count of adds returning true */
+    final protected AtomicLongArray counts =
+        new AtomicLongArray(COUNT_STRIPES * COUNT_STRIPE_SPACING);
+
+    public ConcurrentBloomFilter64bit(final long n, final int d) {
+        this(n, d, new SecureRandom(), false);
+    }
+
+    public ConcurrentBloomFilter64bit(final long n, final int d, boolean roundUp) {
+        this(n, d, new SecureRandom(), roundUp);
+    }
+
+    /**
+     * @see BloomFilter64bit#BloomFilter64bit(long, int, Random, boolean)
+     */
+    public ConcurrentBloomFilter64bit(final long n, final int d,
+            Random weightsGenerator, boolean roundUp) {
+        super(n, d, weightsGenerator, roundUp);
+        long lenInLongs = m / 64L;
+        int arrayOfArraysLength = (int)((lenInLongs+SUBARRAY_LENGTH_IN_LONGS-1)/SUBARRAY_LENGTH_IN_LONGS);
+        atomicBits = new AtomicLongArray[arrayOfArraysLength];
+        long lenInLongsRemaining = lenInLongs;
+        for(int i = 0; i < atomicBits.length; i++) {
+            atomicBits[i] = new AtomicLongArray(
+                    (int)Math.min(lenInLongsRemaining,SUBARRAY_LENGTH_IN_LONGS));
+            lenInLongsRemaining -= atomicBits[i].length();
+        }
+    }
+
+    public int getLockStripes() {
+        return lockStripes;
+    }
+    /**
+     * Set the number of lock stripes over which adds are spread; only 
+     * before any adds. 
+     * 
+     * @param lockStripes power of 2, or 0 for no locking
+     */
+    public void setLockStripes(int lockStripes) {
+        if(Integer.bitCount(lockStripes) > 1) {
+            throw new IllegalArgumentException("lockStripes must be a power of 2 or 0");
+        }
+        this.lockStripes = lockStripes;
+        this.locks = createLocks(lockStripes);
+    }
+
+    protected static Object[] createLocks(int count) {
+        if(count == 0) {
+            return null;
+        }
+        Object[] created = new Object[count];
+        for(int i = 0; i < count; i++) {
+            created[i] = new Object();
+        }
+        return created;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        locks = createLocks(lockStripes);
+    }
+
+    /**
+     * Plain long[] bitfield unused; see atomicBits.
+     */
+    @Override
+    protected long[][] allocateBits(long lenInLongs) {
+        return new long[0][];
+    }
+
+    @Override
+    public int size() {
+        long total = 0;
+        for(int i = 0; i < COUNT_STRIPES; i++) {
+            total += counts.get(i * COUNT_STRIPE_SPACING);
+        }
+        return (int) Math.min(total, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean add(final CharSequence s) {
+        int l = s.length();
+        long h0 = hash( s, l, 0 );
+        Object[] stripes = locks;
+        if(stripes == null) {
+            return addBits(s, l, h0);
+        }
+        synchronized(stripes[(int)((h0 >>> ADDRESS_BITS_PER_UNIT) & (stripes.length - 1))]) {
+            return addBits(s, l, h0);
+        }
+    }
+
+    /**
+     * Set all bits for the given item.
+     * 
+     * @param s item
+     * @param l length of s
+     * @param h0 bit index of hash function 0, already computed
+     * @return true if any bit was newly set
+     */
+    protected boolean addBits(final CharSequence s, final int l, final long h0) {
+        boolean result = ! setGetBit( h0 );
+        for( int i = 1; i < d; i++ ) {
+            if ( ! setGetBit( hash( s, l, i ) ) ) {
+                result = true;
+            }
+        }
+        if ( result ) {
+            int stripe = (int)(h0 & (COUNT_STRIPES - 1));
+            counts.incrementAndGet(stripe * COUNT_STRIPE_SPACING);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean getBit(long bitIndex) {
+        long longIndex = bitIndex >>> ADDRESS_BITS_PER_UNIT;
+        int arrayIndex = (int) (longIndex >>> SUBARRAY_POWER_OF_TWO);
+        int subarrayIndex = (int) (longIndex & SUBARRAY_MASK);
+        return ((atomicBits[arrayIndex].get(subarrayIndex) & (1L << (bitIndex & BIT_INDEX_MASK))) != 0);
+    }
+
+    @Override
+    protected void setBit(long bitIndex) {
+        setGetBit(bitIndex);
+    }
+
+    @Override
+    protected boolean setGetBit(long bitIndex) {
+        long longIndex = bitIndex >>> ADDRESS_BITS_PER_UNIT;
+        AtomicLongArray subarray = atomicBits[(int) (longIndex >>> SUBARRAY_POWER_OF_TWO)];
+        int subarrayIndex = (int) (longIndex & SUBARRAY_MASK);
+        long mask = 1L << (bitIndex & BIT_INDEX_MASK);
+        while(true) {
+            long word = subarray.get(subarrayIndex);
+            if((word & mask) != 0) {
+                return true;
+            }
+            if(subarray.compareAndSet(subarrayIndex, word, word | mask)) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        long longs = 0;
+        for(AtomicLongArray subarray : atomicBits) {
+            longs += subarray.length();
+        }
+        return 8 * longs;
+    }
+}
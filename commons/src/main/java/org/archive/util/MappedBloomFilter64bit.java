@@ -0,0 +1,412 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A BloomFilter64bit whose bitfield lives in memory-mapped files rather
+ * than on the Java heap, so that very large filters add nothing to GC
+ * work, and survive (via checkpoints) without Java serialization.
+ *
+ * The bitfield is split over chunk files of up to 2^23 longs (64MiB)
+ * each, in the given directory. Chunks are tracked as dirty when any of
+ * their bits are newly set, so that a checkpoint need only copy chunks
+ * changed since the previous checkpoint; unchanged chunks are hard-linked
+ * to the previous checkpoint's (never afterward modified) copies. On
+ * recovery, checkpointed chunks are mapped read-only where they lie, and
+ * each is copied into the live directory only when first changed, so
+ * recovery itself copies nothing.
+ *
+ * Hash functions are generated from a seeded Random, so the filter can
+ * be reconstructed over existing chunks given the same parameters and
+ * seed. Safe for concurrent use, in the same manner as
+ * {@link ConcurrentBloomFilter64bit}.
+ */
+public class MappedBloomFilter64bit extends BloomFilter64bit implements Closeable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER =
+        Logger.getLogger(MappedBloomFilter64bit.class.getName());
+
+    /** power-of-two size, in longs, of each chunk file */
+    protected final static int CHUNK_POWER_OF_TWO = 23; // 64MiB of longs
+    protected final static int CHUNK_LENGTH_IN_LONGS = 1 << CHUNK_POWER_OF_TWO;
+    protected final static int CHUNK_MASK = CHUNK_LENGTH_IN_LONGS - 1;
+
+    /** stripes of locks over items (for add) and words (for bit-setting) */
+    protected final static int LOCK_STRIPES = 1024;
+
+    protected final File dir;
+    protected final long seed;
+    protected transient AtomicReferenceArray<MappedByteBuffer> chunks;
+    /** nonzero for chunks with bits set since last checkpoint */
+    protected transient AtomicIntegerArray dirty;
+    /** nonzero for chunks still mapped read-only from a checkpoint */
+    protected transient AtomicIntegerArray shared;
+    protected final AtomicLong count = new AtomicLong(0);
+    protected transient Object[] itemLocks = ConcurrentBloomFilter64bit.createLocks(LOCK_STRIPES);
+    protected transient Object[] wordLocks = ConcurrentBloomFilter64bit.createLocks(LOCK_STRIPES);
+
+    /**
+     * Create a filter over the chunk files in the given directory.
+     *
+     * @param n the expected number of elements
+     * @param d the number of hash functions
+     * @param seed seed for generating hash function weights; must be the
+     * same as when any reused chunk files were written
+     * @param roundUp if true, round bit size up to next-nearest-power-of-2
+     * @param dir directory for chunk files
+     * @param create if true, start empty, clearing any existing chunk
+     * files; if false, reuse existing chunk files
+     * @throws IOException
+     */
+    public MappedBloomFilter64bit(final long n, final int d, long seed,
+            boolean roundUp, File dir, boolean create) throws IOException {
+        this(n, d, seed, roundUp, dir, create, null);
+    }
+
+    /**
+     * Create a filter recovered from the chunk files saved by 
+     * checkpointTo() in the given checkpoint directory. The saved chunks
+     * are mapped read-only in place, and copied into the given live 
+     * directory only as each is first changed. Copies are made from the
+     * mappings, so the saved files may be deleted meanwhile (as when a 
+     * later checkpoint forgets earlier ones) where the platform allows 
+     * deleting mapped files.
+     *
+     * @param n the expected number of elements
+     * @param d the number of hash functions
+     * @param seed seed for generating hash function weights; must be the
+     * same as when the saved chunks were written
+     * @param roundUp if true, round bit size up to next-nearest-power-of-2
+     * @param dir directory for live chunk files
+     * @param checkpointDir directory of checkpointed chunks
+     * @throws IOException
+     */
+    public MappedBloomFilter64bit(final long n, final int d, long seed,
+            boolean roundUp, File dir, File checkpointDir) throws IOException {
+        this(n, d, seed, roundUp, dir, false, checkpointDir);
+    }
+
+    protected MappedBloomFilter64bit(final long n, final int d, long seed,
+            boolean roundUp, File dir, boolean create, File checkpointDir) 
+    throws IOException {
+        super(n, d, new Random(seed), roundUp);
+        this.seed = seed;
+        this.dir = dir;
+        org.archive.util.FileUtils.ensureWriteableDirectory(dir);
+        long lenInLongs = m / 64L;
+        int chunkCount = (int)((lenInLongs + CHUNK_LENGTH_IN_LONGS - 1) / CHUNK_LENGTH_IN_LONGS);
+        chunks = new AtomicReferenceArray<MappedByteBuffer>(chunkCount);
+        dirty = new AtomicIntegerArray(chunkCount);
+        shared = new AtomicIntegerArray(chunkCount);
+        long lenInLongsRemaining = lenInLongs;
+        for(int i = 0; i < chunkCount; i++) {
+            long chunkBytes = 8L * Math.min(lenInLongsRemaining, CHUNK_LENGTH_IN_LONGS);
+            if(checkpointDir != null) {
+                chunks.set(i, mapSavedChunk(getChunkFile(checkpointDir, i), chunkBytes));
+                shared.set(i, 1);
+            } else {
+                chunks.set(i, mapChunk(getChunkFile(dir, i), chunkBytes, create));
+            }
+            lenInLongsRemaining -= chunkBytes / 8;
+        }
+    }
+
+    protected static MappedByteBuffer mapChunk(File file, long bytes, boolean create)
+    throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if(create) {
+                raf.setLength(0);
+            } else if(raf.length() != bytes) {
+                throw new IOException("bloom chunk " + file + " is "
+                        + raf.length() + " bytes, expected " + bytes);
+            }
+            raf.setLength(bytes);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } finally {
+            // mapping remains valid after close
+            raf.close();
+        }
+    }
+
+    protected static MappedByteBuffer mapSavedChunk(File file, long bytes)
+    throws IOException {
+        if(!file.exists()) {
+            throw new IOException("no bloom chunk " + file);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if(raf.length() != bytes) {
+                throw new IOException("bloom chunk " + file + " is "
+                        + raf.length() + " bytes, expected " + bytes);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+        } finally {
+            // mapping remains valid after close
+            raf.close();
+        }
+    }
+
+    /**
+     * Write the whole of the given chunk's contents to the given file,
+     * replacing any previous contents.
+     */
+    protected static void writeChunk(ByteBuffer chunk, File file) throws IOException {
+        ByteBuffer src = chunk.duplicate();
+        src.clear();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel ch = raf.getChannel();
+            while(src.hasRemaining()) {
+                ch.write(src);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get the given chunk for changing: if it is still mapped read-only 
+     * from a checkpoint, first copy it into the live directory and map 
+     * that instead. 
+     */
+    protected MappedByteBuffer getWritableChunk(int chunkIndex) {
+        if(shared.get(chunkIndex) != 0) {
+            synchronized(shared) {
+                if(shared.get(chunkIndex) != 0) {
+                    MappedByteBuffer saved = chunks.get(chunkIndex);
+                    File live = getChunkFile(dir, chunkIndex);
+                    try {
+                        writeChunk(saved, live);
+                        chunks.set(chunkIndex, mapChunk(live, saved.capacity(), false));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    shared.set(chunkIndex, 0);
+                }
+            }
+        }
+        return chunks.get(chunkIndex);
+    }
+
+    protected static File getChunkFile(File dir, int index) {
+        return new File(dir, "bloom-" + index + ".bits");
+    }
+
+    /**
+     * Plain long[] bitfield unused; see chunks.
+     */
+    @Override
+    protected long[][] allocateBits(long lenInLongs) {
+        return new long[0][];
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return number of adds which returned true, as a long
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Restore count of adds (as after recovery).
+     */
+    public void setCount(long c) {
+        count.set(c);
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(count.get(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean add(final CharSequence s) {
+        int l = s.length();
+        long h0 = hash( s, l, 0 );
+        synchronized(itemLocks[(int)((h0 >>> ADDRESS_BITS_PER_UNIT) & (LOCK_STRIPES - 1))]) {
+            boolean result = ! setGetBit( h0 );
+            for( int i = 1; i < d; i++ ) {
+                if ( ! setGetBit( hash( s, l, i ) ) ) {
+                    result = true;
+                }
+            }
+            if ( result ) {
+                count.incrementAndGet();
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public boolean getBit(long bitIndex) {
+        long longIndex = bitIndex >>> ADDRESS_BITS_PER_UNIT;
+        MappedByteBuffer chunk = chunks.get((int) (longIndex >>> CHUNK_POWER_OF_TWO));
+        int byteIndex = ((int) (longIndex & CHUNK_MASK)) << 3;
+        return (chunk.getLong(byteIndex) & (1L << (bitIndex & BIT_INDEX_MASK))) != 0;
+    }
+
+    @Override
+    protected void setBit(long bitIndex) {
+        setGetBit(bitIndex);
+    }
+
+    @Override
+    protected boolean setGetBit(long bitIndex) {
+        long longIndex = bitIndex >>> ADDRESS_BITS_PER_UNIT;
+        int chunkIndex = (int) (longIndex >>> CHUNK_POWER_OF_TWO);
+        MappedByteBuffer chunk = chunks.get(chunkIndex);
+        int byteIndex = ((int) (longIndex & CHUNK_MASK)) << 3;
+        long mask = 1L << (bitIndex & BIT_INDEX_MASK);
+        if((chunk.getLong(byteIndex) & mask) != 0) {
+            return true; // already set; never cleared
+        }
+        chunk = getWritableChunk(chunkIndex);
+        synchronized(wordLocks[(int)(longIndex & (LOCK_STRIPES - 1))]) {
+            long word = chunk.getLong(byteIndex);
+            if((word & mask) != 0) {
+                return true;
+            }
+            chunk.putLong(byteIndex, word | mask);
+        }
+        dirty.set(chunkIndex, 1);
+        return false;
+    }
+
+    @Override
+    public long getSizeBytes() {
+        return m / 8;
+    }
+
+    /**
+     * Flush all chunks to disk.
+     */
+    public void sync() {
+        for(int i = 0; i < chunks.length(); i++) {
+            if(shared.get(i) == 0) {
+                chunks.get(i).force();
+            }
+        }
+    }
+
+    /**
+     * Save all chunks into the given checkpoint directory: copying those
+     * changed since the previous checkpoint, and hard-linking the rest to
+     * the previous checkpoint's copies. Adds should be paused while this
+     * runs, for the saved chunks to be mutually consistent.
+     *
+     * @param checkpointDir directory to receive chunks
+     * @param previousCheckpointDir directory of previous checkpoint's
+     * chunks, or null if none
+     * @throws IOException
+     */
+    public void checkpointTo(File checkpointDir, File previousCheckpointDir) throws IOException {
+        org.archive.util.FileUtils.ensureWriteableDirectory(checkpointDir);
+        int copied = 0;
+        for(int i = 0; i < chunks.length(); i++) {
+            File target = getChunkFile(checkpointDir, i);
+            if(previousCheckpointDir != null && dirty.get(i) == 0) {
+                File previous = getChunkFile(previousCheckpointDir, i);
+                if(previous.exists() && FilesystemLinkMaker.makeHardLink(
+                        previous.getAbsolutePath(), target.getAbsolutePath())) {
+                    continue;
+                }
+            }
+            // clear before copying, so any concurrent change re-dirties
+            dirty.set(i, 0);
+            if(shared.get(i) != 0) {
+                // unchanged since recovery; saved file may since be gone
+                writeChunk(chunks.get(i), target);
+            } else {
+                chunks.get(i).force();
+                FileUtils.copyFile(getChunkFile(dir, i), target);
+            }
+            copied++;
+        }
+        if(LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("copied " + copied + " of " + chunks.length()
+                    + " bloom chunks to " + checkpointDir);
+        }
+    }
+
+    /**
+     * Copy chunk files saved by checkpointTo() back into the given live
+     * directory, replacing any present; to be done before constructing the
+     * filter (with create false) over that directory. (Constructing the 
+     * filter from the checkpoint directory instead avoids this copying.)
+     *
+     * @param checkpointDir directory of checkpointed chunks
+     * @param dir live chunk directory
+     * @throws IOException
+     */
+    public static void restoreChunks(File checkpointDir, File dir) throws IOException {
+        org.archive.util.FileUtils.ensureWriteableDirectory(dir);
+        for(int i = 0; ; i++) {
+            File saved = getChunkFile(checkpointDir, i);
+            if(!saved.exists()) {
+                if(i == 0) {
+                    throw new IOException("no bloom chunks in " + checkpointDir);
+                }
+                break;
+            }
+            File live = getChunkFile(dir, i);
+            if(live.exists() && !live.delete()) {
+                throw new IOException("unable to delete obstructing file " + live);
+            }
+            FileUtils.copyFile(saved, live);
+        }
+    }
+
+    /**
+     * Flush all chunks. (Mappings are released only when collected.)
+     */
+    public void close() {
+        sync();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        throw new NotSerializableException(
+                "MappedBloomFilter64bit persists via checkpointTo(), not serialization");
+    }
+}
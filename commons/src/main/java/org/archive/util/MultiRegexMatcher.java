@@ -0,0 +1,1015 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Tests a string against a whole list of regular expressions (each as by
+ * Pattern.matcher().matches()) in as few passes as possible.
+ * 
+ * Patterns using only regular constructs -- literals, '.', character 
+ * classes and the predefined \d \s \w classes, groups, alternation, 
+ * greedy or lazy quantifiers, and a leading '^' or trailing '$' -- are
+ * combined into one deterministic automaton, which tests them all in a 
+ * single scan of the string. The automaton's states are built as needed
+ * while matching, and cached up to a maximum number. Patterns with other constructs
+ * (backreferences, lookaround, boundaries, possessive quantifiers, inline
+ * flags, nested classes, ...), or compiled with any flags, are tested one
+ * by one with java.util.regex, as are strings containing surrogate chars.
+ * 
+ * Instances are immutable once built, and safe for concurrent use.
+ */
+public class MultiRegexMatcher {
+    private static final Logger logger =
+        Logger.getLogger(MultiRegexMatcher.class.getName());
+
+    /** default maximum cached states of the combined automaton */
+    public static final int DEFAULT_MAX_STATES = 10000;
+    /** maximum NFA states of any one pattern, after expanding repetitions */
+    protected static final int MAX_PATTERN_NFA_STATES = 10000;
+
+    protected final Pattern[] patterns;
+    /** automaton of compiled patterns, or null if none */
+    protected final Automaton automaton;
+    /** indexes of patterns tested by java.util.regex only */
+    protected final int[] uncompiled;
+
+    public MultiRegexMatcher(List<Pattern> patterns) {
+        this(patterns, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * @param patterns patterns to test against
+     * @param maxStates maximum cached states of the combined automaton
+     */
+    public MultiRegexMatcher(List<Pattern> patterns, int maxStates) {
+        this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+        List<Integer> fallback = new ArrayList<Integer>();
+        List<Integer> compiled = new ArrayList<Integer>();
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < this.patterns.length; i++) {
+            Node node = parse(this.patterns[i]);
+            if (node == null) {
+                fallback.add(i);
+            } else {
+                compiled.add(i);
+                nodes.add(node);
+            }
+        }
+        Automaton built = null;
+        if (!nodes.isEmpty()) {
+            try {
+                built = new Automaton(nodes, compiled, maxStates);
+            } catch (UnsupportedPatternException e) {
+                // unreachable: each pattern already built alone
+                throw new IllegalStateException(e);
+            }
+        }
+        automaton = built;
+        uncompiled = new int[fallback.size()];
+        for (int i = 0; i < uncompiled.length; i++) {
+            uncompiled[i] = fallback.get(i);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(this.patterns.length + " patterns: "
+                    + getCompiledCount() + " compiled, " 
+                    + uncompiled.length + " uncompiled");
+        }
+    }
+
+    /**
+     * @return true if any pattern matches the whole of s
+     */
+    public boolean matchesAny(CharSequence s) {
+        if (automaton != null) {
+            int[] matched = automaton.run(s);
+            if (matched == null) {
+                for (int i : automaton.patternIndexes) {
+                    if (patterns[i].matcher(s).matches()) {
+                        return true;
+                    }
+                }
+            } else if (matched.length > 0) {
+                return true;
+            }
+        }
+        for (int i : uncompiled) {
+            if (patterns[i].matcher(s).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if every pattern matches the whole of s
+     */
+    public boolean matchesAll(CharSequence s) {
+        if (automaton != null) {
+            int[] matched = automaton.run(s);
+            if (matched == null) {
+                for (int i : automaton.patternIndexes) {
+                    if (!patterns[i].matcher(s).matches()) {
+                        return false;
+                    }
+                }
+            } else if (matched.length < automaton.patternIndexes.length) {
+                return false;
+            }
+        }
+        for (int i : uncompiled) {
+            if (!patterns[i].matcher(s).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return indexes (in the list given at construction) of all patterns
+     * which match the whole of s
+     */
+    public BitSet matching(CharSequence s) {
+        BitSet result = new BitSet(patterns.length);
+        if (automaton != null) {
+            int[] matched = automaton.run(s);
+            if (matched == null) {
+                for (int i : automaton.patternIndexes) {
+                    if (patterns[i].matcher(s).matches()) {
+                        result.set(i);
+                    }
+                }
+            } else {
+                for (int local : matched) {
+                    result.set(automaton.patternIndexes[local]);
+                }
+            }
+        }
+        for (int i : uncompiled) {
+            if (patterns[i].matcher(s).matches()) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of patterns combined into the automaton
+     */
+    public int getCompiledCount() {
+        return patterns.length - uncompiled.length;
+    }
+
+    /**
+     * @return number of automaton states currently cached
+     */
+    public int getCachedStateCount() {
+        return automaton == null ? 0 : automaton.getCachedStateCount();
+    }
+
+    /**
+     * Cache of matchers by the pattern lists they were built from, for 
+     * callers whose lists may vary (as by settings overlays).
+     */
+    public static class Cache {
+        protected static final int MAX_ENTRIES = 100;
+        protected ConcurrentHashMap<List<Pattern>,MultiRegexMatcher> matchers = 
+            new ConcurrentHashMap<List<Pattern>,MultiRegexMatcher>();
+
+        /**
+         * @param patterns list of patterns
+         * @return matcher for the list's current contents
+         */
+        public MultiRegexMatcher get(List<Pattern> patterns) {
+            MultiRegexMatcher matcher = matchers.get(patterns);
+            if (matcher == null) {
+                if (matchers.size() >= MAX_ENTRIES) {
+                    matchers.clear();
+                }
+                List<Pattern> key = new ArrayList<Pattern>(patterns);
+                matcher = new MultiRegexMatcher(key);
+                MultiRegexMatcher existing = matchers.putIfAbsent(key, matcher);
+                if (existing != null) {
+                    matcher = existing;
+                }
+            }
+            return matcher;
+        }
+    }
+
+    //
+    // parsing patterns into trees of regular constructs
+    //
+
+    /**
+     * @return tree for the pattern, or null if it uses flags or constructs
+     * not handled here (or expands to too many states)
+     */
+    protected static Node parse(Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return null;
+        }
+        try {
+            Parser parser = new Parser(pattern.pattern());
+            Node node = parser.parseAlternation();
+            if (parser.pos < parser.p.length()) {
+                return null;
+            }
+            // check expanded size
+            Nfa scratch = new Nfa(MAX_PATTERN_NFA_STATES);
+            node.build(scratch);
+            return node;
+        } catch (UnsupportedPatternException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    protected static class UnsupportedPatternException extends Exception {
+    }
+
+    protected static class Parser {
+        protected final String p;
+        protected int pos = 0;
+
+        protected Parser(String p) {
+            this.p = p;
+        }
+
+        protected UnsupportedPatternException unsupported() {
+            return new UnsupportedPatternException();
+        }
+
+        protected boolean more() {
+            return pos < p.length();
+        }
+
+        protected char peek() {
+            return p.charAt(pos);
+        }
+
+        protected Node parseAlternation() throws UnsupportedPatternException {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(parseConcatenation());
+            while (more() && peek() == '|') {
+                pos++;
+                alternatives.add(parseConcatenation());
+            }
+            return alternatives.size() == 1 
+                ? alternatives.get(0) : new Alternation(alternatives);
+        }
+
+        protected Node parseConcatenation() throws UnsupportedPatternException {
+            List<Node> items = new ArrayList<Node>();
+            while (more() && peek() != '|' && peek() != ')') {
+                items.add(parseRepetition());
+            }
+            return items.size() == 1 ? items.get(0) : new Concatenation(items);
+        }
+
+        protected Node parseRepetition() throws UnsupportedPatternException {
+            Node atom = parseAtom();
+            if (!more()) {
+                return atom;
+            }
+            int min, max;
+            switch (peek()) {
+            case '*':
+                min = 0;
+                max = -1;
+                pos++;
+                break;
+            case '+':
+                min = 1;
+                max = -1;
+                pos++;
+                break;
+            case '?':
+                min = 0;
+                max = 1;
+                pos++;
+                break;
+            case '{':
+                pos++;
+                min = parseNumber();
+                max = min;
+                if (more() && peek() == ',') {
+                    pos++;
+                    max = (more() && peek() == '}') ? -1 : parseNumber();
+                }
+                if (!more() || peek() != '}' || (max >= 0 && max < min)) {
+                    throw unsupported();
+                }
+                pos++;
+                break;
+            default:
+                return atom;
+            }
+            if (more() && peek() == '?') {
+                // lazy: same strings match in whole
+                pos++;
+            }
+            if (more() && "*+?{".indexOf(peek()) >= 0) {
+                // possessive, or otherwise not a plain quantifier
+                throw unsupported();
+            }
+            return new Repetition(atom, min, max);
+        }
+
+        protected int parseNumber() throws UnsupportedPatternException {
+            int start = pos;
+            while (more() && peek() >= '0' && peek() <= '9' && pos - start < 4) {
+                pos++;
+            }
+            if (pos == start || (more() && peek() >= '0' && peek() <= '9')) {
+                throw unsupported();
+            }
+            return Integer.parseInt(p.substring(start, pos));
+        }
+
+        protected Node parseAtom() throws UnsupportedPatternException {
+            char c = peek();
+            switch (c) {
+            case '(':
+                pos++;
+                if (more() && peek() == '?') {
+                    if (pos + 1 < p.length() && p.charAt(pos + 1) == ':') {
+                        pos += 2;
+                    } else {
+                        // lookaround, named groups, inline flags, ...
+                        throw unsupported();
+                    }
+                }
+                Node group = parseAlternation();
+                if (!more() || peek() != ')') {
+                    throw unsupported();
+                }
+                pos++;
+                return group;
+            case '[':
+                return new CharNode(parseClass());
+            case '.':
+                pos++;
+                return new CharNode(CharSet.DOT);
+            case '^':
+                // only a no-op at the very start, for whole-string matching
+                if (pos != 0) {
+                    throw unsupported();
+                }
+                pos++;
+                return new Concatenation(new ArrayList<Node>());
+            case '$':
+                // only a no-op at the very end, for whole-string matching
+                if (pos != p.length() - 1) {
+                    throw unsupported();
+                }
+                pos++;
+                return new Concatenation(new ArrayList<Node>());
+            case '\\':
+                pos++;
+                if (!more()) {
+                    throw unsupported();
+                }
+                if (peek() == 'Q') {
+                    return parseQuoted();
+                }
+                Object escaped = parseEscape(false);
+                return new CharNode(escaped instanceof CharSet 
+                        ? (CharSet) escaped : CharSet.of((Character) escaped));
+            case '*': case '+': case '?': case '{': case ')': case '|':
+                throw unsupported();
+            default:
+                pos++;
+                return new CharNode(CharSet.of(literal(c)));
+            }
+        }
+
+        protected char literal(char c) throws UnsupportedPatternException {
+            if (c >= '\uD800' && c <= '\uDFFF') {
+                throw unsupported();
+            }
+            return c;
+        }
+
+        /** \Q...\E, with pos at Q */
+        protected Node parseQuoted() throws UnsupportedPatternException {
+            pos++;
+            int end = p.indexOf("\\E", pos);
+            if (end < 0) {
+                end = p.length();
+            }
+            List<Node> chars = new ArrayList<Node>();
+            for (int i = pos; i < end; i++) {
+                chars.add(new CharNode(CharSet.of(literal(p.charAt(i)))));
+            }
+            pos = Math.min(end + 2, p.length());
+            return new Concatenation(chars);
+        }
+
+        /**
+         * Parse the escape after a backslash.
+         * 
+         * @return a CharSet for a predefined class, or a Character
+         */
+        protected Object parseEscape(boolean inClass) throws UnsupportedPatternException {
+            char c = peek();
+            pos++;
+            switch (c) {
+            case 'd': return CharSet.DIGIT;
+            case 'D': return CharSet.DIGIT.complement();
+            case 's': return CharSet.SPACE;
+            case 'S': return CharSet.SPACE.complement();
+            case 'w': return CharSet.WORD;
+            case 'W': return CharSet.WORD.complement();
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 'f': return '\f';
+            case 'a': return '\u0007';
+            case 'e': return '\u001B';
+            case 'x': return parseHex(2);
+            case 'u': return parseHex(4);
+            }
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') 
+                    || (c >= '0' && c <= '9')) {
+                // boundaries, backreferences, octal, properties, ...
+                throw unsupported();
+            }
+            return literal(c);
+        }
+
+        protected Character parseHex(int digits) throws UnsupportedPatternException {
+            if (pos + digits > p.length()) {
+                throw unsupported();
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int d = Character.digit(p.charAt(pos++), 16);
+                if (d < 0) {
+                    throw unsupported();
+                }
+                value = value * 16 + d;
+            }
+            return literal((char) value);
+        }
+
+        /** [...], with pos at [ */
+        protected CharSet parseClass() throws UnsupportedPatternException {
+            pos++;
+            boolean negate = false;
+            if (more() && peek() == '^') {
+                negate = true;
+                pos++;
+            }
+            CharSet set = CharSet.EMPTY;
+            boolean first = true;
+            while (true) {
+                if (!more()) {
+                    throw unsupported();
+                }
+                char c = peek();
+                if (c == ']') {
+                    if (first) {
+                        throw unsupported();
+                    }
+                    pos++;
+                    break;
+                }
+                if (c == '[' || (c == '&' && pos + 1 < p.length() 
+                        && p.charAt(pos + 1) == '&')) {
+                    // unions and intersections
+                    throw unsupported();
+                }
+                first = false;
+                Object element = parseClassElement();
+                if (element instanceof CharSet) {
+                    set = set.union((CharSet) element);
+                    continue;
+                }
+                char lo = (Character) element;
+                if (pos + 1 < p.length() && peek() == '-' 
+                        && p.charAt(pos + 1) != ']') {
+                    pos++;
+                    if (peek() == '[') {
+                        throw unsupported();
+                    }
+                    Object hi = parseClassElement();
+                    if (!(hi instanceof Character) || (Character) hi < lo) {
+                        throw unsupported();
+                    }
+                    set = set.union(CharSet.of(lo, (Character) hi));
+                } else {
+                    set = set.union(CharSet.of(lo));
+                }
+            }
+            return negate ? set.complement() : set;
+        }
+
+        protected Object parseClassElement() throws UnsupportedPatternException {
+            char c = peek();
+            if (c == '\\') {
+                pos++;
+                if (!more() || peek() == 'Q') {
+                    throw unsupported();
+                }
+                return parseEscape(true);
+            }
+            pos++;
+            return literal(c);
+        }
+    }
+
+    /**
+     * Immutable set of (BMP) chars, as sorted, disjoint, inclusive ranges.
+     */
+    protected static class CharSet {
+        protected static final CharSet EMPTY = new CharSet(new int[0]);
+        protected static final CharSet DIGIT = of('0', '9');
+        protected static final CharSet SPACE = of(' ').union(of('\t', '\r'));
+        protected static final CharSet WORD = 
+            of('a', 'z').union(of('A', 'Z')).union(of('0', '9')).union(of('_'));
+        /** all but line terminators */
+        protected static final CharSet DOT = of('\n').union(of('\r'))
+            .union(of('\u0085')).union(of('\u2028', '\u2029')).complement();
+
+        /** lo0, hi0, lo1, hi1, ... */
+        protected final int[] ranges;
+
+        protected CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        protected static CharSet of(char c) {
+            return of(c, c);
+        }
+
+        protected static CharSet of(char lo, char hi) {
+            return new CharSet(new int[] {lo, hi});
+        }
+
+        protected boolean contains(int c) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (c < ranges[i]) {
+                    return false;
+                }
+                if (c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        protected CharSet union(CharSet other) {
+            int[] all = new int[ranges.length + other.ranges.length];
+            System.arraycopy(ranges, 0, all, 0, ranges.length);
+            System.arraycopy(other.ranges, 0, all, ranges.length, other.ranges.length);
+            // sort ranges by lo
+            long[] packed = new long[all.length / 2];
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = ((long) all[2 * i] << 32) | all[2 * i + 1];
+            }
+            Arrays.sort(packed);
+            int[] merged = new int[all.length];
+            int n = 0;
+            for (long range : packed) {
+                int lo = (int) (range >>> 32);
+                int hi = (int) range;
+                if (n > 0 && lo <= merged[n - 1] + 1) {
+                    merged[n - 1] = Math.max(merged[n - 1], hi);
+                } else {
+                    merged[n++] = lo;
+                    merged[n++] = hi;
+                }
+            }
+            return new CharSet(Arrays.copyOf(merged, n));
+        }
+
+        protected CharSet complement() {
+            int[] result = new int[ranges.length + 2];
+            int n = 0;
+            int next = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    result[n++] = next;
+                    result[n++] = ranges[i] - 1;
+                }
+                next = ranges[i + 1] + 1;
+            }
+            if (next <= Character.MAX_VALUE) {
+                result[n++] = next;
+                result[n++] = Character.MAX_VALUE;
+            }
+            return new CharSet(Arrays.copyOf(result, n));
+        }
+    }
+
+    //
+    // trees, built into NFAs
+    //
+
+    protected interface Node {
+        /** @return {start, end} NFA states of a new fragment for this node */
+        int[] build(Nfa nfa) throws UnsupportedPatternException;
+    }
+
+    protected static class CharNode implements Node {
+        protected final CharSet set;
+        protected CharNode(CharSet set) {
+            this.set = set;
+        }
+        public int[] build(Nfa nfa) throws UnsupportedPatternException {
+            int start = nfa.newState();
+            int end = nfa.newState();
+            nfa.sets.set(start, set);
+            nfa.next[start] = end;
+            return new int[] {start, end};
+        }
+    }
+
+    protected static class Concatenation implements Node {
+        protected final List<Node> items;
+        protected Concatenation(List<Node> items) {
+            this.items = items;
+        }
+        public int[] build(Nfa nfa) throws UnsupportedPatternException {
+            int start = nfa.newState();
+            int end = start;
+            for (Node item : items) {
+                int[] fragment = item.build(nfa);
+                nfa.addEpsilon(end, fragment[0]);
+                end = fragment[1];
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    protected static class Alternation implements Node {
+        protected final List<Node> alternatives;
+        protected Alternation(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+        public int[] build(Nfa nfa) throws UnsupportedPatternException {
+            int start = nfa.newState();
+            int end = nfa.newState();
+            for (Node alternative : alternatives) {
+                int[] fragment = alternative.build(nfa);
+                nfa.addEpsilon(start, fragment[0]);
+                nfa.addEpsilon(fragment[1], end);
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    protected static class Repetition implements Node {
+        protected final Node node;
+        protected final int min;
+        /** -1 for unbounded */
+        protected final int max;
+        protected Repetition(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+        public int[] build(Nfa nfa) throws UnsupportedPatternException {
+            int start = nfa.newState();
+            int end = start;
+            for (int i = 0; i < min; i++) {
+                int[] fragment = node.build(nfa);
+                nfa.addEpsilon(end, fragment[0]);
+                end = fragment[1];
+            }
+            if (max < 0) {
+                int[] fragment = node.build(nfa);
+                int loopEnd = nfa.newState();
+                nfa.addEpsilon(end, fragment[0]);
+                nfa.addEpsilon(end, loopEnd);
+                nfa.addEpsilon(fragment[1], fragment[0]);
+                nfa.addEpsilon(fragment[1], loopEnd);
+                return new int[] {start, loopEnd};
+            }
+            for (int i = min; i < max; i++) {
+                int[] fragment = node.build(nfa);
+                int optionalEnd = nfa.newState();
+                nfa.addEpsilon(end, fragment[0]);
+                nfa.addEpsilon(end, optionalEnd);
+                nfa.addEpsilon(fragment[1], optionalEnd);
+                end = optionalEnd;
+            }
+            return new int[] {start, end};
+        }
+    }
+
+    /**
+     * Thompson NFA: each state has either a char-set transition to one 
+     * next state, or any number of epsilon transitions.
+     */
+    protected static class Nfa {
+        protected static final int[] NONE = new int[0];
+        protected final int maxSize;
+        protected int size = 0;
+        protected List<CharSet> sets = new ArrayList<CharSet>();
+        protected int[] next = new int[16];
+        protected int[][] epsilons = new int[16][];
+        /** local index of pattern accepted, or -1 */
+        protected int[] accepts = new int[16];
+
+        protected Nfa(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        protected int newState() throws UnsupportedPatternException {
+            if (size >= maxSize) {
+                throw new UnsupportedPatternException();
+            }
+            if (size == next.length) {
+                next = Arrays.copyOf(next, size * 2);
+                epsilons = Arrays.copyOf(epsilons, size * 2);
+                accepts = Arrays.copyOf(accepts, size * 2);
+            }
+            sets.add(null);
+            next[size] = -1;
+            epsilons[size] = NONE;
+            accepts[size] = -1;
+            return size++;
+        }
+
+        protected void addEpsilon(int from, int to) {
+            int[] targets = epsilons[from];
+            targets = Arrays.copyOf(targets, targets.length + 1);
+            targets[targets.length - 1] = to;
+            epsilons[from] = targets;
+        }
+
+        /**
+         * @return sorted states reachable by epsilons from those given
+         */
+        protected int[] closure(int[] states, int count) {
+            boolean[] mark = new boolean[size];
+            int[] stack = new int[size];
+            int[] result = new int[size];
+            int n = 0;
+            int top = 0;
+            for (int i = 0; i < count; i++) {
+                if (!mark[states[i]]) {
+                    mark[states[i]] = true;
+                    stack[top++] = states[i];
+                }
+            }
+            while (top > 0) {
+                int s = stack[--top];
+                result[n++] = s;
+                for (int t : epsilons[s]) {
+                    if (!mark[t]) {
+                        mark[t] = true;
+                        stack[top++] = t;
+                    }
+                }
+            }
+            int[] sorted = Arrays.copyOf(result, n);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * DFA combining all compiled patterns, built lazily (by subset 
+     * construction from the NFA) as strings are matched, over classes of 
+     * chars no pattern distinguishes. States built are cached, up to a 
+     * maximum number, when the cache is discarded and rebuilding starts 
+     * anew. Safe for concurrent use: states are immutable but for their
+     * transitions, which racing threads can only set to equal states.
+     */
+    protected static class Automaton {
+        protected static final int[] NO_MATCHES = new int[0];
+
+        protected final Nfa nfa;
+        protected final int nfaStart;
+        /** indexes in the full pattern list of this automaton's patterns */
+        protected final int[] patternIndexes;
+        /** first char of each char class, ascending from 0 */
+        protected final int[] classStarts;
+        protected final int[] asciiClasses = new int[128];
+        /** per NFA char-transition state, whether each class is in its set */
+        protected final boolean[][] inSet;
+        protected final int maxStates;
+        protected final State dead;
+        protected volatile StateCache cache;
+
+        protected static class State {
+            protected final int[] nfaStates;
+            /** local indexes of patterns accepted */
+            protected final int[] accepts;
+            protected final AtomicReferenceArray<State> next;
+            protected State(int[] nfaStates, int[] accepts, int classCount) {
+                this.nfaStates = nfaStates;
+                this.accepts = accepts;
+                this.next = new AtomicReferenceArray<State>(classCount);
+            }
+        }
+
+        protected static class StateCache {
+            protected final ConcurrentHashMap<IntArrayKey,State> states = 
+                new ConcurrentHashMap<IntArrayKey,State>();
+            protected State start;
+        }
+
+        protected Automaton(List<Node> nodes, List<Integer> indexes, int maxStates) 
+        throws UnsupportedPatternException {
+            this.maxStates = maxStates;
+            nfa = new Nfa(Integer.MAX_VALUE);
+            nfaStart = nfa.newState();
+            for (int i = 0; i < nodes.size(); i++) {
+                int[] fragment = nodes.get(i).build(nfa);
+                nfa.addEpsilon(nfaStart, fragment[0]);
+                nfa.accepts[fragment[1]] = i;
+            }
+            patternIndexes = new int[indexes.size()];
+            for (int i = 0; i < patternIndexes.length; i++) {
+                patternIndexes[i] = indexes.get(i);
+            }
+
+            // char classes: split at every range boundary of any set
+            TreeSet<Integer> boundaries = new TreeSet<Integer>();
+            boundaries.add(0);
+            for (CharSet set : nfa.sets) {
+                if (set != null) {
+                    for (int i = 0; i < set.ranges.length; i += 2) {
+                        boundaries.add(set.ranges[i]);
+                        if (set.ranges[i + 1] < Character.MAX_VALUE) {
+                            boundaries.add(set.ranges[i + 1] + 1);
+                        }
+                    }
+                }
+            }
+            classStarts = new int[boundaries.size()];
+            int k = 0;
+            for (int b : boundaries) {
+                classStarts[k++] = b;
+            }
+            for (int c = 0; c < 128; c++) {
+                asciiClasses[c] = findClass(c);
+            }
+            inSet = new boolean[nfa.size][];
+            for (int s = 0; s < nfa.size; s++) {
+                CharSet set = nfa.sets.get(s);
+                if (set != null) {
+                    inSet[s] = new boolean[classStarts.length];
+                    for (int c = 0; c < classStarts.length; c++) {
+                        inSet[s][c] = set.contains(classStarts[c]);
+                    }
+                }
+            }
+
+            dead = new State(new int[0], NO_MATCHES, 0);
+            cache = newCache();
+        }
+
+        protected StateCache newCache() {
+            StateCache fresh = new StateCache();
+            int[] startSet = nfa.closure(new int[] {nfaStart}, 1);
+            fresh.start = newState(startSet);
+            fresh.states.put(new IntArrayKey(startSet), fresh.start);
+            return fresh;
+        }
+
+        protected State newState(int[] nfaStates) {
+            TreeSet<Integer> accepted = new TreeSet<Integer>();
+            for (int s : nfaStates) {
+                if (nfa.accepts[s] >= 0) {
+                    accepted.add(nfa.accepts[s]);
+                }
+            }
+            int[] accepts = NO_MATCHES;
+            if (!accepted.isEmpty()) {
+                accepts = new int[accepted.size()];
+                int i = 0;
+                for (int local : accepted) {
+                    accepts[i++] = local;
+                }
+            }
+            return new State(nfaStates, accepts, classStarts.length);
+        }
+
+        protected int findClass(int c) {
+            int i = Arrays.binarySearch(classStarts, c);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        /**
+         * @return local indexes of patterns matching the whole of s, or null
+         * if s contains surrogates (which patterns treat as code points)
+         */
+        protected int[] run(CharSequence s) {
+            StateCache current = cache;
+            State state = current.start;
+            int length = s.length();
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                int charClass;
+                if (c < 128) {
+                    charClass = asciiClasses[c];
+                } else if (c >= '\uD800' && c <= '\uDFFF') {
+                    return null;
+                } else {
+                    charClass = findClass(c);
+                }
+                State next = state.next.get(charClass);
+                if (next == null) {
+                    next = step(current, state, charClass);
+                }
+                state = next;
+                if (state == dead) {
+                    return NO_MATCHES;
+                }
+            }
+            return state.accepts;
+        }
+
+        /**
+         * Build (or find in the cache) the state following the given one on
+         * the given char class.
+         */
+        protected State step(StateCache current, State state, int charClass) {
+            int[] moved = new int[state.nfaStates.length];
+            int count = 0;
+            for (int s : state.nfaStates) {
+                if (inSet[s] != null && inSet[s][charClass]) {
+                    moved[count++] = nfa.next[s];
+                }
+            }
+            if (count == 0) {
+                state.next.set(charClass, dead);
+                return dead;
+            }
+            int[] set = nfa.closure(moved, count);
+            IntArrayKey key = new IntArrayKey(set);
+            State target = current.states.get(key);
+            if (target == null) {
+                if (current.states.size() >= maxStates) {
+                    // start over; this match continues uncached
+                    if (cache == current) {
+                        cache = newCache();
+                    }
+                    return newState(set);
+                }
+                State created = newState(set);
+                target = current.states.putIfAbsent(key, created);
+                if (target == null) {
+                    target = created;
+                }
+            }
+            state.next.set(charClass, target);
+            return target;
+        }
+
+        protected int getCachedStateCount() {
+            return cache.states.size();
+        }
+    }
+
+    /** int[] with value equality, as a map key */
+    protected static class IntArrayKey {
+        protected final int[] values;
+        protected final int hash;
+        protected IntArrayKey(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntArrayKey 
+                && Arrays.equals(values, ((IntArrayKey) o).values);
+        }
+    }
+}
@@ -22,11 +22,14 @@ package org.archive.util;
 import java.io.Closeable;
 import java.io.File;
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -47,13 +50,21 @@ import com.sleepycat.je.Environment;
 /**
  * A BDB JE backed object cache. 
  * 
- * Soft references to previously-instantiated objects are held so that
- * unless/until an object is garbage collected, subsequent get()s will
- * return the exact same object (avoiding redundant creation or disagreement
- * about canonical object state). 
+ * Up to maxInMemory recently-used objects are held strongly, in a 
+ * size-bounded map. Beyond those, weak references to all 
+ * previously-instantiated objects are held so that as long as an object 
+ * is still referenced elsewhere, subsequent get()s will return the exact 
+ * same object (avoiding redundant creation or disagreement about 
+ * canonical object state). Weak references (unlike soft) don't keep 
+ * otherwise-unused objects on the heap until memory runs short, so heap
+ * use follows the configured bound.
  * <p/>
- * The backing disk is only guaranteed to be up-to-date after a flush 
- * of all dirty values to disk, as can be forced by sync().
+ * Objects marked dirty are written to disk by a background flusher 
+ * thread, in batches: when they have been dirty for maxDirtyAgeMs, or 
+ * when more than maxDirtyItems collect. (Only if dirty items pile up 
+ * beyond twice that do marking threads help write.) The backing disk is
+ * only guaranteed to be up-to-date after a flush of all dirty values to
+ * disk, as can be forced by sync().
  * <p/>
  * 
  * <p/>
@@ -73,15 +84,65 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
     /** The BDB JE database used for this instance. */
     protected transient Database db;
 
-    /** in-memory map of new/recent/still-referenced-elsewhere instances */
+    /** size-bounded in-memory map of new/recent instances */
     protected transient ConcurrentMap<String,V> memMap;
 
+    /** weak-valued map of all instances still referenced anywhere */
+    protected transient ConcurrentMap<String,V> liveMap;
+
     /** The Collection view of the BDB JE database used for this instance. */
     protected transient StoredSortedMap<String, V> diskMap;
 
-    protected transient ConcurrentMap<String,V> dirtyItems;
+    /** items that must be persisted, with time each was first dirtied */
+    protected transient ConcurrentMap<String,DirtyValue<V>> dirtyItems;
+    protected transient AtomicInteger dirtyCount;
     
     protected AtomicLong count;
+
+    /** most objects to hold strongly in memory */
+    protected int maxInMemory = 50000;
+    public int getMaxInMemory() {
+        return maxInMemory;
+    }
+    /** set before initialize() to take effect */
+    public void setMaxInMemory(int maxInMemory) {
+        this.maxInMemory = maxInMemory;
+    }
+
+    /** count of dirty items beyond which the flusher writes immediately */
+    protected int maxDirtyItems = 10000;
+    public int getMaxDirtyItems() {
+        return maxDirtyItems;
+    }
+    public void setMaxDirtyItems(int maxDirtyItems) {
+        this.maxDirtyItems = maxDirtyItems;
+    }
+
+    /** longest an item may stay dirty before the flusher writes it */
+    protected long maxDirtyAgeMs = TimeUnit.MINUTES.toMillis(5);
+    public long getMaxDirtyAgeMs() {
+        return maxDirtyAgeMs;
+    }
+    public void setMaxDirtyAgeMs(long maxDirtyAgeMs) {
+        this.maxDirtyAgeMs = maxDirtyAgeMs;
+    }
+
+    /** most items written per batch (and per hold of the flush lock) */
+    protected int flushBatchSize = 500;
+    public int getFlushBatchSize() {
+        return flushBatchSize;
+    }
+    public void setFlushBatchSize(int flushBatchSize) {
+        this.flushBatchSize = flushBatchSize;
+    }
+
+    /** interval at which the flusher checks for aged dirty items */
+    protected static final long FLUSH_CHECK_INTERVAL_MS = 1000;
+
+    /** background write-behind thread */
+    protected transient Flusher flusher;
+    /** held while writing a batch, and through all of sync() */
+    protected transient Object flushLock;
     
     //
     // USAGE STATS
@@ -96,8 +157,17 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
     private AtomicLong supplierUsed = new AtomicLong(0);
     /** count of {@link #sync()} use */
     transient private AtomicLong useStatsSyncUsed = new AtomicLong(0);
-    /** Count of times Supplier was used for new object */
+    /** Count of objects evicted from the bounded memMap */
     private AtomicLong evictions = new AtomicLong(0);
+    /** Count of items written to disk from dirtyItems */
+    private AtomicLong flushedItems = new AtomicLong(0);
+    /** Count of batches of dirty items written */
+    private AtomicLong flushBatches = new AtomicLong(0);
+    /** Count of batches written by marking threads, the flusher lagging */
+    private AtomicLong inlineFlushBatches = new AtomicLong(0);
+    /** Total and greatest time spent writing batches */
+    private AtomicLong flushNanos = new AtomicLong(0);
+    private AtomicLong maxFlushNanos = new AtomicLong(0);
 
     /**
      * Constructor. You must call
@@ -128,16 +198,21 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
             final Class valueClass, final StoredClassCatalog classCatalog)
     throws DatabaseException {
         // TODO: tune capacity for actual threads, expected size of key caches? 
-        this.memMap = new MapMaker().concurrencyLevel(64).initialCapacity(8192).softValues().makeMap();    
+        this.memMap = new MapMaker().concurrencyLevel(64).initialCapacity(8192)
+            .maximumSize(maxInMemory).evictionListener(this).makeMap();
+        this.liveMap = new MapMaker().concurrencyLevel(64).initialCapacity(8192)
+            .weakValues().makeMap();
         this.db = openDatabase(env, dbName);
         this.diskMap = createDiskMap(this.db, classCatalog, valueClass);
-        // keep a record of items that must be persisted; auto-persist if 
-        // unchanged after 5 minutes, or more than 10K would collect
-        this.dirtyItems = new MapMaker().concurrencyLevel(64)
-            .maximumSize(10000).expireAfterWrite(5,TimeUnit.MINUTES)
-            .evictionListener(this).makeMap();
+        // keep a record of items that must be persisted, for the flusher
+        this.dirtyItems = new ConcurrentHashMap<String,DirtyValue<V>>(1024, 0.75f, 64);
+        this.dirtyCount = new AtomicInteger(0);
+        this.flushLock = new Object();
             
         this.count = new AtomicLong(diskMap.size());
+        
+        this.flusher = new Flusher(dbName);
+        this.flusher.start();
     }
 
     @SuppressWarnings("unchecked")
@@ -170,6 +245,10 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
      * @see org.archive.util.ObjectIdentityCache#close()
      */
     public synchronized void close() {
+        if (this.flusher != null) {
+            this.flusher.finish();
+            this.flusher = null;
+        }
         // Close out my bdb db.
         if (this.db != null) {
             try {
@@ -214,6 +293,14 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
             val.setIdentityCache(this); 
             return val;
         }
+        val = liveMap.get(key);
+        if(val != null) {
+            // evicted from memMap, but still in use elsewhere: keep anew
+            cacheHit.incrementAndGet();
+            memMap.put(key, val);
+            val.setIdentityCache(this); 
+            return val;
+        }
         val = diskMap.get(key);
         V prevVal; 
         if(val == null) {
@@ -239,10 +326,11 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
             diskHit.incrementAndGet();
         }
         
-        prevVal = memMap.putIfAbsent(key, val); // fill memMap or lose race gracefully
+        prevVal = liveMap.putIfAbsent(key, val); // fill liveMap or lose race gracefully
         if(prevVal != null) {
             val = prevVal; 
         }
+        memMap.put(key, val);
         val.setIdentityCache(this); 
         return val; 
     }
@@ -287,14 +375,68 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
           .append(" inMemItems=")
           .append(memMap.size())
           .append(" dirtyItems=")
-          .append(dirtyItems.size())
+          .append(dirtyCount.get())
           .append(" evictions=")
           .append(evictions.get())
+          .append(" flushed=")
+          .append(flushedItems.get())
+          .append(" flushBatches=")
+          .append(flushBatches.get())
+          .append(" inlineFlushBatches=")
+          .append(inlineFlushBatches.get())
+          .append(" avgFlushMs=")
+          .append(getAverageFlushMillis())
+          .append(" maxFlushMs=")
+          .append(getMaxFlushMillis())
           .append(" syncs=")
           .append(useStatsSyncUsed.get());
         return sb.toString();
     }
 
+    /**
+     * @return count of gets answered from memory
+     */
+    public long getHitCount() {
+        return cacheHit.get();
+    }
+
+    /**
+     * @return count of gets not answered from memory (whether then found
+     * on disk, supplied, or neither)
+     */
+    public long getMissCount() {
+        return countOfGets.get() - cacheHit.get();
+    }
+
+    /**
+     * @return count of dirty items written to disk
+     */
+    public long getFlushedCount() {
+        return flushedItems.get();
+    }
+
+    /**
+     * @return count of batches of dirty items written to disk
+     */
+    public long getFlushBatchCount() {
+        return flushBatches.get();
+    }
+
+    /**
+     * @return mean time, in milliseconds, to write a batch
+     */
+    public double getAverageFlushMillis() {
+        long batches = flushBatches.get();
+        return batches == 0 ? 0 : flushNanos.get() / (batches * 1000000.0);
+    }
+
+    /**
+     * @return longest time, in milliseconds, to write a batch
+     */
+    public double getMaxFlushMillis() {
+        return maxFlushNanos.get() / 1000000.0;
+    }
+
     /* (non-Javadoc)
      * @see org.archive.util.ObjectIdentityCache#size()
      */
@@ -332,17 +474,15 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
                 ", mem " + this.memMap.size());
         }
         
-        Iterator<Entry<String, V>> iter = dirtyItems.entrySet().iterator();
-        while(iter.hasNext()) {
-            Entry<String, V> entry = iter.next(); 
-            iter.remove();
-            diskMap.put(entry.getKey(), entry.getValue());
-        }
-        
-        try {
-            this.db.sync();
-        } catch (DatabaseException e) {
-            throw new RuntimeException(e);
+        // hold flushLock throughout, so no flusher batch is mid-write 
+        // (removed from dirtyItems, but not yet on disk) at db.sync()
+        synchronized (flushLock) {
+            flushDirty(true);
+            try {
+                this.db.sync();
+            } catch (DatabaseException e) {
+                throw new RuntimeException(e);
+            }
         }
         
         
@@ -356,16 +496,211 @@ implements ObjectIdentityCache<V>, Closeable, Serializable, MapEvictionListener<
 
     @Override
     public void dirtyKey(String key) {
-       V val = memMap.get(key);
+       V val = liveMap.get(key);
        if(val==null) {
            logger.severe("dirty key not in memory should be impossible");
+           return;
+       }
+       if(dirtyItems.putIfAbsent(key, new DirtyValue<V>(val)) != null) {
+           // already awaiting write
+           return;
+       }
+       int dirty = dirtyCount.incrementAndGet();
+       if(dirty > maxDirtyItems) {
+           if(dirty > 2 * maxDirtyItems) {
+               // flusher not keeping up; help, rather than let dirty 
+               // (hence unreclaimable) items grow without bound
+               inlineFlushBatches.incrementAndGet();
+               writeBatch(selectDirty(flushBatchSize, flushBatchSize));
+           } else {
+               Flusher f = flusher;
+               if(f != null) {
+                   f.wake();
+               }
+           }
        }
-       dirtyItems.put(key,val); 
     }
 
+    /**
+     * Only counts evictions: the evicted value remains in liveMap for as
+     * long as it is in use elsewhere, and in dirtyItems (if dirty) until 
+     * written. 
+     */
     @Override
     public void onEviction(String key, V val) {
         evictions.incrementAndGet();
-        diskMap.put(key, val);
+    }
+
+    /**
+     * Write dirty items to disk, in batches: if 'all', every dirty item; 
+     * otherwise those dirty longer than maxDirtyAgeMs, and (if there are
+     * too many dirty items) enough others to reach half of maxDirtyItems.
+     * 
+     * @param all whether to write all dirty items
+     */
+    protected void flushDirty(boolean all) {
+        if(all) {
+            // one pass, so as not to chase items dirtied meanwhile
+            List<Entry<String,DirtyValue<V>>> batch = 
+                new ArrayList<Entry<String,DirtyValue<V>>>(flushBatchSize);
+            for(Entry<String,DirtyValue<V>> entry : dirtyItems.entrySet()) {
+                batch.add(entry);
+                if(batch.size() >= flushBatchSize) {
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            }
+            writeBatch(batch);
+            return;
+        }
+        int dirty = dirtyCount.get();
+        int excess = dirty > maxDirtyItems ? dirty - maxDirtyItems / 2 : 0;
+        while(true) {
+            List<Entry<String,DirtyValue<V>>> batch = 
+                selectDirty(flushBatchSize, excess);
+            if(batch.isEmpty()) {
+                return;
+            }
+            writeBatch(batch);
+            excess -= batch.size();
+        }
+    }
+
+    /**
+     * Choose up to max dirty items due to be written: any dirty longer 
+     * than maxDirtyAgeMs, plus up to 'excess' others.
+     * 
+     * @param max most items to choose
+     * @param excess count of items to choose regardless of age
+     * @return chosen entries, possibly empty
+     */
+    protected List<Entry<String,DirtyValue<V>>> selectDirty(int max, int excess) {
+        List<Entry<String,DirtyValue<V>>> batch = 
+            new ArrayList<Entry<String,DirtyValue<V>>>(
+                    Math.max(0, Math.min(max, dirtyCount.get())));
+        long agedBefore = System.currentTimeMillis() - maxDirtyAgeMs;
+        for(Entry<String,DirtyValue<V>> entry : dirtyItems.entrySet()) {
+            if(batch.size() >= max) {
+                break;
+            }
+            if(batch.size() < excess || entry.getValue().since <= agedBefore) {
+                batch.add(entry);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Write the given dirty items to disk, skipping any another thread 
+     * has written meanwhile. Each is removed from dirtyItems before being
+     * written, so that any later change (and dirtyKey()) queues it again. 
+     * 
+     * @param batch entries from dirtyItems
+     */
+    protected void writeBatch(List<Entry<String,DirtyValue<V>>> batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        int written = 0;
+        synchronized (flushLock) {
+            for(Entry<String,DirtyValue<V>> entry : batch) {
+                String key = entry.getKey();
+                DirtyValue<V> dirty = entry.getValue();
+                if(!dirtyItems.remove(key, dirty)) {
+                    continue;
+                }
+                dirtyCount.decrementAndGet();
+                try {
+                    diskMap.put(key, dirty.value);
+                } catch (RuntimeException e) {
+                    // remain dirty, for a later attempt
+                    if(dirtyItems.putIfAbsent(key, dirty) == null) {
+                        dirtyCount.incrementAndGet();
+                    }
+                    throw e;
+                }
+                written++;
+            }
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        flushedItems.addAndGet(written);
+        flushBatches.incrementAndGet();
+        flushNanos.addAndGet(elapsed);
+        long max;
+        while(elapsed > (max = maxFlushNanos.get())) {
+            if(maxFlushNanos.compareAndSet(max, elapsed)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * A dirty value, with the time it was (first, since last written) 
+     * marked dirty. Holding the value strongly keeps it from being 
+     * collected before it is written.
+     */
+    protected static class DirtyValue<V> {
+        final V value;
+        final long since;
+
+        DirtyValue(V value) {
+            this.value = value;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Background thread writing aged or excess dirty items. Never 
+     * interrupted, as BDB JE treats interrupts during IO as environment
+     * failures; instead asked to finish by flag. 
+     */
+    protected class Flusher extends Thread {
+        protected volatile boolean running = true;
+        protected boolean signalled = false; 
+
+        public Flusher(String dbName) {
+            super("ObjectIdentityBdbManualCache flusher: " + dbName);
+            setDaemon(true);
+        }
+
+        public synchronized void wake() {
+            signalled = true;
+            notify();
+        }
+
+        /**
+         * Stop, and wait for any write in progress to complete.
+         */
+        public void finish() {
+            running = false;
+            wake();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while(running) {
+                try {
+                    synchronized (this) {
+                        if(!signalled) {
+                            wait(FLUSH_CHECK_INTERVAL_MS);
+                        }
+                        signalled = false;
+                    }
+                    if(running) {
+                        flushDirty(false);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "problem writing dirty items", e);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,203 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact (path-compressed) trie of String keys to values, for finding
+ * all keys which are prefixes of a given input in a single pass over the
+ * input. An alternative to {@link PrefixFinder} when the set of prefixes
+ * is large and lookups far outnumber changes.
+ *
+ * Not synchronized: build fully, then publish safely (for example via a
+ * volatile field) before sharing for concurrent lookups.
+ *
+ * @param <V> value type
+ */
+public class PrefixTrie<V> {
+    protected static final char[] NO_CHARS = new char[0];
+    protected static final Node<?>[] NO_NODES = new Node<?>[0];
+
+    protected static class Node<V> {
+        /** chars on the edge leading into this node */
+        String label;
+        /** value of key ending at this node, if any */
+        V value;
+        /** first char of each child's label, sorted */
+        char[] firsts = NO_CHARS;
+        /** children, parallel to firsts */
+        Node<?>[] children = NO_NODES;
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<V> child(char c) {
+            int i = Arrays.binarySearch(firsts, c);
+            return i < 0 ? null : (Node<V>) children[i];
+        }
+
+        void addChild(Node<V> child) {
+            int i = -(Arrays.binarySearch(firsts, child.label.charAt(0)) + 1);
+            char[] newFirsts = new char[firsts.length + 1];
+            Node<?>[] newChildren = new Node<?>[children.length + 1];
+            System.arraycopy(firsts, 0, newFirsts, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newFirsts[i] = child.label.charAt(0);
+            newChildren[i] = child;
+            System.arraycopy(firsts, i, newFirsts, i + 1, firsts.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            firsts = newFirsts;
+            children = newChildren;
+        }
+
+        void replaceChild(Node<V> child) {
+            children[Arrays.binarySearch(firsts, child.label.charAt(0))] = child;
+        }
+    }
+
+    protected Node<V> root = new Node<V>("");
+    protected int size = 0;
+
+    /**
+     * Associate the given value with the given key.
+     *
+     * @param key String key (prefix to be found later)
+     * @param value non-null value
+     * @return previous value for key, if any
+     */
+    public V put(String key, V value) {
+        Node<V> node = root;
+        int i = 0;
+        while (i < key.length()) {
+            Node<V> child = node.child(key.charAt(i));
+            if (child == null) {
+                child = new Node<V>(key.substring(i));
+                node.addChild(child);
+                node = child;
+                break;
+            }
+            String label = child.label;
+            int common = 1;
+            while (common < label.length() && i + common < key.length()
+                    && label.charAt(common) == key.charAt(i + common)) {
+                common++;
+            }
+            if (common < label.length()) {
+                // split edge: new intermediate node for the shared part
+                Node<V> mid = new Node<V>(label.substring(0, common));
+                child.label = label.substring(common);
+                mid.addChild(child);
+                node.replaceChild(mid);
+                child = mid;
+            }
+            node = child;
+            i += common;
+        }
+        V prev = node.value;
+        node.value = value;
+        if (prev == null) {
+            size++;
+        }
+        return prev;
+    }
+
+    /**
+     * Find values of all keys which are prefixes of the input, and no
+     * longer than the given length.
+     *
+     * @param input String whose prefixes to find
+     * @param maxLength longest key to consider
+     * @param result list to which found values are added, shortest key first
+     * @return result list, for convenience
+     */
+    public List<V> findPrefixValues(String input, int maxLength, List<V> result) {
+        Node<V> node = root;
+        if (node.value != null) {
+            result.add(node.value);
+        }
+        int i = 0;
+        while (i < input.length()) {
+            node = node.child(input.charAt(i));
+            if (node == null || !input.startsWith(node.label, i)) {
+                break;
+            }
+            i += node.label.length();
+            if (i > maxLength) {
+                break;
+            }
+            if (node.value != null) {
+                result.add(node.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find values of all keys which are prefixes of the input.
+     *
+     * @param input String whose prefixes to find
+     * @return values found, shortest key first
+     */
+    public List<V> findPrefixValues(String input) {
+        return findPrefixValues(input, input.length(), new ArrayList<V>());
+    }
+
+    /**
+     * Test whether any key is strictly longer than, and begins with, the
+     * given prefix -- that is, whether inputs beginning with the prefix
+     * could have more prefix-keys than the prefix itself does.
+     *
+     * @param prefix String prefix
+     * @return true if some longer key extends the prefix
+     */
+    public boolean hasKeysExtending(String prefix) {
+        Node<V> node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            node = node.child(prefix.charAt(i));
+            if (node == null) {
+                return false;
+            }
+            String label = node.label;
+            int remaining = prefix.length() - i;
+            if (remaining < label.length()) {
+                // prefix ends within this edge: every key below is longer
+                return label.startsWith(prefix.substring(i));
+            }
+            if (!prefix.startsWith(label, i)) {
+                return false;
+            }
+            i += label.length();
+        }
+        return node.firsts.length > 0;
+    }
+
+    /**
+     * @return number of keys
+     */
+    public int size() {
+        return size;
+    }
+}
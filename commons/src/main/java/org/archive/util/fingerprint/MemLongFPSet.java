@@ -19,6 +19,7 @@
 package org.archive.util.fingerprint;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import org.archive.util.AbstractLongFPSet;
@@ -113,4 +114,19 @@ implements LongFPSet, Serializable {
     public boolean quickContains(long fp) {
         return contains(fp);
     }
+
+    /**
+     * @return all fingerprints in the set, in ascending order
+     */
+    public long[] toSortedArray() {
+        long[] result = new long[(int) count];
+        int n = 0;
+        for(int i = 0; i < values.length; i++) {
+            if(slots[i] >= 0) {
+                result[n++] = values[i];
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,359 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.fingerprint;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, sorted run of distinct long fingerprints in a disk file
+ * (as raw big-endian longs), for membership tests. 
+ * 
+ * Alongside the file, an in-memory Bloom filter (about 10 bits per
+ * fingerprint) answers most misses without touching disk, and a sparse
+ * index of the first fingerprint in each block of BLOCK_LONGS narrows any
+ * hit (or false positive) to a single block read. Both are built as the
+ * run is written, or rebuilt with one sequential scan when an existing
+ * file is opened. 
+ * 
+ * contains() is safe for concurrent use; reads are positional, so they
+ * share a single channel without coordination. 
+ */
+public class SortedLongFPRun implements Closeable {
+    /** fingerprints per indexed block */
+    public static final int BLOCK_LONGS = 512;
+    protected static final int BLOCK_BYTES = BLOCK_LONGS * 8;
+    /** size of buffers for sequential writing and reading */
+    protected static final int STREAM_BUFFER_BYTES = 1024 * 1024;
+    
+    /** Bloom filter bits per fingerprint; with 7 hashes, ~1% false positives */
+    protected static final int BLOOM_BITS_PER_FP = 10;
+    protected static final int BLOOM_HASHES = 7;
+    
+    protected File file;
+    protected long count;
+    /** first fingerprint of each block */
+    protected long[] index;
+    protected long[] bloom;
+    protected long bloomBits;
+    protected FileChannel channel;
+    protected ThreadLocal<ByteBuffer> blockBuffers = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BLOCK_BYTES);
+        }
+    };
+    
+    protected SortedLongFPRun(File file, long count, long[] index, long[] bloom) 
+    throws IOException {
+        this.file = file;
+        this.count = count;
+        this.index = index;
+        this.bloom = bloom;
+        this.bloomBits = bloom.length * 64L;
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+    }
+    
+    /**
+     * Open an existing run file, as written by a Writer. 
+     * 
+     * @param file run file
+     * @return SortedLongFPRun over file
+     * @throws IOException
+     */
+    public static SortedLongFPRun open(File file) throws IOException {
+        long length = file.length();
+        if(length % 8 != 0) {
+            throw new IOException("run file " + file + " length " + length 
+                    + " not a multiple of 8");
+        }
+        Writer rebuilder = new Writer(null, length / 8);
+        Reader reader = new Reader(file);
+        try {
+            while(reader.hasNext()) {
+                rebuilder.note(reader.nextLong());
+            }
+        } finally {
+            reader.close();
+        }
+        return new SortedLongFPRun(file, rebuilder.count, rebuilder.getIndex(), 
+                rebuilder.bloom);
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    public long count() {
+        return count;
+    }
+    
+    /**
+     * @return approximate bytes of heap used by index and Bloom filter
+     */
+    public long getHeapBytes() {
+        return 8L * (index.length + bloom.length);
+    }
+    
+    /**
+     * @param fp fingerprint
+     * @return true if fp is in this run
+     */
+    public boolean contains(long fp) {
+        if(count == 0 || !bloomContains(bloom, bloomBits, fp)) {
+            return false;
+        }
+        int block = Arrays.binarySearch(index, fp);
+        if(block >= 0) {
+            return true; // first in its block
+        }
+        block = -block - 2; // block whose first fp precedes fp
+        if(block < 0) {
+            return false;
+        }
+        ByteBuffer buffer = blockBuffers.get();
+        buffer.clear();
+        long position = (long) block * BLOCK_BYTES;
+        try {
+            while(buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + buffer.position());
+                if(n < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // binary search within block
+        int low = 1;
+        int high = buffer.position() / 8 - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long midFp = buffer.getLong(mid * 8);
+            if(midFp < fp) {
+                low = mid + 1;
+            } else if(midFp > fp) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return Reader over this run's fingerprints, in order
+     * @throws IOException
+     */
+    public Reader reader() throws IOException {
+        return new Reader(file);
+    }
+    
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    protected static long bloomHash2(long fp) {
+        long h = (fp >>> 32 | fp << 32) * 0x9E3779B97F4A7C15L;
+        return h | 1;
+    }
+    
+    protected static boolean bloomContains(long[] bloom, long bits, long fp) {
+        long h2 = bloomHash2(fp);
+        long h = fp;
+        for(int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = (h >>> 1) % bits;
+            if((bloom[(int)(bit >>> 6)] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+            h += h2;
+        }
+        return true;
+    }
+    
+    protected static void bloomAdd(long[] bloom, long bits, long fp) {
+        long h2 = bloomHash2(fp);
+        long h = fp;
+        for(int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = (h >>> 1) % bits;
+            bloom[(int)(bit >>> 6)] |= (1L << (bit & 63));
+            h += h2;
+        }
+    }
+    
+    /**
+     * Writes a new run file from fingerprints supplied in strictly 
+     * ascending order, building its index and Bloom filter as it goes. 
+     */
+    public static class Writer {
+        protected File file;
+        protected FileChannel out;
+        protected ByteBuffer buffer;
+        protected long count = 0;
+        protected long last;
+        protected long[] index = new long[16];
+        protected int indexCount = 0;
+        protected long[] bloom;
+        protected long bloomBits;
+        
+        /**
+         * @param file file to create
+         * @param expectedCount upper bound on number of fingerprints 
+         * to be added, for Bloom filter sizing
+         * @throws IOException
+         */
+        public Writer(File file, long expectedCount) throws IOException {
+            this.file = file;
+            long bits = Math.max(64, expectedCount * BLOOM_BITS_PER_FP);
+            bloom = new long[(int)((bits + 63) / 64)];
+            bloomBits = bloom.length * 64L;
+            if(file != null) {
+                out = new FileOutputStream(file).getChannel();
+                buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_BYTES);
+            }
+        }
+        
+        /**
+         * Add the next fingerprint. 
+         * 
+         * @param fp fingerprint, greater than any previously added
+         * @throws IOException
+         */
+        public void add(long fp) throws IOException {
+            note(fp);
+            if(buffer.remaining() < 8) {
+                writeBuffer();
+            }
+            buffer.putLong(fp);
+        }
+        
+        /** index and Bloom-filter the given fingerprint */
+        protected void note(long fp) {
+            if(count > 0 && fp <= last) {
+                throw new IllegalArgumentException("fingerprint " + fp 
+                        + " not greater than previous " + last);
+            }
+            if(count % BLOCK_LONGS == 0) {
+                if(indexCount == index.length) {
+                    index = Arrays.copyOf(index, index.length * 2);
+                }
+                index[indexCount++] = fp;
+            }
+            bloomAdd(bloom, bloomBits, fp);
+            last = fp;
+            count++;
+        }
+        
+        protected void writeBuffer() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+        
+        protected long[] getIndex() {
+            return Arrays.copyOf(index, indexCount);
+        }
+        
+        public long count() {
+            return count;
+        }
+        
+        /**
+         * Complete the file, and open it as a run. 
+         * 
+         * @return SortedLongFPRun over written file
+         * @throws IOException
+         */
+        public SortedLongFPRun finish() throws IOException {
+            writeBuffer();
+            out.force(false);
+            out.close();
+            return new SortedLongFPRun(file, count, getIndex(), bloom);
+        }
+        
+        /**
+         * Abandon the file, deleting it. 
+         */
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            file.delete();
+        }
+    }
+    
+    /**
+     * Sequential reader of a run file's fingerprints. 
+     */
+    public static class Reader implements Closeable {
+        protected FileChannel in;
+        protected ByteBuffer buffer;
+        protected boolean eof = false;
+        
+        public Reader(File file) throws IOException {
+            in = new FileInputStream(file).getChannel();
+            buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_BYTES);
+            buffer.flip(); // start empty
+        }
+        
+        public boolean hasNext() throws IOException {
+            if(buffer.remaining() >= 8) {
+                return true;
+            }
+            if(eof) {
+                return false;
+            }
+            buffer.compact();
+            try {
+                while(buffer.position() < 8) {
+                    if(in.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+            } finally {
+                buffer.flip();
+            }
+            return buffer.remaining() >= 8;
+        }
+        
+        public long nextLong() throws IOException {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return buffer.getLong();
+        }
+        
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
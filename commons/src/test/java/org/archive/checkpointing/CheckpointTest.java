@@ -0,0 +1,52 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.checkpointing;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+import org.json.JSONObject;
+
+/**
+ * Checkpoint tests: per-bean timings metadata.
+ */
+public class CheckpointTest extends TmpDirTestCase {
+
+    public void testWriteTimings() throws Exception {
+        File base = new File(getTmpDir(), "CheckpointTest");
+        FileUtils.deleteDirectory(base);
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.generateFrom(new ConfigPath("checkpoints", base.getAbsolutePath()), 7);
+        checkpoint.noteTiming("startCheckpoint", "frontier", 3);
+        checkpoint.noteTiming("doCheckpoint", "frontier", 120);
+        checkpoint.noteTiming("doCheckpoint", "bdb", 4500);
+        checkpoint.writeTimings();
+
+        JSONObject json = new JSONObject(FileUtils.readFileToString(
+                new File(checkpoint.getCheckpointDir().getFile(), Checkpoint.TIMINGS_FILENAME)));
+        assertEquals(3, json.getJSONObject("startCheckpoint").getLong("frontier"));
+        assertEquals(120, json.getJSONObject("doCheckpoint").getLong("frontier"));
+        assertEquals(4500, json.getJSONObject("doCheckpoint").getLong("bdb"));
+        assertFalse("timings file mistaken for validity", 
+                Checkpoint.hasValidStamp(checkpoint.getCheckpointDir().getFile()));
+        FileUtils.deleteDirectory(base);
+    }
+}
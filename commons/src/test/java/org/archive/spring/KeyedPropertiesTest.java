@@ -0,0 +1,151 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.spring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for KeyedProperties override resolution, including that cached
+ * resolutions track sheet changes.
+ */
+public class KeyedPropertiesTest extends TestCase {
+
+    protected static class TestContext implements OverlayContext {
+        ArrayList<String> names = new ArrayList<String>();
+        Map<String,Map<String,Object>> sheets;
+
+        TestContext(Map<String,Map<String,Object>> sheets, String... names) {
+            this.sheets = sheets;
+            for(String name : names) {
+                this.names.add(name);
+            }
+        }
+        public boolean haveOverlayNamesBeenSet() {
+            return true;
+        }
+        public ArrayList<String> getOverlayNames() {
+            return names;
+        }
+        public Map<String,Object> getOverlayMap(String name) {
+            return sheets.get(name);
+        }
+    }
+
+    protected Map<String,Map<String,Object>> sheets;
+    protected KeyedProperties kp;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        sheets = new HashMap<String,Map<String,Object>>();
+        sheets.put("a", new HashMap<String,Object>());
+        sheets.put("b", new HashMap<String,Object>());
+        sheets.get("a").put("bean.size", 10);
+        sheets.get("b").put("bean.size", 20);
+        kp = new KeyedProperties();
+        kp.put("size", 1);
+        kp.put("name", "local");
+        kp.addExternalPath("bean");
+        KeyedProperties.overlaysChanged();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        KeyedProperties.clearAllOverrideContexts();
+        super.tearDown();
+    }
+
+    protected Object getWith(OverlayContext ocontext, String key) {
+        KeyedProperties.loadOverridesFrom(ocontext);
+        try {
+            return kp.get(key);
+        } finally {
+            KeyedProperties.clearOverridesFrom(ocontext);
+        }
+    }
+
+    public void testLastNamedSheetWins() {
+        assertEquals(1, kp.get("size"));
+        assertEquals(10, getWith(new TestContext(sheets, "a"), "size"));
+        assertEquals(20, getWith(new TestContext(sheets, "a", "b"), "size"));
+        assertEquals(10, getWith(new TestContext(sheets, "b", "a"), "size"));
+        assertEquals("local", getWith(new TestContext(sheets, "a", "b"), "name"));
+        // repeated lookups hit cache
+        assertEquals(20, getWith(new TestContext(sheets, "a", "b"), "size"));
+        assertEquals("local", getWith(new TestContext(sheets, "a", "b"), "name"));
+    }
+
+    public void testLocalChangeVisibleWithoutOverride() {
+        TestContext ctx = new TestContext(sheets, "a");
+        assertEquals("local", getWith(ctx, "name"));
+        kp.put("name", "changed");
+        assertEquals("changed", getWith(ctx, "name"));
+    }
+
+    public void testSheetChangesInvalidate() {
+        TestContext ctx = new TestContext(sheets, "a");
+        assertEquals(10, getWith(ctx, "size"));
+        assertEquals("local", getWith(ctx, "name"));
+
+        sheets.get("a").put("bean.size", 11);
+        sheets.get("a").put("bean.name", "sheet");
+        KeyedProperties.overlaysChanged();
+        assertEquals(11, getWith(ctx, "size"));
+        assertEquals("sheet", getWith(ctx, "name"));
+
+        sheets.get("a").remove("bean.size");
+        KeyedProperties.overlaysChanged();
+        assertEquals(1, getWith(ctx, "size"));
+    }
+
+    public void testSheetMapChangesInvalidate() {
+        Sheet sheet = new Sheet();
+        sheet.getMap().put("bean.size", 30);
+        sheets.put("c", sheet.getMap());
+        TestContext ctx = new TestContext(sheets, "c");
+        assertEquals(30, getWith(ctx, "size"));
+        // changes made directly to a sheet's map need no explicit notice
+        sheet.getMap().put("bean.size", 31);
+        assertEquals(31, getWith(ctx, "size"));
+        sheet.getMap().remove("bean.size");
+        assertEquals(1, getWith(ctx, "size"));
+    }
+
+    public void testNewExternalPathInvalidates() {
+        TestContext ctx = new TestContext(sheets, "a");
+        sheets.get("a").put("other.name", "other");
+        assertEquals("local", getWith(ctx, "name"));
+        kp.addExternalPath("other");
+        assertEquals("other", getWith(ctx, "name"));
+    }
+
+    public void testReusedNameListNotAliased() {
+        TestContext ctx = new TestContext(sheets, "a");
+        assertEquals(10, getWith(ctx, "size"));
+        // same list instance, mutated as when a CrawlURI is re-overlaid
+        ctx.getOverlayNames().clear();
+        ctx.getOverlayNames().add("b");
+        assertEquals(20, getWith(ctx, "size"));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Simple benchmarking of MultiRegexMatcher against testing each pattern
+ * in turn (as MatchesListRegexDecideRule does without compilation), over
+ * a generated list of trap/exclusion-style patterns and URIs.
+ * 
+ * Usage: BenchmarkMultiRegexMatcher [reps] [patterns] [uris]
+ * 
+ * Take care when interpreting results; the effect of GC, dynamic 
+ * compilation, and any other activity on test machine may affect 
+ * relative time tallies in unpredictable ways.
+ */
+public class BenchmarkMultiRegexMatcher {
+
+    public static void main(String[] args) {
+        (new BenchmarkMultiRegexMatcher()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int patternCount = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+        int uriCount = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+
+        Random random = new Random(1L);
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (int i = 0; i < patternCount; i++) {
+            switch (i % 6) {
+            case 0:
+                patterns.add(Pattern.compile(".*/" + word(random) + "/.*"));
+                break;
+            case 1:
+                patterns.add(Pattern.compile("https?://([^/]+\\.)?" 
+                        + word(random) + "\\.(com|org|net)/.*"));
+                break;
+            case 2:
+                patterns.add(Pattern.compile(".*\\?.*" + word(random) + "=\\d+.*"));
+                break;
+            case 3:
+                patterns.add(Pattern.compile(".*\\." + word(random).substring(0, 3)));
+                break;
+            case 4:
+                patterns.add(Pattern.compile(".*/" + word(random) 
+                        + "/\\d{4}/\\d{2}/.*"));
+                break;
+            default:
+                // backreference: tested by java.util.regex
+                patterns.add(Pattern.compile(".*(/" + word(random) + "[^/]*)\\1{2,}.*"));
+            }
+        }
+        List<String> uris = new ArrayList<String>();
+        for (int i = 0; i < uriCount; i++) {
+            uris.add("http://www." + word(random) + ".com/" + word(random) 
+                    + "/" + word(random) + "/page" + i + ".html?" 
+                    + word(random) + "=" + random.nextInt(1000));
+        }
+
+        long start = System.currentTimeMillis();
+        MultiRegexMatcher matcher = new MultiRegexMatcher(patterns);
+        System.out.println("reps=" + reps + " patterns=" + patternCount 
+                + " uris=" + uriCount + " compiled=" + matcher.getCompiledCount()
+                + " buildMs=" + (System.currentTimeMillis() - start));
+
+        for (int r = 0; r < reps; r++) {
+            start = System.currentTimeMillis();
+            int loopMatches = 0;
+            for (String uri : uris) {
+                for (Pattern p : patterns) {
+                    if (p.matcher(uri).matches()) {
+                        loopMatches++;
+                        break;
+                    }
+                }
+            }
+            long loopMs = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            int compiledMatches = 0;
+            for (String uri : uris) {
+                if (matcher.matchesAny(uri)) {
+                    compiledMatches++;
+                }
+            }
+            long compiledMs = System.currentTimeMillis() - start;
+
+            if (loopMatches != compiledMatches) {
+                throw new IllegalStateException("match counts differ: " 
+                        + loopMatches + " vs " + compiledMatches);
+            }
+            System.out.println("matches=" + loopMatches + " loop: " + loopMs 
+                    + "ms compiled: " + compiledMs + "ms states: " 
+                    + matcher.getCachedStateCount());
+        }
+    }
+
+    protected static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 4 + random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(8)));
+        }
+        return word.toString();
+    }
+}
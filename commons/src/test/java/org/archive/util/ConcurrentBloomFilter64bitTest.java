@@ -0,0 +1,69 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ConcurrentBloomFilter64bit tests: the single-threaded BloomFilter
+ * trials, plus concurrent adds.
+ */
+public class ConcurrentBloomFilter64bitTest extends BloomFilterTest {
+    @Override
+    BloomFilter createBloom(long n, int d, Random weightsGenerator) {
+        return new ConcurrentBloomFilter64bit(n, d, weightsGenerator, false);
+    }
+
+    /**
+     * Many threads adding overlapping ranges of strings: every string
+     * must afterward be contained, and each must have been newly added
+     * (add() returning true) at most once.
+     */
+    public void testConcurrentAdds() throws InterruptedException {
+        final BloomFilter bloom = createBloom(1000000, 20, new Random(1996L));
+        final int perThread = 100000;
+        final AtomicInteger trueAdds = new AtomicInteger(0);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = (t / 2) * perThread; // pairs of threads overlap
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        if (bloom.add("add" + (offset + i))) {
+                            trueAdds.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        int unique = (threads.length / 2) * perThread;
+        for (int i = 0; i < unique; i++) {
+            assertTrue(bloom.contains("add" + i));
+        }
+        assertTrue("too many true adds " + trueAdds, trueAdds.get() <= unique);
+        assertTrue("too few true adds " + trueAdds, trueAdds.get() > unique - 10);
+        assertEquals(trueAdds.get(), bloom.size());
+    }
+}
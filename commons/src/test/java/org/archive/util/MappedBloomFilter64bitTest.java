@@ -0,0 +1,130 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * MappedBloomFilter64bit tests: adds, checkpointing, and recovery.
+ */
+public class MappedBloomFilter64bitTest extends TmpDirTestCase {
+    protected File base;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        base = new File(getTmpDir(), "MappedBloomFilter64bitTest");
+        FileUtils.deleteDirectory(base);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(base);
+        super.tearDown();
+    }
+
+    public void testCheckpointAndRestore() throws Exception {
+        File live = new File(base, "live");
+        // two chunks
+        MappedBloomFilter64bit bloom =
+            new MappedBloomFilter64bit(20000000, 22, 1234L, false, live, true);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(bloom.add("add" + i));
+        }
+        File cp1 = new File(base, "cp1");
+        bloom.checkpointTo(cp1, null);
+
+        // unchanged chunks are linked, changed copied
+        bloom.checkpointTo(new File(base, "cp2"), cp1);
+        assertTrue(bloom.add("after"));
+        File cp3 = new File(base, "cp3");
+        bloom.checkpointTo(cp3, new File(base, "cp2"));
+        long afterCount = bloom.getCount();
+        bloom.close();
+
+        // restore from first checkpoint: 'after' absent
+        File restored = new File(base, "restored");
+        MappedBloomFilter64bit.restoreChunks(cp1, restored);
+        MappedBloomFilter64bit bloom1 =
+            new MappedBloomFilter64bit(20000000, 22, 1234L, false, restored, false);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(bloom1.contains("add" + i));
+        }
+        assertFalse(bloom1.contains("after"));
+        bloom1.close();
+
+        // restore from third checkpoint: 'after' present
+        MappedBloomFilter64bit.restoreChunks(cp3, restored);
+        MappedBloomFilter64bit bloom3 =
+            new MappedBloomFilter64bit(20000000, 22, 1234L, false, restored, false);
+        bloom3.setCount(afterCount);
+        assertTrue(bloom3.contains("after"));
+        assertFalse(bloom3.add("add9999"));
+        assertEquals(10001, bloom3.size());
+        bloom3.close();
+    }
+
+    public void testMapFromCheckpoint() throws Exception {
+        File live = new File(base, "live");
+        MappedBloomFilter64bit bloom =
+            new MappedBloomFilter64bit(100000, 20, 99L, false, live, true);
+        assertTrue(bloom.add("x"));
+        File cp1 = new File(base, "cp1");
+        bloom.checkpointTo(cp1, null);
+        bloom.close();
+
+        File restored = new File(base, "restored");
+        File restoredChunk = new File(restored, "bloom-0.bits");
+        bloom = new MappedBloomFilter64bit(100000, 20, 99L, false, restored, cp1);
+        assertTrue(bloom.contains("x"));
+        assertFalse(bloom.add("x"));
+        assertFalse("copied before any change", restoredChunk.exists());
+        // unchanged chunk is saved from its mapping, even once the 
+        // checkpoint it was mapped from is gone
+        FileUtils.deleteDirectory(cp1);
+        File cp2 = new File(base, "cp2");
+        bloom.checkpointTo(cp2, null);
+        assertTrue(bloom.add("y"));
+        assertTrue("not copied on change", restoredChunk.exists());
+        bloom.close();
+
+        bloom = new MappedBloomFilter64bit(100000, 20, 99L, false, 
+                new File(base, "restored2"), cp2);
+        assertTrue(bloom.contains("x"));
+        assertFalse(bloom.contains("y"));
+        bloom.close();
+    }
+
+    public void testCreateClearsExisting() throws Exception {
+        File live = new File(base, "live");
+        MappedBloomFilter64bit bloom =
+            new MappedBloomFilter64bit(100000, 20, 99L, false, live, true);
+        assertTrue(bloom.add("x"));
+        bloom.close();
+        bloom = new MappedBloomFilter64bit(100000, 20, 99L, false, live, false);
+        assertTrue(bloom.contains("x"));
+        bloom.close();
+        bloom = new MappedBloomFilter64bit(100000, 20, 99L, false, live, true);
+        assertFalse(bloom.contains("x"));
+        bloom.close();
+    }
+}
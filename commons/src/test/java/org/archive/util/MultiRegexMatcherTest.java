@@ -0,0 +1,198 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * MultiRegexMatcher tests: results must equal those of testing each
+ * pattern in turn with java.util.regex.
+ */
+public class MultiRegexMatcherTest extends TestCase {
+
+    protected static final String[] REGEXES = {
+        "^http://(www\\.)?example\\.com/.*$",
+        ".*/calendar/.*",
+        ".*\\?.*(sort|order)=[a-z]+.*",
+        ".*(/[^/]+)\\1{2,}.*", // backreference: uncompiled
+        ".*\\.(?i:jpe?g|gif)", // inline flags: uncompiled
+        "(?:https?|ftp)://[^/]+/\\d{4}/\\d\\d?/.*",
+        ".*[^\\w/.:?=&%-].*",
+        "https?://[a-z.]*foo\\.org(:\\d+)?/?",
+        ".*\\bsession\\b.*", // boundary: uncompiled
+        "\\Qhttp://a.b/c?d\\E.*",
+        ".*a{2,3}b*?c+.*",
+        ".*\\x41\\u0042.*",
+        ".*[\\s\\t].*",
+        "[^a-c]+.",
+        "",
+        ".*(x|y|)z.*",
+        "(a|b)*abb",
+        ".*%[0-9A-Fa-f]{2}.*",
+    };
+
+    protected static final String[] INPUTS = {
+        "",
+        "http://example.com/",
+        "http://www.example.com/page",
+        "http://www.example.com/page\n",
+        "http://other.com/calendar/2010/01",
+        "http://other.com/list?sort=asc&x=1",
+        "http://other.com/list?order=ASC",
+        "http://a.com/x/x/x/x/page",
+        "http://a.com/IMAGE.JPG",
+        "https://foo.org/2010/1/a",
+        "ftp://f.org/2010/12/",
+        "https://sub.foo.org:8080/",
+        "https://foo.org",
+        "http://a.com/session/1",
+        "http://a.com/sessions/1",
+        "http://a.b/c?d=1",
+        "aab",
+        "aaabbc",
+        "xxAByy",
+        "has space",
+        "tab\there",
+        "dd",
+        "abb",
+        "ababb",
+        "xz",
+        "z",
+        "q%2Fq",
+        "caf\u00e9 and more",
+        "line\u2028sep",
+        "emoji \ud83d\ude00 here",
+    };
+
+    protected List<Pattern> compile(String... regexes) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        return patterns;
+    }
+
+    protected void assertSameAsRegex(List<Pattern> patterns, 
+            MultiRegexMatcher matcher, String input) {
+        BitSet expected = new BitSet();
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(input).matches()) {
+                expected.set(i);
+            }
+        }
+        String msg = "input '" + input + "'";
+        assertEquals(msg, expected, matcher.matching(input));
+        assertEquals(msg, !expected.isEmpty(), matcher.matchesAny(input));
+        assertEquals(msg, expected.cardinality() == patterns.size(), 
+                matcher.matchesAll(input));
+    }
+
+    public void testAgainstRegex() {
+        List<Pattern> patterns = compile(REGEXES);
+        MultiRegexMatcher matcher = new MultiRegexMatcher(patterns);
+        assertEquals(REGEXES.length - 3, matcher.getCompiledCount());
+        for (String input : INPUTS) {
+            assertSameAsRegex(patterns, matcher, input);
+        }
+    }
+
+    public void testEachPatternAlone() {
+        for (String regex : REGEXES) {
+            List<Pattern> patterns = compile(regex);
+            MultiRegexMatcher matcher = new MultiRegexMatcher(patterns);
+            for (String input : INPUTS) {
+                assertSameAsRegex(patterns, matcher, input);
+            }
+        }
+    }
+
+    public void testUnsupported() {
+        String[] unsupported = {
+            "a(?=b)", "a(?!b)", "(?<=a)b", "(?i)abc", "a++", "a*+", "\\Ga",
+            "[a[b]]", "[a-z&&[^q]]", "\\p{Alpha}+", "(a)\\1", "a^b", "a$b",
+            "\\0101", "\\cA",
+        };
+        for (String regex : unsupported) {
+            MultiRegexMatcher matcher = new MultiRegexMatcher(compile(regex));
+            assertEquals(regex, 0, matcher.getCompiledCount());
+        }
+        // any flags
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        patterns.add(Pattern.compile("abc", Pattern.CASE_INSENSITIVE));
+        MultiRegexMatcher matcher = new MultiRegexMatcher(patterns);
+        assertEquals(0, matcher.getCompiledCount());
+        assertTrue(matcher.matchesAny("ABC"));
+    }
+
+    /**
+     * Many patterns, with a state cache small enough to be discarded and
+     * rebuilt repeatedly.
+     */
+    public void testStateCacheLimit() {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (int i = 0; i < 200; i++) {
+            patterns.add(Pattern.compile(".*/w" + i + "/.*"));
+        }
+        MultiRegexMatcher matcher = new MultiRegexMatcher(patterns, 20);
+        assertEquals(200, matcher.getCompiledCount());
+        for (int i = 0; i < 3; i++) {
+            assertSameAsRegex(patterns, matcher, "http://a.com/w17/x");
+            assertSameAsRegex(patterns, matcher, "http://a.com/w199/w3/w45/");
+            assertSameAsRegex(patterns, matcher, "http://a.com/w200/");
+            assertTrue(matcher.getCachedStateCount() <= 20);
+        }
+    }
+
+    /**
+     * Random strings over a small alphabet, against patterns over it.
+     */
+    public void testRandomInputs() {
+        List<Pattern> patterns = compile("(ab|a)*b?", "[ab]*c[^c]*", 
+                "a{2}.{0,3}c", "(a|b|c)(a|b|c)*?a", ".*c.*c.*", "a.c|b.a", 
+                "[^a]*", "c?b+a?");
+        MultiRegexMatcher matcher = new MultiRegexMatcher(patterns);
+        assertEquals(patterns.size(), matcher.getCompiledCount());
+        Random random = new Random(1234);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder s = new StringBuilder();
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                s.append("abc\n".charAt(random.nextInt(4)));
+            }
+            assertSameAsRegex(patterns, matcher, s.toString());
+        }
+    }
+
+    public void testCache() {
+        MultiRegexMatcher.Cache cache = new MultiRegexMatcher.Cache();
+        List<Pattern> patterns = compile(".*a.*", ".*b.*");
+        MultiRegexMatcher matcher = cache.get(patterns);
+        assertSame(matcher, cache.get(new ArrayList<Pattern>(patterns)));
+        patterns.add(Pattern.compile(".*c.*"));
+        assertNotSame(matcher, cache.get(patterns));
+        assertTrue(cache.get(patterns).matchesAll("abc"));
+    }
+}
@@ -19,7 +19,9 @@
 package org.archive.util;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
@@ -157,6 +159,77 @@ public class ObjectIdentityBdbManualCacheTest extends TmpDirTestCase {
         }
     }
     
+    /**
+     * Test that objects evicted from the bounded in-memory map, but still
+     * referenced, remain the identical objects on later gets, and that
+     * their changes reach disk.
+     */
+    @SuppressWarnings("unchecked")
+    public void testIdentityBeyondBound() throws Exception {
+        final ObjectIdentityBdbManualCache<IdentityCacheableWrapper<AtomicInteger>> cbdbmap = 
+            new ObjectIdentityBdbManualCache();
+        cbdbmap.setMaxInMemory(100);
+        cbdbmap.initialize(env, "boundedCache", 
+                IdentityCacheableWrapper.class, env.getClassCatalog());
+        try {
+            List<IdentityCacheableWrapper<AtomicInteger>> held = 
+                new ArrayList<IdentityCacheableWrapper<AtomicInteger>>();
+            for(int i = 0; i < 1000; i++) {
+                String key = ""+i;
+                held.add(cbdbmap.getOrUse(key, 
+                        new Supplier<IdentityCacheableWrapper<AtomicInteger>>(
+                                new IdentityCacheableWrapper<AtomicInteger>(
+                                        key, new AtomicInteger(0)))));
+            }
+            assertTrue("memMap unbounded: " + cbdbmap.memMap.size(), 
+                    cbdbmap.memMap.size() < 1000);
+            for(int i = 0; i < 1000; i++) {
+                IdentityCacheableWrapper<AtomicInteger> wrap = cbdbmap.get(""+i);
+                assertSame("not identical "+i, held.get(i), wrap);
+                wrap.get().set(i);
+                wrap.makeDirty();
+            }
+            assertEquals(1000, cbdbmap.getHitCount());
+            assertEquals(1000, cbdbmap.getMissCount());
+            cbdbmap.sync();
+            held.clear();
+            for(int i = 0; i < 1000; i++) {
+                assertEquals(i, cbdbmap.diskMap.get(""+i).get().get());
+            }
+        } finally {
+            cbdbmap.close();
+        }
+    }
+    
+    /**
+     * Test that dirty items are written by the background flusher,
+     * without any sync().
+     */
+    @SuppressWarnings("unchecked")
+    public void testWriteBehind() throws Exception {
+        final ObjectIdentityBdbManualCache<IdentityCacheableWrapper<AtomicInteger>> cbdbmap = 
+            new ObjectIdentityBdbManualCache();
+        cbdbmap.setMaxDirtyAgeMs(0);
+        cbdbmap.initialize(env, "writeBehindCache", 
+                IdentityCacheableWrapper.class, env.getClassCatalog());
+        try {
+            IdentityCacheableWrapper<AtomicInteger> wrap = cbdbmap.getOrUse("k", 
+                    new Supplier<IdentityCacheableWrapper<AtomicInteger>>(
+                            new IdentityCacheableWrapper<AtomicInteger>(
+                                    "k", new AtomicInteger(0))));
+            wrap.get().set(42);
+            wrap.makeDirty();
+            for(int i = 0; i < 50 && cbdbmap.getFlushedCount() == 0; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, cbdbmap.getFlushedCount());
+            assertEquals(42, cbdbmap.diskMap.get("k").get().get());
+            assertTrue(cbdbmap.getFlushBatchCount() >= 1);
+        } finally {
+            cbdbmap.close();
+        }
+    }
+    
     /**
      * Test that in scarce memory conditions, the memory map is 
      * expunged of otherwise unreferenced entries as expected.
@@ -0,0 +1,98 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for PrefixTrie, against a brute-force scan of all keys.
+ */
+public class PrefixTrieTest extends TestCase {
+
+    public void testSurtPrefixes() {
+        PrefixTrie<String> trie = new PrefixTrie<String>();
+        trie.put("http://(org,archive,", "archive");
+        trie.put("http://(org,example,www,)", "www");
+        trie.put("http://(org,example,home,)/pages/", "pages");
+        trie.put("http://(org,", "org");
+        assertEquals(4, trie.size());
+
+        List<String> found = trie.findPrefixValues("http://(org,archive,www,)/index.html");
+        assertEquals(2, found.size());
+        assertEquals("org", found.get(0));
+        assertEquals("archive", found.get(1));
+
+        assertEquals(1, trie.findPrefixValues("http://(org,example,home,)/").size());
+        assertEquals(2, trie.findPrefixValues("http://(org,example,home,)/pages/x").size());
+        assertEquals(1, trie.findPrefixValues("http://(org,example,home,)/pages/x",
+                "http://(org,example,home,)".length(), new ArrayList<String>()).size());
+        assertEquals(0, trie.findPrefixValues("http://(com,example,)/").size());
+
+        assertTrue(trie.hasKeysExtending("http://(org,example,home,)"));
+        assertFalse(trie.hasKeysExtending("http://(org,example,www,)"));
+        assertTrue(trie.hasKeysExtending("http://(org,arch"));
+        assertFalse(trie.hasKeysExtending("http://(com,"));
+
+        assertEquals("www", trie.put("http://(org,example,www,)", "www2"));
+        assertEquals(4, trie.size());
+    }
+
+    public void testMatchesBruteForce() {
+        Random random = new Random(4321);
+        for (int trial = 0; trial < 200; trial++) {
+            PrefixTrie<String> trie = new PrefixTrie<String>();
+            TreeSet<String> keys = new TreeSet<String>();
+            for (int i = random.nextInt(30); i >= 0; i--) {
+                String key = randomString(random, 6);
+                keys.add(key);
+                trie.put(key, key);
+            }
+            assertEquals(keys.size(), trie.size());
+            for (int i = 0; i < 50; i++) {
+                String input = randomString(random, 8);
+                List<String> expected = new ArrayList<String>();
+                boolean extended = false;
+                for (String key : keys) {
+                    if (input.startsWith(key)) {
+                        expected.add(key);
+                    }
+                    if (key.length() > input.length() && key.startsWith(input)) {
+                        extended = true;
+                    }
+                }
+                assertEquals(input, expected, trie.findPrefixValues(input));
+                assertEquals(input, extended, trie.hasKeysExtending(input));
+            }
+        }
+    }
+
+    protected String randomString(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.fingerprint;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * SortedLongFPRun tests: lookups, reopening, and sequential reads.
+ */
+public class SortedLongFPRunTest extends TmpDirTestCase {
+    protected File runFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        runFile = new File(getTmpDir(), "SortedLongFPRunTest.fps");
+        runFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        runFile.delete();
+        super.tearDown();
+    }
+
+    protected long[] randomFps(int n, long seed) {
+        Random r = new Random(seed);
+        long[] fps = new long[n];
+        for (int i = 0; i < n; i++) {
+            fps[i] = r.nextLong();
+        }
+        Arrays.sort(fps);
+        return fps;
+    }
+
+    public void testContains() throws Exception {
+        long[] fps = randomFps(10000, 1L);
+        SortedLongFPRun.Writer writer = new SortedLongFPRun.Writer(runFile, fps.length);
+        for (long fp : fps) {
+            writer.add(fp);
+        }
+        SortedLongFPRun run = writer.finish();
+        checkRun(run, fps);
+        run.close();
+
+        run = SortedLongFPRun.open(runFile);
+        assertEquals(fps.length, run.count());
+        checkRun(run, fps);
+
+        SortedLongFPRun.Reader reader = run.reader();
+        for (long fp : fps) {
+            assertTrue(reader.hasNext());
+            assertEquals(fp, reader.nextLong());
+        }
+        assertFalse(reader.hasNext());
+        reader.close();
+        run.close();
+    }
+
+    protected void checkRun(SortedLongFPRun run, long[] fps) {
+        for (long fp : fps) {
+            assertTrue(run.contains(fp));
+        }
+        long[] others = randomFps(10000, 2L);
+        for (long fp : others) {
+            assertEquals(Arrays.binarySearch(fps, fp) >= 0, run.contains(fp));
+        }
+        assertFalse(run.contains(Long.MIN_VALUE));
+        assertFalse(run.contains(Long.MAX_VALUE));
+    }
+
+    public void testOutOfOrder() throws Exception {
+        SortedLongFPRun.Writer writer = new SortedLongFPRun.Writer(runFile, 2);
+        writer.add(5);
+        try {
+            writer.add(5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        writer.abort();
+        assertFalse(runFile.exists());
+    }
+}
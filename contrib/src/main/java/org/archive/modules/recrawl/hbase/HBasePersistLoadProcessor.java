@@ -19,11 +19,22 @@
 package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
+import org.archive.crawler.frontier.QueueReadAheadListener;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.Processor;
@@ -34,19 +45,276 @@ import org.archive.modules.recrawl.FetchHistoryProcessor;
  * See {@link HBasePersistProcessor} for table schema.
  * As with other fetch history processors, this needs to be combined with {@link FetchHistoryProcessor}
  * (set up after FetchHTTP, before WarcWriter) to work.
+ * <p>With {@link #setPrefetchBatchSize(int)} positive, rows are also prefetched, in
+ * batched multi-gets on a background thread, for URIs the frontier reads ahead from
+ * its queue heads (see {@link QueueReadAheadListener}); a URI whose row was prefetched
+ * then needs no round trip to HBase on the ToeThread.
  * @see HBasePersistStoreProcessor
  * @contributor kenji
  */
-public class HBasePersistLoadProcessor extends HBasePersistProcessor {
+public class HBasePersistLoadProcessor extends HBasePersistProcessor
+implements QueueReadAheadListener {
     private static final Logger logger =
             Logger.getLogger(HBasePersistLoadProcessor.class.getName());
 
+    protected int prefetchBatchSize = 0;
+    public int getPrefetchBatchSize() {
+        return prefetchBatchSize;
+    }
+    /**
+     * maximum number of rows to get in one batch, when prefetching rows for
+     * URIs read ahead from frontier queues. 0 (the default) disables
+     * prefetching. takes effect at start. 
+     * 
+     * only URIs read ahead by the frontier are prefetched, so this has no 
+     * effect unless the frontier is a BdbFrontier with queueHeadPrefetch
+     * greater than 1.
+     */
+    public void setPrefetchBatchSize(int prefetchBatchSize) {
+        this.prefetchBatchSize = prefetchBatchSize;
+    }
+
+    protected int prefetchMaxPending = 10000;
+    public int getPrefetchMaxPending() {
+        return prefetchMaxPending;
+    }
+    /**
+     * maximum number of prefetches queued or held awaiting their URIs;
+     * URIs read ahead beyond this are not prefetched.
+     */
+    public void setPrefetchMaxPending(int prefetchMaxPending) {
+        this.prefetchMaxPending = prefetchMaxPending;
+    }
+
+    protected int prefetchWaitMs = 2000;
+    public int getPrefetchWaitMs() {
+        return prefetchWaitMs;
+    }
+    /**
+     * maximum time to wait for a URI's prefetch, already under way, to
+     * complete, before getting its row directly.
+     */
+    public void setPrefetchWaitMs(int prefetchWaitMs) {
+        this.prefetchWaitMs = prefetchWaitMs;
+    }
+
+    protected int prefetchMaxAgeMs = 5 * 60 * 1000;
+    public int getPrefetchMaxAgeMs() {
+        return prefetchMaxAgeMs;
+    }
+    /**
+     * prefetched rows older than this are discarded unused, and the row
+     * gotten again (as the URI may since have been stored anew).
+     */
+    public void setPrefetchMaxAgeMs(int prefetchMaxAgeMs) {
+        this.prefetchMaxAgeMs = prefetchMaxAgeMs;
+    }
+
+    /**
+     * row Get, queued or done, for a URI read ahead.
+     */
+    protected static class Prefetch {
+        protected final Get get;
+        protected final long created = System.currentTimeMillis();
+        protected Result result;
+        protected boolean done = false;
+
+        protected Prefetch(Get get) {
+            this.get = get;
+        }
+
+        /**
+         * @param r row, or null if get failed
+         */
+        protected synchronized void complete(Result r) {
+            result = r;
+            done = true;
+            notifyAll();
+        }
+
+        protected synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @return row, or null if get failed or didn't complete in time
+         */
+        protected synchronized Result await(long ms) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + ms;
+            while (!done) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                wait(remaining);
+            }
+            return result;
+        }
+    }
+
+    protected transient ConcurrentMap<ByteBuffer, Prefetch> prefetches;
+    protected transient volatile BlockingQueue<Prefetch> prefetchQueue;
+    protected transient Thread prefetchThread;
+
+    protected AtomicLong prefetchHits = new AtomicLong();
+    protected AtomicLong prefetchMisses = new AtomicLong();
+    protected AtomicLong prefetchBatches = new AtomicLong();
+
+    public long getPrefetchHits() { return prefetchHits.get(); }
+    public long getPrefetchMisses() { return prefetchMisses.get(); }
+    public long getPrefetchBatches() { return prefetchBatches.get(); }
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        if (getPrefetchBatchSize() > 0) {
+            prefetches = new ConcurrentHashMap<ByteBuffer, Prefetch>();
+            final BlockingQueue<Prefetch> queue = new LinkedBlockingQueue<Prefetch>();
+            prefetchThread = new Thread(getBeanName() + " prefetch") {
+                public void run() {
+                    prefetchLoop(queue);
+                }
+            };
+            prefetchThread.setDaemon(true);
+            prefetchThread.start();
+            prefetchQueue = queue;
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        super.stop();
+        prefetchQueue = null;
+        if (prefetchThread != null) {
+            prefetchThread.interrupt();
+            prefetchThread = null;
+        }
+    }
+
+    /**
+     * queue prefetches for those of the given URIs this processor will
+     * process, and for which there is room. called with the frontier 
+     * queue locked, so leaves discarding stale prefetches to the prefetch
+     * thread.
+     */
+    public void readAhead(List<CrawlURI> upcoming) {
+        BlockingQueue<Prefetch> queue = prefetchQueue;
+        if (queue == null) {
+            return;
+        }
+        for (CrawlURI curi : upcoming) {
+            if (!shouldProcess(curi)) {
+                continue;
+            }
+            if (prefetches.size() >= getPrefetchMaxPending()) {
+                return;
+            }
+            byte[] key = rowKeyForURI(curi);
+            ByteBuffer mapKey = ByteBuffer.wrap(key);
+            Prefetch p = new Prefetch(new Get(key));
+            if (prefetches.putIfAbsent(mapKey, p) == null) {
+                queue.add(p);
+            }
+        }
+    }
+
+    /**
+     * get queued prefetches' rows, in batches, until interrupted; while 
+     * idle, discard stale prefetches.
+     */
+    protected void prefetchLoop(BlockingQueue<Prefetch> queue) {
+        List<Prefetch> batch = new ArrayList<Prefetch>();
+        List<Get> gets = new ArrayList<Get>();
+        while (true) {
+            Prefetch first;
+            try {
+                first = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                if (prefetches.size() > getPrefetchMaxPending() / 2) {
+                    expirePrefetches();
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, getPrefetchBatchSize() - 1);
+            for (Prefetch p : batch) {
+                gets.add(p.get);
+            }
+            Result[] results = null;
+            try {
+                results = table.get(gets);
+            } catch (IOException e) {
+                logger.warning("problem prefetching " + gets.size() 
+                        + " rows from hbase - " + e);
+            } catch (Exception e) {
+                // as in innerProcessResult(), ZooKeeper failures arrive as
+                // RuntimeExceptions
+                logger.log(Level.WARNING, "prefetch of " + gets.size() 
+                        + " rows failed", e);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(results == null ? null : results[i]);
+            }
+            prefetchBatches.incrementAndGet();
+            batch.clear();
+            gets.clear();
+            if (prefetches.size() > getPrefetchMaxPending() / 2) {
+                expirePrefetches();
+            }
+        }
+    }
+
+    /**
+     * discard completed prefetches too old to be used (as for URIs read
+     * ahead, but then not emitted).
+     */
+    protected void expirePrefetches() {
+        long cutoff = System.currentTimeMillis() - getPrefetchMaxAgeMs();
+        for (Map.Entry<ByteBuffer, Prefetch> entry : prefetches.entrySet()) {
+            Prefetch p = entry.getValue();
+            if (p.created < cutoff && p.isDone()) {
+                prefetches.remove(entry.getKey(), p);
+            }
+        }
+    }
+
+    /**
+     * @return prefetched row for the key, or null if none usable
+     */
+    protected Result takePrefetched(byte[] key) throws InterruptedException {
+        if (prefetches == null) {
+            return null;
+        }
+        Prefetch p = prefetches.remove(ByteBuffer.wrap(key));
+        Result r = null;
+        if (p != null && System.currentTimeMillis() - p.created <= getPrefetchMaxAgeMs()) {
+            r = p.await(getPrefetchWaitMs());
+        }
+        if (r == null) {
+            prefetchMisses.incrementAndGet();
+        } else {
+            prefetchHits.incrementAndGet();
+        }
+        return r;
+    }
+
     @Override
     protected ProcessResult innerProcessResult(CrawlURI uri) throws InterruptedException {
         byte[] key = rowKeyForURI(uri);
-        Get g = new Get(key);
         try {
-            Result r = table.get(g);
+            Result r = takePrefetched(key);
+            if (r == null) {
+                r = table.get(new Get(key));
+            }
             // no data for uri is indicated by empty Result
             if (r.isEmpty()) {
                 if (logger.isLoggable(Level.FINE)) {
@@ -85,4 +353,16 @@ public class HBasePersistLoadProcessor extends HBasePersistProcessor {
         }
         return true;
     }
+
+    @Override
+    public String report() {
+        StringBuilder buf = new StringBuilder(super.report());
+        if (prefetches != null) {
+            buf.append("  Prefetch hits:     " + prefetchHits + "\n");
+            buf.append("  Prefetch misses:   " + prefetchMisses + "\n");
+            buf.append("  Prefetch batches:  " + prefetchBatches + "\n");
+            buf.append("  Prefetches held:   " + prefetches.size() + "\n");
+        }
+        return buf.toString();
+    }
 }
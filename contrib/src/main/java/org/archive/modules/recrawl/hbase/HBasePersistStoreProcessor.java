@@ -19,6 +19,11 @@
 package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import org.apache.hadoop.hbase.HColumnDescriptor;
@@ -28,11 +33,21 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
 import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStatusCodes;
 import org.archive.modules.recrawl.RecrawlAttributeConstants;
+import org.archive.util.ArchiveUtils;
 
 /**
+ * A {@link org.archive.modules.Processor} for storing recrawl info into HBase table.
+ * <p>By default each URI's row is put on the ToeThread. With
+ * {@link #setAsyncPutQueueBytes(long)} positive, rows are instead queued and put,
+ * in batches, by a background thread. The queue is bounded by the
+ * heap size of the queued Puts; ToeThreads wait when it is full. Queued puts
+ * are completed before each checkpoint, and a checkpoint fails if any put
+ * since the previous one was given up on, so that every URI finished before a
+ * successful checkpoint has had its row stored at least once.
  * @contributor kenji
  */
 public class HBasePersistStoreProcessor extends HBasePersistProcessor implements FetchStatusCodes, RecrawlAttributeConstants {
@@ -67,6 +82,218 @@ public class HBasePersistStoreProcessor extends HBasePersistProcessor implements
         this.maxTries = maxTries;
     }
 
+    protected long asyncPutQueueBytes = 0;
+    public long getAsyncPutQueueBytes() {
+        return asyncPutQueueBytes;
+    }
+    /**
+     * maximum heap bytes of Puts to hold queued for the background put
+     * thread. 0 (the default) puts each row on the ToeThread. takes effect
+     * at start.
+     */
+    public void setAsyncPutQueueBytes(long asyncPutQueueBytes) {
+        this.asyncPutQueueBytes = asyncPutQueueBytes;
+    }
+
+    protected int putBatchSize = 100;
+    public int getPutBatchSize() {
+        return putBatchSize;
+    }
+    /**
+     * maximum number of queued Puts to send in one batch.
+     */
+    public void setPutBatchSize(int putBatchSize) {
+        this.putBatchSize = putBatchSize;
+    }
+
+    protected transient BlockingQueue<Put> putQueue;
+    protected transient Thread putThread;
+    /** heap bytes of Puts queued or being put; guarded by putQueue */
+    protected long queuedPutBytes = 0;
+    /** Puts queued or being put; guarded by putQueue */
+    protected int queuedPuts = 0;
+
+    protected AtomicLong putBatches = new AtomicLong();
+    protected AtomicLong putsAbandoned = new AtomicLong();
+    /** puts abandoned since last checkpoint */
+    protected AtomicLong putsAbandonedSinceCheckpoint = new AtomicLong();
+
+    public long getPutBatches() { return putBatches.get(); }
+    public long getPutsAbandoned() { return putsAbandoned.get(); }
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        if (getAsyncPutQueueBytes() > 0) {
+            putQueue = new LinkedBlockingQueue<Put>();
+            putThread = new Thread(getBeanName() + " put") {
+                public void run() {
+                    putLoop();
+                }
+            };
+            putThread.setDaemon(true);
+            putThread.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        if (putQueue != null) {
+            try {
+                flush();
+            } catch (InterruptedException e) {
+                logger.warning("interrupted; " + queuedPuts + " queued puts abandoned");
+            }
+            putThread.interrupt();
+            putThread = null;
+            putQueue = null;
+        }
+        super.stop();
+    }
+
+    /**
+     * Complete all queued puts, as before checkpointing.
+     */
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        if (putQueue != null) {
+            try {
+                flush();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted awaiting queued puts", e);
+            }
+            long abandoned = putsAbandonedSinceCheckpoint.getAndSet(0);
+            if (abandoned > 0) {
+                throw new IOException(abandoned + " puts abandoned since last "
+                        + "checkpoint; history for some URIs is not stored");
+            }
+        }
+        super.doCheckpoint(checkpointInProgress);
+    }
+
+    /**
+     * Wait until all queued Puts have been put (or abandoned).
+     */
+    public void flush() throws InterruptedException {
+        synchronized (putQueue) {
+            while (queuedPuts > 0) {
+                putQueue.wait();
+            }
+        }
+    }
+
+    /**
+     * queue the Put for the background thread, waiting while the queue is
+     * full. a Put larger than the whole queue is admitted when the queue is
+     * empty.
+     */
+    protected void enqueue(Put p) throws InterruptedException {
+        long size = p.heapSize();
+        synchronized (putQueue) {
+            while (queuedPuts > 0 && queuedPutBytes + size > getAsyncPutQueueBytes()) {
+                putQueue.wait();
+            }
+            queuedPutBytes += size;
+            queuedPuts++;
+        }
+        putQueue.add(p);
+    }
+
+    /**
+     * put queued Puts, in batches, until interrupted.
+     */
+    protected void putLoop() {
+        List<Put> batch = new ArrayList<Put>();
+        while (true) {
+            try {
+                batch.add(putQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            putQueue.drainTo(batch, getPutBatchSize() - 1);
+            long size = 0;
+            for (Put p : batch) {
+                size += p.heapSize();
+            }
+            try {
+                if (!putWithRetries(batch)) {
+                    putsAbandoned.addAndGet(batch.size());
+                    putsAbandonedSinceCheckpoint.addAndGet(batch.size());
+                }
+                putBatches.incrementAndGet();
+            } finally {
+                synchronized (putQueue) {
+                    queuedPutBytes -= size;
+                    queuedPuts -= batch.size();
+                    putQueue.notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * put the batch, retrying as configured by maxTries and retryIntervalMs.
+     * @return true if put succeeded
+     */
+    protected boolean putWithRetries(List<Put> batch) {
+        int tryCount = 0;
+        do {
+            tryCount++;
+            try {
+                table.put(batch);
+                return true;
+            } catch (RetriesExhaustedWithDetailsException e) {
+                if (e.getCause(0) instanceof NoSuchColumnFamilyException && getAddColumnFamily()) {
+                    addColumnFamily();
+                    tryCount--;
+                } else {
+                    logger.warning("batch put of " + batch.size() + " failed (try "
+                            + tryCount + " of " + getMaxTries() + ") - " + e);
+                }
+            } catch (IOException e) {
+                logger.warning("batch put of " + batch.size() + " failed (try "
+                        + tryCount + " of " + getMaxTries() + ") - " + e);
+            } catch (RuntimeException e) {
+                // HTable.put() throws NullPointerException while connection is lost.
+                logger.warning("batch put of " + batch.size() + " failed (try "
+                        + tryCount + " of " + getMaxTries() + ") - " + e);
+            }
+            if (tryCount > 0 && tryCount < getMaxTries()) {
+                try {
+                    Thread.sleep(getRetryIntervalMs());
+                } catch (InterruptedException ex) {
+                    logger.warning("thread interrupted. aborting retry of batch put");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } while (tryCount < getMaxTries());
+        logger.warning("giving up after " + tryCount + " tries on batch put of " 
+                + batch.size() + " rows");
+        return false;
+    }
+
+    @Override
+    public String report() {
+        StringBuilder buf = new StringBuilder(super.report());
+        if (putQueue != null) {
+            synchronized (putQueue) {
+                buf.append("  Queued puts:       " + queuedPuts + " (" 
+                        + ArchiveUtils.formatBytesForDisplay(queuedPutBytes) + ")\n");
+            }
+            buf.append("  Put batches:       " + putBatches + "\n");
+            buf.append("  Puts abandoned:    " + putsAbandoned + "\n");
+        }
+        return buf.toString();
+    }
+
     protected synchronized void addColumnFamily() {
         try {
             HTableDescriptor oldDesc = table.getHtableDescriptor();
@@ -86,8 +313,12 @@ public class HBasePersistStoreProcessor extends HBasePersistProcessor implements
     }
 
     @Override
-    protected void innerProcess(CrawlURI uri) {
+    protected void innerProcess(CrawlURI uri) throws InterruptedException {
         Put p = schema.createPut(uri);
+        if (putQueue != null) {
+            enqueue(p);
+            return;
+        }
         int tryCount = 0;
         do {
             tryCount++;
@@ -19,6 +19,7 @@
 package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -85,6 +86,26 @@ public class HBaseTable extends HBaseTableBean {
         }
     }
 
+    @Override
+    public void put(List<Put> puts) throws IOException {
+        HTableInterface table = htablePool().getTable(htableName);
+        try {
+            table.put(puts);
+        } finally {
+            htablePool().putTable(table);
+        }
+    }
+
+    @Override
+    public Result[] get(List<Get> gets) throws IOException {
+        HTableInterface table = htablePool().getTable(htableName);
+        try {
+            return table.get(gets);
+        } finally {
+            htablePool().putTable(table);
+        }
+    }
+
     public HTableDescriptor getHtableDescriptor() throws IOException {
         HTableInterface table = htablePool().getTable(htableName);
         try {
@@ -1,6 +1,7 @@
 package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Get;
@@ -57,6 +58,33 @@ public abstract class HBaseTableBean implements Lifecycle {
     public abstract void put(Put p) throws IOException;
 
     public abstract Result get(Get g) throws IOException;
+
+    /**
+     * put several rows, in one round trip where the implementation allows.
+     * this default implementation puts them one by one.
+     * @param puts Puts to apply.
+     * @throws IOException
+     */
+    public void put(List<Put> puts) throws IOException {
+        for (Put p : puts) {
+            put(p);
+        }
+    }
+
+    /**
+     * get several rows, in one round trip where the implementation allows.
+     * this default implementation gets them one by one.
+     * @param gets Gets to perform.
+     * @return Results, in the same order as {@code gets}.
+     * @throws IOException
+     */
+    public Result[] get(List<Get> gets) throws IOException {
+        Result[] results = new Result[gets.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = get(gets.get(i));
+        }
+        return results;
+    }
     
     public abstract HTableDescriptor getHtableDescriptor() throws IOException;
 
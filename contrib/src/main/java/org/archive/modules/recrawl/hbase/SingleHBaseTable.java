@@ -20,6 +20,7 @@ package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -264,6 +265,97 @@ public class SingleHBaseTable extends HBaseTableBean {
         }
     }
     
+    /**
+     * put several rows under one acquisition of the table.
+     * with autoFlush, they go to HBase in one batch.
+     */
+    @Override
+    public void put(List<Put> puts) throws IOException {
+        putCount.addAndGet(puts.size());
+        getTable();
+        boolean htableFailed = false;
+        HTableInterface htable = null;
+        Lock readLock = tableUseLock.readLock();
+        try {
+            if (!readLock.tryLock(TRY_READ_LOCK_TIMEOUT, TimeUnit.SECONDS)) {
+                putSkipCount.addAndGet(puts.size());
+                throw new IOException("could not acquire read lock for HTable.");
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException("interrupted while acquiring read lock", ex);
+        }
+        try {
+            htable = table;
+            if (htable == null) {
+                putSkipCount.addAndGet(puts.size());
+                throw new IOException("HBase connection is unvailable.");
+            }
+            synchronized (htable) {
+                try {
+                    htable.put(puts);
+                } catch (NullPointerException ex) {
+                    putErrorCount.incrementAndGet();
+                    htableFailed = true;
+                    throw new IOException("hbase connection is lost", ex);
+                } catch (NotServingRegionException ex) {
+                    putErrorCount.incrementAndGet();
+                    throw ex;
+                } catch (IOException ex) {
+                    putErrorCount.incrementAndGet();
+                    htableFailed = true;
+                    throw ex;
+                }
+            }
+        } finally {
+            readLock.unlock();
+            if (htableFailed) {
+                closeTable(htable, true);
+            }
+        }
+    }
+
+    /**
+     * get several rows in one batch.
+     */
+    @Override
+    public Result[] get(List<Get> gets) throws IOException {
+        getCount.addAndGet(gets.size());
+        getTable();
+        boolean htableFailed = false;
+        HTableInterface htable = null;
+        Lock readLock = tableUseLock.readLock();
+        try {
+            if (!readLock.tryLock(TRY_READ_LOCK_TIMEOUT, TimeUnit.SECONDS)) {
+                getSkipCount.addAndGet(gets.size());
+                throw new IOException("could not acquire read lock for HTable.");
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException("interrupted while acquiring read lock", ex);
+        }
+        try {
+            htable = table;
+            if (htable == null) {
+                getSkipCount.addAndGet(gets.size());
+                throw new IOException("HBase connection is unvailable.");
+            }
+            try {
+                return htable.get(gets);
+            } catch (NotServingRegionException ex) {
+                getErrorCount.incrementAndGet();
+                throw ex;
+            } catch (IOException ex) {
+                getErrorCount.incrementAndGet();
+                htableFailed = true;
+                throw ex;
+            }
+        } finally {
+            readLock.unlock();
+            if (htableFailed) {
+                closeTable(htable, true);
+            }
+        }
+    }
+    
     @Override
     public HTableDescriptor getHtableDescriptor() throws IOException {
         HTableInterface table = getTable();
@@ -0,0 +1,136 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.archive.checkpointing.Checkpoint;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.recrawl.RecrawlAttributeConstants;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests of batched, asynchronous HBase persist store and prefetched
+ * persist load, against an {@link InMemoryHBaseTable}.
+ */
+public class HBasePersistProcessorTest extends TestCase {
+    protected static final int URI_COUNT = 50;
+
+    protected InMemoryHBaseTable table;
+    protected SingleColumnJsonRecrawlDataSchema schema;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        table = new InMemoryHBaseTable();
+        schema = new SingleColumnJsonRecrawlDataSchema();
+    }
+
+    protected List<CrawlURI> makeCrawlURIs(int fetchStatus) throws IOException {
+        List<CrawlURI> curis = new ArrayList<CrawlURI>();
+        for (int i = 0; i < URI_COUNT; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                    "http://www.example.com/page" + i));
+            curi.setFetchStatus(fetchStatus);
+            curis.add(curi);
+        }
+        return curis;
+    }
+
+    protected HBasePersistStoreProcessor makeStoreProcessor() {
+        HBasePersistStoreProcessor store = new HBasePersistStoreProcessor();
+        store.setTable(table);
+        store.setSchema(schema);
+        store.setAsyncPutQueueBytes(4096);
+        store.setPutBatchSize(10);
+        store.setMaxTries(1);
+        store.setOnlyStoreIfWriteTagPresent(false);
+        store.start();
+        return store;
+    }
+
+    public void testAsyncStoreThenPrefetchedLoad() throws Exception {
+        HBasePersistStoreProcessor store = makeStoreProcessor();
+        for (CrawlURI curi : makeCrawlURIs(200)) {
+            store.process(curi);
+        }
+        store.flush();
+        assertEquals(URI_COUNT, table.getRowCount());
+        assertEquals(0, table.puts.get());
+        assertTrue(table.batchPuts.get() > 0);
+        store.stop();
+
+        HBasePersistLoadProcessor load = new HBasePersistLoadProcessor();
+        load.setTable(table);
+        load.setSchema(schema);
+        load.setPrefetchBatchSize(20);
+        load.start();
+        List<CrawlURI> fresh = makeCrawlURIs(0);
+        load.readAhead(fresh);
+        for (CrawlURI curi : fresh) {
+            load.process(curi);
+            @SuppressWarnings("unchecked")
+            Map<String, Object>[] history = (Map<String, Object>[]) 
+                curi.getData().get(RecrawlAttributeConstants.A_FETCH_HISTORY);
+            assertNotNull("no history for " + curi, history);
+            assertEquals(200, history[0].get(RecrawlAttributeConstants.A_STATUS));
+        }
+        assertEquals(0, table.gets.get());
+        assertTrue(table.batchGets.get() > 0);
+        assertEquals(URI_COUNT, load.getPrefetchHits());
+        load.stop();
+    }
+
+    public void testUnprefetchedLoadFallsBackToGet() throws Exception {
+        HBasePersistLoadProcessor load = new HBasePersistLoadProcessor();
+        load.setTable(table);
+        load.setSchema(schema);
+        load.setPrefetchBatchSize(20);
+        load.start();
+        CrawlURI curi = makeCrawlURIs(0).get(0);
+        load.process(curi);
+        assertEquals(1, table.gets.get());
+        assertEquals(1, load.getPrefetchMisses());
+        assertNull(curi.getData().get(RecrawlAttributeConstants.A_FETCH_HISTORY));
+        load.stop();
+    }
+
+    public void testAbandonedPutsFailCheckpoint() throws Exception {
+        HBasePersistStoreProcessor store = makeStoreProcessor();
+        table.failPuts = true;
+        for (CrawlURI curi : makeCrawlURIs(200)) {
+            store.process(curi);
+        }
+        store.flush();
+        assertEquals(URI_COUNT, store.getPutsAbandoned());
+        try {
+            store.doCheckpoint(new Checkpoint());
+            fail("checkpoint should fail after abandoned puts");
+        } catch (IOException e) {
+            // expected
+        }
+        store.stop();
+    }
+}
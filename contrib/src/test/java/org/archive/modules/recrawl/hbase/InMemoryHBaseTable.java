@@ -0,0 +1,127 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * In-process stand-in for an HBase table, for tests: keeps the latest
+ * value of each cell in memory, stamping cells put without a timestamp
+ * with the current time, as the region server would. Counts single and
+ * batch calls, and can be made to fail puts.
+ */
+public class InMemoryHBaseTable extends HBaseTableBean {
+    /** row key to cells, each cell keyed by family:qualifier */
+    protected Map<byte[], Map<byte[], KeyValue>> rows = 
+        new TreeMap<byte[], Map<byte[], KeyValue>>(Bytes.BYTES_COMPARATOR);
+
+    protected AtomicInteger gets = new AtomicInteger();
+    protected AtomicInteger batchGets = new AtomicInteger();
+    protected AtomicInteger puts = new AtomicInteger();
+    protected AtomicInteger batchPuts = new AtomicInteger();
+    protected volatile boolean failPuts = false;
+
+    public InMemoryHBaseTable() {
+        setHtableName("test");
+    }
+
+    @Override
+    public void put(Put p) throws IOException {
+        puts.incrementAndGet();
+        store(p);
+    }
+
+    @Override
+    public void put(List<Put> ps) throws IOException {
+        batchPuts.incrementAndGet();
+        for (Put p : ps) {
+            store(p);
+        }
+    }
+
+    protected synchronized void store(Put p) throws IOException {
+        if (failPuts) {
+            throw new IOException("puts failing");
+        }
+        Map<byte[], KeyValue> row = rows.get(p.getRow());
+        if (row == null) {
+            row = new TreeMap<byte[], KeyValue>(Bytes.BYTES_COMPARATOR);
+            rows.put(p.getRow(), row);
+        }
+        long now = System.currentTimeMillis();
+        for (List<KeyValue> kvs : p.getFamilyMap().values()) {
+            for (KeyValue kv : kvs) {
+                long ts = kv.getTimestamp() == Long.MAX_VALUE ? now : kv.getTimestamp();
+                row.put(Bytes.add(kv.getFamily(), Bytes.toBytes(":"), kv.getQualifier()),
+                        new KeyValue(kv.getRow(), kv.getFamily(), kv.getQualifier(), ts, kv.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public Result get(Get g) throws IOException {
+        gets.incrementAndGet();
+        return fetch(g);
+    }
+
+    @Override
+    public Result[] get(List<Get> gs) throws IOException {
+        batchGets.incrementAndGet();
+        Result[] results = new Result[gs.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = fetch(gs.get(i));
+        }
+        return results;
+    }
+
+    protected synchronized Result fetch(Get g) {
+        Map<byte[], KeyValue> row = rows.get(g.getRow());
+        List<KeyValue> kvs = new ArrayList<KeyValue>();
+        if (row != null) {
+            // keyed by family:qualifier, so already in KeyValue order
+            kvs.addAll(row.values());
+        }
+        return new Result(kvs);
+    }
+
+    public synchronized int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public HTableDescriptor getHtableDescriptor() throws IOException {
+        HTableDescriptor desc = new HTableDescriptor(getHtableName());
+        desc.addFamily(new HColumnDescriptor(RecrawlDataSchemaBase.DEFAULT_COLUMN_FAMILY));
+        return desc;
+    }
+}
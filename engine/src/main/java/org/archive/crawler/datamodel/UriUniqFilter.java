@@ -95,6 +95,22 @@ public interface UriUniqFilter {
      */
     public void addForce(String key, CrawlURI value);
     
+    /**
+     * Quick probe: whether given key is certainly already included, so
+     * that an add() would drop it. If so, the key is tallied as a 
+     * duplicate, just as add() would have tallied it, allowing callers to
+     * skip further work on the item and not call add() at all.
+     * 
+     * Implementations answer false whenever a definite answer isn't
+     * cheaply available (as for items pending a batch merge).
+     * 
+     * @param key Usually a canonicalized version of an <code>URI</code>.
+     * This is the key used doing lookups, forgets and insertions on the
+     * already included list.
+     * @return true if key is certainly already included
+     */
+    public boolean alreadyIncluded(String key);
+    
     /**
      * Note item as seen, without passing through to receiver.
      * @param key Usually a canonicalized version of an <code>URI</code>.
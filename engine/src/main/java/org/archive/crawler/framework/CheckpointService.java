@@ -25,11 +25,21 @@ import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +48,8 @@ import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.archive.checkpointing.Checkpoint;
 import org.archive.checkpointing.Checkpointable;
+import org.archive.checkpointing.PhasedCheckpointable;
+import org.archive.checkpointing.SnapshotCheckpointable;
 import org.archive.crawler.reporting.CrawlStatSnapshot;
 import org.archive.spring.ConfigPath;
 import org.archive.spring.ConfigPathConfigurer;
@@ -124,6 +136,19 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         }
     }
     
+    protected int checkpointThreads = 4;
+    public int getCheckpointThreads() {
+        return checkpointThreads;
+    }
+    /**
+     * Most threads with which to run beans' doCheckpoint() concurrently 
+     * (within each phase; see PhasedCheckpointable). 1 runs them one at a
+     * time. Default is 4. 
+     */
+    public void setCheckpointThreads(int checkpointThreads) {
+        this.checkpointThreads = checkpointThreads;
+    }
+    
     protected Checkpoint recoveryCheckpoint;
     @Autowired(required=false)
     public void setRecoveryCheckpoint(Checkpoint checkpoint) {
@@ -258,29 +283,89 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.fine("checkpointing beans " + toCheckpoint);
         }
+        // beans whose doCheckpoint() needn't hold the crawl still, and
+        // all others, by phase
+        Map<String,Checkpointable> snapshotting = new LinkedHashMap<String,Checkpointable>();
+        Map<String,Checkpointable> holding = new LinkedHashMap<String,Checkpointable>();
+        SortedMap<Integer,Map<String,Checkpointable>> phases = 
+            new TreeMap<Integer,Map<String,Checkpointable>>();
+        for (Map.Entry<String,Checkpointable> entry : toCheckpoint.entrySet()) {
+            Checkpointable c = entry.getValue();
+            if (c instanceof SnapshotCheckpointable) {
+                snapshotting.put(entry.getKey(), c);
+                continue;
+            }
+            holding.put(entry.getKey(), c);
+            int phase = (c instanceof PhasedCheckpointable) 
+                ? ((PhasedCheckpointable)c).getCheckpointPhase()
+                : PhasedCheckpointable.DEFAULT_PHASE;
+            if (!phases.containsKey(phase)) {
+                phases.put(phase, new LinkedHashMap<String,Checkpointable>());
+            }
+            phases.get(phase).put(entry.getKey(), c);
+        }
         
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, getCheckpointThreads()), new ThreadFactory() {
+                    int count = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "checkpoint-" + (count++));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        Map<String,Future<?>> snapshotWork = new LinkedHashMap<String,Future<?>>();
+        boolean crawlReleased = false;
+        boolean snapshotsAwaited = false;
+        String progressStamp = null;
         checkpointInProgress = new Checkpoint();
         try {
             checkpointInProgress.setForgetAllButLatest(getForgetAllButLatest());
             checkpointInProgress.generateFrom(getCheckpointsDir(),
                     getNextCheckpointNumber());
 
-            // pre (incl. acquire necessary locks)
+            // pre (incl. acquire necessary locks); snapshots last, so 
+            // taken with the crawl already held
+            Map<String,Checkpointable> startOrder = new LinkedHashMap<String,Checkpointable>(holding);
+            startOrder.putAll(snapshotting);
             long startStart = System.currentTimeMillis();
-            for (Checkpointable c : toCheckpoint.values()) {
-                c.startCheckpoint(checkpointInProgress);
+            for (Map.Entry<String,Checkpointable> entry : startOrder.entrySet()) {
+                long startMs = System.currentTimeMillis();
+                entry.getValue().startCheckpoint(checkpointInProgress);
+                checkpointInProgress.noteTiming("startCheckpoint", entry.getKey(),
+                        System.currentTimeMillis() - startMs);
             }
             LOGGER.info("all startCheckpoint() completed in "
                     + (System.currentTimeMillis() - startStart) + "ms");
 
-            // flush/write
+            // flush/write: snapshotting beans in background; all others
+            // concurrently within each phase, phase by phase
             long doStart = System.currentTimeMillis();
-            for (Checkpointable c : toCheckpoint.values()) {
-                long doMs = System.currentTimeMillis();
-                c.doCheckpoint(checkpointInProgress);
-                long doDuration = System.currentTimeMillis() - doMs;
-                LOGGER.fine("doCheckpoint() " + c + " in " + doDuration + "ms");
+            for (Map.Entry<String,Checkpointable> entry : snapshotting.entrySet()) {
+                snapshotWork.put(entry.getKey(), 
+                        submitDoCheckpoint(executor, entry.getKey(), entry.getValue()));
             }
+            for (Map<String,Checkpointable> phase : phases.values()) {
+                Map<String,Future<?>> phaseWork = new LinkedHashMap<String,Future<?>>();
+                for (Map.Entry<String,Checkpointable> entry : phase.entrySet()) {
+                    phaseWork.put(entry.getKey(), 
+                            submitDoCheckpoint(executor, entry.getKey(), entry.getValue()));
+                }
+                awaitDoCheckpoints(phaseWork);
+            }
+            LOGGER.info("all crawl-holding doCheckpoint() completed in "
+                    + (System.currentTimeMillis() - doStart) + "ms");
+            
+            // note progress as checkpointed, then let crawl resume
+            progressStamp = controller.getStatisticsTracker().getProgressStamp();
+            lastCheckpointSnapshot = controller.getStatisticsTracker().getSnapshot();
+            crawlReleased = true;
+            finishCheckpoints(holding);
+            checkpointInProgress.noteTiming("checkpoint", "crawlHeld", 
+                    System.currentTimeMillis() - checkpointStart);
+            
+            snapshotsAwaited = true;
+            awaitDoCheckpoints(snapshotWork);
             LOGGER.info("all doCheckpoint() completed in "
                     + (System.currentTimeMillis() - doStart) + "ms");
             
@@ -306,16 +391,24 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         } catch (Exception e) {
             checkpointFailed(e);
         } finally {
-            checkpointInProgress.writeValidity(
-                controller.getStatisticsTracker().getProgressStamp());
-            lastCheckpointSnapshot = controller.getStatisticsTracker().getSnapshot();
-            // close (incl. release locks)
-            long finishStart = System.currentTimeMillis();
-            for (Checkpointable c : toCheckpoint.values()) {
-                c.finishCheckpoint(checkpointInProgress);
+            if (crawlReleased && snapshotsAwaited) {
+                executor.shutdown();
+            } else {
+                // failed or interrupted with doCheckpoint() work possibly
+                // still running: it must end before its beans are finished
+                terminateDoCheckpoints(executor);
             }
-            LOGGER.info("all finishCheckpoint() completed in "
-                    + (System.currentTimeMillis() - finishStart) + "ms");
+            if (!crawlReleased) {
+                progressStamp = controller.getStatisticsTracker().getProgressStamp();
+                lastCheckpointSnapshot = controller.getStatisticsTracker().getSnapshot();
+                // close (incl. release locks)
+                finishCheckpoints(holding);
+            }
+            checkpointInProgress.writeValidity(progressStamp);
+            finishCheckpoints(snapshotting);
+            checkpointInProgress.noteTiming("checkpoint", "total", 
+                    System.currentTimeMillis() - checkpointStart);
+            checkpointInProgress.writeTimings();
         }
         LOGGER.info("completed checkpoint " + checkpointInProgress.getName()
                 + " in " + (System.currentTimeMillis() - checkpointStart) + "ms");
@@ -326,6 +419,93 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         this.checkpointInProgress = null;
         return nameToReport;
     }
+    
+    /**
+     * Start the given bean's doCheckpoint() on the executor, noting its 
+     * timing in the checkpoint in progress.
+     * 
+     * @return Future of the doCheckpoint() work
+     */
+    protected Future<?> submitDoCheckpoint(ExecutorService executor, 
+            final String beanName, final Checkpointable c) {
+        final Checkpoint checkpoint = checkpointInProgress;
+        return executor.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                long doMs = System.currentTimeMillis();
+                c.doCheckpoint(checkpoint);
+                long doDuration = System.currentTimeMillis() - doMs;
+                checkpoint.noteTiming("doCheckpoint", beanName, doDuration);
+                LOGGER.fine("doCheckpoint() " + c + " in " + doDuration + "ms");
+                return null;
+            }
+        });
+    }
+    
+    /**
+     * Wait for all the given doCheckpoint() work to complete. 
+     * 
+     * @param work bean names to Futures of their doCheckpoint()
+     * @throws IOException naming the first bean whose doCheckpoint() 
+     * failed, if any did
+     * @throws InterruptedException
+     */
+    protected void awaitDoCheckpoints(Map<String,Future<?>> work) 
+    throws IOException, InterruptedException {
+        IOException failure = null;
+        for (Map.Entry<String,Future<?>> entry : work.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IOException("doCheckpoint() of " 
+                            + entry.getKey() + " failed", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * Interrupt any doCheckpoint() work still running on the executor, and
+     * wait for all of it to end. 
+     * 
+     * @param executor executor running doCheckpoint() work
+     */
+    protected void terminateDoCheckpoints(ExecutorService executor) {
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+                LOGGER.warning("still awaiting end of interrupted doCheckpoint() work");
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Call finishCheckpoint() of the given beans, in order, noting each's
+     * timing in the checkpoint in progress. 
+     */
+    protected void finishCheckpoints(Map<String,Checkpointable> beans) {
+        long finishStart = System.currentTimeMillis();
+        for (Map.Entry<String,Checkpointable> entry : beans.entrySet()) {
+            long finishMs = System.currentTimeMillis();
+            entry.getValue().finishCheckpoint(checkpointInProgress);
+            checkpointInProgress.noteTiming("finishCheckpoint", entry.getKey(),
+                    System.currentTimeMillis() - finishMs);
+        }
+        LOGGER.info(beans.size() + " finishCheckpoint() completed in "
+                + (System.currentTimeMillis() - finishStart) + "ms");
+    }
 
     
     /**
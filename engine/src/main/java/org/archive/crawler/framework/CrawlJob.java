@@ -912,6 +912,37 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         return cc.getFrontierReportShort();
     }
 
+    /**
+     * Summary of hosts by successful fetches, from the StatisticsTracker's
+     * live tallies (so independent of the number of hosts): the top hosts,
+     * and counts of hosts by power-of-two range of successes. 
+     */
+    public Map<String,Object> hostsReportData() {
+        StatisticsTracker stats = getStats();
+        if (stats == null || stats.getHostsDistributionTop() == null) {
+            return null;
+        }
+        List<Map<String,Object>> topHosts = new LinkedList<Map<String,Object>>();
+        for (Map.Entry<?,Long> entry : stats.getHostsDistributionTop().getEntriesDescending()) {
+            Map<String,Object> host = new LinkedHashMap<String,Object>();
+            host.put("host", entry.getKey());
+            host.put("successes", entry.getValue());
+            topHosts.add(host);
+        }
+        List<Map<String,Object>> histogram = new LinkedList<Map<String,Object>>();
+        for (Map.Entry<String,Long> bucket : stats.getHostsSuccessHistogram().getBuckets().entrySet()) {
+            Map<String,Object> range = new LinkedHashMap<String,Object>();
+            range.put("minSuccesses", Long.parseLong(bucket.getKey()));
+            range.put("hosts", bucket.getValue());
+            histogram.add(range);
+        }
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("hostsWithSuccesses", stats.getHostsSuccessHistogram().getTotal());
+        map.put("topHosts", topHosts);
+        map.put("successesHistogram", histogram);
+        return map;
+    }
+
     public void terminate() {
         if (getCrawlController() != null) {
             getCrawlController().requestCrawlStop();
@@ -20,6 +20,7 @@ package org.archive.crawler.framework;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 
 import javax.management.openmbean.CompositeData;
 
@@ -140,6 +141,16 @@ public interface Frontier extends Lifecycle, Reporter {
      */
     public void schedule(CrawlURI caURI);
 
+    /**
+     * Schedules a batch of CrawlURIs, as if by schedule() on each in turn,
+     * but allowing the frontier to group them by queue for cheaper 
+     * enqueueing. (Each CrawlURI should already have had any candidate 
+     * processing applied.)
+     *
+     * @param caURIs The URIs to schedule.
+     */
+    public void scheduleAll(Collection<CrawlURI> caURIs);
+
     /**
      * Report a URI being processed as having finished processing.
      *
@@ -537,6 +537,17 @@ public abstract class AbstractFrontier
         }
     }
 
+    /**
+     * Schedule each of the given CrawlURIs in turn. 
+     * 
+     * @see org.archive.crawler.framework.Frontier#scheduleAll(java.util.Collection)
+     */
+    public void scheduleAll(Collection<CrawlURI> curis) {
+        for (CrawlURI curi : curis) {
+            schedule(curi);
+        }
+    }
+
     /**
      * Accept the given CrawlURI for scheduling, as it has
      * passed the alreadyIncluded filter. 
@@ -826,6 +837,7 @@ public abstract class AbstractFrontier
      */
     protected void noteAboutToEmit(CrawlURI curi, WorkQueue q) {
         curi.setHolder(q);
+        curi.setLastInQueueSession(q.isLastInSession());
         // if (curi.getServer() == null) {
         //    // TODO: perhaps short-circuit the emit here,
         //    // because URI will be rejected as unfetchable
@@ -21,12 +21,16 @@ package org.archive.crawler.frontier;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -99,6 +103,83 @@ implements Checkpointable, BeanNameAware {
     public void setDumpPendingAtClose(boolean dumpPendingAtClose) {
         this.dumpPendingAtClose = dumpPendingAtClose;
     }
+    
+    /**
+     * Number of URIs each queue reads ahead from its front, in one cursor
+     * scan, when it needs its next URI. Read-ahead is discarded when the
+     * queue is deactivated, or when a URI is inserted among those read.
+     * 0 or 1 reads each URI singly. 
+     * 
+     * Read-ahead is also what {@link QueueReadAheadListener}s (such as 
+     * HBasePersistLoadProcessor's history prefetch) are told of: with 
+     * 0 or 1, they are never called, and their prefetching does nothing.
+     */
+    protected int queueHeadPrefetch = 8;
+    public int getQueueHeadPrefetch() {
+        return queueHeadPrefetch;
+    }
+    public void setQueueHeadPrefetch(int queueHeadPrefetch) {
+        this.queueHeadPrefetch = queueHeadPrefetch;
+    }
+    
+    /**
+     * Beans to be told of each batch of URIs read ahead; by default, all
+     * QueueReadAheadListeners in the crawl.
+     */
+    protected List<QueueReadAheadListener> readAheadListeners = 
+        Collections.emptyList();
+    public List<QueueReadAheadListener> getReadAheadListeners() {
+        return readAheadListeners;
+    }
+    @Autowired(required=false)
+    public void setReadAheadListeners(List<QueueReadAheadListener> listeners) {
+        this.readAheadListeners = listeners;
+    }
+
+    protected void noteReadAhead(List<CrawlURI> upcoming) {
+        for (QueueReadAheadListener listener : readAheadListeners) {
+            try {
+                listener.readAhead(upcoming);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "read-ahead listener " + listener, e);
+            }
+        }
+    }
+    
+    /** queue peeks answered from, or requiring a load of, read-ahead */
+    protected AtomicLong headPrefetchHits = new AtomicLong(0);
+    protected AtomicLong headPrefetchMisses = new AtomicLong(0);
+    
+    @Override
+    public Map<String, Object> shortReportMap() {
+        Map<String, Object> map = super.shortReportMap();
+        if (map != null) {
+            map.put("headPrefetchHits", headPrefetchHits.get());
+            map.put("headPrefetchMisses", headPrefetchMisses.get());
+        }
+        return map;
+    }
+    
+    @Override
+    protected void appendQueueStoreReport(PrintWriter writer) {
+        long hits = headPrefetchHits.get();
+        writer.print("    Head prefetch hit rate: ");
+        writer.print(getHeadPrefetchHitRate());
+        writer.print(" (");
+        writer.print(hits);
+        writer.print(" of ");
+        writer.print(hits + headPrefetchMisses.get());
+        writer.print(" peeks)\n");
+    }
+    
+    /**
+     * @return fraction of queue peeks answered from read-ahead
+     */
+    public float getHeadPrefetchHitRate() {
+        long hits = headPrefetchHits.get();
+        long total = hits + headPrefetchMisses.get();
+        return total == 0 ? 0f : (float) hits / total;
+    }
 
     /* (non-Javadoc)
      * @see org.archive.crawler.frontier.WorkQueueFrontier#getInactiveQueuesByPrecedence()
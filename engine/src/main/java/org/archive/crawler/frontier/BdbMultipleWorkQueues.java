@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -288,6 +289,53 @@ public class BdbMultipleWorkQueues {
         return retVal;
     }
     
+    /**
+     * Get up to the given number of items from the front of the queue 
+     * whose items all have keys beginning with the given origin, with a
+     * single cursor scan. 
+     * 
+     * @param origin queue's origin key (of its cap entry)
+     * @param max maximum number of items to read
+     * @return list of CrawlURIs in queue order, each with holder key set;
+     * empty if none or on inconsistency
+     * @throws DatabaseException
+     */
+    public List<CrawlURI> getHead(byte[] origin, int max)
+    throws DatabaseException {
+        List<CrawlURI> head = new ArrayList<CrawlURI>(max);
+        DatabaseEntry key = new DatabaseEntry(origin);
+        DatabaseEntry value = new DatabaseEntry();
+        Cursor cursor = pendingUrisDB.openCursor(null, null);
+        try {
+            OperationStatus status = cursor.getSearchKey(key, value, null);
+            if (status != OperationStatus.SUCCESS) {
+                LOGGER.severe("bdb queue cap missing: " 
+                        + status.toString() + " "  + new String(origin));
+                return head;
+            }
+            while (head.size() < max) {
+                status = cursor.getNext(key, value, null);
+                if (status != OperationStatus.SUCCESS
+                        || !ArchiveUtils.startsWith(key.getData(), origin)) {
+                    break;
+                }
+                CrawlURI curi;
+                try {
+                    curi = (CrawlURI)crawlUriBinding.entryToObject(value);
+                } catch (RuntimeExceptionWrapper rw) {
+                    LOGGER.log(Level.SEVERE, "expected object missing in queue " 
+                            + BdbWorkQueue.getPrefixClassKey(origin), rw);
+                    break;
+                }
+                curi.setHolderKey(new DatabaseEntry(key.getData().clone()));
+                head.add(curi);
+            }
+        } finally {
+            cursor.close();
+        }
+        return head;
+    }
+    
     protected OperationStatus getNextNearestItem(DatabaseEntry headKey,
             DatabaseEntry result) throws DatabaseException {
         Cursor cursor = null;
@@ -350,6 +398,44 @@ public class BdbMultipleWorkQueues {
         }
     }
     
+    /**
+     * Put all the given CrawlURIs in at their appropriate places, using
+     * a single cursor (and value entry) for the whole batch. 
+     * 
+     * @param curis CrawlURIs to put, usually all of one queue
+     * @param overwriteIfPresent
+     * @throws DatabaseException
+     */
+    public void putAll(List<CrawlURI> curis, boolean overwriteIfPresent) 
+    throws DatabaseException {
+        DatabaseEntry value = new DatabaseEntry();
+        Cursor cursor = pendingUrisDB.openCursor(null, null);
+        try {
+            for (CrawlURI curi : curis) {
+                DatabaseEntry insertKey = (DatabaseEntry)curi.getHolderKey();
+                if (insertKey == null) {
+                    insertKey = calculateInsertKey(curi);
+                    curi.setHolderKey(insertKey);
+                }
+                crawlUriBinding.objectToEntry(curi, value);
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    tallyAverageEntrySize(curi, value);
+                }
+                OperationStatus status;
+                if(overwriteIfPresent) {
+                    status = cursor.put(insertKey, value);
+                } else {
+                    status = cursor.putNoOverwrite(insertKey, value);
+                }
+                if (status!=OperationStatus.SUCCESS) {
+                    LOGGER.log(Level.SEVERE,"URI enqueueing failed; "+status+ " "+curi, new RuntimeException());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+    
     private long entryCount = 0;
     private long entrySizeSum = 0;
     private int largestEntry = 0;
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,6 +54,14 @@ implements Serializable {
      */
     private byte[] origin;
 
+    /**
+     * Read-ahead of the next items at the front of this queue (in queue
+     * order, the first being any current peekItem), to save a BDB cursor
+     * search per emitted URI. Always a true prefix of the queue, or 
+     * empty; never persisted. 
+     */
+    private transient LinkedList<CrawlURI> headCache;
+
     /**
      * Create a virtual queue inside the given BdbMultipleWorkQueues 
      * 
@@ -70,6 +80,7 @@ implements Serializable {
 
     protected long deleteMatchingFromQueue(final WorkQueueFrontier frontier,
             final String match) throws IOException {
+        clearHeadCache();
         try {
             final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
                 .getWorkQueues();
@@ -86,6 +97,13 @@ implements Serializable {
             final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
                 .getWorkQueues();
              queues.delete(peekItem);
+             if (headCache != null && !headCache.isEmpty()) {
+                 if (sameKey(headCache.getFirst(), peekItem)) {
+                     headCache.removeFirst();
+                 } else {
+                     clearHeadCache();
+                 }
+             }
         } catch (DatabaseException e) {
             throw new IOException(e);
         }
@@ -93,8 +111,26 @@ implements Serializable {
 
     protected CrawlURI peekItem(final WorkQueueFrontier frontier)
     throws IOException {
-        final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
-            .getWorkQueues();
+        final BdbFrontier bdbFrontier = (BdbFrontier) frontier;
+        int prefetch = bdbFrontier.getQueueHeadPrefetch();
+        if (prefetch > 1) {
+            if (headCache != null && !headCache.isEmpty()) {
+                bdbFrontier.headPrefetchHits.incrementAndGet();
+                return headCache.getFirst();
+            }
+            bdbFrontier.headPrefetchMisses.incrementAndGet();
+            try {
+                List<CrawlURI> head = bdbFrontier.getWorkQueues().getHead(origin, prefetch);
+                if (!head.isEmpty()) {
+                    headCache = new LinkedList<CrawlURI>(head);
+                    bdbFrontier.noteReadAhead(head);
+                    return headCache.getFirst();
+                }
+            } catch (DatabaseException e) {
+                LOGGER.log(Level.SEVERE,"head prefetch failure; trying single get",e);
+            }
+        }
+        final BdbMultipleWorkQueues queues = bdbFrontier.getWorkQueues();
         DatabaseEntry key = new DatabaseEntry(origin);
         CrawlURI curi = null;
         int tries = 1;
@@ -142,6 +178,7 @@ implements Serializable {
             final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
                 .getWorkQueues();
             queues.put(curi, overwriteIfPresent);
+            noteInserted(curi);
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.fine("Inserted into " + getPrefixClassKey(this.origin) +
                     " (count " + Long.toString(getCount())+ "): " +
@@ -152,6 +189,82 @@ implements Serializable {
         }
     }
     
+    @Override
+    protected void insertItems(final WorkQueueFrontier frontier,
+            final List<CrawlURI> curis, boolean overwriteIfPresent) throws IOException {
+        try {
+            final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+                .getWorkQueues();
+            queues.putAll(curis, overwriteIfPresent);
+            for (CrawlURI curi : curis) {
+                noteInserted(curi);
+            }
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Inserted " + curis.size() + " into " 
+                        + getPrefixClassKey(this.origin) + " (count " 
+                        + Long.toString(getCount())+ ")");
+            }
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    /**
+     * Keep the head cache a true prefix of the queue: an item inserted 
+     * (or rewritten) at or before the last cached position invalidates it.
+     * 
+     * @param curi CrawlURI just inserted, with holder key set
+     */
+    protected void noteInserted(CrawlURI curi) {
+        if (headCache == null || headCache.isEmpty()) {
+            return;
+        }
+        byte[] inserted = ((DatabaseEntry)curi.getHolderKey()).getData();
+        byte[] lastCached = ((DatabaseEntry)headCache.getLast().getHolderKey()).getData();
+        if (compareKeys(inserted, lastCached) <= 0) {
+            clearHeadCache();
+        }
+    }
+    
+    protected void clearHeadCache() {
+        headCache = null;
+    }
+    
+    /**
+     * Drop any read-ahead when the queue leaves active rotation. 
+     */
+    @Override
+    public synchronized void noteDeactivated() {
+        clearHeadCache();
+        super.noteDeactivated();
+    }
+    
+    @Override
+    public synchronized void noteExhausted() {
+        clearHeadCache();
+        super.noteExhausted();
+    }
+    
+    protected static boolean sameKey(CrawlURI a, CrawlURI b) {
+        return compareKeys(((DatabaseEntry)a.getHolderKey()).getData(),
+                ((DatabaseEntry)b.getHolderKey()).getData()) == 0;
+    }
+    
+    /**
+     * Compare keys as BDB does by default: unsigned bytes, 
+     * lexicographically. 
+     */
+    protected static int compareKeys(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+    
     /**
      * @param byteArray Byte array to get hex string of.
      * @return Hex string of passed in byte array (Used logging
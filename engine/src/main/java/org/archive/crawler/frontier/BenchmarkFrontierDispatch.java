@@ -0,0 +1,205 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Standalone benchmark of WorkQueueFrontier's two dispatch strategies:
+ * the polling one (every thread wakes snoozed queues inline, and sleeps a
+ * second when nothing is ready) and the event-driven one (snooze
+ * maintenance by one thread at a time, idle threads wait on a
+ * {@link DispatchSignal}).
+ *
+ * Queues are modelled by name only, with a politeness snooze after each
+ * emitted URI and a simulated fetch time, so that the dispatch machinery
+ * rather than BDB or the processor chain dominates. Prints URIs/sec for
+ * each strategy at each thread count.
+ *
+ * Usage: BenchmarkFrontierDispatch [queues [politenessMs [fetchMs
+ * [secondsPerRun [maxThreads]]]]]
+ */
+public class BenchmarkFrontierDispatch {
+    protected int queueCount = 200;
+    protected long politenessMs = 50;
+    protected long fetchMs = 5;
+    protected long runMs = 5000;
+    protected int maxThreads = 600;
+
+    public static void main(String[] args) throws InterruptedException {
+        BenchmarkFrontierDispatch b = new BenchmarkFrontierDispatch();
+        if(args.length>0) b.queueCount = Integer.parseInt(args[0]);
+        if(args.length>1) b.politenessMs = Long.parseLong(args[1]);
+        if(args.length>2) b.fetchMs = Long.parseLong(args[2]);
+        if(args.length>3) b.runMs = Long.parseLong(args[3]) * 1000;
+        if(args.length>4) b.maxThreads = Integer.parseInt(args[4]);
+        b.instanceMain();
+    }
+
+    public void instanceMain() throws InterruptedException {
+        System.out.println("queues=" + queueCount + " politenessMs=" + politenessMs
+                + " fetchMs=" + fetchMs + " runMs=" + runMs);
+        System.out.println("threads\tpolling URIs/sec\tevent-driven URIs/sec");
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            double polling = run(new Model(false), threads);
+            double eventDriven = run(new Model(true), threads);
+            System.out.println(threads + "\t" + (long)polling + "\t" + (long)eventDriven);
+            if(threads < maxThreads && threads * 2 > maxThreads) {
+                threads = maxThreads / 2; // ensure maxThreads itself is run
+            }
+        }
+    }
+
+    protected double run(final Model model, int threadCount) throws InterruptedException {
+        final long end = System.currentTimeMillis() + runMs;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for(int i = 0; i < threadCount; i++) {
+            Thread t = new Thread("dispatch-bench-" + i) {
+                public void run() {
+                    try {
+                        while(System.currentTimeMillis() < end) {
+                            String q = model.next(end);
+                            if(q == null) {
+                                break;
+                            }
+                            Thread.sleep(fetchMs);
+                            model.finished(q);
+                        }
+                    } catch (InterruptedException e) {
+                        // exit
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        return model.emitted.get() * 1000.0 / runMs;
+    }
+
+    /**
+     * Minimal stand-in for the ready/snoozed queue structures of
+     * WorkQueueFrontier, using the same JDK collection types.
+     */
+    protected class Model {
+        final boolean eventDriven;
+        final ReentrantReadWriteLock outboundLock = new ReentrantReadWriteLock(true);
+        final BlockingQueue<String> ready = new LinkedBlockingQueue<String>();
+        final DelayQueue<Snoozed> snoozed = new DelayQueue<Snoozed>();
+        final DispatchSignal signal = new DispatchSignal();
+        final ReentrantLock wakeLock = new ReentrantLock();
+        final AtomicLong emitted = new AtomicLong(0);
+
+        Model(boolean eventDriven) {
+            this.eventDriven = eventDriven;
+            for(int i = 0; i < queueCount; i++) {
+                ready.add("queue-" + i);
+            }
+        }
+
+        String next(long end) throws InterruptedException {
+            while(System.currentTimeMillis() < end) {
+                long epoch = signal.epoch();
+                outboundLock.readLock().lockInterruptibly();
+                try {
+                    String q = findEligible();
+                    if(q != null) {
+                        emitted.incrementAndGet();
+                        return q;
+                    }
+                    if(!eventDriven) {
+                        Thread.sleep(1000);
+                        continue;
+                    }
+                } finally {
+                    outboundLock.readLock().unlock();
+                }
+                Snoozed head = snoozed.peek();
+                long wait = head == null ? 1000 : head.getDelay(TimeUnit.MILLISECONDS);
+                signal.await(epoch, Math.max(1, Math.min(1000, wait)));
+            }
+            return null;
+        }
+
+        String findEligible() {
+            if(eventDriven) {
+                Snoozed head = snoozed.peek();
+                if(head != null && head.wakeTime <= System.currentTimeMillis()
+                        && wakeLock.tryLock()) {
+                    try {
+                        wake();
+                    } finally {
+                        wakeLock.unlock();
+                    }
+                }
+            } else {
+                wake();
+            }
+            return ready.poll();
+        }
+
+        void wake() {
+            Snoozed s;
+            while((s = snoozed.poll()) != null) {
+                ready.add(s.key);
+                if(eventDriven) {
+                    signal.signal();
+                }
+            }
+        }
+
+        void finished(String q) {
+            Snoozed s = new Snoozed(q, System.currentTimeMillis() + politenessMs);
+            snoozed.add(s);
+            if(eventDriven && snoozed.peek() == s) {
+                signal.signal();
+            }
+        }
+    }
+
+    protected static class Snoozed implements Delayed {
+        final String key;
+        final long wakeTime;
+
+        Snoozed(String key, long wakeTime) {
+            this.key = key;
+            this.wakeTime = wakeTime;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(wakeTime - System.currentTimeMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            long other = ((Snoozed)o).wakeTime;
+            return wakeTime < other ? -1 : (wakeTime > other ? 1 : 0);
+        }
+    }
+}
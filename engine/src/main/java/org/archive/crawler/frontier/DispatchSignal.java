@@ -0,0 +1,118 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakeup channel between the producers of dispatchable work (queues
+ * becoming ready, snoozes expiring, future URIs coming due) and the
+ * ToeThreads waiting for a URI.
+ *
+ * Signalling is cheap when nobody waits: it only bumps an epoch counter.
+ * A waiter passes the epoch it observed before its last (fruitless) look
+ * for work, so a signal landing between that look and the wait is never
+ * lost.
+ */
+public class DispatchSignal {
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final Condition available = lock.newCondition();
+    protected final AtomicLong epoch = new AtomicLong(0);
+    protected final AtomicInteger waiters = new AtomicInteger(0);
+
+    /**
+     * @return current epoch; capture before looking for work, and pass
+     * to {@link #await(long, long)} if none was found
+     */
+    public long epoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Note new work is available, waking at most one waiting thread.
+     */
+    public void signal() {
+        epoch.incrementAndGet();
+        if(waiters.get() > 0) {
+            lock.lock();
+            try {
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Note a change of interest to all waiting threads (such as a
+     * state change), waking them all.
+     */
+    public void signalAll() {
+        epoch.incrementAndGet();
+        if(waiters.get() > 0) {
+            lock.lock();
+            try {
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wait until signalled, or the given time elapses. Returns immediately
+     * if any signal has arrived since the given epoch was read.
+     *
+     * @param seenEpoch epoch read before the last look for work
+     * @param maxWaitMs maximum time to wait, in milliseconds
+     * @return true if woken by signal, false if timed out
+     * @throws InterruptedException
+     */
+    public boolean await(long seenEpoch, long maxWaitMs) throws InterruptedException {
+        if(maxWaitMs <= 0) {
+            return epoch.get() != seenEpoch;
+        }
+        waiters.incrementAndGet();
+        lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            while(epoch.get() == seenEpoch) {
+                if(remainingNanos <= 0) {
+                    return false;
+                }
+                remainingNanos = available.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of threads currently waiting
+     */
+    public int getWaiterCount() {
+        return waiters.get();
+    }
+}
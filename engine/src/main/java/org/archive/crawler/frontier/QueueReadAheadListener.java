@@ -0,0 +1,38 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.List;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * Notified of the URIs a queue has read ahead from its head (see 
+ * {@link BdbFrontier#setQueueHeadPrefetch(int)}), which are likely to be 
+ * emitted soon, in order. Lets slow per-URI work -- such as a remote 
+ * history lookup -- be started, or batched, before the URIs reach the
+ * processing chains. 
+ * 
+ * Called with the queue locked, so implementations should only note the
+ * URIs (not modify them) and return quickly.
+ */
+public interface QueueReadAheadListener {
+    public void readAhead(List<CrawlURI> upcoming);
+}
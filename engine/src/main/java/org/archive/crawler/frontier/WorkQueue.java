@@ -24,6 +24,7 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
@@ -158,6 +159,29 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         return count;
     }
 
+    /**
+     * Add all the given CrawlURIs, noting their addition in running count
+     * once. (None should already be present.)
+     * 
+     * @param frontier Work queues manager.
+     * @param curis CrawlURIs to insert.
+     * @return count after additions
+     */
+    protected synchronized long enqueueAll(final WorkQueueFrontier frontier,
+        List<CrawlURI> curis) {
+        try {
+            insertItems(frontier, curis, false);
+        } catch (IOException e) {
+            //FIXME better exception handling
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        lastQueued = curis.get(curis.size()-1).toString();
+        count += curis.size();
+        enqueueCount += curis.size();
+        return count;
+    }
+
     /**
      * Return the topmost queue item -- and remember it,
      * such that even later higher-priority inserts don't
@@ -275,6 +299,28 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         return (this.totalBudget >= 0 && this.totalExpenditure >= this.totalBudget);
     }
     
+    /**
+     * Estimate whether the URI now at the head of this queue, about to be
+     * emitted, is the last the queue will offer this session: because the
+     * queue will then be empty, or because that URI's (assumed average)
+     * cost will exhaust the session or total budget.
+     * 
+     * @return true if no further URI is expected this session
+     */
+    public synchronized boolean isLastInSession() {
+        if (getCount() <= 1) {
+            return true;
+        }
+        if (costCount <= 0) {
+            return false;
+        }
+        double averageCost = (double) totalExpenditure / costCount;
+        if (sessionBudget > 0 && getSessionBalance() < averageCost) {
+            return true;
+        }
+        return totalBudget >= 0 && totalExpenditure + averageCost >= totalBudget;
+    }
+
     /**
      * Return the tally of all expenditures on this queue
      * 
@@ -374,7 +420,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * @param frontier Work queues manager.
      * @param curi CrawlURI to update.
      */
-    protected void update(final WorkQueueFrontier frontier, CrawlURI curi) {
+    protected synchronized void update(final WorkQueueFrontier frontier, CrawlURI curi) {
         try {
             insert(frontier, curi, true);
         } catch (IOException e) {
@@ -416,6 +462,21 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     protected abstract void insertItem(final WorkQueueFrontier frontier,
         CrawlURI curi, boolean overwriteIfPresent) throws IOException;
 
+    /**
+     * Insert all the given curis. Hook for subclasses able to insert
+     * a batch more cheaply than item-by-item. 
+     * 
+     * @param frontier WorkQueueFrontier.
+     * @param curis CrawlURIs to insert.
+     * @throws IOException  if there was a problem while inserting the items
+     */
+    protected void insertItems(final WorkQueueFrontier frontier,
+        List<CrawlURI> curis, boolean overwriteIfPresent) throws IOException {
+        for (CrawlURI curi : curis) {
+            insertItem(frontier, curi, overwriteIfPresent);
+        }
+    }
+
     /**
      * Delete URIs matching the given pattern from this queue. 
      * @param frontier WorkQueues manager.
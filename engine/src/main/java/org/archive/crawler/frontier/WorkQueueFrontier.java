@@ -35,6 +35,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -46,6 +47,8 @@ import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -106,7 +109,38 @@ implements Closeable,
     public void setSnoozeLongMs(long snooze) {
         this.snoozeLongMs = snooze;
     }
-    
+
+    /**
+     * Whether ToeThreads finding no eligible URI should block until
+     * signalled that a queue has become ready -- or until the next snoozed
+     * queue or future-scheduled URI comes due -- rather than sleeping a
+     * fixed second and polling again. In this mode, waking snoozed queues
+     * and checking future URIs is done by only one thread at a time, and
+     * only when something is actually due.
+     */
+    protected boolean eventDrivenDispatch = false;
+    public boolean getEventDrivenDispatch() {
+        return eventDrivenDispatch;
+    }
+    public void setEventDrivenDispatch(boolean eventDrivenDispatch) {
+        this.eventDrivenDispatch = eventDrivenDispatch;
+    }
+
+    /** longest a waiting ToeThread blocks before rechecking the frontier,
+     * even without a signal (covers settings changes like precedence floor) */
+    protected static final long MAX_DISPATCH_WAIT_MS = 1000;
+
+    /** wakes ToeThreads waiting for dispatchable work, in event-driven mode */
+    transient protected DispatchSignal dispatchSignal = new DispatchSignal();
+
+    /** held by the single thread doing snooze/future maintenance, in
+     * event-driven mode */
+    transient protected ReentrantLock wakeLock = new ReentrantLock();
+
+    /** earliest time any future-scheduled URI may come due; 0 forces a
+     * check (as after a checkpoint resume) */
+    transient protected AtomicLong nextFutureDue = new AtomicLong(0);
+
     private static final Logger logger =
         Logger.getLogger(WorkQueueFrontier.class.getName());
     
@@ -359,6 +393,43 @@ implements Closeable,
         }
     }
 
+    /**
+     * Per-thread collection, by classKey, of CrawlURIs accepted for 
+     * queueing during a scheduleAll(); null when not in a scheduleAll().
+     */
+    protected ThreadLocal<Map<String,List<CrawlURI>>> scheduleBatch = 
+        new ThreadLocal<Map<String,List<CrawlURI>>>();
+    
+    /**
+     * Arrange for all the given CrawlURIs to be visited, if not already
+     * enqueued/completed. 
+     * 
+     * Uniqueness-testing is as for schedule(), but those CrawlURIs accepted
+     * in this thread are gathered by classKey, then sent to each queue 
+     * as a single batch: one queue-lock, one batch insert, and one 
+     * count/precedence update per queue. 
+     *
+     * @see org.archive.crawler.framework.Frontier#scheduleAll(java.util.Collection)
+     */
+    @Override
+    public void scheduleAll(Collection<CrawlURI> curis) {
+        if(scheduleBatch.get() != null) {
+            // already batching (reentrant call); just add to batch
+            super.scheduleAll(curis);
+            return;
+        }
+        Map<String,List<CrawlURI>> batch = new LinkedHashMap<String,List<CrawlURI>>();
+        scheduleBatch.set(batch);
+        try {
+            super.scheduleAll(curis);
+        } finally {
+            scheduleBatch.remove();
+            for(List<CrawlURI> queueBatch : batch.values()) {
+                sendToQueue(queueBatch);
+            }
+        }
+    }
+
     /**
      * Arrange for the given CrawlURI to be visited, if it is not
      * already scheduled/completed.
@@ -387,6 +458,18 @@ implements Closeable,
     protected void sendToQueue(CrawlURI curi) {
 //        assert Thread.currentThread() == managerThread;
         
+        Map<String,List<CrawlURI>> batch = scheduleBatch.get();
+        if(batch != null) {
+            // defer to end of scheduleAll()
+            List<CrawlURI> queueBatch = batch.get(curi.getClassKey());
+            if(queueBatch == null) {
+                queueBatch = new ArrayList<CrawlURI>();
+                batch.put(curi.getClassKey(), queueBatch);
+            }
+            queueBatch.add(curi);
+            return;
+        }
+        
         WorkQueue wq = getQueueFor(curi.getClassKey());
         synchronized(wq) {
             int originalPrecedence = wq.getPrecedence();
@@ -412,6 +495,44 @@ implements Closeable,
         largestQueues.update(wq.getClassKey(), wq.getCount());
     }
 
+    /**
+     * Send a batch of CrawlURIs, all of the same classKey, to their 
+     * subqueue at once. 
+     * 
+     * @param curis CrawlURIs sharing a classKey
+     */
+    protected void sendToQueue(List<CrawlURI> curis) {
+        CrawlURI last = curis.get(curis.size()-1);
+        WorkQueue wq = getQueueFor(last.getClassKey());
+        // budgeting values from last curi (overlays already applied by
+        // schedule()), as if enqueued singly
+        try {
+            KeyedProperties.loadOverridesFrom(last);
+            synchronized(wq) {
+                int originalPrecedence = wq.getPrecedence();
+                wq.enqueueAll(this, curis);
+                wq.setSessionBudget(getBalanceReplenishAmount());
+                wq.setTotalBudget(getQueueTotalBudget());
+                
+                if(!wq.isRetired()) {
+                    incrementQueuedUriCount(curis.size());
+                    int currentPrecedence = wq.getPrecedence();
+                    if(!wq.isManaged() || currentPrecedence < originalPrecedence) {
+                        deactivateQueue(wq);
+                    }
+                }
+            }
+        } finally {
+            KeyedProperties.clearOverridesFrom(last);
+        }
+        // Update recovery log.
+        for(CrawlURI curi : curis) {
+            doJournalAdded(curi);
+        }
+        wq.makeDirty();
+        largestQueues.update(wq.getClassKey(), wq.getCount());
+    }
+
     /**
      * Put the given queue on the readyClassQueues queue
      * @param wq
@@ -421,6 +542,9 @@ implements Closeable,
 
         try {
             readyClassQueues.put(wq.getClassKey());
+            if(eventDrivenDispatch) {
+                dispatchSignal.signal();
+            }
             if(logger.isLoggable(Level.FINE)) {
                 logger.log(Level.FINE,
                         "queue readied: " + wq.getClassKey());
@@ -453,6 +577,9 @@ implements Closeable,
                     highestPrecedenceWaiting = wq.getPrecedence();
                 }
             }
+            if(eventDrivenDispatch && precedence < getPrecedenceFloor()) {
+                dispatchSignal.signal();
+            }
 
             if(logger.isLoggable(Level.FINE)) {
                 logger.log(Level.FINE,
@@ -578,10 +705,15 @@ implements Closeable,
      * @see org.archive.crawler.framework.Frontier#next()
      */
     protected CrawlURI findEligibleURI() {
-            // wake any snoozed queues
-            wakeQueues();
-            // consider rescheduled URIS
-            checkFutures();
+            if(eventDrivenDispatch) {
+                // wake snoozed queues, reschedule futures, only if due
+                wakeDueQueuesAndFutures();
+            } else {
+                // wake any snoozed queues
+                wakeQueues();
+                // consider rescheduled URIS
+                checkFutures();
+            }
                    
             // find a non-empty ready queue, if any 
             // TODO: refactor to untangle these loops, early-exits, etc!
@@ -720,8 +852,8 @@ implements Closeable,
             
             // if truly nothing ready, wait a moment before returning null
             // so that loop in surrounding next() has a chance of getting something
-            // next time
-            if(getTotalEligibleInactiveQueues()==0) {
+            // next time (in event-driven mode, next() waits for a signal instead)
+            if(!eventDrivenDispatch && getTotalEligibleInactiveQueues()==0) {
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
@@ -733,6 +865,136 @@ implements Closeable,
             return null; 
     }
 
+    /**
+     * Return the next CrawlURI to be processed, waiting as necessary.
+     * 
+     * In event-driven mode, a thread finding nothing eligible releases the
+     * outbound lock and blocks until signalled that a queue has become 
+     * ready, or until the next snoozed queue or future URI is due, rather 
+     * than sleeping a fixed interval inside findEligibleURI(). 
+     * 
+     * @see org.archive.crawler.frontier.AbstractFrontier#next()
+     */
+    @Override
+    public CrawlURI next() throws InterruptedException {
+        if(!eventDrivenDispatch) {
+            return super.next();
+        }
+        while(true) {
+            long epoch = dispatchSignal.epoch();
+            outboundLock.readLock().lockInterruptibly();
+            try {
+                CrawlURI crawlable = findEligibleURI();
+                if(crawlable != null) {
+                    return crawlable;
+                }
+            } finally {
+                outboundLock.readLock().unlock();
+            }
+            dispatchSignal.await(epoch, getDispatchWaitMs());
+        }
+    }
+
+    /**
+     * @return milliseconds a thread finding nothing eligible should wait
+     * before looking again, if not signalled sooner: no later than the
+     * next snoozed queue wakes or future URI is due
+     */
+    protected long getDispatchWaitMs() {
+        long wait = Math.min(getMaxInWait(), MAX_DISPATCH_WAIT_MS);
+        long due = Math.min(nextFutureDue.get(), earliestSnoozeWakeTime());
+        long untilDue = due - System.currentTimeMillis();
+        // at least 1ms: something overdue is being handled by another thread
+        return Math.max(1, Math.min(wait, untilDue));
+    }
+
+    /**
+     * @return earliest wake time of any snoozed queue, in memory or 
+     * overflow, or Long.MAX_VALUE if none
+     */
+    protected long earliestSnoozeWakeTime() {
+        long earliest = Long.MAX_VALUE;
+        DelayedWorkQueue head = snoozedClassQueues.peek();
+        if(head != null) {
+            earliest = head.getWakeTime();
+        }
+        if(snoozedOverflowCount.get() > 0) {
+            synchronized(snoozedOverflow) {
+                if(!snoozedOverflow.isEmpty()) {
+                    earliest = Math.min(earliest, snoozedOverflow.firstKey());
+                }
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Wake snoozed queues and reenqueue future URIs, but only if any 
+     * are due and no other thread is already doing so. Used in event-driven
+     * mode in place of calling wakeQueues() and checkFutures() on every
+     * findEligibleURI().
+     */
+    protected void wakeDueQueuesAndFutures() {
+        long now = System.currentTimeMillis();
+        boolean snoozeDue = snoozedOverflowCount.get() > 0;
+        if(!snoozeDue) {
+            DelayedWorkQueue head = snoozedClassQueues.peek();
+            snoozeDue = head != null && head.getWakeTime() <= now;
+        }
+        boolean futureDue = now >= nextFutureDue.get();
+        if(!(snoozeDue || futureDue)) {
+            return;
+        }
+        if(!wakeLock.tryLock()) {
+            // another thread is on it
+            return;
+        }
+        try {
+            if(snoozeDue) {
+                wakeQueues();
+            }
+            if(futureDue) {
+                nextFutureDue.set(Long.MAX_VALUE);
+                checkFutures();
+                noteFutureDue(earliestFutureTime());
+            }
+        } finally {
+            wakeLock.unlock();
+        }
+    }
+
+    /**
+     * Lower the remembered earliest future-URI due time, if the given 
+     * time is earlier, signalling any waiting threads so they can 
+     * shorten their wait. 
+     * 
+     * @param dueTime time in ms a future URI becomes due
+     */
+    protected void noteFutureDue(long dueTime) {
+        while(true) {
+            long current = nextFutureDue.get();
+            if(dueTime >= current) {
+                return;
+            }
+            if(nextFutureDue.compareAndSet(current, dueTime)) {
+                if(eventDrivenDispatch) {
+                    dispatchSignal.signal();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return time of the earliest future-scheduled URI, or Long.MAX_VALUE
+     * if none
+     */
+    protected long earliestFutureTime() {
+        synchronized(futureUris) {
+            return futureUris.isEmpty() ? Long.MAX_VALUE : futureUris.firstKey();
+        }
+    }
+
     /**
      * Check for any future-scheduled URIs now eligible for reenqueuing
      */
@@ -996,6 +1258,7 @@ implements Closeable,
             curi.resetForRescheduling(); 
             futureUris.put(curi.getRescheduleTime(),curi);
             futureUriCount.incrementAndGet(); 
+            noteFutureDue(curi.getRescheduleTime());
         } else {
             curi.stripToMinimal();
             curi.processingCleanup();
@@ -1037,6 +1300,10 @@ implements Closeable,
         DelayedWorkQueue dq = new DelayedWorkQueue(wq);
         if(snoozedClassQueues.size()<MAX_SNOOZED_IN_MEMORY) {
             snoozedClassQueues.add(dq);
+            if(eventDrivenDispatch && snoozedClassQueues.peek() == dq) {
+                // new earliest wake time; let a waiter shorten its wait
+                dispatchSignal.signal();
+            }
         } else {
             synchronized(snoozedOverflow) {
                 snoozedOverflow.put(nextTime, dq);
@@ -1163,6 +1430,15 @@ implements Closeable,
         w.flush();
     }
 
+    /**
+     * Append any queue-storage-specific lines to the QUEUES section of
+     * the full report. Hook for subclasses; does nothing here. 
+     * 
+     * @param writer Where to write to.
+     */
+    protected void appendQueueStoreReport(PrintWriter writer) {
+    }
+
     /**
      * Total of all URIs in inactive queues at all precedences
      * @return int total 
@@ -1296,12 +1572,18 @@ implements Closeable,
         writer.print("          Exhausted queues: ");
         writer.print(exhaustedCount);
         writer.print("\n");
+        appendQueueStoreReport(writer);
         
         State last = lastReachedState;
         writer.print("\n             Last state: "+last);        
         
         writer.print("\n -----===== MANAGER THREAD =====-----\n");
         ToeThread.reportThread(managerThread, writer);
+        if(eventDrivenDispatch) {
+            writer.print("\n Threads awaiting dispatch: ");
+            writer.print(dispatchSignal.getWaiterCount());
+            writer.print("\n");
+        }
         
         writer.print("\n -----===== "+largestQueues.size()+" LONGEST QUEUES =====-----\n");
         appendQueueReports(writer, "LONGEST", largestQueues.getEntriesDescending().iterator(), largestQueues.size(), largestQueues.size());
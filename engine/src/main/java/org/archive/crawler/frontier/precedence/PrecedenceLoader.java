@@ -29,13 +29,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
+import org.archive.modules.recrawl.PersistHistoryBinding;
 import org.archive.modules.recrawl.PersistProcessor;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.FileUtils;
 import org.archive.util.bdbje.EnhancedEnvironment;
 import org.archive.util.iterator.LineReadingIterator;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
@@ -109,9 +109,10 @@ public class PrecedenceLoader {
                 null,
                 PersistProcessor.URI_HISTORY_DBNAME,
                 PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
+        // reads compact records as well as Java-serialized; writes the latter
         @SuppressWarnings({ "rawtypes", "unchecked" })
         StoredSortedMap<String, Object> historyMap = new StoredSortedMap<String, Object>(historyDB,
-                new StringBinding(), new SerialBinding(classCatalog, Map.class), true);
+                new StringBinding(), new PersistHistoryBinding(classCatalog, false), true);
         
         int count = 0;
         
@@ -0,0 +1,133 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.postprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.Link;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+
+/**
+ * Standalone benchmark of the heap retained by hub pages' outCandidates,
+ * with CandidatesProcessor keeping full candidate CrawlURIs versus
+ * lightweight summaries (its summarizeOutCandidates setting).
+ *
+ * Models a number of ToeThreads each holding a hub page of many
+ * outlinks: each outlink becomes a candidate, is given the sort of state
+ * the candidate chain assigns (overlay names, canonical string, class
+ * key, precedence, cost), then is remembered in the hub's outCandidates
+ * in the mode being measured. Prints heap retained (after GC) per mode,
+ * in total and per candidate.
+ *
+ * Usage: BenchmarkOutCandidates [linksPerHub [hubs]]
+ */
+public class BenchmarkOutCandidates {
+    protected int linksPerHub = 5000;
+    protected int hubs = 25;
+
+    public static void main(String[] args) throws URIException {
+        BenchmarkOutCandidates b = new BenchmarkOutCandidates();
+        if(args.length>0) b.linksPerHub = Integer.parseInt(args[0]);
+        if(args.length>1) b.hubs = Integer.parseInt(args[1]);
+        b.instanceMain();
+    }
+
+    public void instanceMain() throws URIException {
+        System.out.println("linksPerHub=" + linksPerHub + " hubs=" + hubs);
+        System.out.println("mode\tretained bytes\tbytes/candidate");
+        // warm up, so class loading etc. isn't measured
+        run(false, 1);
+        run(true, 1);
+        for(int trial = 0; trial < 3; trial++) {
+            report("full", run(false, hubs));
+            report("summary", run(true, hubs));
+        }
+    }
+
+    protected void report(String mode, long retained) {
+        long candidates = (long) linksPerHub * hubs;
+        System.out.println(mode + "\t" + retained + "\t" + (retained / candidates));
+    }
+
+    /**
+     * Build the given number of hubs, each with all its outlinks
+     * remembered as out candidates.
+     *
+     * @param summarize whether to remember summaries, or full candidates
+     * @param hubCount number of hubs
+     * @return bytes of heap retained by the hubs
+     * @throws URIException
+     */
+    protected long run(boolean summarize, int hubCount) throws URIException {
+        CandidatesProcessor processor = new CandidatesProcessor();
+        long before = usedAfterGc();
+        List<CrawlURI> held = new ArrayList<CrawlURI>(hubCount);
+        for(int h = 0; h < hubCount; h++) {
+            CrawlURI hub = new CrawlURI(UURIFactory.getInstance(
+                    "http://hub" + h + ".example.com/index.html"));
+            for(int i = 0; i < linksPerHub; i++) {
+                Link link = new Link(hub.getUURI(), 
+                        "http://site" + (i % 500) + ".example.org/page/" + i + ".html",
+                        LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+                CrawlURI candidate = hub.createCrawlURI(hub.getBaseURI(), link);
+                applyChainState(candidate);
+                hub.getOutCandidates().add(
+                        summarize ? processor.summarize(candidate) : candidate);
+            }
+            held.add(hub);
+        }
+        long retained = usedAfterGc() - before;
+        if(held.size() != hubCount) {
+            throw new IllegalStateException(); // keeps hubs reachable
+        }
+        return retained;
+    }
+
+    /**
+     * Approximate the state a candidate accumulates in the candidate
+     * chain (overlays, FrontierPreparer).
+     */
+    protected void applyChainState(CrawlURI candidate) {
+        candidate.getOverlayNames().add("default-overlay");
+        String uri = candidate.getUURI().toString();
+        candidate.setCanonicalString(uri.substring(7));
+        candidate.setClassKey(uri.substring(7, uri.indexOf('/', 7)) + ",");
+        candidate.setPrecedence(1);
+        candidate.setHolderCost(1);
+        candidate.getData().put("chainNote", uri.substring(uri.lastIndexOf('/')));
+    }
+
+    protected static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -23,8 +23,16 @@ package org.archive.crawler.postprocessor;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEFERRED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_PREREQUISITE_UNSCHEDULABLE_FAILURE;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.datamodel.UriUniqFilter;
 import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.prefetch.FrontierPreparer;
 import org.archive.crawler.reporting.CrawlerLoggerModule;
 import org.archive.crawler.spring.SheetOverlaysManager;
 import org.archive.modules.CandidateChain;
@@ -33,8 +41,13 @@ import org.archive.modules.Processor;
 import org.archive.modules.SchedulingConstants;
 import org.archive.modules.extractor.Hop;
 import org.archive.modules.extractor.Link;
+import org.archive.modules.net.DnsResolver;
+import org.archive.modules.net.ServerCache;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.KeyedProperties;
+import org.archive.util.InetAddressUtil;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 
 
@@ -133,6 +146,108 @@ public class CandidatesProcessor extends Processor {
         this.sheetOverlaysManager = sheetOverlaysManager;
     }
     
+    protected ServerCache serverCache;
+    public ServerCache getServerCache() {
+        return this.serverCache;
+    }
+    @Autowired
+    public void setServerCache(ServerCache serverCache) {
+        this.serverCache = serverCache;
+    }
+
+    /**
+     * Optional resolver, asked to start resolving the host of each
+     * scheduled candidate whose host has not yet been looked up, so that
+     * its answer is likely ready by the time the host's dns: prerequisite
+     * (or first fetch) needs it.
+     */
+    protected DnsResolver dnsResolver;
+    public DnsResolver getDnsResolver() {
+        return this.dnsResolver;
+    }
+    @Autowired(required=false)
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+    
+    /**
+     * If true, each ordinary outlink is first canonicalized and probed 
+     * against the UriUniqFilter; those certainly already included are
+     * dropped (tallied as duplicates, as scheduling would have) without 
+     * running the candidate chain. Forced candidates, redirects, and 
+     * potential seed redirects always run the full chain. Already-included
+     * URIs which the chain would now reject (as out of scope) go unlogged
+     * by the chain's processors. 
+     * 
+     * Only worthwhile when the UriUniqFilter answers probes cheaply, from
+     * memory (as BloomUriUniqFilter does); with a disk-backed filter such 
+     * as BdbUriUniqFilter, each probe is an extra lookup, repeated by the
+     * add() of every URI not dropped. Default is false.
+     */
+    {
+        setProbeAlreadyIncluded(false);
+    }
+    public boolean getProbeAlreadyIncluded() {
+        return (Boolean) kp.get("probeAlreadyIncluded");
+    }
+    public void setProbeAlreadyIncluded(boolean probe) {
+        kp.put("probeAlreadyIncluded",probe);
+    }
+    
+    /**
+     * If true, each outlink candidate, once through the candidate chain,
+     * is remembered in the source CrawlURI's outCandidates only as a 
+     * lightweight summary (URI, via, via context, hops path, seed flag, 
+     * and candidate-chain status) rather than as the full candidate, which
+     * may be large, and which otherwise stays reachable until the source 
+     * URI is finished. 
+     * 
+     * Only safe when no later processor applies decide rules to the 
+     * outCandidates: summaries have no data map (so no heritable keys) and
+     * no overlays, so rules run by CrawlMapper's outlinkRule or 
+     * SupplementaryLinksScoper would decide differently. Default is false.
+     */
+    {
+        setSummarizeOutCandidates(false);
+    }
+    public boolean getSummarizeOutCandidates() {
+        return (Boolean) kp.get("summarizeOutCandidates");
+    }
+    public void setSummarizeOutCandidates(boolean summarize) {
+        kp.put("summarizeOutCandidates",summarize);
+    }
+    
+    /**
+     * The frontier's UriUniqFilter, for probing; if absent, no probing
+     * happens.
+     */
+    protected UriUniqFilter uriUniqFilter;
+    public UriUniqFilter getUriUniqFilter() {
+        return this.uriUniqFilter;
+    }
+    @Autowired(required=false)
+    public void setUriUniqFilter(UriUniqFilter uriUniqFilter) {
+        this.uriUniqFilter = uriUniqFilter;
+    }
+    
+    /**
+     * Preparer whose canonicalization gives the keys probed; if absent, no
+     * probing happens.
+     */
+    protected FrontierPreparer preparer;
+    public FrontierPreparer getPreparer() {
+        return this.preparer;
+    }
+    @Autowired(required=false)
+    public void setPreparer(FrontierPreparer preparer) {
+        this.preparer = preparer;
+    }
+    
+    /** outlinks probed against the UriUniqFilter */
+    protected AtomicLong probedCount = new AtomicLong(0);
+    /** outlinks dropped as already-included, without candidate chain */
+    protected AtomicLong alreadyIncludedCount = new AtomicLong(0);
+    
     /**
      * Usual no-argument constructor
      */
@@ -160,6 +275,24 @@ public class CandidatesProcessor extends Processor {
      * @throws InterruptedException
      */
     protected int runCandidateChain(CrawlURI candidate, CrawlURI source) throws InterruptedException {
+        return runCandidateChain(candidate, source, null);
+    }
+    
+    /**
+     * Run candidatesChain on a single candidate CrawlURI; if its
+     * reported status is nonnegative, schedule to frontier -- or, if
+     * a toSchedule list is supplied, add it there for later scheduling
+     * as a batch. 
+     * 
+     * @param candidate CrawlURI to consider 
+     * @param source CrawlURI from which candidate was discovered/derived
+     * @param toSchedule list to receive candidates to schedule, or null
+     * to schedule immediately
+     * @return candidate's status code at end of candidate chain execution
+     * @throws InterruptedException
+     */
+    protected int runCandidateChain(CrawlURI candidate, CrawlURI source, 
+            List<CrawlURI> toSchedule) throws InterruptedException {
         // at least for duration of candidatechain, offer
         // access to full CrawlURI of via
         candidate.setFullVia(source); 
@@ -168,6 +301,10 @@ public class CandidatesProcessor extends Processor {
             KeyedProperties.clearOverridesFrom(source); 
             KeyedProperties.loadOverridesFrom(candidate);
             
+            if(toSchedule != null && isCertainlyIncluded(candidate, source)) {
+                return candidate.getFetchStatus();
+            }
+            
             // apply special seed-status promotion
             if(getSeedsRedirectNewSeeds() && source.isSeed() 
                     && candidate.getLastHop().equals(Hop.REFER.getHopString())
@@ -186,11 +323,16 @@ public class CandidatesProcessor extends Processor {
                      */
                     candidate.setForceFetch(true);
                     getSeeds().addSeed(candidate); // triggers scheduling
+                } else if (toSchedule != null) {
+                    // dns prefetched per host once the batch is scheduled
+                    toSchedule.add(candidate);
+                    return statusAfterCandidateChain;
                 } else {
                     
                     frontier.schedule(candidate);
                     
                 }
+                prefetchDns(candidate, null);
             } 
             return statusAfterCandidateChain;
         } finally {
@@ -199,6 +341,72 @@ public class CandidatesProcessor extends Processor {
         }        
     }
     
+    /**
+     * Probe the UriUniqFilter for an ordinary outlink candidate (with its
+     * overlays already in effect, so canonicalization is as the preparer 
+     * would do it). 
+     * 
+     * @param candidate CrawlURI to consider
+     * @param source CrawlURI from which candidate was discovered
+     * @return true if candidate is certainly already included, and so 
+     * would only be dropped at scheduling
+     */
+    protected boolean isCertainlyIncluded(CrawlURI candidate, CrawlURI source) {
+        if (!getProbeAlreadyIncluded() || getUriUniqFilter() == null 
+                || getPreparer() == null) {
+            return false;
+        }
+        if (candidate.forceFetch() || candidate.isLocation()
+                || (source.isSeed() 
+                    && candidate.getLastHop().equals(Hop.REFER.getHopString()))) {
+            // may be forced (or promoted to seed) by candidate chain
+            return false;
+        }
+        probedCount.incrementAndGet();
+        if (getUriUniqFilter().alreadyIncluded(getPreparer().canonicalize(candidate))) {
+            alreadyIncludedCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Ask the dnsResolver, if any, to start resolving the host of a 
+     * candidate accepted by the candidate chain, unless it is an IP 
+     * address, was already considered for the same source, or has 
+     * already been looked up. 
+     * 
+     * @param candidate CrawlURI just scheduled
+     * @param done hosts already considered for the same source, or null
+     */
+    protected void prefetchDns(CrawlURI candidate, Set<String> done) {
+        if (getDnsResolver() == null) {
+            return;
+        }
+        String scheme = candidate.getUURI().getScheme();
+        if (!"dns".equals(scheme) && !"http".equals(scheme)
+                && !"https".equals(scheme) && !"ftp".equals(scheme)) {
+            return;
+        }
+        String hostname;
+        try {
+            hostname = candidate.getUURI().getReferencedHost();
+        } catch (URIException e) {
+            return;
+        }
+        if (hostname == null || InetAddressUtil.IPV4_QUADS.matcher(hostname).matches()) {
+            return;
+        }
+        if ((done != null && !done.add(hostname)) 
+                || getDnsResolver().getCached(hostname) != null) {
+            return;
+        }
+        if (!"dns".equals(scheme) && getServerCache().getHostFor(hostname).hasBeenLookedUp()) {
+            return;
+        }
+        getDnsResolver().prefetch(hostname);
+    }
+
     /**
      * Run candidates chain on each of (1) any prerequisite, if present; 
      * (2) any outCandidates, if present; (3) all outlinks, if appropriate
@@ -235,7 +443,9 @@ public class CandidatesProcessor extends Processor {
             return;
         }
 
-        // (3) Handle outlinks (usual bulk of discoveries) 
+        // (3) Handle outlinks (usual bulk of discoveries), scheduling
+        // those accepted as one batch
+        List<CrawlURI> toSchedule = new ArrayList<CrawlURI>(curi.getOutLinks().size());
         for (Link wref: curi.getOutLinks()) {
             CrawlURI candidate;
             try {
@@ -246,15 +456,72 @@ public class CandidatesProcessor extends Processor {
                 continue;
             }
             
-            runCandidateChain(candidate, curi);
+            runCandidateChain(candidate, curi, toSchedule);
 
-            // TODO: evaluate if this necessary (anyone uses?); wise (bloat?) 
-            curi.getOutCandidates().add(candidate);
+            // remembered for later processors/listeners (as with 
+            // SeedRecord's noting of seed redirects)
+            curi.getOutCandidates().add(getSummarizeOutCandidates() 
+                    ? summarize(candidate) : candidate);
 
         }
+        if (!toSchedule.isEmpty()) {
+            KeyedProperties.clearOverridesFrom(curi);
+            try {
+                frontier.scheduleAll(toSchedule);
+            } finally {
+                KeyedProperties.loadOverridesFrom(curi);
+            }
+            Set<String> prefetched = new HashSet<String>();
+            for (CrawlURI candidate : toSchedule) {
+                prefetchDns(candidate, prefetched);
+            }
+        }
         curi.getOutLinks().clear();
     }
     
+    /**
+     * Create a lightweight stand-in for a candidate which has been 
+     * through the candidate chain, retaining only what later 
+     * processors of the source URI usually consult. The candidate's
+     * UURIs and strings are shared, not copied; its data map, overlays, 
+     * and other chain-assigned state are not kept. 
+     * 
+     * @param candidate candidate after the candidate chain
+     * @return summary CrawlURI, never itself to be scheduled
+     */
+    protected CrawlURI summarize(CrawlURI candidate) {
+        CrawlURI summary = new CrawlURI(candidate.getUURI(), 
+                candidate.getPathFromSeed(), candidate.getVia(), 
+                candidate.getViaContext());
+        summary.setSeed(candidate.isSeed());
+        summary.setFetchStatus(candidate.getFetchStatus());
+        return summary;
+    }
+    
+    @Override
+    protected JSONObject toCheckpointJson() throws JSONException {
+        JSONObject json = super.toCheckpointJson();
+        json.put("probedCount", probedCount.get());
+        json.put("alreadyIncludedCount", alreadyIncludedCount.get());
+        return json;
+    }
+
+    @Override
+    protected void fromCheckpointJson(JSONObject json) throws JSONException {
+        super.fromCheckpointJson(json);
+        probedCount.set(json.optLong("probedCount"));
+        alreadyIncludedCount.set(json.optLong("alreadyIncludedCount"));
+    }
+    
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        ret.append("  " + probedCount + " outlinks probed, " 
+                + alreadyIncludedCount 
+                + " dropped as already-included without candidate chain\n");
+        return ret.toString();
+    }
+    
     /**
      * Check if the URI needs special 'discovered seed' treatment.
      * 
@@ -235,7 +235,7 @@ public class FrontierPreparer extends Scoper {
      * @param cauri CrawlURI to examine.
      * @return Canonicalized <code>cacuri</code>.
      */
-    protected String canonicalize(CrawlURI cauri) {
+    public String canonicalize(CrawlURI cauri) {
         String canon = getCanonicalizationPolicy().canonicalize(cauri.getURI());
         if (cauri.isLocation()) {
             // If the via is not the same as where we're being redirected (i.e.
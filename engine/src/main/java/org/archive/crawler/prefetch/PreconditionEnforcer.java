@@ -37,6 +37,7 @@ import org.archive.modules.credential.Credential;
 import org.archive.modules.credential.CredentialStore;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
+import org.archive.modules.net.DnsResolver;
 import org.archive.modules.net.RobotsPolicy;
 import org.archive.modules.net.ServerCache;
 import org.archive.net.UURI;
@@ -71,6 +72,23 @@ public class PreconditionEnforcer extends Processor  {
         kp.put("ipValidityDurationSeconds",duration);
     }
 
+    /**
+     * Whether, when the dnsResolver (if any) already holds a current answer
+     * for a URI's host, to apply that answer to the host directly, rather
+     * than first scheduling a 'dns:' prerequisite URI. This spares a trip
+     * through the frontier per host, but no 'dns:' record is then captured
+     * for the host.
+     */
+    {
+        setUseResolverCache(false);
+    }
+    public boolean getUseResolverCache() {
+        return (Boolean) kp.get("useResolverCache");
+    }
+    public void setUseResolverCache(boolean useResolverCache) {
+        kp.put("useResolverCache",useResolverCache);
+    }
+
     /**
      * The time in seconds that fetched robots.txt information is considered to
      * be valid. If the value is set to '0', then the robots.txt information
@@ -135,6 +153,15 @@ public class PreconditionEnforcer extends Processor  {
         this.serverCache = serverCache;
     }
     
+    protected DnsResolver dnsResolver;
+    public DnsResolver getDnsResolver() {
+        return this.dnsResolver;
+    }
+    @Autowired(required=false)
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+    
     protected CrawlerLoggerModule loggerModule;
     public CrawlerLoggerModule getLoggerModule() {
         return this.loggerModule;
@@ -303,7 +330,8 @@ public class PreconditionEnforcer extends Processor  {
 
         // If we haven't done a dns lookup  and this isn't a dns uri
         // shoot that off and defer further processing
-        if (isIpExpired(curi) && !curi.getUURI().getScheme().equals("dns")) {
+        if (isIpExpired(curi) && !curi.getUURI().getScheme().equals("dns")
+                && !applyResolverAnswer(ch)) {
             logger.fine("Deferring processing of CrawlURI " + curi.toString()
                 + " for dns lookup.");
             String preq = "dns:" + ch.getHostName();
@@ -319,6 +347,26 @@ public class PreconditionEnforcer extends Processor  {
         return false;
     }
 
+    /**
+     * If so configured, set the host's IP from a current answer held by
+     * the dnsResolver, with the TTL remaining to that answer.
+     * 
+     * @param host host needing lookup
+     * @return true if the host's IP was set
+     */
+    protected boolean applyResolverAnswer(CrawlHost host) {
+        if (getDnsResolver() == null || !getUseResolverCache()) {
+            return false;
+        }
+        DnsResolver.Answer answer = getDnsResolver().getCached(host.getHostName());
+        if (answer == null || answer.getAddress() == null) {
+            return false;
+        }
+        host.setIP(answer.getAddress(), 
+                answer.getRemainingTtlSeconds(System.currentTimeMillis()));
+        return true;
+    }
+
     /** Return true if ip should be looked up.
      *
      * @param curi the URI to check.
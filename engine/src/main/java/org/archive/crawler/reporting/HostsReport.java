@@ -22,12 +22,17 @@ package org.archive.crawler.reporting;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.collections.Closure;
 import org.archive.bdb.DisposableStoredSortedMap;
+import org.archive.crawler.util.TopNSet;
 import org.archive.modules.net.CrawlHost;
+import org.archive.util.ArchiveUtils;
 
 /**
  * The "Hosts Report", tallies by host.
@@ -51,27 +56,49 @@ public class HostsReport extends Report {
         }
     }
 
+    /**
+     * Whether to stream the report rather than sort all hosts by URL 
+     * count: the top hosts (as tracked live by the StatisticsTracker, up 
+     * to its liveHostReportSize) are written largest first, followed (if 
+     * listAllHosts) by all other hosts in ServerCache order. Avoids the 
+     * BDB sort of every host seen, which is slow on large crawls. 
+     */
+    protected boolean streamHosts = false;
+    public boolean getStreamHosts() {
+        return streamHosts;
+    }
+    public void setStreamHosts(boolean streamHosts) {
+        this.streamHosts = streamHosts;
+    }
+
+    /**
+     * When streaming (see {@link #setStreamHosts(boolean)}), whether to 
+     * list every host after the top hosts. If false, only the top hosts
+     * are listed, so the report takes constant time however many hosts
+     * have been seen. 
+     */
+    protected boolean listAllHosts = true;
+    public boolean getListAllHosts() {
+        return listAllHosts;
+    }
+    public void setListAllHosts(boolean listAllHosts) {
+        this.listAllHosts = listAllHosts;
+    }
+
     @Override
     public void write(final PrintWriter writer, StatisticsTracker stats) {
+        if (getStreamHosts()) {
+            writeStreamed(writer, stats);
+            return;
+        }
         // TODO: only perform sorting on manageable number of hosts
         DisposableStoredSortedMap<Long,String> hd = stats.calcReverseSortedHostsDistribution();
-        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes]\n"); 
+        writeHeader(writer);
         for (Map.Entry<Long,String> entry : hd.entrySet()) {
             // key is -count, value is hostname
             try {
                 CrawlHost host = stats.serverCache.getHostFor(entry.getValue());
-                writeReportLine(writer,
-                        host.getSubstats().getFetchSuccesses(),
-                        host.getSubstats().getTotalBytes(),
-                        fixup(host.getHostName()),
-                        host.getSubstats().getRobotsDenials(),
-                        host.getSubstats().getRemaining(), 
-                        host.getSubstats().getNovelUrls(),
-                        host.getSubstats().getNovelBytes(),
-                        host.getSubstats().getDupByHashUrls(),
-                        host.getSubstats().getDupByHashBytes(),
-                        host.getSubstats().getNotModifiedUrls(),
-                        host.getSubstats().getNotModifiedBytes());
+                writeHostLine(writer, host);
             } catch (Exception e) {
                 logger.log(Level.WARNING, "unable to tally host stats for " + entry.getValue(), e);
             }
@@ -79,6 +106,62 @@ public class HostsReport extends Report {
         hd.dispose();
     }
 
+    /**
+     * Write the top hosts, largest first, then (if listAllHosts) all 
+     * others, in ServerCache order without sorting. 
+     */
+    protected void writeStreamed(final PrintWriter writer, StatisticsTracker stats) {
+        writeHeader(writer);
+        final Set<String> written = new HashSet<String>();
+        TopNSet top = stats.getHostsDistributionTop();
+        if (top != null) {
+            for (Map.Entry<?,Long> entry : top.getEntriesDescending()) {
+                String hostName = (String) entry.getKey();
+                try {
+                    writeHostLine(writer, stats.serverCache.getHostFor(hostName));
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "unable to tally host stats for " + hostName, e);
+                }
+                written.add(hostName);
+            }
+        }
+        if (getListAllHosts()) {
+            stats.serverCache.forAllHostsDo(new Closure() {
+                public void execute(Object hostObj) {
+                    CrawlHost host = (CrawlHost) hostObj;
+                    if (!written.contains(host.getHostName())) {
+                        try {
+                            writeHostLine(writer, host);
+                        } catch (Exception e) {
+                            logger.log(Level.WARNING, "unable to tally host stats for " + host.getHostName(), e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    protected void writeHeader(PrintWriter writer) {
+        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes] [connection-reuse-rate]\n"); 
+    }
+
+    protected void writeHostLine(PrintWriter writer, CrawlHost host) {
+        writeReportLine(writer,
+                host.getSubstats().getFetchSuccesses(),
+                host.getSubstats().getTotalBytes(),
+                fixup(host.getHostName()),
+                host.getSubstats().getRobotsDenials(),
+                host.getSubstats().getRemaining(), 
+                host.getSubstats().getNovelUrls(),
+                host.getSubstats().getNovelBytes(),
+                host.getSubstats().getDupByHashUrls(),
+                host.getSubstats().getDupByHashBytes(),
+                host.getSubstats().getNotModifiedUrls(),
+                host.getSubstats().getNotModifiedBytes(),
+                ArchiveUtils.doubleToString(
+                        host.getSubstats().getConnectionReuseRate(), 2));
+    }
+
     protected void writeReportLine(PrintWriter writer, Object  ... fields) {
         for(Object field : fields) {
             writer.print(field);
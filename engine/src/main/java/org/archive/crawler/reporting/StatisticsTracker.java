@@ -26,6 +26,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -43,13 +44,14 @@ import org.apache.commons.collections.Closure;
 import org.archive.bdb.BdbModule;
 import org.archive.bdb.DisposableStoredSortedMap;
 import org.archive.checkpointing.Checkpoint;
-import org.archive.checkpointing.Checkpointable;
+import org.archive.checkpointing.SnapshotCheckpointable;
 import org.archive.crawler.event.CrawlStateEvent;
 import org.archive.crawler.event.CrawlURIDispositionEvent;
 import org.archive.crawler.event.StatSnapshotEvent;
 import org.archive.crawler.framework.CrawlController;
 import org.archive.crawler.framework.Engine;
 import org.archive.crawler.util.CrawledBytesHistotable;
+import org.archive.crawler.util.Log2Histogram;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.net.CrawlHost;
@@ -136,7 +138,7 @@ public class StatisticsTracker
         SeedListener,
         Lifecycle,
         Runnable, 
-        Checkpointable,
+        SnapshotCheckpointable,
         BeanNameAware {
     @SuppressWarnings("unused")
     private static final long serialVersionUID = 5L;
@@ -293,6 +295,16 @@ public class StatisticsTracker
     protected TopNSet hostsDistributionTop;
     protected TopNSet hostsBytesTop;
     protected TopNSet hostsLastFinishedTop;
+    /* Hosts by power-of-two range of successful fetches */
+    protected Log2Histogram hostsSuccessHistogram = new Log2Histogram();
+    
+    public TopNSet getHostsDistributionTop() {
+        return hostsDistributionTop;
+    }
+    
+    public Log2Histogram getHostsSuccessHistogram() {
+        return hostsSuccessHistogram;
+    }
     
     /**
      * Record of seeds and latest results
@@ -375,6 +387,12 @@ public class StatisticsTracker
                         hostsLastFinishedTop.getTopSet(),
                         json.getJSONObject("hostsLastFinishedTop"));
                 hostsLastFinishedTop.updateBounds();
+                JSONObject histogramJson = json.optJSONObject("hostsSuccessHistogram");
+                if (histogramJson != null) {
+                    Map<String,Long> buckets = new HashMap<String,Long>();
+                    JSONUtils.putAllLongs(buckets, histogramJson);
+                    hostsSuccessHistogram.putAll(buckets);
+                }
                 
                 JSONUtils.putAllAtomicLongs(
                     mimeTypeDistribution,
@@ -794,7 +812,9 @@ public class StatisticsTracker
         // as the frontier or ServerCache itself
         
         CrawlHost host = serverCache.getHostFor(hostname); 
-        hostsDistributionTop.update(hostname, host.getSubstats().getFetchSuccesses()); 
+        long successes = host.getSubstats().getFetchSuccesses();
+        hostsDistributionTop.update(hostname, successes); 
+        hostsSuccessHistogram.noteIncrementedTo(successes);
         hostsBytesTop.update(hostname, host.getSubstats().getSuccessBytes());
         hostsLastFinishedTop.update(hostname, host.getSubstats().getLastSuccessTime());
     }
@@ -862,7 +882,9 @@ public class StatisticsTracker
 
     /**
      * Return a copy of the hosts distribution in reverse-sorted
-     * (largest first) order. 
+     * (largest first) order. This requires a pass over, and a BDB sort of,
+     * all hosts; HostsReport instead uses the live hostsDistributionTop,
+     * and writes any other hosts unsorted.
      * @return SortedMap of hosts distribution
      */
     public DisposableStoredSortedMap<Long,String> calcReverseSortedHostsDistribution() {
@@ -1060,8 +1082,9 @@ public class StatisticsTracker
     }
     
     // Checkpointable
-    public void startCheckpoint(Checkpoint checkpointInProgress) {}
-    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+    /** state to save, as captured (while crawl held) at startCheckpoint */
+    protected String checkpointSnapshot;
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
         JSONObject json = new JSONObject();
         try {
             json.put("crawlStartTime",crawlStartTime);
@@ -1077,6 +1100,7 @@ public class StatisticsTracker
             json.put("hostsDistributionTop", hostsDistributionTop.getTopSet());
             json.put("hostsBytesTop", hostsBytesTop.getTopSet());
             json.put("hostsLastFinishedTop", hostsLastFinishedTop.getTopSet());
+            json.put("hostsSuccessHistogram", hostsSuccessHistogram.getBuckets());
 
             json.put("mimeTypeDistribution", mimeTypeDistribution);
             json.put("mimeTypeBytes", mimeTypeBytes);
@@ -1087,13 +1111,24 @@ public class StatisticsTracker
             json.put("crawledBytes", crawledBytes);
 
             // TODO: save crawledBytesHistotable
-            checkpointInProgress.saveJson(beanName, json);
         } catch (JSONException e) {
             // impossible
             throw new RuntimeException(e);
         }
+        // as text, so later changes to live maps don't show through
+        checkpointSnapshot = json.toString();
+    }
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        try {
+            checkpointInProgress.saveJson(beanName, new JSONObject(checkpointSnapshot));
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+    }
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {
+        checkpointSnapshot = null;
     }
-    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
     protected Checkpoint recoveryCheckpoint;
     public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
         this.recoveryCheckpoint = recoveryCheckpoint;
@@ -19,6 +19,8 @@
  
 package org.archive.crawler.spring;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -30,12 +32,15 @@ import java.util.SortedSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 import org.archive.modules.CrawlURI;
+import org.archive.spring.KeyedProperties;
 import org.archive.spring.OverlayMapsSource;
 import org.archive.spring.Sheet;
-import org.archive.util.PrefixFinder;
+import org.archive.util.PrefixTrie;
 import org.archive.util.SurtPrefixSet;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.TypeMismatchException;
@@ -66,6 +71,24 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
     /** all sheets by (bean)name*/
     protected Map<String,Sheet> sheetsByName = new ConcurrentHashMap<String, Sheet>();
     
+    /** lookup structures derived from sheetNamesBySurt; rebuilt lazily,
+     * after being discarded on any change to SURT associations */
+    protected AtomicReference<SurtLookup> surtLookup = 
+        new AtomicReference<SurtLookup>(); 
+    /** bumped on every change to SURT associations; a lookup built 
+     * under an older generation is never used or published */
+    protected AtomicLong surtGeneration = new AtomicLong(); 
+    
+    /** maximum number of SURT authorities (hosts) whose SURT-associated
+     * sheet names are remembered */
+    protected int maxCachedAuthorities = 10000;
+    public int getMaxCachedAuthorities() {
+        return maxCachedAuthorities;
+    }
+    public void setMaxCachedAuthorities(int maxCachedAuthorities) {
+        this.maxCachedAuthorities = maxCachedAuthorities;
+    }
+    
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         this.beanFactory = beanFactory;
     }
@@ -77,6 +100,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
     @Autowired(required=false)
     public void setSheetsByName(Map<String,Sheet> map) {
         this.sheetsByName = map;
+        KeyedProperties.overlaysChanged();
     }
     /**
      * Sheets, by name; starts with all autowired Sheets but others
@@ -98,6 +122,8 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
     
     /**
      * Sheet names, by the SURT prefix to which they should be applied.
+     * Callers changing this map directly must then call 
+     * surtAssociationsChanged(). 
      * 
      * @return map of Sheet names by their configured SURT
      */
@@ -140,6 +166,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         }
         sheetNames.add(sheetName); 
         sheetNamesBySurt.put(prefix, sheetNames); 
+        surtAssociationsChanged();
     }
     
     public boolean removeSurtAssociation(String prefix, String sheetName) {
@@ -148,7 +175,9 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
             // no such association
             return false; 
         }
-        return sheetNames.remove(sheetName); 
+        boolean removed = sheetNames.remove(sheetName); 
+        surtAssociationsChanged();
+        return removed;
     }
 
     /** 
@@ -271,7 +300,9 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         for(List<String> sheetNames : sheetNamesBySurt.values()) {
             anyDeleted |= sheetNames.remove(sheetName);            
         }
+        surtAssociationsChanged();
         anyDeleted |= (null != sheetsByName.remove(sheetName)); 
+        KeyedProperties.overlaysChanged();
         return anyDeleted;
     }
     
@@ -317,11 +348,10 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         curi.setOverlayMapsSource(this); 
         // apply SURT-based overlays
         curi.getOverlayNames().clear(); // clear previous info
-        String effectiveSurt = SurtPrefixSet.getCandidateSurt(curi.getPolicyBasisUURI());
-        List<String> foundPrefixes = PrefixFinder.findKeys(sheetNamesBySurt, effectiveSurt);       
-        for(String prefix : foundPrefixes) {
-            for(String name : sheetNamesBySurt.get(prefix)) {
-                curi.getOverlayNames().add(name);
+        if(!sheetNamesBySurt.isEmpty()) {
+            String effectiveSurt = SurtPrefixSet.getCandidateSurt(curi.getPolicyBasisUURI());
+            if(effectiveSurt != null) {
+                curi.getOverlayNames().addAll(getSurtLookup().sheetNamesFor(effectiveSurt));
             }
         }
         // apply deciderule-based overlays
@@ -334,4 +364,114 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         // step has occurred -- helps ensure overlays added once-only
         curi.getOverlayNames();
     }
+    
+    /**
+     * Note that SURT associations have changed, discarding any 
+     * lookup structures (and cached results) built from the old ones. 
+     */
+    public void surtAssociationsChanged() {
+        surtGeneration.incrementAndGet();
+        surtLookup.set(null); 
+    }
+    
+    protected SurtLookup getSurtLookup() {
+        // read generation before the associations, so that any change 
+        // racing with the build leaves the result marked stale
+        long generation = surtGeneration.get();
+        SurtLookup lookup = surtLookup.get();
+        if(lookup != null && lookup.generation == generation) {
+            return lookup;
+        }
+        SurtLookup built = 
+            new SurtLookup(sheetNamesBySurt, maxCachedAuthorities, generation);
+        // publish only over an absent or older lookup, never over one
+        // built after a newer invalidation
+        while(lookup == null || lookup.generation < generation) {
+            if(surtLookup.compareAndSet(lookup, built)) {
+                break;
+            }
+            lookup = surtLookup.get();
+        }
+        return built;
+    }
+    
+    /**
+     * Snapshot of the SURT associations as a prefix trie, plus a bounded
+     * cache of the sheet names found for each SURT authority. Most hosts
+     * have no associations deeper than their authority, so repeat URIs 
+     * from them need no trie walk at all. 
+     */
+    protected static class SurtLookup {
+        final PrefixTrie<List<String>> trie = new PrefixTrie<List<String>>();
+        final ConcurrentHashMap<String,AuthorityNames> byAuthority = 
+            new ConcurrentHashMap<String,AuthorityNames>();
+        final int maxAuthorities; 
+        final long generation;
+        
+        SurtLookup(Map<String,List<String>> sheetNamesBySurt, int maxAuthorities,
+                long generation) {
+            this.maxAuthorities = maxAuthorities;
+            this.generation = generation;
+            for(Map.Entry<String,List<String>> entry : sheetNamesBySurt.entrySet()) {
+                if(!entry.getValue().isEmpty()) {
+                    trie.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+                }
+            }
+        }
+        
+        /**
+         * @param surt candidate SURT of a URI
+         * @return names of sheets associated with SURT prefixes of the 
+         * given SURT, shortest prefix first
+         */
+        List<String> sheetNamesFor(String surt) {
+            if(trie.size() == 0) {
+                return Collections.emptyList();
+            }
+            int authorityEnd = surt.indexOf(')');
+            if(authorityEnd < 0) {
+                return flatten(trie.findPrefixValues(surt));
+            }
+            String authority = surt.substring(0, authorityEnd + 1);
+            AuthorityNames names = byAuthority.get(authority);
+            if(names == null) {
+                names = new AuthorityNames(
+                        flatten(trie.findPrefixValues(authority)),
+                        trie.hasKeysExtending(authority)); 
+                if(byAuthority.size() >= maxAuthorities) {
+                    byAuthority.clear(); 
+                }
+                byAuthority.put(authority, names);
+            }
+            if(names.deeperPrefixes) {
+                // some associations are narrower than the whole host
+                return flatten(trie.findPrefixValues(surt));
+            }
+            return names.sheetNames; 
+        }
+        
+        protected List<String> flatten(List<List<String>> found) {
+            if(found.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if(found.size() == 1) {
+                return found.get(0);
+            }
+            ArrayList<String> names = new ArrayList<String>();
+            for(List<String> list : found) {
+                names.addAll(list);
+            }
+            return names;
+        }
+    }
+    
+    protected static class AuthorityNames {
+        final List<String> sheetNames; 
+        /** whether associations exist for prefixes longer than the authority */
+        final boolean deeperPrefixes; 
+        AuthorityNames(List<String> sheetNames, boolean deeperPrefixes) {
+            this.sheetNames = sheetNames;
+            this.deeperPrefixes = deeperPrefixes; 
+        }
+    }
 }
\ No newline at end of file
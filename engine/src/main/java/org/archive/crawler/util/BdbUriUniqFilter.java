@@ -45,6 +45,7 @@ import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.DatabaseNotFoundException;
 import com.sleepycat.je.Environment;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.LockMode;
 import com.sleepycat.je.OperationStatus;
 
 
@@ -356,6 +357,22 @@ implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
         return count.get();
     }
 
+    @Override
+    protected boolean setContains(CharSequence uri) {
+        DatabaseEntry key = new DatabaseEntry();
+        LongBinding.longToEntry(createKey(uri), key);
+        DatabaseEntry value = new DatabaseEntry();
+        // key presence is all that matters; skip reading any data
+        value.setPartial(0, 0, true);
+        try {
+            return alreadySeen.get(null, key, value, LockMode.READ_UNCOMMITTED)
+                == OperationStatus.SUCCESS;
+        } catch (DatabaseException e) {
+            logger.severe(e.getMessage());
+            return false;
+        }
+    }
+
     protected boolean setRemove(CharSequence uri) {
         DatabaseEntry key = new DatabaseEntry();
         LongBinding.longToEntry(createKey(uri), key);
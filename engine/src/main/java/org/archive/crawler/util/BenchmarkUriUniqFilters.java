@@ -23,9 +23,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.archive.crawler.datamodel.UriUniqFilter;
 import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
+import org.archive.util.BloomFilter64bit;
 import org.archive.util.fingerprint.MemLongFPSet;
 
 
@@ -41,17 +45,75 @@ public class BenchmarkUriUniqFilters implements UriUniqFilter.CrawlUriReceiver {
     private BufferedWriter out; // optional to dump uniq items
     protected String current; // current line/URI being checked
     
+    /** most threads used in a multi-threaded run */
+    protected static final int MAX_THREADS = 64;
+    
     /**
      * Test the UriUniqFilter implementation (MemUriUniqFilter,
-     * BloomUriUniqFilter, or BdbUriUniqFilter) named in first
+     * BloomUriUniqFilter, BdbUriUniqFilter, FPUriUniqFilter, or 
+     * TieredFPUriUniqFilter) named in first
      * argument against the file of one-per-line URIs named
      * in the second argument. 
      * 
+     * Alternatively, with a first argument of "-threads", test the 
+     * filter named in the second argument against the URIs in the third
+     * argument from 1, 2, 4... up to 64 threads, reporting adds/sec at 
+     * each level. (The name "BloomFilter64bit" selects a 
+     * BloomUriUniqFilter using that unsynchronized filter, for
+     * comparison with the concurrent default.)
+     * 
      * @param args from cmd-line
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
-        (new BenchmarkUriUniqFilters()).instanceMain(args);
+        if(args.length > 0 && "-threads".equals(args[0])) {
+            (new BenchmarkUriUniqFilters()).threadedMain(args[1], args[2]);
+        } else {
+            (new BenchmarkUriUniqFilters()).instanceMain(args);
+        }
+    }
+    
+    public void threadedMain(String testClass, String inputFilename) throws IOException {
+        // read all input up front, so file IO isn't measured
+        final List<String> lines = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(inputFilename));
+        String line;
+        while((line=br.readLine())!=null) {
+            lines.add(line);
+        }
+        br.close();
+        System.out.println(lines.size()+" URIs");
+        System.out.println("threads\tadds/sec\tretained");
+        for(int threadCount = 1; threadCount <= MAX_THREADS; threadCount *= 2) {
+            final UriUniqFilter uniq = createUriUniqFilter(testClass);
+            Thread[] threads = new Thread[threadCount];
+            for(int t = 0; t < threadCount; t++) {
+                final int first = t; 
+                final int stride = threadCount;
+                threads[t] = new Thread("uuf-bench-"+t) {
+                    public void run() {
+                        for(int i = first; i < lines.size(); i += stride) {
+                            uniq.add(lines.get(i), null);
+                        }
+                    }
+                };
+            }
+            long start = System.currentTimeMillis();
+            for(Thread thread : threads) {
+                thread.start();
+            }
+            for(Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            System.out.println(threadCount + "\t" 
+                    + (lines.size() * 1000L / elapsed) + "\t" + uniq.count());
+            uniq.close();
+        }
     }
     
     public void instanceMain(String[] args) throws IOException {
@@ -91,13 +153,29 @@ public class BenchmarkUriUniqFilters implements UriUniqFilter.CrawlUriReceiver {
             uniq = new BdbUriUniqFilter(tmpDir, 50);
         } else if(BloomUriUniqFilter.class.getName().endsWith(testClass)) {
             // bloom setup
-            uniq = new BloomUriUniqFilter();
+            BloomUriUniqFilter bloomUniq = new BloomUriUniqFilter();
+            bloomUniq.afterPropertiesSet();
+            uniq = bloomUniq; 
+        } else if(BloomFilter64bit.class.getName().endsWith(testClass)) {
+            // bloom setup, with unsynchronized filter
+            BloomUriUniqFilter bloomUniq = new BloomUriUniqFilter();
+            bloomUniq.setBloomFilter(new BloomFilter64bit(125000000,22));
+            uniq = bloomUniq; 
         } else if(MemUriUniqFilter.class.getName().endsWith(testClass)) {
             // mem hashset
             uniq = new MemUriUniqFilter();
         } else if (FPUriUniqFilter.class.getName().endsWith(testClass)) {
             // mem fp set (open-addressing) setup
             uniq = new FPUriUniqFilter(new MemLongFPSet(21,0.75f));
+        } else if (TieredFPUriUniqFilter.class.getName().endsWith(testClass)) {
+            // memory + disk runs setup
+            File tmpDir = File.createTempFile("uuf","benchmark");
+            tmpDir.delete();
+            tmpDir.mkdir();
+            TieredFPUriUniqFilter tieredUniq = new TieredFPUriUniqFilter();
+            tieredUniq.setDir(new ConfigPath("benchmark runs", tmpDir.getAbsolutePath()));
+            tieredUniq.start();
+            uniq = tieredUniq;
         }
         uniq.setDestination(this);
         return uniq;
@@ -30,7 +30,7 @@ import java.util.logging.Logger;
 
 import org.archive.modules.CrawlURI;
 import org.archive.util.BloomFilter;
-import org.archive.util.BloomFilter64bit;
+import org.archive.util.ConcurrentBloomFilter64bit;
 import org.springframework.beans.factory.InitializingBean;
 
 
@@ -48,7 +48,9 @@ import org.springframework.beans.factory.InitializingBean;
  * about 495MB in size. 
  * 
  * You may swap in an differently-configured BloomFilter class to alter
- * these tradeoffs. 
+ * these tradeoffs. The default filter is a ConcurrentBloomFilter64bit, 
+ * so that the many ToeThreads scheduling outlinks at once neither 
+ * serialize on nor corrupt the shared bitfield. 
  * 
  * @author gojomo
  * @version $Date$, $Revision$
@@ -86,7 +88,7 @@ implements Serializable, InitializingBean {
             // 1.44*125mil*22/8 ~= 495MB in size, and at full
             // capacity will give a false contained indication
             // 1/(2^22) ~= 1 in every 4 million probes
-            bloom = new BloomFilter64bit(125000000,22);
+            bloom = new ConcurrentBloomFilter64bit(125000000,22);
         }
     }
 
@@ -108,6 +110,11 @@ implements Serializable, InitializingBean {
         return added;
     }
 
+    @Override
+    protected boolean setContains(CharSequence uri) {
+        return bloom.contains(uri);
+    }
+
     protected long setCount() {
         return bloom.size();
     }
@@ -21,15 +21,13 @@ package org.archive.crawler.util;
 import it.unimi.dsi.fastutil.longs.LongIterators;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.NoSuchElementException;
 
 import org.archive.util.ArchiveUtils;
@@ -38,16 +36,24 @@ import org.archive.util.ArchiveUtils;
  * Crude FPMergeUriUniqFilter using a disk data file of raw longs as the
  * overall FP record. 
  * 
+ * Old and new FP files are streamed through FileChannels and large
+ * direct buffers, so each merge is a pair of sequential bulk transfers
+ * rather than per-long stream calls. 
+ * 
  * @author gojomo
  */
 public class DiskFPMergeUriUniqFilter extends FPMergeUriUniqFilter {
-    protected long count = 0; 
+    /** size in bytes of read and write buffers */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+    
+    protected volatile long count = 0; 
     protected File scratchDir; 
     protected File currentFps;
     protected File newFpsFile;
-    protected DataOutputStream newFps; 
+    protected FileChannel newFps; 
+    protected ByteBuffer newFpsBuffer; 
     protected long newCount; 
-    protected DataInputStream oldFps; 
+    protected FileChannel oldFps; 
     
     public DiskFPMergeUriUniqFilter(File scratchDir) {
         super();
@@ -64,45 +70,66 @@ public class DiskFPMergeUriUniqFilter extends FPMergeUriUniqFilter {
         if(newFpsFile.exists()) {
             throw new RuntimeException(newFpsFile+" exists");
         }
+        if(newFpsBuffer==null) {
+            newFpsBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        newFpsBuffer.clear();
         try {
-            newFps = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFpsFile)));
-        } catch (FileNotFoundException e) {
+            newFps = new FileOutputStream(newFpsFile).getChannel();
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
         newCount = 0;
         if(currentFps==null) {
+            oldFps = null;
             return LongIterators.EMPTY_ITERATOR;
         }
         try {
-            oldFps = new DataInputStream(new BufferedInputStream(new FileInputStream(currentFps)));
-        } catch (FileNotFoundException e1) {
+            oldFps = new FileInputStream(currentFps).getChannel();
+        } catch (IOException e1) {
             throw new RuntimeException(e1);
         }
-        return new DataFileLongIterator(oldFps);
+        return new ChannelLongIterator(oldFps, BUFFER_SIZE);
     }
 
     /* (non-Javadoc)
      * @see org.archive.crawler.util.FPMergeUriUniqFilter#addNewFp(long)
      */
     protected void addNewFp(long fp) {
+        if(newFpsBuffer.remaining() < 8) {
+            writeNewFpsBuffer();
+        }
+        newFpsBuffer.putLong(fp);
+        newCount++;
+    }
+    
+    /**
+     * Write out all buffered new FPs. 
+     */
+    protected void writeNewFpsBuffer() {
+        newFpsBuffer.flip();
         try {
-            newFps.writeLong(fp);
-            newCount++;
+            while(newFpsBuffer.hasRemaining()) {
+                newFps.write(newFpsBuffer);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        newFpsBuffer.clear();
     }
 
     /* (non-Javadoc)
      * @see org.archive.crawler.util.FPMergeUriUniqFilter#finishFpMerge()
      */
     protected void finishFpMerge() {
+        writeNewFpsBuffer();
         try {
             newFps.close();
             File oldFpsFile = currentFps;
             currentFps = newFpsFile;
             if(oldFps!=null) {
                 oldFps.close();
+                oldFps = null;
             }
             if(oldFpsFile!=null) {
                 oldFpsFile.delete();
@@ -120,6 +147,75 @@ public class DiskFPMergeUriUniqFilter extends FPMergeUriUniqFilter {
         return count;
     }
 
+    /**
+     * LongIterator over the big-endian longs of a FileChannel, read 
+     * a buffer-full at a time. 
+     */
+    public static class ChannelLongIterator implements LongIterator {
+        FileChannel in; 
+        ByteBuffer buffer; 
+        boolean eof = false; 
+        
+        public ChannelLongIterator(FileChannel in, int bufferSize) {
+            this.in = in; 
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+            this.buffer.flip(); // start empty
+        }
+        
+        public boolean hasNext() {
+            return buffer.remaining() >= 8 ? true : fill();
+        }
+        
+        /**
+         * Refill buffer from channel, keeping any partial long.
+         * 
+         * @return true if at least one full long is available
+         */
+        protected boolean fill() {
+            if(eof) {
+                return false; 
+            }
+            buffer.compact();
+            try {
+                while(buffer.position() < 8) {
+                    if(in.read(buffer) < 0) {
+                        eof = true; 
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                buffer.flip();
+            }
+            return buffer.remaining() >= 8;
+        }
+        
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return buffer.getLong();
+        }
+        
+        public Long next() {
+            return Long.valueOf(nextLong());
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        public int skip(int n) {
+            int skipped = 0; 
+            while(skipped < n && hasNext()) {
+                buffer.getLong();
+                skipped++;
+            }
+            return skipped;
+        }
+    }
+
     public class DataFileLongIterator implements LongIterator {
         DataInputStream in; 
         long next;
@@ -19,14 +19,20 @@
 package org.archive.crawler.util;
 
 import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintWriter;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,22 +49,32 @@ import st.ata.util.FPGenerator;
  * Web Crawling" (2001), section 3.2, "Efficient Duplicate URL 
  * Eliminators". 
  * 
+ * Pending adds are appended to a pair of parallel arrays (fingerprints,
+ * and CrawlURIs or null), which are sorted in bulk only when merged. 
+ * When the pending arrays fill, they are handed to a background thread
+ * for merging, and adds continue into a second pair of arrays; add() 
+ * never waits for a merge. The background thread only merges: novel
+ * CrawlURIs it finds are passed to the receiver (frontier) by the next 
+ * caller of add(), requestFlush() or flush(), so that as before, 
+ * receive() is only ever called from crawling threads, holding this 
+ * filter's lock. 
+ * 
  * @author gojomo
  */
 public abstract class FPMergeUriUniqFilter implements UriUniqFilter {
     /**
-     * Represents a long fingerprint and (possibly) its corresponding
-     * CrawlURI, awaiting the next merge in a 'pending' state. 
+     * A batch of pending fingerprints and (possibly) their corresponding
+     * CrawlURIs, parallel arrays filled up to count. 
      */
-    public class PendingItem implements Comparable<PendingItem> {
-        long fp;
-        CrawlURI caUri;
-        public PendingItem(long fp, CrawlURI value) {
-            this.fp = fp;
-            this.caUri = value;
-        }
-        public int compareTo(PendingItem vs) {
-            return (fp < vs.fp) ? -1 : ( (fp == vs.fp) ? 0 : 1); 
+    protected static class PendingBatch {
+        long[] fps;
+        CrawlURI[] uris;
+        int count;
+        /** novel CrawlURIs found by merging this batch, in merge order */
+        List<CrawlURI> novel = new ArrayList<CrawlURI>();
+        PendingBatch(int capacity) {
+            fps = new long[capacity];
+            uris = new CrawlURI[capacity];
         }
     }
     
@@ -76,26 +92,50 @@ public abstract class FPMergeUriUniqFilter implements UriUniqFilter {
     protected long mergeDuplicateCount = 0;
     protected long mergeDupAtLast = 0; 
     
-    /** items awaiting merge
-     * TODO: consider only sorting just pre-merge
-     * TODO: consider using a fastutil long->Object class
+    /** items awaiting merge; guarded by this
      * TODO: consider actually writing items to disk file,
      * as in Najork/Heydon
      */
-    protected TreeSet<PendingItem> pendingSet = new TreeSet<PendingItem>();
+    protected PendingBatch pending = new PendingBatch(DEFAULT_MAX_PENDING);
+    /** recycled arrays from last completed merge, if any; guarded by this */
+    protected PendingBatch spare = null; 
+    /** whether a merge is underway; guarded by this */
+    protected boolean mergeInProgress = false; 
+    /** count of items in the merge underway */
+    protected volatile int mergingCount = 0; 
+    /** novel CrawlURIs from completed merges, awaiting hand-off to the 
+     * receiver by a crawling thread; guarded by this */
+    protected List<CrawlURI> merged = new ArrayList<CrawlURI>();
+    /** fps of the first batch of adds, while there is no prior list to
+     * merge with; null thereafter; guarded by this */
+    protected LongOpenHashSet firstBatchFps = new LongOpenHashSet();
     
     /** size at which to force flush of pending items */
     protected int maxPending = DEFAULT_MAX_PENDING;
     public static final int DEFAULT_MAX_PENDING = 10000; 
     // TODO: increase
     
+    /**
+     * Whether merges triggered by add() or requestFlush() run in a 
+     * background thread (true), or in the calling thread (false). 
+     */
+    protected boolean backgroundMerge = true; 
+    public boolean getBackgroundMerge() {
+        return backgroundMerge;
+    }
+    public void setBackgroundMerge(boolean backgroundMerge) {
+        this.backgroundMerge = backgroundMerge;
+    }
+    
+    protected ExecutorService mergeExecutor; 
+    
     /**
      * time-based throttle on flush-merge operations
      */
-    protected long nextFlushAllowableAfter = 0;
+    protected volatile long nextFlushAllowableAfter = 0;
     public static final long FLUSH_DELAY_FACTOR = 100;
 
-    /** cache of most recently seen FPs */
+    /** cache of most recently seen FPs; guarded by this */
     protected ArrayLongFPCache quickCache = new ArrayLongFPCache();
     // TODO: make cache most-often seen, not just most-recent
     
@@ -109,12 +149,18 @@ public abstract class FPMergeUriUniqFilter implements UriUniqFilter {
         }
     }
 
-    public void setMaxPending(int max) {
+    public synchronized void setMaxPending(int max) {
         maxPending = max;
+        if(pending.count == 0 && pending.fps.length != max) {
+            pending = new PendingBatch(max);
+            spare = null; 
+        }
     }
     
     public long pending() {
-        return pendingSet.size();
+        synchronized(this) {
+            return pending.count + mergingCount + merged.size();
+        }
     }
 
     public void setDestination(CrawlUriReceiver receiver) {
@@ -130,43 +176,186 @@ public abstract class FPMergeUriUniqFilter implements UriUniqFilter {
     /* (non-Javadoc)
      * @see org.archive.crawler.datamodel.UriUniqFilter#add(java.lang.String, org.archive.crawler.datamodel.CrawlURI)
      */
-    public synchronized void add(String key, CrawlURI value) {
+    public void add(String key, CrawlURI value) {
         profileLog(key);
         long fp = createFp(key); 
-        if(! quickCheck(fp)) {
-            quickDuplicateCount++;
-            return; 
+        PendingBatch toMerge = null;
+        synchronized(this) {
+            if(! quickCheck(fp)) {
+                quickDuplicateCount++;
+                return; 
+            }
+            pend(fp,value);
+            if (pending.count>=maxPending && !mergeInProgress) {
+                toMerge = takePending();
+            }
+            receiveMerged();
         }
-        pend(fp,value);
-        if (pendingSet.size()>=maxPending) {
-            flush();
+        if(toMerge!=null) {
+            startMerge(toMerge);
+            receiveMerged();
         }
     }
 
     /**
-     * Place the given FP/CrawlURI pair into the pending set, awaiting
-     * a merge to determine if it's actually accepted. 
+     * Only the quick-check cache of recently-seen fingerprints is 
+     * consulted; anything else would need a merge to be sure of.
+     * 
+     * @see org.archive.crawler.datamodel.UriUniqFilter#alreadyIncluded(java.lang.String)
+     */
+    public boolean alreadyIncluded(String key) {
+        long fp = createFp(key);
+        synchronized(this) {
+            if(quickCache.contains(fp)) {
+                profileLog(key);
+                quickDuplicateCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Place the given FP/CrawlURI pair into the pending arrays, awaiting
+     * a merge to determine if it's actually accepted. Grows the arrays if
+     * full (as when a merge is still underway). 
      * 
      * @param fp long fingerprint
      * @param value CrawlURI or null, if fp only needs merging (as when 
      * CrawlURI was already forced in
      */
     protected void pend(long fp, CrawlURI value) {
+        assert Thread.holdsLock(this);
         // special case for first batch of adds
-        if(count()==0) {
-            if(pendingSet.add(new PendingItem(fp,null))==false) {
+        if(firstBatchFps!=null && count()>0) {
+            firstBatchFps = null; 
+        }
+        if(firstBatchFps!=null) {
+            if(firstBatchFps.add(fp)==false) {
                 pendDuplicateCount++; // was already present
-            } else {
-                // since there's no prior list to merge, push uri along right now
-                if(value!=null) {
-                    this.receiver.receive(value);
+                return; 
+            }
+            // since there's no prior list to merge, push uri along right now
+            if(value!=null) {
+                this.receiver.receive(value);
+            }
+            value = null; 
+        }
+        PendingBatch p = pending;
+        if(p.count == p.fps.length) {
+            int newLength = Math.max(16, p.fps.length * 2);
+            p.fps = Arrays.copyOf(p.fps, newLength);
+            p.uris = Arrays.copyOf(p.uris, newLength);
+        }
+        p.fps[p.count] = fp;
+        p.uris[p.count] = value;
+        p.count++;
+    }
+    
+    /**
+     * Detach the current pending items for merging, replacing them with
+     * (recycled, if possible) empty arrays, and mark a merge as underway. 
+     * 
+     * @return batch of items to merge
+     */
+    protected PendingBatch takePending() {
+        assert Thread.holdsLock(this) && !mergeInProgress;
+        PendingBatch taken = pending;
+        if(spare != null) {
+            pending = spare;
+            spare = null;
+        } else {
+            pending = new PendingBatch(maxPending);
+        }
+        mergeInProgress = true; 
+        mergingCount = taken.count;
+        return taken;
+    }
+    
+    /**
+     * Merge the given batch, in the background if so configured. 
+     * 
+     * @param batch items to merge
+     * @return number of items added, or 0 if merge is in background
+     */
+    protected long startMerge(final PendingBatch batch) {
+        if(!backgroundMerge) {
+            return runMerge(batch);
+        }
+        getMergeExecutor().execute(new Runnable() {
+            public void run() {
+                runMerge(batch);
+            }
+        });
+        return 0; 
+    }
+    
+    protected synchronized ExecutorService getMergeExecutor() {
+        if(mergeExecutor == null) {
+            mergeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "FPMergeUriUniqFilter merge");
+                    t.setDaemon(true);
+                    return t;
                 }
+            });
+        }
+        return mergeExecutor;
+    }
+    
+    /**
+     * Pass any novel CrawlURIs found by completed merges along to the 
+     * receiver, in the calling thread. 
+     * 
+     * @return number of CrawlURIs passed along
+     */
+    protected synchronized long receiveMerged() {
+        long received = 0;
+        while(!merged.isEmpty()) {
+            List<CrawlURI> toReceive = merged;
+            merged = new ArrayList<CrawlURI>();
+            for(CrawlURI curi : toReceive) {
+                this.receiver.receive(curi);
             }
-            return;
+            received += toReceive.size();
         }
-        if(pendingSet.add(new PendingItem(fp,value))==false) {
-            pendDuplicateCount++; // was already present
+        return received;
+    }
+    
+    /**
+     * Merge the given batch, then release it, starting another merge if 
+     * enough further items have since become pending. Novel CrawlURIs are
+     * left for receiveMerged(). 
+     * 
+     * @param batch items to merge
+     * @return number of items added
+     */
+    protected long runMerge(PendingBatch batch) {
+        long adds = 0; 
+        PendingBatch next = null; 
+        try {
+            adds = merge(batch);
+        } finally {
+            synchronized(this) {
+                merged.addAll(batch.novel);
+                batch.novel.clear();
+                Arrays.fill(batch.uris, 0, batch.count, null);
+                batch.count = 0; 
+                if(batch.fps.length == maxPending) {
+                    spare = batch; 
+                }
+                mergeInProgress = false;
+                mergingCount = 0; 
+                if(pending.count >= maxPending) {
+                    next = takePending();
+                }
+                notifyAll();
+            }
+        }
+        if(next != null) {
+            startMerge(next);
         }
+        return adds;
     }
 
     /**
@@ -224,81 +413,130 @@ public abstract class FPMergeUriUniqFilter implements UriUniqFilter {
     /* (non-Javadoc)
      * @see org.archive.crawler.datamodel.UriUniqFilter#requestFlush()
      */
-    public synchronized long requestFlush() {
-        if(System.currentTimeMillis()>nextFlushAllowableAfter) {
-            return flush();
-        } else {
-//            LOGGER.info("declining to flush: too soon after last flush");
-            return -1; 
+    public long requestFlush() {
+        PendingBatch toMerge;
+        long received; 
+        synchronized(this) {
+            received = receiveMerged();
+            if(System.currentTimeMillis()<=nextFlushAllowableAfter || mergeInProgress) {
+//                LOGGER.info("declining to flush: too soon after last flush");
+                return received > 0 ? received : -1; 
+            }
+            if(pending.count==0) {
+                return received;
+            }
+            toMerge = takePending();
         }
+        startMerge(toMerge);
+        return received + receiveMerged();
     }
 
     /**
-     * Perform a merge of all 'pending' items to the overall fingerprint list. 
+     * Perform a merge of all 'pending' items to the overall fingerprint
+     * list, in the calling thread, after any merge already underway. 
      * If the pending item is new, and has an associated CrawlURI, pass that
      * URI along to the 'receiver' (frontier) for queueing. 
      * 
      * @return number of pending items actually added 
      */
-    public synchronized long flush() {
-        if(pending()==0) {
-            return 0;
+    public long flush() {
+        PendingBatch toMerge;
+        synchronized(this) {
+            while(mergeInProgress) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 0;
+                }
+            }
+            receiveMerged();
+            if(pending.count==0) {
+                return 0;
+            }
+            toMerge = takePending();
         }
+        long adds = runMerge(toMerge);
+        receiveMerged();
+        return adds;
+    }
+    
+    /**
+     * Merge the given batch of pending items with the overall fingerprint
+     * list. Only one merge runs at a time. Where a fingerprint was pended
+     * more than once, the first-pended item decides whether it carries a
+     * CrawlURI, as with the set formerly used for pending items. 
+     * 
+     * @param batch items to merge
+     * @return number of pending items actually added 
+     */
+    protected long merge(PendingBatch batch) {
         long flushStartTime = System.currentTimeMillis();
         long adds = 0; 
         long fpOnlyAdds = 0;
-        Long currFp = null; 
-        PendingItem currPend = null; 
+        long[] fps = batch.fps;
+        CrawlURI[] uris = batch.uris;
+        int n = batch.count; 
+        sortPending(fps, uris, 0, n);
         
-        Iterator<PendingItem> pendIter = pendingSet.iterator();
         LongIterator fpIter = beginFpMerge();
-
-        currPend = (PendingItem) (pendIter.hasNext() ? pendIter.next() : null);
-        currFp = (Long) (fpIter.hasNext() ? fpIter.next() : null); 
-
-        while(true) {
-            while(currFp!=null && (currPend==null||(currFp.longValue() <= currPend.fp))) {
-                addNewFp(currFp.longValue());
-                if(currPend!=null && currFp.longValue() == currPend.fp) {
-                    mergeDuplicateCount++;
-                }
-                if(fpIter.hasNext()) {
-                    currFp = (Long) fpIter.next();
-                } else {
-                    currFp = null;
-                    break;
+        boolean haveFp = fpIter.hasNext();
+        long currFp = haveFp ? fpIter.nextLong() : 0; 
+        int i = 0;
+        while(i < n) {
+            long pendFp = fps[i];
+            // skip run of identical pending fps; stable sort leaves the 
+            // first-pended, which alone decides, at the run's start
+            int runEnd = i + 1;
+            boolean fpOnly = (uris[i] == null);
+            while(runEnd < n && fps[runEnd] == pendFp) {
+                runEnd++;
+            }
+            pendDuplicateCount += runEnd - i - 1; 
+            // pass along all old fps lower than this pending fp
+            while(haveFp && currFp < pendFp) {
+                addNewFp(currFp);
+                haveFp = fpIter.hasNext();
+                if(haveFp) {
+                    currFp = fpIter.nextLong();
                 }
             }
-            while(currPend!=null && (currFp==null||(currFp.longValue() > currPend.fp))) {
-                addNewFp(currPend.fp);
-                if(currPend.caUri!=null) {
-                    adds++;
-                    this.receiver.receive(currPend.caUri);
-                } else {
+            if(haveFp && currFp == pendFp) {
+                // already known; old fp will be passed along above
+                mergeDuplicateCount++;
+            } else {
+                addNewFp(pendFp);
+                if(fpOnly) {
                     fpOnlyAdds++;
-                }
-                if(pendIter.hasNext()) {
-                    currPend = (PendingItem)pendIter.next();
                 } else {
-                    currPend = null;
-                    break;
+                    adds++;
+                    batch.novel.add(uris[i]);
                 }
             }
-            if(currFp==null) {
-                // currPend must be null too, or while wouldn't have exitted
-                // done
-                break;
-            } 
+            i = runEnd; 
+        }
+        while(haveFp) {
+            addNewFp(currFp);
+            haveFp = fpIter.hasNext();
+            if(haveFp) {
+                currFp = fpIter.nextLong();
+            }
         }
+        finishFpMerge();
+        
         // maintain throttle timing
         long flushDuration = System.currentTimeMillis() - flushStartTime;
         nextFlushAllowableAfter = flushStartTime + (FLUSH_DELAY_FACTOR*flushDuration);
         
         // add/duplicate statistics
+        long quickDups;
+        synchronized(this) {
+            quickDups = (quickDuplicateCount-quickDupAtLast);
+            quickDupAtLast = quickDuplicateCount;
+        }
         if(LOGGER.isLoggable(Level.INFO)) {
             long mergeDups = (mergeDuplicateCount-mergeDupAtLast);
             long pendDups = (pendDuplicateCount-pendDupAtLast);
-            long quickDups = (quickDuplicateCount-quickDupAtLast);
             LOGGER.info("flush took "+flushDuration+"ms: "
                     +adds+" adds, "
                     +fpOnlyAdds+" fpOnlydds, "
@@ -311,12 +549,78 @@ public abstract class FPMergeUriUniqFilter implements UriUniqFilter {
         }
         mergeDupAtLast = mergeDuplicateCount;
         pendDupAtLast = pendDuplicateCount;
-        quickDupAtLast = quickDuplicateCount;
-        pendingSet.clear();
-        finishFpMerge();
         return adds;
     }
     
+    /**
+     * Sort the given range of parallel fingerprint and CrawlURI arrays
+     * by fingerprint, in place. The sort is stable: items with equal 
+     * fingerprints stay in the order they were pended. 
+     * 
+     * @param fps fingerprints
+     * @param uris CrawlURIs, moved along with their fingerprints
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     */
+    protected static void sortPending(long[] fps, Object[] uris, int from, int to) {
+        if(to - from > 16) {
+            sortPending(fps, uris, from, to, 
+                    new long[to - from], new Object[to - from]);
+        } else {
+            insertionSort(fps, uris, from, to);
+        }
+    }
+    
+    /**
+     * Merge sort the given range, using the given scratch arrays (at least
+     * as long as the range). 
+     */
+    private static void sortPending(long[] fps, Object[] uris, int from, 
+            int to, long[] tmpFps, Object[] tmpUris) {
+        if(to - from <= 16) {
+            insertionSort(fps, uris, from, to);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortPending(fps, uris, from, mid, tmpFps, tmpUris);
+        sortPending(fps, uris, mid, to, tmpFps, tmpUris);
+        if(fps[mid - 1] <= fps[mid]) {
+            return; // already in order
+        }
+        int leftLength = mid - from;
+        System.arraycopy(fps, from, tmpFps, 0, leftLength);
+        System.arraycopy(uris, from, tmpUris, 0, leftLength);
+        int i = 0, j = mid, k = from;
+        while(i < leftLength && j < to) {
+            // take from left on ties, for stability
+            if(fps[j] < tmpFps[i]) {
+                fps[k] = fps[j];
+                uris[k++] = uris[j++];
+            } else {
+                fps[k] = tmpFps[i];
+                uris[k++] = tmpUris[i++];
+            }
+        }
+        System.arraycopy(tmpFps, i, fps, k, leftLength - i);
+        System.arraycopy(tmpUris, i, uris, k, leftLength - i);
+        Arrays.fill(tmpUris, 0, leftLength, null);
+    }
+    
+    private static void insertionSort(long[] fps, Object[] uris, int from, int to) {
+        for(int i = from + 1; i < to; i++) {
+            long fp = fps[i];
+            Object uri = uris[i];
+            int j = i - 1;
+            while(j >= from && fps[j] > fp) {
+                fps[j + 1] = fps[j];
+                uris[j + 1] = uris[j];
+                j--;
+            }
+            fps[j + 1] = fp;
+            uris[j + 1] = uri;
+        }
+    }
+    
     /**
      * Begin merging pending candidates with complete list. Return an
      * Iterator which will return all previously-known FPs in turn. 
@@ -342,6 +646,19 @@ public abstract class FPMergeUriUniqFilter implements UriUniqFilter {
     abstract protected void finishFpMerge();
 
     public void close() {
+        ExecutorService executor;
+        synchronized(this) {
+            executor = mergeExecutor;
+            mergeExecutor = null; 
+        }
+        if(executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (profileLog != null) {
             profileLog.close();
         }
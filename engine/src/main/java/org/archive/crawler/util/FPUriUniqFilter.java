@@ -68,6 +68,11 @@ implements Serializable {
         return fpset.add(getFp(uri));
     }
 
+    @Override
+    protected boolean setContains(CharSequence uri) {
+        return fpset.contains(getFp(uri));
+    }
+
     protected long setCount() {
         return fpset.count();
     }
@@ -0,0 +1,101 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+ 
+package org.archive.crawler.util;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of how many keys have reached each power-of-two range of some
+ * per-key count, maintained incrementally from each key's count as it is
+ * incremented one at a time, so that no pass over all keys is needed. 
+ * (For example, of hosts by number of successful fetches.) Bucket k 
+ * tallies keys whose count is in [2^k, 2^(k+1)).
+ * 
+ * As with TopNSet, precise only if every new count value of each key is 
+ * reported exactly once and in order; a count value that is skipped (as 
+ * when two increments are reported as one) leaves that key in its old 
+ * bucket until it reaches the next power of two. 
+ */
+public class Log2Histogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    protected AtomicLongArray buckets = new AtomicLongArray(64);
+
+    /**
+     * Note that some key's count has been incremented to the given value. 
+     * 
+     * @param count key's new count
+     */
+    public void noteIncrementedTo(long count) {
+        if (count <= 0 || Long.bitCount(count) != 1) {
+            // key stays within its bucket
+            return;
+        }
+        int bucket = 63 - Long.numberOfLeadingZeros(count);
+        if (bucket > 0) {
+            buckets.decrementAndGet(bucket - 1);
+        }
+        buckets.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return total of keys with positive counts
+     */
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            total += Math.max(0, buckets.get(i));
+        }
+        return total;
+    }
+
+    /**
+     * Get the nonempty buckets, keyed by the String lower bound of each 
+     * bucket's range, in ascending order. 
+     * 
+     * @return map of bucket lower bound to number of keys
+     */
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < buckets.length(); i++) {
+            long count = buckets.get(i);
+            if (count > 0) {
+                map.put(Long.toString(1L << i), count);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Restore bucket tallies, as saved from getBuckets() (for 
+     * checkpoint/restore purposes).
+     * 
+     * @param saved map of bucket lower bound to number of keys
+     */
+    public void putAll(Map<String, Long> saved) {
+        for (Map.Entry<String, Long> entry : saved.entrySet()) {
+            long lowerBound = Long.parseLong(entry.getKey());
+            buckets.set(63 - Long.numberOfLeadingZeros(lowerBound), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.spring.ConfigPath;
+import org.archive.util.MappedBloomFilter64bit;
+import org.archive.util.TextUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.Lifecycle;
+
+/**
+ * BloomUriUniqFilter whose filter is a MappedBloomFilter64bit, kept in
+ * memory-mapped files under the crawl state directory rather than on the
+ * Java heap.
+ *
+ * At checkpoint, only bitfield chunks changed since the previous
+ * checkpoint are copied into a checkpoint-named subdirectory; others are
+ * hard-linked to the previous checkpoint's copies. Recovery maps the
+ * checkpointed chunks where they lie, with no deserialization, and 
+ * copies each into the state directory only when first changed.
+ */
+public class MappedBloomUriUniqFilter extends BloomUriUniqFilter
+implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
+    private static final long serialVersionUID = 1L;
+
+    protected ConfigPath dir = new ConfigPath("bloom filter subdirectory","state/bloom");
+    public ConfigPath getDir() {
+        return dir;
+    }
+    public void setDir(ConfigPath dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Number of unique inserts the filter is sized for; beyond this, the
+     * false-positive rate rises above 1-in-2^hashCount.
+     */
+    protected long expectedInserts = 125000000;
+    public long getExpectedInserts() {
+        return expectedInserts;
+    }
+    public void setExpectedInserts(long expectedInserts) {
+        this.expectedInserts = expectedInserts;
+    }
+
+    /** number of hash functions (bits per item) */
+    protected int hashCount = 22;
+    public int getHashCount() {
+        return hashCount;
+    }
+    public void setHashCount(int hashCount) {
+        this.hashCount = hashCount;
+    }
+
+    protected String beanName;
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
+    /** directory of the most recent checkpoint's chunks, for linking */
+    protected File previousCheckpointDir;
+
+    /**
+     * Filter is created at start(), over the state directory.
+     */
+    @Override
+    public void afterPropertiesSet() {
+    }
+
+    protected MappedBloomFilter64bit getMappedBloom() {
+        return (MappedBloomFilter64bit) bloom;
+    }
+
+    protected boolean isRunning = false;
+    public synchronized void start() {
+        if(isRunning()) {
+            return;
+        }
+        File stateDir = getDir().getFile();
+        try {
+            if(recoveryCheckpoint != null) {
+                JSONObject json = recoveryCheckpoint.loadJson(beanName);
+                expectedInserts = json.getLong("expectedInserts");
+                hashCount = json.getInt("hashCount");
+                previousCheckpointDir = new File(stateDir, recoveryCheckpoint.getName());
+                MappedBloomFilter64bit mapped = new MappedBloomFilter64bit(
+                        expectedInserts, hashCount, json.getLong("seed"), false, 
+                        stateDir, previousCheckpointDir);
+                mapped.setCount(json.getLong("count"));
+                bloom = mapped;
+            } else {
+                bloom = new MappedBloomFilter64bit(expectedInserts, hashCount,
+                        new SecureRandom().nextLong(), false, stateDir, true);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        isRunning = true;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public void stop() {
+        if(!isRunning()) {
+            return;
+        }
+        getMappedBloom().sync();
+        isRunning = false;
+    }
+
+    public void destroy() {
+        close();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if(bloom != null) {
+            getMappedBloom().close();
+        }
+    }
+
+    @Override
+    protected long setCount() {
+        return getMappedBloom().getCount();
+    }
+
+    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+
+    public void doCheckpoint(final Checkpoint checkpointInProgress) throws IOException {
+        MappedBloomFilter64bit mapped = getMappedBloom();
+        File stateDir = getDir().getFile();
+        File cpDir = new File(stateDir, checkpointInProgress.getName());
+        mapped.checkpointTo(cpDir, previousCheckpointDir);
+        previousCheckpointDir = cpDir;
+
+        JSONObject json = new JSONObject();
+        try {
+            json.put("count", mapped.getCount());
+            json.put("seed", mapped.getSeed());
+            json.put("expectedInserts", expectedInserts);
+            json.put("hashCount", hashCount);
+            checkpointInProgress.saveJson(beanName, json);
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+
+        if (checkpointInProgress.getForgetAllButLatest()) {
+            File[] oldCpDirs = stateDir.listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return !name.equals(checkpointInProgress.getName())
+                            && TextUtils.matches("cp\\d{5}-\\d{14}", name);
+                }
+            });
+            for (File d: oldCpDirs) {
+                FileUtils.deleteDirectory(d);
+            }
+        }
+    }
+
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+
+    protected Checkpoint recoveryCheckpoint;
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        this.recoveryCheckpoint = recoveryCheckpoint;
+    }
+}
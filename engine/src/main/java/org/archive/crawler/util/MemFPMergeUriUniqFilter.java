@@ -27,7 +27,7 @@ import it.unimi.dsi.fastutil.longs.LongIterator;
  * @author gojomo
  */
 public class MemFPMergeUriUniqFilter extends FPMergeUriUniqFilter {
-    protected LongArrayList allFps = new LongArrayList();
+    protected volatile LongArrayList allFps = new LongArrayList();
     protected LongArrayList newFps;
     
     /* (non-Javadoc)
@@ -38,6 +38,10 @@ extends SetBasedUriUniqFilter {
     protected synchronized boolean setRemove(CharSequence uri) {
         return hashSet.remove(uri);
     }
+    @Override
+    protected synchronized boolean setContains(CharSequence uri) {
+        return hashSet.contains(uri);
+    }
     protected synchronized long setCount() {
         return (long)hashSet.size();
     }
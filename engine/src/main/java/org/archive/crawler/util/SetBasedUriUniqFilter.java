@@ -59,6 +59,15 @@ public abstract class SetBasedUriUniqFilter implements UriUniqFilter, Serializab
     protected abstract boolean setRemove(CharSequence key);
 
     protected abstract long setCount();
+
+    /**
+     * @param key item to check
+     * @return true if the set certainly contains the key, and can tell
+     * cheaply; this default can't, so always returns false
+     */
+    protected boolean setContains(CharSequence key) {
+        return false;
+    }
     
     public long count() {
         return setCount();
@@ -104,6 +113,15 @@ public abstract class SetBasedUriUniqFilter implements UriUniqFilter, Serializab
         this.receiver.receive(value);
     }
 
+    public boolean alreadyIncluded(String key) {
+        if (setContains(key)) {
+            profileLog(key);
+            duplicateCount++;
+            return true;
+        }
+        return false;
+    }
+
     public void note(String key) {
         profileLog(key);
         setAdd(key);
@@ -0,0 +1,618 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.spring.ConfigPath;
+import org.archive.util.FilesystemLinkMaker;
+import org.archive.util.TextUtils;
+import org.archive.util.fingerprint.MemLongFPSet;
+import org.archive.util.fingerprint.SortedLongFPRun;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.Lifecycle;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * UriUniqFilter keeping exact 64-bit URI fingerprints in tiers, in the
+ * manner of a log-structured merge tree: recently-added fingerprints in 
+ * an in-memory open-addressing hash set (MemLongFPSet), and older ones 
+ * in immutable sorted runs on disk (SortedLongFPRun). 
+ * 
+ * When the in-memory set reaches maxMemoryFps, it is written out as a new
+ * run. When there are more than maxRuns runs, a background thread merges
+ * the newest runs of similar size into one, so that runs form size tiers
+ * and each fingerprint is rewritten only a logarithmic number of times. 
+ * Each run carries its own Bloom filter and sparse index, so a lookup of 
+ * a new URI usually touches no disk at all, and a lookup of a previously
+ * seen URI reads at most one small block per run. 
+ * 
+ * Unlike BloomUriUniqFilter, there are no false positives; unlike the
+ * FPMerge filters, every add is decided immediately. forget() of a
+ * fingerprint already on disk is recorded in an in-memory set of 
+ * 'forgotten' fingerprints, applied when all runs are next merged. 
+ * 
+ * Since runs are never modified, a checkpoint writes out the in-memory
+ * set as a run and then hard-links all runs into a checkpoint 
+ * subdirectory. 
+ */
+public class TieredFPUriUniqFilter extends SetBasedUriUniqFilter 
+implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
+    private static final long serialVersionUID = 1L;
+    
+    private static final Logger LOGGER =
+        Logger.getLogger(TieredFPUriUniqFilter.class.getName());
+    
+    protected static final String RUN_PREFIX = "run-";
+    protected static final String RUN_SUFFIX = ".fps";
+    protected static final String FORGOTTEN_FILENAME = "forgotten.fps";
+    
+    protected ConfigPath dir = new ConfigPath("fingerprint runs subdirectory","state/uniqfps");
+    public ConfigPath getDir() {
+        return dir;
+    }
+    public void setDir(ConfigPath dir) {
+        this.dir = dir;
+    }
+    
+    /**
+     * Number of fingerprints held in memory before being written out as
+     * a disk run. 
+     */
+    protected int maxMemoryFps = 1 << 22;
+    public int getMaxMemoryFps() {
+        return maxMemoryFps;
+    }
+    public void setMaxMemoryFps(int maxMemoryFps) {
+        this.maxMemoryFps = maxMemoryFps;
+    }
+    
+    /**
+     * Number of disk runs beyond which runs are merged. 
+     */
+    protected int maxRuns = 8;
+    public int getMaxRuns() {
+        return maxRuns;
+    }
+    public void setMaxRuns(int maxRuns) {
+        this.maxRuns = maxRuns;
+    }
+    
+    protected String beanName;
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+    
+    /** recent fingerprints; guarded by this */
+    protected transient MemLongFPSet memFps;
+    /** fingerprints forgotten while in some run; guarded by this */
+    protected transient MemLongFPSet forgotten;
+    /** runs, oldest first; replaced (never modified) under this */
+    protected transient volatile List<SortedLongFPRun> runs;
+    /** held (read) while consulting runs, (write) while closing any */
+    protected transient ReentrantReadWriteLock runsLock;
+    /** incremented whenever runs gain fingerprints from memory */
+    protected transient long spills;
+    protected transient long count;
+    protected transient long nextRunNumber;
+    protected transient boolean compacting;
+    protected transient ExecutorService compactor;
+    
+    public static long createFp(CharSequence key) {
+        return FPGenerator.std64.fp(key);
+    }
+    
+    protected MemLongFPSet createMemFps() {
+        // sized so that maxMemoryFps fits without growing
+        int capacityPowerOfTwo = 10;
+        while((1L << capacityPowerOfTwo) * 0.75f < maxMemoryFps + 1) {
+            capacityPowerOfTwo++;
+        }
+        return new MemLongFPSet(capacityPowerOfTwo, 0.75f);
+    }
+    
+    protected boolean isRunning = false;
+    public synchronized void start() {
+        if(isRunning()) {
+            return;
+        }
+        File stateDir = getDir().getFile();
+        memFps = createMemFps();
+        forgotten = new MemLongFPSet();
+        runsLock = new ReentrantReadWriteLock();
+        runs = Collections.emptyList();
+        count = 0;
+        nextRunNumber = 0;
+        List<String> runNames = new ArrayList<String>();
+        File recoveryDir = null;
+        try {
+            org.archive.util.FileUtils.ensureWriteableDirectory(stateDir);
+            if(recoveryCheckpoint != null) {
+                JSONObject json = recoveryCheckpoint.loadJson(beanName);
+                count = json.getLong("count");
+                nextRunNumber = json.getLong("nextRunNumber");
+                JSONArray names = json.getJSONArray("runs");
+                for(int i = 0; i < names.length(); i++) {
+                    runNames.add(names.getString(i));
+                }
+                recoveryDir = new File(stateDir, recoveryCheckpoint.getName());
+            }
+            // clear any runs not part of recovered state
+            for(File f : listRunFiles(stateDir)) {
+                if(!runNames.contains(f.getName())) {
+                    f.delete();
+                }
+            }
+            List<SortedLongFPRun> recovered = new ArrayList<SortedLongFPRun>();
+            for(String name : runNames) {
+                File saved = new File(recoveryDir, name);
+                File live = new File(stateDir, name);
+                if(!live.exists() || live.length() != saved.length()) {
+                    linkOrCopy(saved, live);
+                }
+                recovered.add(SortedLongFPRun.open(live));
+            }
+            runs = recovered;
+            if(recoveryDir != null) {
+                File savedForgotten = new File(recoveryDir, FORGOTTEN_FILENAME);
+                if(savedForgotten.exists()) {
+                    SortedLongFPRun.Reader reader = new SortedLongFPRun.Reader(savedForgotten);
+                    try {
+                        while(reader.hasNext()) {
+                            forgotten.add(reader.nextLong());
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TieredFPUriUniqFilter compaction");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        isRunning = true;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public void stop() {
+        isRunning = false;
+    }
+
+    public void destroy() {
+        close();
+    }
+    
+    @Override
+    public void close() {
+        super.close();
+        ExecutorService executor;
+        synchronized(this) {
+            executor = compactor;
+            compactor = null;
+        }
+        if(executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized(this) {
+            if(runs != null) {
+                closeRuns(runs);
+                runs = null;
+            }
+        }
+    }
+    
+    protected static File[] listRunFiles(File stateDir) {
+        File[] files = stateDir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(RUN_PREFIX) && name.endsWith(RUN_SUFFIX);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+    
+    protected static void linkOrCopy(File from, File to) throws IOException {
+        if(to.exists() && !to.delete()) {
+            throw new IOException("unable to delete obstructing file " + to);
+        }
+        if(!FilesystemLinkMaker.makeHardLink(from.getAbsolutePath(), to.getAbsolutePath())) {
+            FileUtils.copyFile(from, to);
+        }
+    }
+    
+    @Override
+    protected boolean setAdd(CharSequence key) {
+        long fp = createFp(key);
+        long spillsBefore;
+        synchronized(this) {
+            if(memFps.contains(fp)) {
+                return false;
+            }
+            if(forgotten.remove(fp)) {
+                // still present in some run; now remembered again
+                count++;
+                return true;
+            }
+            spillsBefore = spills;
+        }
+        // consult disk runs without blocking other adds
+        boolean onDisk = runsContain(fp);
+        synchronized(this) {
+            if(!onDisk && spills != spillsBefore) {
+                // fp may have reached disk from another thread's add
+                onDisk = runsContain(fp);
+            }
+            if(onDisk) {
+                if(forgotten.remove(fp)) {
+                    count++;
+                    return true;
+                }
+                return false;
+            }
+            if(!memFps.add(fp)) {
+                return false;
+            }
+            count++;
+            if(memFps.count() >= maxMemoryFps) {
+                spill();
+            }
+            return true;
+        }
+    }
+    
+    @Override
+    protected boolean setContains(CharSequence key) {
+        long fp = createFp(key);
+        synchronized(this) {
+            if(memFps.contains(fp)) {
+                return true;
+            }
+            if(forgotten.contains(fp)) {
+                return false;
+            }
+        }
+        return runsContain(fp);
+    }
+    
+    protected boolean runsContain(long fp) {
+        runsLock.readLock().lock();
+        try {
+            List<SortedLongFPRun> checkRuns = runs;
+            // newest first: likeliest to hold recently-seen fingerprints
+            for(int i = checkRuns.size() - 1; i >= 0; i--) {
+                if(checkRuns.get(i).contains(fp)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            runsLock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    protected synchronized boolean setRemove(CharSequence key) {
+        long fp = createFp(key);
+        if(memFps.remove(fp)) {
+            count--;
+            return true;
+        }
+        if(!forgotten.contains(fp) && runsContain(fp)) {
+            forgotten.add(fp);
+            count--;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected synchronized long setCount() {
+        return count;
+    }
+    
+    protected File newRunFile() {
+        return new File(getDir().getFile(), RUN_PREFIX + (nextRunNumber++) + RUN_SUFFIX);
+    }
+    
+    /**
+     * Write all in-memory fingerprints out as a new run, and start a 
+     * compaction if there are now too many runs. 
+     */
+    protected void spill() {
+        assert Thread.holdsLock(this);
+        if(memFps.count() == 0) {
+            return;
+        }
+        long[] fps = memFps.toSortedArray();
+        SortedLongFPRun run;
+        try {
+            SortedLongFPRun.Writer writer = 
+                new SortedLongFPRun.Writer(newRunFile(), fps.length);
+            for(long fp : fps) {
+                writer.add(fp);
+            }
+            run = writer.finish();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        List<SortedLongFPRun> newRuns = new ArrayList<SortedLongFPRun>(runs);
+        newRuns.add(run);
+        runs = newRuns;
+        spills++;
+        memFps = createMemFps();
+        if(LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("spilled " + fps.length + " fingerprints to " 
+                    + run.getFile() + "; " + newRuns.size() + " runs");
+        }
+        if(newRuns.size() > maxRuns && !compacting && compactor != null) {
+            compacting = true;
+            compactor.execute(new Runnable() {
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+    
+    /**
+     * Choose the runs to merge: the newest run, plus each next-older run
+     * no larger than all those chosen so far (at least two in all). 
+     * 
+     * @param current all runs, oldest first
+     * @return index of oldest run to merge; all newer are also merged
+     */
+    protected static int chooseCompactionStart(List<SortedLongFPRun> current) {
+        int start = current.size() - 1;
+        long total = current.get(start).count();
+        while(start > 0 && (current.get(start - 1).count() <= total
+                || start > current.size() - 2)) {
+            start--;
+            total += current.get(start).count();
+        }
+        return start;
+    }
+    
+    /**
+     * Merge a tier of runs into one. If all runs are merged, forgotten 
+     * fingerprints are dropped. Runs in the background; adds continue 
+     * against the unmerged runs until they are swapped out. 
+     */
+    protected void compact() {
+        long startTime = System.currentTimeMillis();
+        List<SortedLongFPRun> before;
+        int start;
+        long[] drop;
+        File mergedFile;
+        synchronized(this) {
+            before = runs;
+            start = chooseCompactionStart(before);
+            drop = (start == 0) ? forgotten.toSortedArray() : new long[0];
+            mergedFile = newRunFile();
+        }
+        List<SortedLongFPRun> toMerge = before.subList(start, before.size());
+        SortedLongFPRun merged = null;
+        SortedLongFPRun.Writer writer = null;
+        List<SortedLongFPRun.Reader> readers = new ArrayList<SortedLongFPRun.Reader>();
+        try {
+            long total = 0;
+            for(SortedLongFPRun run : toMerge) {
+                readers.add(run.reader());
+                total += run.count();
+            }
+            writer = new SortedLongFPRun.Writer(mergedFile, total);
+            mergeRuns(readers, drop, writer);
+            merged = writer.finish();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "compaction failed", e);
+            if(writer != null) {
+                writer.abort();
+            }
+            synchronized(this) {
+                compacting = false;
+            }
+            return;
+        } finally {
+            for(SortedLongFPRun.Reader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        synchronized(this) {
+            List<SortedLongFPRun> current = runs;
+            // runs may only have been appended since
+            List<SortedLongFPRun> newRuns = new ArrayList<SortedLongFPRun>();
+            newRuns.addAll(current.subList(0, start));
+            newRuns.add(merged);
+            newRuns.addAll(current.subList(before.size(), current.size()));
+            runsLock.writeLock().lock();
+            try {
+                runs = newRuns;
+                closeRuns(toMerge);
+            } finally {
+                runsLock.writeLock().unlock();
+            }
+            for(long fp : drop) {
+                if(!forgotten.remove(fp)) {
+                    // remembered again during merge; keep it
+                    memFps.add(fp);
+                }
+            }
+            compacting = false;
+        }
+        for(SortedLongFPRun run : toMerge) {
+            run.getFile().delete();
+        }
+        if(LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info("merged " + toMerge.size() + " runs to " 
+                    + merged.count() + " fingerprints in " 
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+    
+    /**
+     * Merge the ascending fingerprints of the given readers into the 
+     * writer, skipping any in the sorted drop array. 
+     */
+    protected static void mergeRuns(List<SortedLongFPRun.Reader> readers, 
+            long[] drop, SortedLongFPRun.Writer writer) throws IOException {
+        int n = readers.size();
+        long[] heads = new long[n];
+        boolean[] live = new boolean[n];
+        for(int i = 0; i < n; i++) {
+            live[i] = readers.get(i).hasNext();
+            if(live[i]) {
+                heads[i] = readers.get(i).nextLong();
+            }
+        }
+        int dropIndex = 0;
+        boolean haveLast = false;
+        long last = 0;
+        while(true) {
+            // few runs: linear scan for minimum
+            int min = -1;
+            for(int i = 0; i < n; i++) {
+                if(live[i] && (min < 0 || heads[i] < heads[min])) {
+                    min = i;
+                }
+            }
+            if(min < 0) {
+                break;
+            }
+            long fp = heads[min];
+            live[min] = readers.get(min).hasNext();
+            if(live[min]) {
+                heads[min] = readers.get(min).nextLong();
+            }
+            if(haveLast && fp == last) {
+                continue;
+            }
+            haveLast = true;
+            last = fp;
+            while(dropIndex < drop.length && drop[dropIndex] < fp) {
+                dropIndex++;
+            }
+            if(dropIndex < drop.length && drop[dropIndex] == fp) {
+                continue;
+            }
+            writer.add(fp);
+        }
+    }
+    
+    protected void closeRuns(List<SortedLongFPRun> toClose) {
+        for(SortedLongFPRun run : toClose) {
+            try {
+                run.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "closing " + run.getFile(), e);
+            }
+        }
+    }
+
+    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+
+    public synchronized void doCheckpoint(final Checkpoint checkpointInProgress) throws IOException {
+        File stateDir = getDir().getFile();
+        File cpDir = new File(stateDir, checkpointInProgress.getName());
+        org.archive.util.FileUtils.ensureWriteableDirectory(cpDir);
+        // all fingerprints to immutable runs, then link those
+        spill();
+        JSONArray runNames = new JSONArray();
+        for(SortedLongFPRun run : runs) {
+            linkOrCopy(run.getFile(), new File(cpDir, run.getFile().getName()));
+            runNames.put(run.getFile().getName());
+        }
+        long[] forgottenFps = forgotten.toSortedArray();
+        if(forgottenFps.length > 0) {
+            SortedLongFPRun.Writer writer = 
+                new SortedLongFPRun.Writer(new File(cpDir, FORGOTTEN_FILENAME), forgottenFps.length);
+            for(long fp : forgottenFps) {
+                writer.add(fp);
+            }
+            writer.finish().close();
+        }
+
+        JSONObject json = new JSONObject();
+        try {
+            json.put("count", count);
+            json.put("nextRunNumber", nextRunNumber);
+            json.put("runs", runNames);
+            checkpointInProgress.saveJson(beanName, json);
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+
+        if (checkpointInProgress.getForgetAllButLatest()) {
+            File[] oldCpDirs = stateDir.listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return !name.equals(checkpointInProgress.getName())
+                            && TextUtils.matches("cp\\d{5}-\\d{14}", name);
+                }
+            });
+            for (File d: oldCpDirs) {
+                FileUtils.deleteDirectory(d);
+            }
+        }
+    }
+
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+
+    protected Checkpoint recoveryCheckpoint;
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        this.recoveryCheckpoint = recoveryCheckpoint;
+    }
+}
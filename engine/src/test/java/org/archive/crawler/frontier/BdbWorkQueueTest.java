@@ -0,0 +1,119 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * Tests of BdbWorkQueue's read-ahead of its head.
+ */
+public class BdbWorkQueueTest extends TmpDirTestCase {
+    protected File envDir;
+    protected EnhancedEnvironment env;
+    protected Database db;
+    protected BdbMultipleWorkQueues pendingUris;
+    protected BdbFrontier frontier;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        envDir = new File(getTmpDir(), "BdbWorkQueueTest");
+        FileUtils.deleteDirectory(envDir);
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        EnvironmentConfig config = new EnvironmentConfig();
+        config.setAllowCreate(true);
+        env = new EnhancedEnvironment(envDir, config);
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        db = env.openDatabase(null, "pending", dbConfig);
+        pendingUris = new BdbMultipleWorkQueues(db, env.getClassCatalog());
+        frontier = new BdbFrontier() {
+            @Override
+            protected BdbMultipleWorkQueues getWorkQueues() {
+                return pendingUris;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.close();
+        env.close();
+        FileUtils.deleteDirectory(envDir);
+        super.tearDown();
+    }
+
+    /**
+     * Read-ahead must be dropped when an item sorting before its last 
+     * entry is inserted, so the new item is emitted first.
+     */
+    public void testHeadCacheInvalidatedByEarlierInsert() throws Exception {
+        BdbWorkQueue wq = new BdbWorkQueue("example.com", frontier);
+        wq.enqueue(frontier, curi("a", 10));
+        wq.enqueue(frontier, curi("b", 20));
+        wq.enqueue(frontier, curi("c", 30));
+
+        // read ahead a, b, c; leave b, c cached
+        CrawlURI first = wq.peek(frontier);
+        assertEquals("http://example.com/a", first.toString());
+        wq.dequeue(frontier, first);
+
+        wq.enqueue(frontier, curi("z", 5));
+        assertEquals("http://example.com/z", wq.peek(frontier).toString());
+        wq.dequeue(frontier, wq.peek(frontier));
+        assertEquals("http://example.com/b", wq.peek(frontier).toString());
+        assertEquals(2, frontier.headPrefetchMisses.get());
+    }
+
+    /**
+     * Read-ahead must not return items deleted by deleteMatching().
+     */
+    public void testHeadCacheInvalidatedByDeleteMatching() throws Exception {
+        BdbWorkQueue wq = new BdbWorkQueue("example.com", frontier);
+        wq.enqueue(frontier, curi("a", 10));
+        wq.enqueue(frontier, curi("b", 20));
+        wq.enqueue(frontier, curi("c", 30));
+
+        CrawlURI first = wq.peek(frontier);
+        wq.dequeue(frontier, first);
+
+        assertEquals(1, wq.deleteMatching(frontier, ".*/b"));
+        assertEquals("http://example.com/c", wq.peek(frontier).toString());
+        assertEquals(1, wq.getCount());
+    }
+
+    protected CrawlURI curi(String path, long ordinal) throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/" + path));
+        curi.setClassKey("example.com");
+        curi.setOrdinal(ordinal);
+        return curi;
+    }
+}
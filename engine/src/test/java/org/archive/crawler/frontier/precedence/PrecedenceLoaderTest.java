@@ -0,0 +1,102 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier.precedence;
+
+import static org.archive.modules.CoreAttributeConstants.A_PRECALC_PRECEDENCE;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.recrawl.PersistHistoryBinding;
+import org.archive.modules.recrawl.PersistProcessor;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * PrecedenceLoader tests.
+ */
+@SuppressWarnings("rawtypes")
+public class PrecedenceLoaderTest extends TmpDirTestCase {
+
+    /**
+     * Loading precedences over a uri_history holding compact records must
+     * read (and keep) their contents.
+     */
+    public void testLoadOverCompactRecord() throws Exception {
+        File envDir = new File(getTmpDir(), "PrecedenceLoaderTest");
+        FileUtils.deleteDirectory(envDir);
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        String uri = "http://www.example.com/";
+        String key = PersistProcessor.persistKeyFor(uri);
+
+        // a compact record, as with compactHistory
+        EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(envDir);
+        Database historyDB = env.openDatabase(null, 
+                PersistProcessor.URI_HISTORY_DBNAME,
+                PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
+        PersistHistoryBinding compact = 
+            new PersistHistoryBinding(env.getClassCatalog(), true);
+        DatabaseEntry keyEntry = new DatabaseEntry();
+        StringBinding.stringToEntry(key, keyEntry);
+        DatabaseEntry valueEntry = new DatabaseEntry();
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put(A_STATUS, 200);
+        compact.objectToEntry(map, valueEntry);
+        assertTrue(PersistHistoryBinding.isCompact(valueEntry));
+        historyDB.put(null, keyEntry, valueEntry);
+        historyDB.sync();
+        historyDB.close();
+        env.close();
+
+        File source = new File(getTmpDir(), "PrecedenceLoaderTest.txt");
+        FileUtils.writeStringToFile(source, uri + " 3\n");
+        try {
+            PrecedenceLoader.main(new String[] {
+                    source.getAbsolutePath(), envDir.getAbsolutePath()});
+
+            env = PersistProcessor.setupCopyEnvironment(envDir);
+            historyDB = env.openDatabase(null, 
+                    PersistProcessor.URI_HISTORY_DBNAME,
+                    PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
+            try {
+                StoredSortedMap<String,Map> historyMap = new StoredSortedMap<String,Map>(
+                        historyDB, new StringBinding(), 
+                        new PersistHistoryBinding(env.getClassCatalog(), false), false);
+                Map loaded = historyMap.get(key);
+                assertEquals(200, loaded.get(A_STATUS));
+                assertEquals(3, loaded.get(A_PRECALC_PRECEDENCE));
+            } finally {
+                historyDB.close();
+                env.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(envDir);
+            source.delete();
+        }
+    }
+}
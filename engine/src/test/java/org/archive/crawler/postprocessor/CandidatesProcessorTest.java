@@ -0,0 +1,152 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.postprocessor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.processor.CrawlMapper;
+import org.archive.crawler.spring.SheetOverlaysManager;
+import org.archive.modules.CandidateChain;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.Link;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+import org.archive.spring.KeyedProperties;
+
+/**
+ * Tests of CandidatesProcessor, and of the processors which consult the
+ * outCandidates it leaves.
+ */
+public class CandidatesProcessorTest extends TestCase {
+    protected List<CrawlURI> scheduled = new ArrayList<CrawlURI>();
+    protected SheetOverlaysManager sheetOverlaysManager = new SheetOverlaysManager();
+
+    /**
+     * With default settings, CrawlMapper's outlinkRule and 
+     * SupplementaryLinksScoper's supplementaryRule run after 
+     * CandidatesProcessor must see the full candidates: with heritable 
+     * data and overlays, just as the candidate chain saw them.
+     */
+    public void testLaterProcessorsSeeFullCandidates() throws Exception {
+        CrawlURI source = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/"));
+        source.setSourceTag("tag");
+        source.setFetchStatus(200);
+        Link.add(source, 10, "http://example.com/a", LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+        Link.add(source, 10, "http://example.org/b", LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+
+        process(makeCandidatesProcessor(), source);
+        assertEquals(2, scheduled.size());
+        assertEquals(2, source.getOutCandidates().size());
+
+        RecordingDecideRule mapperRule = new RecordingDecideRule();
+        CrawlMapper mapper = new CrawlMapper() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected String map(CrawlURI cauri) {
+                return getLocalName();
+            }
+        };
+        mapper.setCheckUri(false);
+        mapper.setOutlinkRule(mapperRule);
+        process(mapper, source);
+
+        RecordingDecideRule scoperRule = new RecordingDecideRule();
+        SupplementaryLinksScoper scoper = new SupplementaryLinksScoper();
+        scoper.setSupplementaryRule(scoperRule);
+        for (CrawlURI candidate : source.getOutCandidates()) {
+            assertTrue(scoper.isInScope(candidate));
+        }
+
+        for (RecordingDecideRule rule : new RecordingDecideRule[] {mapperRule, scoperRule}) {
+            assertEquals(2, rule.seen.size());
+            for (CrawlURI candidate : rule.seen) {
+                assertTrue(scheduled.contains(candidate));
+                assertEquals("tag", candidate.getSourceTag());
+                assertTrue(candidate.haveOverlayNamesBeenSet());
+                assertEquals(source.getUURI(), candidate.getVia());
+            }
+        }
+    }
+
+    protected CandidatesProcessor makeCandidatesProcessor() {
+        CandidatesProcessor candidates = new CandidatesProcessor();
+        CandidateChain chain = new CandidateChain();
+        chain.setProcessors(new ArrayList<Processor>());
+        candidates.setCandidateChain(chain);
+        candidates.setSheetOverlaysManager(sheetOverlaysManager);
+        candidates.setFrontier((Frontier) Proxy.newProxyInstance(
+                Frontier.class.getClassLoader(), new Class<?>[] {Frontier.class}, 
+                new InvocationHandler() {
+                    @SuppressWarnings("unchecked")
+                    public Object invoke(Object proxy, Method method, 
+                            Object[] args) {
+                        if ("schedule".equals(method.getName())) {
+                            scheduled.add((CrawlURI) args[0]);
+                        } else if ("scheduleAll".equals(method.getName())) {
+                            scheduled.addAll((Collection<CrawlURI>) args[0]);
+                        } else {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        return null;
+                    }
+                }));
+        return candidates;
+    }
+
+    /**
+     * Process the given URI as a ToeThread would, with its overlays in
+     * effect.
+     */
+    protected void process(Processor processor, CrawlURI curi) 
+    throws InterruptedException {
+        sheetOverlaysManager.applyOverlaysTo(curi);
+        KeyedProperties.loadOverridesFrom(curi);
+        try {
+            processor.process(curi);
+        } finally {
+            KeyedProperties.clearOverridesFrom(curi);
+        }
+    }
+
+    /**
+     * Accepts everything, remembering what it was asked about.
+     */
+    public static class RecordingDecideRule extends DecideRule {
+        private static final long serialVersionUID = 1L;
+        List<CrawlURI> seen = new ArrayList<CrawlURI>();
+        @Override
+        protected DecideResult innerDecide(CrawlURI uri) {
+            seen.add(uri);
+            return DecideResult.ACCEPT;
+        }
+    }
+}
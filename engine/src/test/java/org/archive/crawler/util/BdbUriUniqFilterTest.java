@@ -174,6 +174,19 @@ implements UriUniqFilter.CrawlUriReceiver {
             this.filter.count() == max);
     }
     
+    public void testAlreadyIncluded() throws URIException {
+        assertFalse("included before add",
+            this.filter.alreadyIncluded(this.getUri()));
+        this.filter.add(this.getUri(),
+            new CrawlURI(UURIFactory.getInstance(this.getUri())));
+        assertTrue("not included after add",
+            this.filter.alreadyIncluded(this.getUri()));
+        this.filter.forget(this.getUri(),
+            new CrawlURI(UURIFactory.getInstance(this.getUri())));
+        assertFalse("included after forget",
+            this.filter.alreadyIncluded(this.getUri()));
+    }
+
     public void testNote() {
     	this.filter.note(this.getUri());
         assertFalse("Receiver was called", this.received);
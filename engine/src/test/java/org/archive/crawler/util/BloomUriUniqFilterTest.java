@@ -108,6 +108,19 @@ implements UriUniqFilter.CrawlUriReceiver {
             filter.count() == MAX_COUNT);
     }
 
+    public void testAlreadyIncluded() throws URIException {
+        assertFalse("included before add",
+            this.filter.alreadyIncluded(this.getUri()));
+        this.filter.add(this.getUri(),
+            new CrawlURI(UURIFactory.getInstance(this.getUri())));
+        assertTrue("received", this.received);
+        this.received = false;
+        assertTrue("not included after add",
+            this.filter.alreadyIncluded(this.getUri()));
+        assertFalse("Receiver was called", this.received);
+        assertEquals("Count is off", 1, this.filter.count());
+    }
+
     public void testNote() {
         filter.note(this.getUri());
         assertFalse("Receiver was called", this.received);
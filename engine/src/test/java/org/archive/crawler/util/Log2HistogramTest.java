@@ -0,0 +1,63 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+ 
+package org.archive.crawler.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Log2Histogram tests.
+ */
+public class Log2HistogramTest extends TestCase {
+
+    public void testIncrements() {
+        Log2Histogram histogram = new Log2Histogram();
+        // one key counted to 1, another to 5, another to 8
+        histogram.noteIncrementedTo(1);
+        for (long c = 1; c <= 5; c++) {
+            histogram.noteIncrementedTo(c);
+        }
+        for (long c = 1; c <= 8; c++) {
+            histogram.noteIncrementedTo(c);
+        }
+        Map<String, Long> buckets = histogram.getBuckets();
+        assertEquals(3, buckets.size());
+        assertEquals(Long.valueOf(1), buckets.get("1"));
+        assertEquals(Long.valueOf(1), buckets.get("4"));
+        assertEquals(Long.valueOf(1), buckets.get("8"));
+        assertEquals(3, histogram.getTotal());
+    }
+
+    public void testRestore() {
+        Log2Histogram histogram = new Log2Histogram();
+        for (long c = 1; c <= 300; c++) {
+            histogram.noteIncrementedTo(c);
+        }
+        Map<String, Long> saved = new HashMap<String, Long>(histogram.getBuckets());
+        Log2Histogram restored = new Log2Histogram();
+        restored.putAll(saved);
+        assertEquals(histogram.getBuckets(), restored.getBuckets());
+        restored.noteIncrementedTo(512);
+        assertEquals(Long.valueOf(1), restored.getBuckets().get("512"));
+        assertNull(restored.getBuckets().get("256"));
+    }
+}
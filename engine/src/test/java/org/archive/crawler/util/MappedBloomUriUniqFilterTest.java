@@ -0,0 +1,125 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.crawler.datamodel.UriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Test MappedBloomUriUniqFilter: adds, duplicates, checkpoint and 
+ * recovery.
+ */
+public class MappedBloomUriUniqFilterTest extends TmpDirTestCase
+implements UriUniqFilter.CrawlUriReceiver {
+    protected File base;
+    protected File stateDir;
+    protected List<CrawlURI> received = new ArrayList<CrawlURI>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        base = new File(getTmpDir(), "MappedBloomUriUniqFilterTest");
+        FileUtils.deleteDirectory(base);
+        stateDir = new File(base, "state");
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(base);
+        super.tearDown();
+    }
+
+    public void receive(CrawlURI item) {
+        received.add(item);
+    }
+
+    protected MappedBloomUriUniqFilter newFilter(Checkpoint recoveryCheckpoint) {
+        MappedBloomUriUniqFilter filter = new MappedBloomUriUniqFilter();
+        filter.setDir(new ConfigPath("bloom", stateDir.getAbsolutePath()));
+        filter.setExpectedInserts(10000);
+        filter.setBeanName("uriUniqFilter");
+        filter.setRecoveryCheckpoint(recoveryCheckpoint);
+        filter.afterPropertiesSet();
+        filter.setDestination(this);
+        filter.start();
+        return filter;
+    }
+
+    protected void add(UriUniqFilter filter, String uri) throws URIException {
+        filter.add(uri, new CrawlURI(UURIFactory.getInstance(uri)));
+    }
+
+    public void testAddAndDuplicates() throws Exception {
+        MappedBloomUriUniqFilter filter = newFilter(null);
+        add(filter, "http://www.archive.org/");
+        add(filter, "http://www.archive.org/index.html");
+        add(filter, "http://www.archive.org/");
+        filter.note("http://www.archive.org/index.html");
+        assertEquals(2, filter.count());
+        assertEquals(2, received.size());
+        assertTrue(filter.alreadyIncluded("http://www.archive.org/"));
+        assertFalse(filter.alreadyIncluded("http://www.archive.org/other"));
+        filter.stop();
+        filter.destroy();
+    }
+
+    public void testCheckpointAndRecover() throws Exception {
+        MappedBloomUriUniqFilter filter = newFilter(null);
+        add(filter, "http://before.archive.org/");
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.generateFrom(
+                new ConfigPath("checkpoints", new File(base, "checkpoints").getAbsolutePath()), 1);
+        filter.doCheckpoint(checkpoint);
+        add(filter, "http://after.archive.org/");
+        assertEquals(2, filter.count());
+        filter.stop();
+        filter.destroy();
+
+        File saved = new File(new File(stateDir, checkpoint.getName()), "bloom-0.bits");
+        byte[] savedBytes = FileUtils.readFileToByteArray(saved);
+        // live chunk, as after a crash, is not consulted on recovery
+        File live = new File(stateDir, "bloom-0.bits");
+        assertTrue(live.delete());
+
+        received.clear();
+        filter = newFilter(checkpoint);
+        assertFalse("chunk copied on recovery", live.exists());
+        assertEquals(1, filter.count());
+        add(filter, "http://before.archive.org/");
+        assertEquals(0, received.size());
+        assertFalse("chunk copied for duplicate", live.exists());
+        add(filter, "http://after.archive.org/");
+        assertEquals(1, received.size());
+        assertEquals(2, filter.count());
+        assertTrue("chunk not copied when changed", live.exists());
+        assertTrue("checkpointed chunk changed", 
+                Arrays.equals(savedBytes, FileUtils.readFileToByteArray(saved)));
+        filter.stop();
+        filter.destroy();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.datamodel.UriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Test MemFPMergeUriUniqFilter (and so, FPMergeUriUniqFilter's pending
+ * arrays and merging).
+ */
+public class MemFPMergeUriUniqFilterTest extends TestCase
+implements UriUniqFilter.CrawlUriReceiver {
+    protected MemFPMergeUriUniqFilter filter;
+    protected List<CrawlURI> received = new ArrayList<CrawlURI>();
+    protected List<String> receivingThreads = new ArrayList<String>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        filter = new MemFPMergeUriUniqFilter();
+        filter.setBackgroundMerge(false);
+        filter.setMaxPending(100);
+        filter.setDestination(this);
+    }
+
+    public synchronized void receive(CrawlURI item) {
+        received.add(item);
+        receivingThreads.add(Thread.currentThread().getName());
+    }
+
+    protected CrawlURI curi(String uri) throws URIException {
+        return new CrawlURI(UURIFactory.getInstance(uri));
+    }
+
+    public void testAddsAcrossMerges() throws URIException {
+        for (int i = 0; i < 1000; i++) {
+            filter.add("http://www" + i + ".archive.org/", 
+                    curi("http://www" + i + ".archive.org/"));
+        }
+        // all again: each now caught by quick cache or merge
+        for (int i = 0; i < 1000; i++) {
+            filter.add("http://www" + i + ".archive.org/", 
+                    curi("http://www" + i + ".archive.org/"));
+        }
+        filter.flush();
+        assertEquals(1000, filter.count());
+        assertEquals(1000, received.size());
+        assertEquals(0, filter.pending());
+    }
+
+    public void testNoteAndForce() throws URIException {
+        filter.note("http://noted.archive.org/");
+        filter.addForce("http://forced.archive.org/", 
+                curi("http://forced.archive.org/"));
+        assertEquals(1, received.size()); // forced only
+        filter.flush();
+        assertEquals(2, filter.count());
+        assertEquals(1, received.size());
+        filter.addNow("http://noted.archive.org/", 
+                curi("http://noted.archive.org/"));
+        assertEquals(2, filter.count());
+        assertEquals(1, received.size());
+    }
+
+    public void testFirstBatchReceivedImmediately() throws URIException {
+        filter.add("http://first.archive.org/", 
+                curi("http://first.archive.org/"));
+        assertEquals(1, received.size());
+        assertEquals(0, filter.count());
+        filter.flush();
+        assertEquals(1, filter.count());
+        assertEquals(1, received.size());
+    }
+
+    public void testBackgroundMerge() throws URIException {
+        filter.setBackgroundMerge(true);
+        for (int i = 0; i < 5000; i++) {
+            filter.add("http://www" + i + ".archive.org/", 
+                    curi("http://www" + i + ".archive.org/"));
+        }
+        filter.flush();
+        assertEquals(5000, filter.count());
+        assertEquals(5000, received.size());
+        assertEquals(0, filter.pending());
+        // merge thread only merges; crawling threads do the receiving
+        String self = Thread.currentThread().getName();
+        for (String name : receivingThreads) {
+            assertEquals(self, name);
+        }
+        filter.close();
+    }
+
+    public void testSortPending() {
+        Random r = new Random(1234);
+        long[] fps = new long[1000];
+        Object[] uris = new Object[fps.length];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = r.nextInt(500) - 250; // many duplicates
+            uris[i] = Long.valueOf(fps[i]);
+        }
+        FPMergeUriUniqFilter.sortPending(fps, uris, 0, fps.length);
+        for (int i = 0; i < fps.length; i++) {
+            assertEquals(fps[i], ((Long) uris[i]).longValue());
+            if (i > 0) {
+                assertTrue(fps[i - 1] <= fps[i]);
+            }
+        }
+    }
+
+    public void testSortPendingStable() {
+        Random r = new Random(5678);
+        long[] fps = new long[1000];
+        Object[] uris = new Object[fps.length];
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = r.nextInt(50); 
+            uris[i] = Integer.valueOf(i); // original position
+        }
+        FPMergeUriUniqFilter.sortPending(fps, uris, 0, fps.length);
+        for (int i = 1; i < fps.length; i++) {
+            assertTrue(fps[i - 1] <= fps[i]);
+            if (fps[i - 1] == fps[i]) {
+                assertTrue((Integer) uris[i - 1] < (Integer) uris[i]);
+            }
+        }
+    }
+}
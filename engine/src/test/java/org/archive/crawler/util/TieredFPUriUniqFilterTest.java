@@ -0,0 +1,144 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.crawler.datamodel.UriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Test TieredFPUriUniqFilter: adds across memory and disk tiers, 
+ * forgetting, and concurrent adds during compaction.
+ */
+public class TieredFPUriUniqFilterTest extends TmpDirTestCase
+implements UriUniqFilter.CrawlUriReceiver {
+    protected TieredFPUriUniqFilter filter;
+    protected File dir;
+    protected AtomicInteger received = new AtomicInteger(0);
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getTmpDir(), "TieredFPUriUniqFilterTest");
+        FileUtils.deleteDirectory(dir);
+        filter = new TieredFPUriUniqFilter();
+        filter.setDir(new ConfigPath("test", dir.getAbsolutePath()));
+        filter.setMaxMemoryFps(1000);
+        filter.setMaxRuns(3);
+        filter.setDestination(this);
+        filter.start();
+    }
+
+    protected void tearDown() throws Exception {
+        filter.close();
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void receive(CrawlURI item) {
+        received.incrementAndGet();
+    }
+
+    protected String uri(int i) {
+        return "http://www" + i + ".archive.org/";
+    }
+
+    public void testAddAcrossTiers() {
+        for (int i = 0; i < 20000; i++) {
+            filter.add(uri(i), null);
+        }
+        for (int i = 0; i < 20000; i++) {
+            filter.add(uri(i), null);
+        }
+        assertEquals(20000, filter.count());
+        assertEquals(20000, received.get());
+    }
+
+    public void testForget() {
+        for (int i = 0; i < 5000; i++) {
+            filter.add(uri(i), null);
+        }
+        // one forgotten from disk, one from memory
+        filter.forget(uri(0), null);
+        filter.forget(uri(4999), null);
+        assertEquals(4998, filter.count());
+        filter.add(uri(0), null);
+        filter.add(uri(4999), null);
+        filter.add(uri(1), null);
+        assertEquals(5000, filter.count());
+        assertEquals(5002, received.get());
+    }
+
+    public void testAlreadyIncludedAcrossTiers() {
+        for (int i = 0; i < 5000; i++) {
+            filter.add(uri(i), null);
+        }
+        // first on disk, last in memory
+        assertTrue(filter.alreadyIncluded(uri(0)));
+        assertTrue(filter.alreadyIncluded(uri(4999)));
+        assertFalse(filter.alreadyIncluded(uri(5000)));
+        filter.forget(uri(0), null);
+        assertFalse(filter.alreadyIncluded(uri(0)));
+        assertEquals(4999, filter.count());
+        assertEquals(5000, received.get());
+    }
+
+    public void testForgottenSurvivesCompaction() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            filter.add(uri(i), null);
+        }
+        filter.forget(uri(10), null);
+        for (int i = 3000; i < 20000; i++) {
+            filter.add(uri(i), null);
+        }
+        assertEquals(19999, filter.count());
+        filter.add(uri(10), null);
+        filter.add(uri(11), null);
+        assertEquals(20000, filter.count());
+        assertEquals(20001, received.get());
+    }
+
+    public void testConcurrentAdds() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = (t / 2) * 10000; // pairs of threads overlap
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        filter.add(uri(offset + i), null);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(40000, filter.count());
+        assertEquals(40000, received.get());
+        for (int i = 0; i < 40000; i++) {
+            filter.add(uri(i), null);
+        }
+        assertEquals(40000, received.get());
+    }
+}
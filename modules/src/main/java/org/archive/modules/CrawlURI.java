@@ -865,6 +865,7 @@ implements Reporter, Serializable, OverlayContext {
         this.contentLength = UNCALCULATED;
         // Clear 'links extracted' flag.
         this.linkExtractorFinished = false;
+        this.httpConnectionReused = null;
         // Clean the data map of all but registered permanent members.
         this.data = getPersistentDataMap();
         
@@ -1085,9 +1086,9 @@ implements Reporter, Serializable, OverlayContext {
      * The LinksScoper processor converts Link instances in this collection
      * to CrawlURI instances. 
      */
-    protected transient Collection<Link> outLinks = new LinkedHashSet<Link>();
+    protected transient Collection<Link> outLinks = null;
     
-    protected transient Collection<CrawlURI> outCandidates = new LinkedHashSet<CrawlURI>();
+    protected transient Collection<CrawlURI> outCandidates = null;
     
     /**
      * Returns discovered links.  The returned collection might be empty if
@@ -1097,6 +1098,10 @@ implements Reporter, Serializable, OverlayContext {
      * @return Collection of all discovered outbound Links
      */
     public Collection<Link> getOutLinks() {
+        // created lazily: most CrawlURIs (as candidates) never need one
+        if (outLinks == null) {
+            outLinks = new LinkedHashSet<Link>();
+        }
         return outLinks;
 //        return Transform.subclasses(outLinks, Link.class);
     }
@@ -1109,6 +1114,9 @@ implements Reporter, Serializable, OverlayContext {
      * @return  Collection of candidate URIs
      */
     public Collection<CrawlURI> getOutCandidates() {
+        if (outCandidates == null) {
+            outCandidates = new LinkedHashSet<CrawlURI>();
+        }
         return outCandidates;
     }
     
@@ -1790,6 +1798,34 @@ implements Reporter, Serializable, OverlayContext {
         return this.politenessDelay;
     }
 
+    /**
+     * Whether the frontier, on emitting this URI, expected it to be the
+     * last from its queue for the queue's current session (because the
+     * queue will then be empty, or its session budget spent). A hint for
+     * processors holding per-server resources, such as FetchHTTP's pooled
+     * connections.
+     */
+    transient protected boolean lastInQueueSession = false;
+    public boolean isLastInQueueSession() {
+        return lastInQueueSession;
+    }
+    public void setLastInQueueSession(boolean lastInQueueSession) {
+        this.lastInQueueSession = lastInQueueSession;
+    }
+
+    /**
+     * Whether this URI's last HTTP fetch went over a reused (persistent)
+     * connection, for tallying in FetchStats; null if not fetched by HTTP
+     * since the last processingCleanup(). 
+     */
+    transient protected Boolean httpConnectionReused = null;
+    public Boolean getHttpConnectionReused() {
+        return httpConnectionReused;
+    }
+    public void setHttpConnectionReused(Boolean httpConnectionReused) {
+        this.httpConnectionReused = httpConnectionReused;
+    }
+
     transient protected CrawlURI fullVia; 
     public void setFullVia(CrawlURI curi) {
         this.fullVia = curi; 
@@ -65,5 +65,9 @@ extends PredicatedDecideRule {
         return false;
     }
 
-
+    /** evaluation may mark the CrawlURI as a seed */
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
 }
@@ -73,6 +73,44 @@ public abstract class DecideRule implements Serializable, HasKeyedProperties {
         return null;
     }
 
+    /**
+     * The only decision other than NONE this rule could return for the 
+     * given CrawlURI, or null if it might return different ones. Unlike 
+     * {@link #onlyDecision(CrawlURI)}, which lets in-order evaluation skip
+     * the rule entirely, this is only a hint for DecideRuleSequence's 
+     * optional short-circuit evaluation; the rule's predicate still runs
+     * whenever short-circuiting is off.
+     * 
+     * @return the single possible non-NONE decision, or null
+     */
+    public DecideResult possibleDecision(CrawlURI uri) {
+        return onlyDecision(uri);
+    }
+
+    /**
+     * Whether this rule is costly to evaluate compared to a simple test
+     * of CrawlURI fields -- for example because it does regular expression
+     * matching, prefix-set lookups, scripting or external lookups. A hint
+     * for DecideRuleSequence's short-circuit evaluation, which postpones
+     * expensive single-decision rules until they might matter.
+     * 
+     * @return true if expensive to evaluate
+     */
+    public boolean isExpensive() {
+        return false;
+    }
+
+    /**
+     * Whether evaluating this rule may change the CrawlURI or other state,
+     * so that it must be evaluated whenever in-order evaluation would
+     * evaluate it, even if its decision can't affect the outcome.
+     * 
+     * @return true if evaluation may have side effects
+     */
+    public boolean hasSideEffects() {
+        return false;
+    }
+
     public boolean accepts(CrawlURI uri) {
         return DecideResult.ACCEPT == decisionFor(uri);
     }
@@ -19,7 +19,13 @@
 
 package org.archive.modules.deciderules;
 
+import java.io.Serializable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -75,34 +81,279 @@ public class DecideRuleSequence extends DecideRule implements BeanNameAware, Lif
         kp.put("rules", rules);
     }
 
+    /**
+     * If enabled, evaluate rules from last to first, stopping at the first
+     * rule that decides: as the last decisive rule wins, earlier rules can't
+     * change the outcome. An expensive rule (see
+     * {@link DecideRule#isExpensive()}) which can only return one decision
+     * (see {@link DecideRule#possibleDecision(CrawlURI)}) is postponed until
+     * the rules before it have been consulted, and skipped if they already
+     * reach that decision. Results are identical to in-order evaluation;
+     * sequences including rules with side effects are always evaluated
+     * in order.
+     */
+    {
+        setShortCircuit(false);
+    }
+    public boolean getShortCircuit() {
+        return (Boolean) kp.get("shortCircuit");
+    }
+    public void setShortCircuit(boolean shortCircuit) {
+        kp.put("shortCircuit",shortCircuit);
+    }
+
+    /**
+     * If enabled, count invocations, decisions and evaluation time of each
+     * rule, as reported by {@link #getRuleStatistics()}.
+     */
+    {
+        setCollectRuleStatistics(false);
+    }
+    public boolean getCollectRuleStatistics() {
+        return (Boolean) kp.get("collectRuleStatistics");
+    }
+    public void setCollectRuleStatistics(boolean collect) {
+        kp.put("collectRuleStatistics",collect);
+    }
+
     public DecideResult innerDecide(CrawlURI uri) {
-        DecideRule decisiveRule = null;
-        int decisiveRuleNumber = -1;
+        RulesPlan plan = planFor(getRules());
+        Decisive decisive = new Decisive(getCollectRuleStatistics());
+        DecideResult result;
+        if (getShortCircuit() && !plan.sideEffects) {
+            result = decideFromEnd(plan, plan.rules.length - 1, uri, decisive);
+        } else {
+            result = decideInOrder(plan, uri, decisive);
+        }
+
+        if (fileLogger != null) {
+            fileLogger.info(decisive.ruleNumber + " " + decisive.rule.getClass().getSimpleName() + " " + result + " " + uri);
+        }
+
+        return result;
+    }
+
+    /**
+     * Evaluate every rule in order, the last non-NONE decision winning,
+     * skipping rules whose only possible decision is already the result.
+     */
+    protected DecideResult decideInOrder(RulesPlan plan, CrawlURI uri, 
+            Decisive decisive) {
         DecideResult result = DecideResult.NONE;
-        List<DecideRule> rules = getRules();
-        int max = rules.size();
-        
-        for (int i = 0; i < max; i++) {
-            DecideRule rule = rules.get(i);
+        DecideRule[] rules = plan.rules;
+        for (int i = 0; i < rules.length; i++) {
+            DecideRule rule = rules[i];
             if (rule.onlyDecision(uri) != result) {
-                DecideResult r = rule.decisionFor(uri);
-                if (LOGGER.isLoggable(Level.FINEST)) {
-                    LOGGER.finest("DecideRule #" + i + " " + 
-                            rule.getClass().getName() + " returned " + r + " for url: " + uri);
-                }
+                DecideResult r = evaluate(rule, i, uri, decisive);
                 if (r != DecideResult.NONE) {
                     result = r;
-                    decisiveRule = rule;
-                    decisiveRuleNumber = i;
+                    decisive.note(rule, i);
                 }
             }
         }
+        return result;
+    }
 
-        if (fileLogger != null) {
-            fileLogger.info(decisiveRuleNumber + " " + decisiveRule.getClass().getSimpleName() + " " + result + " " + uri);
+    /**
+     * Return the decision of rules 0 through last, evaluating from last
+     * backward and stopping at the first decisive rule.
+     */
+    protected DecideResult decideFromEnd(RulesPlan plan, int last, 
+            CrawlURI uri, Decisive decisive) {
+        for (int i = last; i >= 0; i--) {
+            DecideRule rule = plan.rules[i];
+            if (plan.expensive[i]) {
+                DecideResult only = rule.possibleDecision(uri);
+                if (only != null) {
+                    // consult earlier rules first; if they already reach
+                    // the only decision this rule could make, skip it
+                    DecideResult prior = decideFromEnd(plan, i - 1, uri, decisive);
+                    if (prior == only) {
+                        return prior;
+                    }
+                    DecideResult r = evaluate(rule, i, uri, decisive);
+                    if (r != DecideResult.NONE) {
+                        decisive.note(rule, i);
+                        return r;
+                    }
+                    return prior;
+                }
+            }
+            DecideResult r = evaluate(rule, i, uri, decisive);
+            if (r != DecideResult.NONE) {
+                decisive.note(rule, i);
+                return r;
+            }
         }
+        return DecideResult.NONE;
+    }
 
-        return result;
+    protected DecideResult evaluate(DecideRule rule, int i, CrawlURI uri, 
+            Decisive decisive) {
+        DecideResult r;
+        if (decisive.collectStatistics) {
+            long start = System.nanoTime();
+            r = rule.decisionFor(uri);
+            statsFor(rule).tally(r, System.nanoTime() - start);
+        } else {
+            r = rule.decisionFor(uri);
+        }
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("DecideRule #" + i + " " + 
+                    rule.getClass().getName() + " returned " + r + " for url: " + uri);
+        }
+        return r;
+    }
+
+    /**
+     * Rules list precompiled into an array along with the per-rule 
+     * cost and side-effect hints; rebuilt only when the (possibly 
+     * overlaid) rules list in effect changes.
+     */
+    protected static class RulesPlan {
+        final List<DecideRule> source;
+        final DecideRule[] rules;
+        final boolean[] expensive;
+        final boolean sideEffects;
+
+        RulesPlan(List<DecideRule> source) {
+            this.source = source;
+            this.rules = source.toArray(new DecideRule[source.size()]);
+            this.expensive = new boolean[rules.length];
+            boolean anySideEffects = false;
+            for (int i = 0; i < rules.length; i++) {
+                expensive[i] = rules[i].isExpensive();
+                anySideEffects |= rules[i].hasSideEffects();
+            }
+            this.sideEffects = anySideEffects;
+        }
+
+        boolean isPlanFor(List<DecideRule> list) {
+            if (list != source || list.size() != rules.length) {
+                return false;
+            }
+            for (int i = 0; i < rules.length; i++) {
+                if (list.get(i) != rules[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    protected transient volatile RulesPlan lastPlan;
+
+    protected RulesPlan planFor(List<DecideRule> rules) {
+        RulesPlan plan = lastPlan;
+        if (plan == null || !plan.isPlanFor(rules)) {
+            plan = new RulesPlan(rules);
+            lastPlan = plan;
+        }
+        return plan;
+    }
+
+    /** 
+     * State of one evaluation: whether to collect rule statistics, and
+     * the decisive rule, for logging
+     */
+    protected static class Decisive {
+        final boolean collectStatistics;
+        DecideRule rule;
+        int ruleNumber = -1;
+        Decisive(boolean collectStatistics) {
+            this.collectStatistics = collectStatistics;
+        }
+        void note(DecideRule rule, int ruleNumber) {
+            this.rule = rule;
+            this.ruleNumber = ruleNumber;
+        }
+    }
+
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
+
+    @Override
+    public boolean hasSideEffects() {
+        for (DecideRule rule : getRules()) {
+            if (rule.hasSideEffects()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** running totals for one rule */
+    protected static class RuleStats implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final AtomicLong invocations = new AtomicLong(0);
+        final AtomicLong accepts = new AtomicLong(0);
+        final AtomicLong rejects = new AtomicLong(0);
+        final AtomicLong nanos = new AtomicLong(0);
+
+        void tally(DecideResult result, long elapsedNanos) {
+            invocations.incrementAndGet();
+            nanos.addAndGet(elapsedNanos);
+            if (result == DecideResult.ACCEPT) {
+                accepts.incrementAndGet();
+            } else if (result == DecideResult.REJECT) {
+                rejects.incrementAndGet();
+            }
+        }
+    }
+    protected ConcurrentMap<DecideRule,RuleStats> ruleStats = 
+        new ConcurrentHashMap<DecideRule,RuleStats>();
+
+    protected RuleStats statsFor(DecideRule rule) {
+        RuleStats stats = ruleStats.get(rule);
+        if (stats == null) {
+            stats = new RuleStats();
+            RuleStats prior = ruleStats.putIfAbsent(rule, stats);
+            if (prior != null) {
+                stats = prior;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Per-rule invocation counts, decisions and evaluation latency, in 
+     * rules-list order, for rules evaluated since statistics collection
+     * was enabled.
+     * 
+     * @return map of "#{rule-number} {rule-class}" to statistics map
+     */
+    public Map<String,Object> getRuleStatistics() {
+        Map<String,Object> report = new LinkedHashMap<String,Object>();
+        List<DecideRule> rules = getRules();
+        for (int i = 0; i < rules.size(); i++) {
+            DecideRule rule = rules.get(i);
+            RuleStats stats = ruleStats.get(rule);
+            if (stats == null) {
+                continue;
+            }
+            long invocations = stats.invocations.get();
+            long nanos = stats.nanos.get();
+            Map<String,Object> ruleReport = new LinkedHashMap<String,Object>();
+            ruleReport.put("invocations", invocations);
+            ruleReport.put("accepts", stats.accepts.get());
+            ruleReport.put("rejects", stats.rejects.get());
+            ruleReport.put("totalMicros", nanos / 1000);
+            ruleReport.put("averageNanos", invocations == 0 ? 0 : nanos / invocations);
+            report.put("#" + i + " " + rule.getClass().getSimpleName(), ruleReport);
+        }
+        return report;
+    }
+
+    public String report() {
+        StringBuilder ret = new StringBuilder();
+        ret.append("DecideRuleSequence: ").append(getBeanName()).append("\n");
+        ret.append("  shortCircuit: ").append(getShortCircuit()).append("\n");
+        for (Map.Entry<String,Object> entry : getRuleStatistics().entrySet()) {
+            ret.append("  ").append(entry.getKey()).append(" ")
+                .append(entry.getValue()).append("\n");
+        }
+        return ret.toString();
     }
     
     protected String beanName;
@@ -124,4 +124,9 @@ public class ExternalGeoLocationDecideRule extends PredicatedDecideRule {
         return false;
     }
     
+    /** may resolve the host and look up its location externally */
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -70,4 +70,11 @@ public class HopCrossesAssignmentLevelDomainDecideRule extends PredicatedDecideR
         return PublicSuffixes.reduceSurtToAssignmentLevel(surt);
         
     }
+
+    /**
+     * Two SURT regex rewrites and public-suffix reductions per URI.
+     */
+    public boolean isExpensive() {
+        return true;
+    }
 }
@@ -25,6 +25,7 @@ import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import org.archive.modules.CrawlURI;
+import org.archive.util.MultiRegexMatcher;
 
 /**
  * Rule applies configured decision to any CrawlURIs whose String URI
@@ -70,6 +71,25 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
         kp.put("listLogicalOr",listLogicalOr);
     }
 
+    /**
+     * If true, test the URI against the whole list of regular expressions 
+     * at once, using automata combining all those expressions which only 
+     * use regular constructs, rather than against each in turn. Results 
+     * are the same; long lists are much faster. 
+     */
+    {
+        setCompileRegexList(false);
+    }
+    public boolean getCompileRegexList() {
+        return (Boolean) kp.get("compileRegexList");
+    }
+    public void setCompileRegexList(boolean compileRegexList) {
+        kp.put("compileRegexList",compileRegexList);
+    }
+
+    /** combined matchers, by the (possibly overlaid) lists they test */
+    protected transient volatile MultiRegexMatcher.Cache compiledRegexLists;
+
     /**
      * Usual constructor. 
      */
@@ -90,6 +110,17 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
         String str = uri.toString();
         boolean listLogicOR = getListLogicalOr();
 
+        if (getCompileRegexList()) {
+            MultiRegexMatcher matcher = getCompiledRegexLists().get(regexes);
+            boolean matches = listLogicOR 
+                ? matcher.matchesAny(str) : matcher.matchesAll(str);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("Tested '" + str + "' match with regex list "
+                    + regexes + " and result was " + matches);
+            }
+            return matches;
+        }
+
         for (Pattern p: regexes) {
             boolean matches = p.matcher(str).matches();
 
@@ -119,4 +150,20 @@ public class MatchesListRegexDecideRule extends PredicatedDecideRule {
         }
     }
     
+
+    protected MultiRegexMatcher.Cache getCompiledRegexLists() {
+        MultiRegexMatcher.Cache cache = compiledRegexLists;
+        if (cache == null) {
+            // harmless if racing threads each make one
+            cache = new MultiRegexMatcher.Cache();
+            compiledRegexLists = cache;
+        }
+        return cache;
+    }
+
+    /** regular-expression matches of the URI, perhaps many */
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -65,4 +65,10 @@ public class MatchesRegexDecideRule extends PredicatedDecideRule {
     protected String getString(CrawlURI uri) {
         return uri.toString();
     }
+
+    /** regular-expression match against the whole URI */
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
 }
@@ -76,4 +76,15 @@ public class PathologicalPathDecideRule extends DecideRule {
     protected String constructRegex(int rep) {
         return (rep == 0) ? null : ".*?/(.*?/)\\1{" + rep + ",}.*";
     }
+
+    @Override
+    public DecideResult possibleDecision(CrawlURI uri) {
+        return DecideResult.REJECT;
+    }
+
+    /** backreferencing regular expression over the whole URI */
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
 }
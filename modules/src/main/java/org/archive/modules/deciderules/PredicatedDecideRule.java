@@ -51,4 +51,15 @@ public abstract class PredicatedDecideRule extends DecideRule {
     }
 
     protected abstract boolean evaluate(CrawlURI object);
+
+    /**
+     * A predicated rule can only return its configured decision (or NONE),
+     * unless evaluation has side effects which must not be skipped.
+     * 
+     * @see org.archive.modules.deciderules.DecideRule#possibleDecision(org.archive.modules.CrawlURI)
+     */
+    @Override
+    public DecideResult possibleDecision(CrawlURI uri) {
+        return hasSideEffects() ? null : getDecision();
+    }
 }
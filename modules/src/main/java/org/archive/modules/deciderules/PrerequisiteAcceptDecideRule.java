@@ -46,5 +46,8 @@ public class PrerequisiteAcceptDecideRule extends DecideRule {
         return DecideResult.NONE;
     }
 
-
+    @Override
+    public DecideResult possibleDecision(CrawlURI uri) {
+        return DecideResult.ACCEPT;
+    }
 }
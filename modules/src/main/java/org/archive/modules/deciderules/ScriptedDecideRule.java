@@ -187,4 +187,15 @@ implements ApplicationContextAware, InitializingBean {
     }
     
     
+    /** runs a script */
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
+
+    /** scripts may do anything */
+    @Override
+    public boolean hasSideEffects() {
+        return true;
+    }
 }
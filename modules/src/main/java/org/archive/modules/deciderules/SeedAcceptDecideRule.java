@@ -44,4 +44,9 @@ public class SeedAcceptDecideRule extends DecideRule {
         }
         return DecideResult.NONE;
     }
+
+    @Override
+    public DecideResult possibleDecision(CrawlURI uri) {
+        return DecideResult.ACCEPT;
+    }
 }
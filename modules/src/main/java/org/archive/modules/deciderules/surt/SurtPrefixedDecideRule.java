@@ -29,7 +29,7 @@ import java.util.logging.Logger;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.archive.checkpointing.Checkpoint;
-import org.archive.checkpointing.Checkpointable;
+import org.archive.checkpointing.SnapshotCheckpointable;
 import org.archive.io.ReadSource;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.DecideResult;
@@ -63,7 +63,7 @@ import org.springframework.context.event.ContextStartedEvent;
  * @author gojomo
  */
 public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
-        SeedListener, ApplicationListener<ApplicationEvent>, Checkpointable,
+        SeedListener, ApplicationListener<ApplicationEvent>, SnapshotCheckpointable,
         BeanNameAware {
     
     private static final long serialVersionUID = 3L;
@@ -314,17 +314,25 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
         this.beanName = name;
     }
 
+    /** prefixes to save, as captured at startCheckpoint */
+    protected String checkpointSnapshot;
+    
     @Override
     public void startCheckpoint(Checkpoint checkpointInProgress) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("surtPrefixes", surtPrefixes);
+            checkpointSnapshot = json.toString();
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
     }
     
     @Override
     public void doCheckpoint(Checkpoint checkpointInProgress)
             throws IOException {
         try {
-            JSONObject json = new JSONObject();
-            json.put("surtPrefixes", surtPrefixes);
-            checkpointInProgress.saveJson(beanName, json);
+            checkpointInProgress.saveJson(beanName, new JSONObject(checkpointSnapshot));
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
@@ -332,6 +340,7 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
     
     @Override
     public void finishCheckpoint(Checkpoint checkpointInProgress) {
+        checkpointSnapshot = null;
     }
     
     protected Checkpoint recoveryCheckpoint;
@@ -340,4 +349,11 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
         this.recoveryCheckpoint = recoveryCheckpoint;
     }
 
+    /**
+     * SURT-form rewriting of the URI, then a prefix-set lookup.
+     */
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
 }//EOC
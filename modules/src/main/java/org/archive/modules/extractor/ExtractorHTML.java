@@ -365,11 +365,24 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
     }
     
 
-    protected void processGeneralTag(CrawlURI curi, CharSequence element,
-            CharSequence cs) {
-
-        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
-
+    /**
+     * Attribute-derived state of a single open tag, collected while its
+     * attributes are visited and acted upon once all have been seen (as
+     * when a FORM's METHOD follows its ACTION). Also carries the settings
+     * consulted per attribute, looked up once per tag.
+     */
+    protected static class GeneralTagState {
+        final boolean framesAsEmbeds;
+        final boolean ignoreFormActions;
+        final boolean extractValueAttributes;
+        
+        GeneralTagState(boolean framesAsEmbeds, boolean ignoreFormActions,
+                boolean extractValueAttributes) {
+            this.framesAsEmbeds = framesAsEmbeds;
+            this.ignoreFormActions = ignoreFormActions;
+            this.extractValueAttributes = extractValueAttributes;
+        }
+        
         // Just in case it's an OBJECT or APPLET tag
         String codebase = null;
         ArrayList<String> resources = null;
@@ -383,16 +396,21 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         CharSequence valueVal = null; 
         CharSequence valueContext = null;
         CharSequence nameVal = null; 
-        
-        final boolean framesAsEmbeds = 
-            getTreatFramesAsEmbedLinks();
+    }
 
-        final boolean ignoreFormActions = 
-            getIgnoreFormActionUrls();
-        
-        final boolean extractValueAttributes = 
-            getExtractValueAttributes();
-        
+    /**
+     * @return fresh state for one open tag, with current settings
+     */
+    protected GeneralTagState newGeneralTagState() {
+        return new GeneralTagState(getTreatFramesAsEmbedLinks(),
+                getIgnoreFormActionUrls(), getExtractValueAttributes());
+    }
+
+    protected void processGeneralTag(CrawlURI curi, CharSequence element,
+            CharSequence cs) {
+
+        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+        GeneralTagState state = newGeneralTagState();
         final String elementStr = element.toString();
 
         while (attr.find()) {
@@ -405,127 +423,169 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             CharSequence value = cs.subSequence(start, end);
             CharSequence attrName = cs.subSequence(attr.start(1),attr.end(1));
             value = TextUtils.unescapeHtml(value);
-            if (attr.start(2) > -1) {
-                // HREF
-                CharSequence context = elementContext(element, attr.group(2));
-                if(elementStr.equalsIgnoreCase(LINK)) {
-                    // <LINK> elements treated as embeds (css, ico, etc)
-                    processEmbed(curi, value, context);
-                } else {
-                    // other HREFs treated as links
-                    processLink(curi, value, context);
-                }
-                if (elementStr.equalsIgnoreCase(BASE)) {
-                    try {
-                        UURI base = UURIFactory.getInstance(value.toString());
-                        curi.setBaseURI(base);
-                    } catch (URIException e) {
-                        logUriError(e, curi.getUURI(), value);
-                    }
-                }
-            } else if (attr.start(3) > -1) {
-                // ACTION
-                if (!ignoreFormActions) {
-                    action = value; 
-                    actionContext = elementContext(element, attr.group(3));
-                    // handling finished only at end (after METHOD also collected)
-                }
-            } else if (attr.start(4) > -1) {
-                // ON____
-                processScriptCode(curi, value); // TODO: context?
-            } else if (attr.start(5) > -1) {
-                // SRC etc.
-                CharSequence context = elementContext(element, attr.group(5));
-                
-                // true, if we expect another HTML page instead of an image etc.
-                final Hop hop;
-                
-                if(!framesAsEmbeds
-                    && (elementStr.equalsIgnoreCase(FRAME) || elementStr
-                        .equalsIgnoreCase(IFRAME))) {
-                    hop = Hop.NAVLINK;
-                } else {
-                    hop = Hop.EMBED;
-                }
-                processEmbed(curi, value, context, hop);
-            } else if (attr.start(6) > -1) {
-                // CODEBASE
-                codebase = (value instanceof String)?
-                    (String)value: value.toString();
-                CharSequence context = elementContext(element,
-                    attr.group(6));
-                processEmbed(curi, codebase, context);
-            } else if (attr.start(7) > -1) {
-                // CLASSID, DATA
-                if (resources == null) {
-                    resources = new ArrayList<String>();
-                }
-                resources.add(value.toString());
-            } else if (attr.start(8) > -1) {
-                // ARCHIVE
-                if (resources==null) {
-                    resources = new ArrayList<String>();
-                }
-                String[] multi = TextUtils.split(WHITESPACE, value);
-                for(int i = 0; i < multi.length; i++ ) {
-                    resources.add(multi[i]);
-                }
-            } else if (attr.start(9) > -1) {
-                // CODE
-                if (resources==null) {
-                    resources = new ArrayList<String>();
-                }
-                // If element is applet and code value does not end with
-                // '.class' then append '.class' to the code value.
-                if (elementStr.equalsIgnoreCase(APPLET) &&
-                        !value.toString().toLowerCase().endsWith(CLASSEXT)) {
-                    resources.add(value.toString() + CLASSEXT);
-                } else {
-                    resources.add(value.toString());
-                }
-            } else if (attr.start(10) > -1) {
-                // VALUE, with possibility of URI
-                // store value, context for handling at end
-                valueVal = value; 
-                valueContext = elementContext(element,attr.group(10));
-            } else if (attr.start(11) > -1) {
-                // STYLE inline attribute
-                // then, parse for URIs
-                numberOfLinksExtracted.addAndGet(ExtractorCSS.processStyleCode(
-                        this, curi, value));        
-            } else if (attr.start(12) > -1) {
-                // METHOD
-                method = value;
-                // form processing finished at end (after ACTION also collected)
-            } else if (attr.start(13) > -1) {
-                if("NAME".equalsIgnoreCase(attrName.toString())) {
-                    // remember 'name' for end-analysis
-                    nameVal = value; 
-                }
-                if("FLASHVARS".equalsIgnoreCase(attrName.toString())) {
-                    // consider FLASHVARS attribute immediately
-                    valueContext = elementContext(element,attr.group(13));
-                    considerQueryStringValues(curi, value, valueContext,Hop.SPECULATIVE);
+            int attrGroup = 13;
+            for (int g = 2; g < 13; g++) {
+                if (attr.start(g) > -1) {
+                    attrGroup = g;
+                    break;
                 }
-                // any other attribute
-                // ignore for now
-                // could probe for path- or script-looking strings, but
-                // those should be vanishingly rare in other attributes,
-                // and/or symptomatic of page bugs
             }
+            processAttribute(curi, element, elementStr, attrGroup, attrName,
+                    value, state);
         }
         TextUtils.recycleMatcher(attr);
 
+        finishGeneralTag(curi, element, elementStr, state);
+    }
+
+    /**
+     * Act upon one attribute of an open tag, or note it in the tag's
+     * state for finishGeneralTag().
+     * 
+     * @param curi CrawlURI we're processing
+     * @param element tag element name
+     * @param elementStr element name, as a String
+     * @param attrGroup the EACH_ATTRIBUTE_EXTRACTOR group (2-13) the 
+     * attribute name falls into
+     * @param attrName attribute name
+     * @param value attribute value, already HTML-unescaped
+     * @param state state of the tag being processed
+     */
+    protected void processAttribute(CrawlURI curi, CharSequence element,
+            String elementStr, int attrGroup, CharSequence attrName,
+            CharSequence value, GeneralTagState state) {
+        if (attrGroup == 2) {
+            // HREF
+            CharSequence context = elementContext(element, attrName);
+            if(elementStr.equalsIgnoreCase(LINK)) {
+                // <LINK> elements treated as embeds (css, ico, etc)
+                processEmbed(curi, value, context);
+            } else {
+                // other HREFs treated as links
+                processLink(curi, value, context);
+            }
+            if (elementStr.equalsIgnoreCase(BASE)) {
+                try {
+                    UURI base = UURIFactory.getInstance(value.toString());
+                    curi.setBaseURI(base);
+                } catch (URIException e) {
+                    logUriError(e, curi.getUURI(), value);
+                }
+            }
+        } else if (attrGroup == 3) {
+            // ACTION
+            if (!state.ignoreFormActions) {
+                state.action = value; 
+                state.actionContext = elementContext(element, attrName);
+                // handling finished only at end (after METHOD also collected)
+            }
+        } else if (attrGroup == 4) {
+            // ON____
+            processScriptCode(curi, value); // TODO: context?
+        } else if (attrGroup == 5) {
+            // SRC etc.
+            CharSequence context = elementContext(element, attrName);
+            
+            // true, if we expect another HTML page instead of an image etc.
+            final Hop hop;
+            
+            if(!state.framesAsEmbeds
+                && (elementStr.equalsIgnoreCase(FRAME) || elementStr
+                    .equalsIgnoreCase(IFRAME))) {
+                hop = Hop.NAVLINK;
+            } else {
+                hop = Hop.EMBED;
+            }
+            processEmbed(curi, value, context, hop);
+        } else if (attrGroup == 6) {
+            // CODEBASE
+            state.codebase = (value instanceof String)?
+                (String)value: value.toString();
+            CharSequence context = elementContext(element, attrName);
+            processEmbed(curi, state.codebase, context);
+        } else if (attrGroup == 7) {
+            // CLASSID, DATA
+            if (state.resources == null) {
+                state.resources = new ArrayList<String>();
+            }
+            state.resources.add(value.toString());
+        } else if (attrGroup == 8) {
+            // ARCHIVE
+            if (state.resources==null) {
+                state.resources = new ArrayList<String>();
+            }
+            String[] multi = TextUtils.split(WHITESPACE, value);
+            for(int i = 0; i < multi.length; i++ ) {
+                state.resources.add(multi[i]);
+            }
+        } else if (attrGroup == 9) {
+            // CODE
+            if (state.resources==null) {
+                state.resources = new ArrayList<String>();
+            }
+            // If element is applet and code value does not end with
+            // '.class' then append '.class' to the code value.
+            if (elementStr.equalsIgnoreCase(APPLET) &&
+                    !value.toString().toLowerCase().endsWith(CLASSEXT)) {
+                state.resources.add(value.toString() + CLASSEXT);
+            } else {
+                state.resources.add(value.toString());
+            }
+        } else if (attrGroup == 10) {
+            // VALUE, with possibility of URI
+            // store value, context for handling at end
+            state.valueVal = value; 
+            state.valueContext = elementContext(element, attrName);
+        } else if (attrGroup == 11) {
+            // STYLE inline attribute
+            // then, parse for URIs
+            numberOfLinksExtracted.addAndGet(ExtractorCSS.processStyleCode(
+                    this, curi, value));        
+        } else if (attrGroup == 12) {
+            // METHOD
+            state.method = value;
+            // form processing finished at end (after ACTION also collected)
+        } else {
+            if("NAME".equalsIgnoreCase(attrName.toString())) {
+                // remember 'name' for end-analysis
+                state.nameVal = value; 
+            }
+            if("FLASHVARS".equalsIgnoreCase(attrName.toString())) {
+                // consider FLASHVARS attribute immediately
+                state.valueContext = elementContext(element, attrName);
+                considerQueryStringValues(curi, value, state.valueContext,
+                        Hop.SPECULATIVE);
+            }
+            // any other attribute
+            // ignore for now
+            // could probe for path- or script-looking strings, but
+            // those should be vanishingly rare in other attributes,
+            // and/or symptomatic of page bugs
+        }
+    }
+
+    /**
+     * Finish handling of an open tag whose attributes have all been
+     * visited: resolve OBJECT/APPLET resources against any CODEBASE,
+     * and consider any FORM ACTION and VALUE.
+     * 
+     * @param curi CrawlURI we're processing
+     * @param element tag element name
+     * @param elementStr element name, as a String
+     * @param state state collected from the tag's attributes
+     */
+    protected void finishGeneralTag(CrawlURI curi, CharSequence element,
+            String elementStr, GeneralTagState state) {
         // handle codebase/resources
-        if (resources != null) {
-            Iterator<String> iter = resources.iterator();
+        if (state.resources != null) {
+            Iterator<String> iter = state.resources.iterator();
             UURI codebaseURI = null;
             String res = null;
             try {
-                if (codebase != null) {
+                if (state.codebase != null) {
                     // TODO: Pass in the charset.
                     codebaseURI = UURIFactory.
-                        getInstance(curi.getUURI(), codebase);
+                        getInstance(curi.getUURI(), state.codebase);
                 }
                 while(iter.hasNext()) {
                     res = iter.next().toString();
@@ -539,31 +599,34 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                 curi.getNonFatalFailures().add(e);
             } catch (IllegalArgumentException e) {
                 DevUtils.logger.log(Level.WARNING, "processGeneralTag()\n" +
-                    "codebase=" + codebase + " res=" + res + "\n" +
+                    "codebase=" + state.codebase + " res=" + res + "\n" +
                     DevUtils.extraInfo(), e);
             }
         }
            
         // finish handling form action, now method is available
-        if(action != null) {
-            if(method == null || "GET".equalsIgnoreCase(method.toString()) 
-                        || ! getExtractOnlyFormGets()) {
-                processLink(curi, action, actionContext);
+        if(state.action != null) {
+            if(state.method == null 
+                    || "GET".equalsIgnoreCase(state.method.toString()) 
+                    || ! getExtractOnlyFormGets()) {
+                processLink(curi, state.action, state.actionContext);
             }
         }
         
         // finish handling VALUE
-        if(valueVal != null) {
-            if ("PARAM".equalsIgnoreCase(elementStr) && nameVal != null
-                    && "flashvars".equalsIgnoreCase(nameVal.toString())) {
+        if(state.valueVal != null) {
+            if ("PARAM".equalsIgnoreCase(elementStr) && state.nameVal != null
+                    && "flashvars".equalsIgnoreCase(state.nameVal.toString())) {
                 // special handling for <PARAM NAME='flashvars" VALUE="">
-                String queryStringLike = valueVal.toString();
+                String queryStringLike = state.valueVal.toString();
                 // treat value as query-string-like "key=value[&key=value]*" pairings
-                considerQueryStringValues(curi, queryStringLike, valueContext,Hop.SPECULATIVE);
+                considerQueryStringValues(curi, queryStringLike, 
+                        state.valueContext,Hop.SPECULATIVE);
             } else {
                 // regular VALUE handling
-                if (extractValueAttributes) {
-                    considerIfLikelyUri(curi,valueVal,valueContext,Hop.NAVLINK);
+                if (state.extractValueAttributes) {
+                    considerIfLikelyUri(curi,state.valueVal,
+                            state.valueContext,Hop.NAVLINK);
                 }
             }
         }
@@ -933,7 +996,19 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             // TODO: handle other stuff
         }
         TextUtils.recycleMatcher(attr);
+        return processMeta(curi, name, httpEquiv, content);
+    }
 
+    /**
+     * Act upon the interesting attributes of a metadata tag.
+     * @param curi CrawlURI we're processing.
+     * @param name NAME attribute value, or null
+     * @param httpEquiv HTTP-EQUIV attribute value, or null
+     * @param content CONTENT attribute value, or null
+     * @return True robots exclusion metatag.
+     */
+    protected boolean processMeta(CrawlURI curi, String name, 
+            String httpEquiv, String content) {
         // Look for the 'robots' meta-tag
         if("robots".equalsIgnoreCase(name) && content != null ) {
             curi.getData().put(A_META_ROBOTS, content);
@@ -18,21 +18,25 @@
  */
 package org.archive.modules.extractor;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
-import org.archive.io.SinkHandlerLogThread;
+import org.apache.commons.io.IOUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
-import org.archive.util.FileUtils;
 
 /** Allows the caller to process a CrawlURI representing a PDF
  *  for the purpose of extracting URIs
  *
+ *  The PDF is parsed in memory, read directly from the CrawlURI's
+ *  Recorder (its buffer, or its backing file for larger documents),
+ *  without any temporary copy on disk. 
+ *
  * @author Parker Thompson
  *
  */
@@ -58,6 +62,36 @@ public class ExtractorPDF extends ContentExtractor {
         kp.put("maxSizeToParse",threshold);
     }
 
+    /**
+     * The maximum number of PDF objects to visit while looking for links;
+     * beyond this, extraction stops and the URI is annotated 
+     * 'pdfParseTrunc'. -1 = unlimited.
+     */
+    {
+        setMaxObjectsToParse(100000);
+    }
+    public int getMaxObjectsToParse() {
+        return (Integer) kp.get("maxObjectsToParse");
+    }
+    public void setMaxObjectsToParse(int max) {
+        kp.put("maxObjectsToParse",max);
+    }
+
+    /**
+     * The maximum number of annotations (including links) to visit while
+     * looking for links; beyond this, extraction stops and the URI is 
+     * annotated 'pdfParseTrunc'. -1 = unlimited.
+     */
+    {
+        setMaxAnnotationsToParse(10000);
+    }
+    public int getMaxAnnotationsToParse() {
+        return (Integer) kp.get("maxAnnotationsToParse");
+    }
+    public void setMaxAnnotationsToParse(int max) {
+        kp.put("maxAnnotationsToParse",max);
+    }
+
     public ExtractorPDF() {
     }
     
@@ -74,26 +108,12 @@ public class ExtractorPDF extends ContentExtractor {
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
-        try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
         PDFParser parser;
         ArrayList<String> uris;
         try {
-            curi.getRecorder().copyContentBodyTo(tempFile);
-            parser = new PDFParser(tempFile.getAbsolutePath());
+            parser = new PDFParser(readContentBody(curi));
+            parser.setMaxObjects(getMaxObjectsToParse());
+            parser.setMaxAnnotations(getMaxAnnotationsToParse());
             uris = parser.extractURIs();
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
@@ -103,8 +123,10 @@ public class ExtractorPDF extends ContentExtractor {
             // other problems
             curi.getNonFatalFailures().add(e);
             return false;
-        } finally {
-            FileUtils.deleteSoonerOrLater(tempFile);
+        }
+
+        if (parser.isTruncated()) {
+            curi.getAnnotations().add("pdfParseTrunc");
         }
         
         if (uris == null) {
@@ -132,4 +154,34 @@ public class ExtractorPDF extends ContentExtractor {
         // Set flag to indicate that link extraction is completed.
         return true;
     }
+
+    /**
+     * Read the content body from the Recorder's replay, into an array of
+     * exactly its length (as PdfReader requires).
+     * 
+     * @param curi CrawlURI with recorded PDF
+     * @return content body bytes
+     * @throws IOException
+     */
+    protected byte[] readContentBody(CrawlURI curi) throws IOException {
+        long length = curi.getContentLength();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("content too large to parse: " + length);
+        }
+        byte[] document = new byte[(int) length];
+        InputStream in = curi.getRecorder().getContentReplayInputStream();
+        try {
+            int total = 0;
+            while (total < document.length) {
+                int read = in.read(document, total, document.length - total);
+                if (read < 0) {
+                    return Arrays.copyOf(document, total);
+                }
+                total += read;
+            }
+            return document;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
 }
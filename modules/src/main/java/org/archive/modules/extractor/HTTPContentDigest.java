@@ -18,6 +18,12 @@
  */
 package org.archive.modules.extractor;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.logging.Logger;
@@ -52,6 +58,12 @@ import org.archive.util.TextUtils;
  * It is generally recommended that this recalculation only be performed when 
  * absolutely needed (because of stripping data that changes automatically each 
  * time the URL is fetched) as this is an expensive operation.
+ * <p>
+ * The document is never copied whole: stripped segments are found by 
+ * matching directly over the replay sequence, and the text between them is 
+ * encoded and digested a chunk at a time, by a digest and buffers reused 
+ * per thread. The result is identical to digesting the platform-default 
+ * encoding of the stripped document as a String.
  * 
  * NOTE: This processor may open a ReplayCharSequence from the 
  * CrawlURI's Recorder, without closing that ReplayCharSequence, to allow
@@ -101,6 +113,102 @@ public class HTTPContentDigest extends Processor {
     
     private static final String SHA1 = "SHA1";
 
+    /**
+     * Per-thread digest and encoding buffers, reused for every URI.
+     */
+    protected static ThreadLocal<StreamingDigest> streamingDigests = 
+        new ThreadLocal<StreamingDigest>() {
+            @Override
+            protected StreamingDigest initialValue() {
+                return new StreamingDigest();
+            }
+        };
+
+    /**
+     * SHA1 digest of a CharSequence's platform-default encoding, with 
+     * optional stripping, computed a chunk at a time.
+     */
+    protected static class StreamingDigest {
+        protected static final int CHUNK_CHARS = 16 * 1024;
+
+        protected MessageDigest digest;
+        protected CharsetEncoder encoder;
+        protected CharBuffer chars = CharBuffer.allocate(CHUNK_CHARS);
+        protected ByteBuffer bytes;
+
+        protected StreamingDigest() {
+            try {
+                digest = MessageDigest.getInstance(SHA1);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            // same substitutions for unencodable input as String.getBytes()
+            encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            bytes = ByteBuffer.allocate(
+                    (int) Math.ceil(CHUNK_CHARS * encoder.maxBytesPerChar()));
+        }
+
+        /**
+         * Digest the sequence, with each match of the strip matcher (if 
+         * any) replaced by a single blank, as by replaceAll(" ").
+         * 
+         * @param cs text to digest
+         * @param strip matcher over cs of segments to strip, or null
+         * @return digest value
+         */
+        protected byte[] digest(CharSequence cs, Matcher strip) {
+            digest.reset();
+            encoder.reset();
+            chars.clear();
+            int pos = 0;
+            if (strip != null) {
+                while (strip.find()) {
+                    append(cs, pos, strip.start());
+                    append(" ", 0, 1);
+                    pos = strip.end();
+                }
+            }
+            append(cs, pos, cs.length());
+            encode(true);
+            return digest.digest();
+        }
+
+        protected void append(CharSequence cs, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (!chars.hasRemaining()) {
+                    encode(false);
+                }
+                chars.put(cs.charAt(i));
+            }
+        }
+
+        /**
+         * Encode and digest the buffered chars; any trailing high surrogate
+         * is kept for the next chunk, unless at end of input.
+         */
+        protected void encode(boolean endOfInput) {
+            chars.flip();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, endOfInput);
+                drain();
+            } while (result.isOverflow());
+            if (endOfInput) {
+                while (encoder.flush(bytes).isOverflow()) {
+                    drain();
+                }
+                drain();
+            }
+            chars.compact();
+        }
+
+        protected void drain() {
+            digest.update(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
     
     /**
      * Constructor.
@@ -131,30 +239,19 @@ public class HTTPContentDigest extends Processor {
         ReplayCharSequence cs = null;
         try {
            cs = curi.getRecorder().getContentReplayCharSequence();
-           // Create a MessageDigest 
-           MessageDigest digest = null;
-           try {
-               digest = MessageDigest.getInstance(SHA1);
-           } catch (NoSuchAlgorithmException e1) {
-               e1.printStackTrace();
-               return;
-           }
-
-           digest.reset();
-
-           String s = null;
 
+           byte[] newDigestValue;
            if (StringUtils.isEmpty(regex)) {
-               s = cs.toString();
+               newDigestValue = streamingDigests.get().digest(cs, null);
            } else {
                // Process the document
                Matcher m = TextUtils.getMatcher(regex, cs);
-               s = m.replaceAll(" ");
-               TextUtils.recycleMatcher(m);
+               try {
+                   newDigestValue = streamingDigests.get().digest(cs, m);
+               } finally {
+                   TextUtils.recycleMatcher(m);
+               }
            }
-           digest.update(s.getBytes());
-           // Get the new digest value
-           byte[] newDigestValue = digest.digest();
            // Save new digest value
            curi.setContentDigest(SHA1, newDigestValue);
            
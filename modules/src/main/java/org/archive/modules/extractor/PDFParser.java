@@ -33,20 +33,31 @@ import java.util.*;
  *  extracting URIs, but the logic in extractURIs() could easily be adopted/extended
  * for a variety of PDF processing tasks.
  *
+ * The walk of the catalog tree for URIs may be bounded, by a maximum
+ * number of objects visited and of annotations encountered, so that
+ * pathologically large or convoluted documents cannot tie up the caller
+ * indefinitely; see isTruncated().
+ *
  * @author Parker Thompson
  *
  */
-//TODO make this more effecient, it currently had to read the whole file into memory
-// before processing can begin, and appears to take much longer than it "should"
-// to parse small, but admittedly complex, documents.
 public class PDFParser {
 
     protected ArrayList<String> foundURIs;
-    protected ArrayList<ArrayList<Integer>> encounteredReferences;
+    /** (generation, number) pairs of indirect objects already visited */
+    protected HashSet<Long> encounteredReferences;
     protected PdfReader documentReader;
     protected byte[] document;
     protected PdfDictionary catalog;
 
+    /** maximum objects to visit in extractURIs(); -1 = unlimited */
+    protected int maxObjects = -1;
+    /** maximum annotations to visit in extractURIs(); -1 = unlimited */
+    protected int maxAnnotations = -1;
+    protected int objectCount;
+    protected int annotationCount;
+    protected boolean truncated;
+
     public PDFParser(String doc) throws IOException {
         resetState();
         getInFromFile(doc);
@@ -62,14 +73,43 @@ public class PDFParser {
      */
     protected void resetState(){
         foundURIs = new ArrayList<String>();
-        encounteredReferences = new ArrayList<ArrayList<Integer>>();
+        encounteredReferences = new HashSet<Long>();
         documentReader = null;
         document = null;
         catalog = null;
+        objectCount = 0;
+        annotationCount = 0;
+        truncated = false;
+    }
 
-        for(int i=0; i < encounteredReferences.size(); i++){
-            encounteredReferences.add(new ArrayList<Integer>());
-        }
+    public int getMaxObjects() {
+        return maxObjects;
+    }
+    /**
+     * @param maxObjects maximum number of objects extractURIs() will visit
+     * before giving up; -1 for unlimited
+     */
+    public void setMaxObjects(int maxObjects) {
+        this.maxObjects = maxObjects;
+    }
+
+    public int getMaxAnnotations() {
+        return maxAnnotations;
+    }
+    /**
+     * @param maxAnnotations maximum number of annotations extractURIs()
+     * will visit before giving up; -1 for unlimited
+     */
+    public void setMaxAnnotations(int maxAnnotations) {
+        this.maxAnnotations = maxAnnotations;
+    }
+
+    /**
+     * @return true if extractURIs() stopped early, at the maximum objects
+     * or annotations, so that URIs may have been missed
+     */
+    public boolean isTruncated() {
+        return truncated;
     }
 
     /**
@@ -105,9 +145,13 @@ public class PDFParser {
         long length = documentOnDisk.length();
         document = new byte[(int)length];
 
-        FileInputStream inStream = new FileInputStream(documentOnDisk);
-
-        inStream.read(document);
+        DataInputStream inStream = 
+            new DataInputStream(new FileInputStream(documentOnDisk));
+        try {
+            inStream.readFully(document);
+        } finally {
+            inStream.close();
+        }
     }
 
     /**
@@ -119,26 +163,11 @@ public class PDFParser {
      * @return True if already seen.
      */
     protected boolean haveSeen(int generation, int id){
+        return encounteredReferences.contains(referenceKey(generation, id));
+    }
 
-        // if we can't store this generation grow our list until we can
-        if(generation >= encounteredReferences.size()){
-            for(int i=encounteredReferences.size(); i <= generation; i++){
-                encounteredReferences.add(new ArrayList<Integer>());
-            }
-
-            // clearly we haven't seen it
-            return false;
-        }
-
-        ArrayList<Integer> generationList
-         = encounteredReferences.get(generation);
-        
-        for (int i: generationList) {
-            if(i == id){
-                return true;
-            }
-        }
-        return false;
+    protected static long referenceKey(int generation, int id) {
+        return ((long)generation << 32) | (id & 0xFFFFFFFFL);
     }
 
     /**
@@ -148,8 +177,7 @@ public class PDFParser {
      * @param id
      */
     protected void markAsSeen(int generation, int id){
-        ArrayList<Integer> objectIds = encounteredReferences.get(generation);
-        objectIds.add(id);
+        encounteredReferences.add(referenceKey(generation, id));
     }
 
     /**
@@ -194,11 +222,26 @@ public class PDFParser {
     @SuppressWarnings("unchecked")
     protected void extractURIs(PdfObject entity){
 
+            if(truncated || entity == null){
+                return;
+            }
+            if(maxObjects >= 0 && ++objectCount > maxObjects){
+                truncated = true;
+                return;
+            }
+
             // deal with dictionaries
             if(entity.isDictionary()){
 
                 PdfDictionary dictionary= (PdfDictionary)entity;
 
+                // annotations (links among them) must have a /Rect
+                if(maxAnnotations >= 0 && dictionary.get(PdfName.RECT) != null
+                        && ++annotationCount > maxAnnotations){
+                    truncated = true;
+                    return;
+                }
+
                 Set<PdfName> allkeys = dictionary.getKeys();
                 for (PdfName key: allkeys) {
                     PdfObject value = dictionary.get(key);
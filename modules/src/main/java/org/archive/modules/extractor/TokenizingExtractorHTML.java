@@ -0,0 +1,510 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.archive.modules.CrawlURI;
+import org.archive.util.TextUtils;
+
+/**
+ * ExtractorHTML variant which finds tags and attributes with a 
+ * hand-written, single-pass tokenizer rather than the RELEVANT_TAG_EXTRACTOR
+ * and EACH_ATTRIBUTE_EXTRACTOR regular expressions. 
+ * 
+ * The tokenizer reproduces the boundaries those expressions would find --
+ * the same tags, the same SCRIPT/STYLE bodies, the same attribute names and
+ * values, including for unclosed quotes and over-long values -- and hands
+ * them to the same processing as ExtractorHTML, so the resulting Links 
+ * (destination, HTMLLinkContext, and Hop) are the same. What differs is
+ * cost: the content is read forward through a buffer filled a chunk at a
+ * time, and the position of each closing sequence sought (the '&gt;' ending
+ * a tag, '&lt;/script&gt;', '&lt;/style&gt;', '--&gt;') is remembered, so
+ * that many unclosed SCRIPT tags or comments no longer each rescan the rest
+ * of a large page, as the lazy regex bodies do.
+ * 
+ * See TokenizingExtractorHTMLTest for comparison against ExtractorHTML, and
+ * BenchmarkExtractorHTML for relative throughput.
+ */
+public class TokenizingExtractorHTML extends ExtractorHTML {
+
+    @SuppressWarnings("unused")
+    private static final long serialVersionUID = 1L;
+
+    /** chars of content read into the scanning buffer at a time */
+    protected static final int CHUNK_LENGTH = 16 * 1024;
+
+    /**
+     * EACH_ATTRIBUTE_EXTRACTOR groups of the specially-handled attribute
+     * names; any other name (besides ON*) is group 13
+     */
+    protected static final Map<String,Integer> ATTRIBUTE_GROUPS = 
+        new HashMap<String,Integer>();
+    static {
+        ATTRIBUTE_GROUPS.put("href", 2);
+        ATTRIBUTE_GROUPS.put("action", 3);
+        for (String name : new String[] {"src", "lowsrc", "background", 
+                "cite", "longdesc", "usemap", "profile", "datasrc"}) {
+            ATTRIBUTE_GROUPS.put(name, 5);
+        }
+        ATTRIBUTE_GROUPS.put("codebase", 6);
+        ATTRIBUTE_GROUPS.put("classid", 7);
+        ATTRIBUTE_GROUPS.put("data", 7);
+        ATTRIBUTE_GROUPS.put("archive", 8);
+        ATTRIBUTE_GROUPS.put("code", 9);
+        ATTRIBUTE_GROUPS.put("value", 10);
+        ATTRIBUTE_GROUPS.put("style", 11);
+        ATTRIBUTE_GROUPS.put("method", 12);
+    }
+
+    public TokenizingExtractorHTML() {
+    }
+
+    /**
+     * Run extractor, finding tags as RELEVANT_TAG_EXTRACTOR would: at each
+     * '&lt;', in order of preference, a whole SCRIPT or STYLE element, a
+     * META or other open tag with whitespace after its name, or a 
+     * (non-conditional) comment; if none, scanning resumes after the '&lt;'.
+     * 
+     * @param curi CrawlURI we're processing.
+     * @param cs Sequence from underlying ReplayCharSequence. This
+     * is TRANSIENT data. Make a copy if you want the data to live outside
+     * of this extractors' lifetime.
+     */
+    @Override
+    protected void extract(CrawlURI curi, CharSequence cs) {
+        CharWindow chars = new CharWindow(cs, CHUNK_LENGTH);
+        CloseFinder tagClose = new CloseFinder(">");
+        CloseFinder scriptClose = new CloseFinder("</script>");
+        CloseFinder styleClose = new CloseFinder("</style>");
+        CloseFinder commentClose = new CloseFinder("-->");
+        final int maxElement = getMaxElementLength();
+
+        int pos = 0;
+        int lt;
+        while ((lt = chars.indexOf('<', pos)) >= 0) {
+            int nameStart = lt + 1;
+            int matchEnd = -1;
+            // end of SCRIPT/STYLE open tag, and start of its close tag
+            int openEnd = -1;
+            int close = -1;
+            boolean isScript = false;
+            boolean isStyle = false;
+            boolean isComment = false;
+            // element name end, for META and other open tags
+            int nameEnd = -1;
+
+            if (chars.regionMatchesIgnoreCase(nameStart, "script")) {
+                openEnd = tagClose.find(chars, nameStart + 6);
+                if (openEnd >= 0) {
+                    close = scriptClose.find(chars, openEnd + 1);
+                    if (close >= 0) {
+                        isScript = true;
+                        matchEnd = close + 9;
+                    }
+                }
+            } else if (chars.regionMatchesIgnoreCase(nameStart, "style")) {
+                openEnd = tagClose.find(chars, nameStart + 5);
+                if (openEnd >= 0) {
+                    close = styleClose.find(chars, openEnd + 1);
+                    if (close >= 0) {
+                        isStyle = true;
+                        matchEnd = close + 8;
+                    }
+                }
+            }
+            if (matchEnd < 0) {
+                // META is recognized whatever the maxElementLength
+                int limit = Math.max(maxElement, 4);
+                int i = nameStart;
+                while (i < chars.length() && isWordChar(chars.charAt(i))
+                        && i - nameStart <= limit) {
+                    i++;
+                }
+                boolean nameOk = (i > nameStart && i - nameStart <= maxElement)
+                    || (i - nameStart == 4 
+                            && chars.regionMatchesIgnoreCase(nameStart, "meta"));
+                if (nameOk && i < chars.length() && isWhitespace(chars.charAt(i))) {
+                    int gt = tagClose.find(chars, i);
+                    if (gt >= 0) {
+                        nameEnd = i;
+                        matchEnd = gt + 1;
+                    }
+                } else if (chars.regionMatchesIgnoreCase(nameStart, "!--")
+                        && !chars.regionMatchesIgnoreCase(nameStart + 3, "[if")) {
+                    int end = commentClose.find(chars, nameStart + 3);
+                    if (end >= 0) {
+                        isComment = true;
+                        matchEnd = end + 3;
+                    }
+                }
+            }
+            if (matchEnd < 0) {
+                // nothing recognized at this '<'
+                pos = nameStart;
+                continue;
+            }
+            pos = matchEnd;
+
+            if (Thread.interrupted()) {
+                break;
+            }
+            if (isComment) {
+                // for now do nothing
+            } else if (isScript) {
+                processScript(curi, cs.subSequence(nameStart, close + 8),
+                        openEnd - nameStart);
+            } else if (isStyle) {
+                processStyle(curi, cs.subSequence(nameStart, close + 7),
+                        openEnd - nameStart);
+            } else {
+                String element = cs.subSequence(nameStart, nameEnd).toString();
+                CharSequence attributes = cs.subSequence(nameStart, matchEnd - 1);
+                if ("meta".equalsIgnoreCase(element)) {
+                    if (processMeta(curi, attributes)) {
+                        // meta tag included NOFOLLOW; abort processing
+                        break;
+                    }
+                } else {
+                    processGeneralTag(curi, element, attributes);
+                    // remember FORM to help later extra processing
+                    if ("form".equalsIgnoreCase(element)) {
+                        curi.getDataList(A_FORM_OFFSETS).add((Integer)lt);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void processGeneralTag(CrawlURI curi, CharSequence element,
+            CharSequence cs) {
+        String tag = cs.toString();
+        AttributeScanner attr = new AttributeScanner(tag,
+                getMaxAttributeNameLength(), getMaxAttributeValLength());
+        GeneralTagState state = newGeneralTagState();
+        final String elementStr = element.toString();
+        while (attr.find()) {
+            String attrName = tag.substring(attr.nameStart, attr.nameEnd);
+            CharSequence value = TextUtils.unescapeHtml(
+                    tag.subSequence(attr.valueStart, attr.valueEnd));
+            processAttribute(curi, element, elementStr, 
+                    attributeGroup(attrName), attrName, value, state);
+        }
+        finishGeneralTag(curi, element, elementStr, state);
+    }
+
+    @Override
+    protected boolean processMeta(CrawlURI curi, CharSequence cs) {
+        String tag = cs.toString();
+        AttributeScanner attr = new AttributeScanner(tag,
+                getMaxAttributeNameLength(), getMaxAttributeValLength());
+        String name = null;
+        String httpEquiv = null;
+        String content = null;
+        while (attr.find()) {
+            String attrName = tag.substring(attr.nameStart, attr.nameEnd);
+            if (attrName.equalsIgnoreCase("name")
+                    || attrName.equalsIgnoreCase("http-equiv")
+                    || attrName.equalsIgnoreCase("content")) {
+                String value = TextUtils.unescapeHtml(tag.subSequence(
+                        attr.valueStart, attr.valueEnd)).toString();
+                if (attrName.equalsIgnoreCase("name")) {
+                    name = value;
+                } else if (attrName.equalsIgnoreCase("http-equiv")) {
+                    httpEquiv = value;
+                } else {
+                    content = value;
+                }
+            }
+        }
+        return processMeta(curi, name, httpEquiv, content);
+    }
+
+    /**
+     * @param name attribute name
+     * @return the EACH_ATTRIBUTE_EXTRACTOR group (2-13) which would match
+     * the given attribute name
+     */
+    protected static int attributeGroup(String name) {
+        String lower = name.toLowerCase(Locale.ENGLISH);
+        Integer group = ATTRIBUTE_GROUPS.get(lower);
+        if (group != null) {
+            return group;
+        }
+        if (lower.startsWith("on") && lower.indexOf('-') < 0) {
+            return 4;
+        }
+        return 13;
+    }
+
+    /** as regex \w */
+    protected static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') 
+            || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** as regex \s */
+    protected static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' 
+            || c == '\f' || c == '\r';
+    }
+
+    /** as regex [-\w] */
+    protected static boolean isNameChar(char c) {
+        return c == '-' || isWordChar(c);
+    }
+
+    /** ASCII-only lowercasing, as (?i) without UNICODE_CASE */
+    protected static char toLower(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Read-through window over a CharSequence, refilled a chunk at a time
+     * from the position requested, so that the forward scans which make up
+     * nearly all reads touch a plain char array.
+     */
+    protected static class CharWindow {
+        protected final CharSequence cs;
+        protected final int length;
+        protected final char[] buf;
+        /** content positions held in buf: [start,end) */
+        protected int start = 0;
+        protected int end = 0;
+
+        public CharWindow(CharSequence cs, int chunkLength) {
+            this.cs = cs;
+            this.length = cs.length();
+            this.buf = new char[Math.max(1, Math.min(chunkLength, length))];
+        }
+
+        public int length() {
+            return length;
+        }
+
+        protected void fill(int from) {
+            start = from;
+            end = Math.min(length, from + buf.length);
+            if (cs instanceof String) {
+                ((String)cs).getChars(start, end, buf, 0);
+            } else {
+                for (int i = start; i < end; i++) {
+                    buf[i - start] = cs.charAt(i);
+                }
+            }
+        }
+
+        public char charAt(int i) {
+            if (i < start || i >= end) {
+                fill(i);
+            }
+            return buf[i - start];
+        }
+
+        public int indexOf(char c, int from) {
+            int i = from;
+            while (i < length) {
+                if (i < start || i >= end) {
+                    fill(i);
+                }
+                for (; i < end; i++) {
+                    if (buf[i - start] == c) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @param at content position
+         * @param lower lowercase ASCII string
+         * @return true if content at given position matches given string,
+         * ignoring ASCII case
+         */
+        public boolean regionMatchesIgnoreCase(int at, String lower) {
+            if (at + lower.length() > length) {
+                return false;
+            }
+            for (int i = 0; i < lower.length(); i++) {
+                if (toLower(charAt(at + i)) != lower.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param lower lowercase ASCII string, beginning with a non-letter
+         * @param from content position to begin search
+         * @return position of next occurrence of string, ignoring ASCII 
+         * case, or -1 if none
+         */
+        public int indexOfIgnoreCase(String lower, int from) {
+            char first = lower.charAt(0);
+            for (int i = indexOf(first, from); i >= 0; i = indexOf(first, i + 1)) {
+                if (regionMatchesIgnoreCase(i, lower)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Finds the next occurrence of a closing sequence, remembering the last
+     * answer: scanning only moves forward, so a later search from anywhere
+     * up to the last occurrence found (or from anywhere at all, if none was
+     * found) has the same answer.
+     */
+    protected static class CloseFinder {
+        protected final String lower;
+        protected int from = -1;
+        protected int at = -1;
+
+        public CloseFinder(String lower) {
+            this.lower = lower;
+        }
+
+        public int find(CharWindow chars, int pos) {
+            if (from >= 0 && pos >= from && (at < 0 || pos <= at)) {
+                return at;
+            }
+            from = pos;
+            at = chars.indexOfIgnoreCase(lower, pos);
+            return at;
+        }
+    }
+
+    /**
+     * Finds successive name=value attributes in an open tag's innards, at
+     * the positions EACH_ATTRIBUTE_EXTRACTOR would: each match hinges on an
+     * '=' preceded by a run of name characters (only the last 
+     * maxAttributeNameLength of which are taken, except for ON* handler 
+     * names) and followed by a double-quoted, single-quoted, or 
+     * whitespace-delimited value. A quoted value whose close is too far off
+     * ends at end of innards if that is near enough, else is taken as an
+     * unquoted value, opening quote included.
+     */
+    protected static class AttributeScanner {
+        protected final String tag;
+        protected final int maxName;
+        protected final int maxVal;
+        /** first position at which regex '$' would match */
+        protected final int dollar;
+        protected int pos = 0;
+        public int nameStart;
+        public int nameEnd;
+        public int valueStart;
+        public int valueEnd;
+
+        public AttributeScanner(String tag, int maxName, int maxVal) {
+            this.tag = tag;
+            this.maxName = maxName;
+            this.maxVal = maxVal;
+            int len = tag.length();
+            if (tag.endsWith("\r\n")) {
+                dollar = len - 2;
+            } else if (len > 0 && "\n\r\u0085\u2028\u2029".indexOf(tag.charAt(len - 1)) >= 0) {
+                dollar = len - 1;
+            } else {
+                dollar = len;
+            }
+        }
+
+        public boolean find() {
+            final int len = tag.length();
+            for (int eq = tag.indexOf('=', pos); eq >= 0; eq = tag.indexOf('=', eq + 1)) {
+                int runEnd = eq;
+                while (runEnd > pos && isWhitespace(tag.charAt(runEnd - 1))) {
+                    runEnd--;
+                }
+                int runStart = runEnd;
+                int lastDash = -1;
+                while (runStart > pos && isNameChar(tag.charAt(runStart - 1))) {
+                    runStart--;
+                    if (lastDash < 0 && tag.charAt(runStart) == '-') {
+                        lastDash = runStart;
+                    }
+                }
+                if (runStart == runEnd) {
+                    continue;
+                }
+                int v = eq + 1;
+                while (v < len && isWhitespace(tag.charAt(v))) {
+                    v++;
+                }
+                if (v >= len) {
+                    continue;
+                }
+                // leftmost start of an acceptable name within the run
+                int s = runStart;
+                while (!isAcceptableName(s, runEnd, lastDash)) {
+                    s++;
+                }
+                nameStart = s;
+                nameEnd = runEnd;
+
+                char c = tag.charAt(v);
+                if (c == '"' || c == '\'') {
+                    int quote = tag.indexOf(c, v + 1);
+                    int end = (quote >= 0 && quote < dollar) ? quote : dollar;
+                    if (end - (v + 1) <= maxVal) {
+                        valueStart = v + 1;
+                        valueEnd = end;
+                        pos = (end == quote) ? end + 1 : end;
+                        return true;
+                    }
+                }
+                int end = v;
+                while (end < len && end - v < maxVal 
+                        && !isWhitespace(tag.charAt(end))) {
+                    end++;
+                }
+                valueStart = v;
+                valueEnd = end;
+                pos = end;
+                return true;
+            }
+            pos = len;
+            return false;
+        }
+
+        /**
+         * @return true if the name characters from s to runEnd could be
+         * matched as one attribute name: generic names are limited in 
+         * length, specially-handled names are not
+         */
+        protected boolean isAcceptableName(int s, int runEnd, int lastDash) {
+            if (runEnd - s <= maxName) {
+                return true;
+            }
+            if (s > lastDash && toLower(tag.charAt(s)) == 'o'
+                    && toLower(tag.charAt(s + 1)) == 'n') {
+                return true;
+            }
+            return ATTRIBUTE_GROUPS.containsKey(
+                    tag.substring(s, runEnd).toLowerCase(Locale.ENGLISH));
+        }
+    }
+}
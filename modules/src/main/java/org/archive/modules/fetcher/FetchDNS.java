@@ -38,6 +38,7 @@ import org.apache.commons.httpclient.URIException;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
 import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.DnsResolver;
 import org.archive.modules.net.ServerCache;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.InetAddressUtil;
@@ -94,6 +95,21 @@ public class FetchDNS extends Processor {
     public void setServerCache(ServerCache serverCache) {
         this.serverCache = serverCache;
     }
+
+    /**
+     * Optional pipelined resolver, with a shared answer cache, to use in
+     * place of a synchronous dnsjava Lookup; answers it already holds (as
+     * for hosts pre-resolved when their first URIs were scheduled) are
+     * used at once, with the TTL remaining to them.
+     */
+    protected DnsResolver dnsResolver;
+    public DnsResolver getDnsResolver() {
+        return this.dnsResolver;
+    }
+    @Autowired(required=false)
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
     
     /**
      * Whether or not to perform an on-the-fly digest hash of retrieved
@@ -132,8 +148,10 @@ public class FetchDNS extends Processor {
     }
     
     
-    protected void innerProcess(CrawlURI curi) {
+    protected void innerProcess(CrawlURI curi) throws InterruptedException {
         Record[] rrecordSet = null; // Retrieved dns records
+        long ttl = -1; // from first A record, unless resolver's says otherwise
+        String dnsServer = null;
         String dnsName = null;
         try {
             dnsName = curi.getUURI().getReferencedHost();
@@ -158,17 +176,26 @@ public class FetchDNS extends Processor {
         // Try to get the records for this host (assume domain name)
         // TODO: Bug #935119 concerns potential hang here
         String lookupName = dnsName.endsWith(".") ? dnsName : dnsName + ".";
-        try {
-            rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
-        } catch (TextParseException e) {
-            rrecordSet = null;
+        if (getDnsResolver() != null) {
+            DnsResolver.Answer answer = getDnsResolver().lookup(lookupName);
+            if (answer != null && answer.getAddress() != null) {
+                rrecordSet = answer.getRecords();
+                ttl = answer.getRemainingTtlSeconds(curi.getFetchBeginTime());
+                dnsServer = answer.getServer();
+            }
+        } else {
+            try {
+                rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
+            } catch (TextParseException e) {
+                rrecordSet = null;
+            }
         }
         curi.setContentType("text/dns");
         if (rrecordSet != null) {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Found recordset for " + lookupName);
             }
-        	storeDNSRecord(curi, dnsName, targetHost, rrecordSet);
+        	storeDNSRecord(curi, dnsName, targetHost, rrecordSet, ttl, dnsServer);
         } else {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Failed find of recordset for " + lookupName);
@@ -204,6 +231,18 @@ public class FetchDNS extends Processor {
     
     protected void storeDNSRecord(final CrawlURI curi, final String dnsName,
     		final CrawlHost targetHost, final Record[] rrecordSet) {
+        storeDNSRecord(curi, dnsName, targetHost, rrecordSet, -1, null);
+    }
+
+    /**
+     * @param ttl seconds the answer remains valid, or -1 to use the
+     * first A record's TTL
+     * @param dnsServer server which answered, or null for the default
+     * dnsjava resolver's
+     */
+    protected void storeDNSRecord(final CrawlURI curi, final String dnsName,
+    		final CrawlHost targetHost, final Record[] rrecordSet, long ttl,
+    		String dnsServer) {
         // Get TTL and IP info from the first A record (there may be
         // multiple, e.g. www.washington.edu) then update the CrawlServer
         ARecord arecord = getFirstARecord(rrecordSet);
@@ -211,11 +250,12 @@ public class FetchDNS extends Processor {
             throw new NullPointerException("Got null arecord for " +
                 dnsName);
         }
-        targetHost.setIP(arecord.getAddress(), arecord.getTTL());
+        targetHost.setIP(arecord.getAddress(), (ttl >= 0) ? ttl : arecord.getTTL());
         try {
         	recordDNS(curi, rrecordSet);
             curi.setFetchStatus(S_DNS_SUCCESS);
-            curi.setDNSServerIPLabel(ResolverConfig.getCurrentConfig().server());
+            curi.setDNSServerIPLabel((dnsServer != null) ? dnsServer
+                    : ResolverConfig.getCurrentConfig().server());
         } catch (IOException e) {
         	logger.log(Level.SEVERE, "Failed store of DNS Record for " +
         		curi.toString(), e);
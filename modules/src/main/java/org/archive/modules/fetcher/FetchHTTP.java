@@ -33,9 +33,12 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.security.KeyManagementException;
@@ -362,9 +365,9 @@ public class FetchHTTP extends Processor implements Lifecycle {
     private static final String MIDFETCH_ABORT_LOG = "midFetchAbort";
 
     /**
-     * Use HTTP/1.1. Note: even when offering an HTTP/1.1 request, 
-     * Heritrix may not properly handle persistent/keep-alive connections, 
-     * so the sendConnectionClose parameter should remain 'true'. 
+     * Use HTTP/1.1. Note: unless connectionPooling is enabled, Heritrix 
+     * does not reuse persistent/keep-alive connections, so the 
+     * sendConnectionClose parameter should remain 'true'. 
      */
     {
         setUseHTTP11(false);
@@ -405,6 +408,59 @@ public class FetchHTTP extends Processor implements Lifecycle {
     private static final Header HEADER_SEND_CONNECTION_CLOSE = new Header(
             "Connection", "close");
 
+    /**
+     * Keep connections open after each fetch, in small per-server pools,
+     * for reuse by later fetches from the same server, sparing repeated
+     * TCP (and TLS) handshakes. When enabled, requests are always
+     * HTTP/1.1, and 'Connection: close' is sent (whatever
+     * sendConnectionClose says) only when the frontier expects no more
+     * URIs from the same queue in its current session. Takes effect at
+     * crawl start.
+     */
+    protected boolean connectionPooling = false;
+    public boolean getConnectionPooling() {
+        return connectionPooling;
+    }
+    public void setConnectionPooling(boolean connectionPooling) {
+        this.connectionPooling = connectionPooling;
+    }
+
+    /**
+     * With connectionPooling, milliseconds a pooled connection may stay
+     * idle before it is closed.
+     */
+    protected long connectionIdleTimeoutMs = 15000;
+    public long getConnectionIdleTimeoutMs() {
+        return connectionIdleTimeoutMs;
+    }
+    public void setConnectionIdleTimeoutMs(long connectionIdleTimeoutMs) {
+        this.connectionIdleTimeoutMs = connectionIdleTimeoutMs;
+    }
+
+    /**
+     * With connectionPooling, most requests to send over one connection
+     * before closing it; 0 for no limit.
+     */
+    protected int maxRequestsPerConnection = 100;
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+    public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    /**
+     * With connectionPooling, most idle connections to keep open to any
+     * one server.
+     */
+    protected int maxIdleConnectionsPerServer = 2;
+    public int getMaxIdleConnectionsPerServer() {
+        return maxIdleConnectionsPerServer;
+    }
+    public void setMaxIdleConnectionsPerServer(int maxIdleConnectionsPerServer) {
+        this.maxIdleConnectionsPerServer = maxIdleConnectionsPerServer;
+    }
+
     /**
      * Send 'Referer' header with every request.
      * <p>
@@ -563,6 +619,7 @@ public class FetchHTTP extends Processor implements Lifecycle {
 
     // static final String SERVER_CACHE_KEY = "heritrix.server.cache";
     static final String SSL_FACTORY_KEY = "heritrix.ssl.factory";
+    static final String SSL_LAYERED_KEY = "heritrix.ssl.layered";
 
     /***************************************************************************
      * Socket factory that has the configurable trust manager installed.
@@ -675,11 +732,19 @@ public class FetchHTTP extends Processor implements Lifecycle {
         // set softMax on bytes to get (if implied by content-length)
         long softMax = method.getResponseContentLength();
 
+        noteConnectionReuse(curi);
+
         try {
             if (!method.isAborted()) {
                 // Force read-to-end, so that any socket hangs occur here,
                 // not in later modules.
-                rec.getRecordedInput().readFullyOrUntil(softMax);
+                if (getConnectionPooling()) {
+                    readResponseToFramedEnd(method, rec, 
+                            curi.getFetchBeginTime(), hardMax, timeoutMs, 
+                            maxRateKBps);
+                } else {
+                    rec.getRecordedInput().readFullyOrUntil(softMax);
+                }
             }
         } catch (RecorderTimeoutException ex) {
             doAbort(curi, method, TIMER_TRUNC);
@@ -777,6 +842,112 @@ public class FetchHTTP extends Processor implements Lifecycle {
         }
     }
     
+    /**
+     * Read the response body to its framed end (per Content-Length or
+     * chunked transfer-encoding) through the method's own body stream,
+     * leaving a persistent connection positioned at the start of the next
+     * response, and so releasable for reuse. That stream reads from the
+     * recorded socket stream, so the raw bytes (chunk framing included)
+     * are recorded exactly as with readFullyOrUntil(). As that method is
+     * bypassed, the same limits are applied here: total recorded length,
+     * overall fetch time (checked also across socket timeouts), and 
+     * fetch rate, by sleeping. On any failure the connection is closed.
+     * 
+     * @param method executed method
+     * @param rec recorder of the exchange
+     * @param startMs time fetch began
+     * @param hardMax maximum recorded bytes, or 0 for no limit 
+     * @param timeoutMs maximum fetch time, or 0 for no limit 
+     * @param maxRateKBps maximum fetch rate, or 0 for no limit
+     * @throws RecorderLengthExceededException if over hardMax
+     * @throws RecorderTimeoutException if over timeoutMs
+     * @throws IOException
+     */
+    protected void readResponseToFramedEnd(HttpMethod method, Recorder rec,
+            long startMs, long hardMax, long timeoutMs, long maxRateKBps)
+    throws IOException {
+        try {
+            InputStream body = method.getResponseBodyAsStream();
+            if (body == null) {
+                return;
+            }
+            byte[] buf = new byte[16 * 1024];
+            while (true) {
+                int maxToRead = buf.length;
+                if (hardMax > 0) {
+                    // but always at least 1, to trigger hard max exception
+                    long remaining = hardMax - rec.getRecordedInput().getSize();
+                    maxToRead = (int) Math.max(1, Math.min(maxToRead, remaining));
+                }
+                try {
+                    if (body.read(buf, 0, maxToRead) == -1) {
+                        break;
+                    }
+                } catch (SocketTimeoutException e) {
+                    // nothing available yet; check overall limits below
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.log(Level.FINE, "socket timeout", e);
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("interrupted during read");
+                }
+                checkReadLimits(rec.getRecordedInput().getSize(), 
+                        System.currentTimeMillis() - startMs, 
+                        hardMax, timeoutMs, maxRateKBps);
+            }
+        } catch (IOException e) {
+            method.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Enforce the limits otherwise enforced by readFullyOrUntil(): throw 
+     * if over the maximum length or time, and sleep as necessary to 
+     * hold to the maximum rate.
+     * 
+     * @param recorded bytes recorded so far
+     * @param elapsedMs time since fetch began
+     * @param hardMax maximum recorded bytes, or 0 for no limit 
+     * @param timeoutMs maximum fetch time, or 0 for no limit 
+     * @param maxRateKBps maximum fetch rate, or 0 for no limit
+     * @throws IOException
+     */
+    protected void checkReadLimits(long recorded, long elapsedMs, 
+            long hardMax, long timeoutMs, long maxRateKBps) 
+    throws IOException {
+        if (hardMax > 0 && recorded > hardMax) {
+            throw new RecorderLengthExceededException();
+        }
+        if (timeoutMs > 0 && elapsedMs > timeoutMs) {
+            throw new RecorderTimeoutException();
+        }
+        if (maxRateKBps > 0) {
+            long desiredMs = (recorded * 1000) / (maxRateKBps * 1024);
+            if (desiredMs > elapsedMs) {
+                try {
+                    Thread.sleep(desiredMs - elapsedMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "interrupted during rate-limiting sleep");
+                }
+            }
+        }
+    }
+
+    /**
+     * Remember on the CrawlURI whether its request went over a reused
+     * connection, for tallying in FetchStats.
+     */
+    protected void noteConnectionReuse(CrawlURI curi) {
+        HttpConnectionManager cm = http.getHttpConnectionManager();
+        boolean reused = (cm instanceof PooledHttpConnectionManager)
+            && ((PooledHttpConnectionManager) cm).wasLastConnectionReused();
+        curi.setHttpConnectionReused(reused);
+    }
+
     protected void doAbort(CrawlURI curi, HttpMethod method,
             String annotation) {
         curi.getAnnotations().add(annotation);
@@ -968,7 +1139,7 @@ public class FetchHTTP extends Processor implements Lifecycle {
                 ignoreCookies ? CookiePolicy.IGNORE_COOKIES
                         : CookiePolicy.BROWSER_COMPATIBILITY);
 
-        method.getParams().setVersion(getUseHTTP11() 
+        method.getParams().setVersion(getUseHTTP11() || getConnectionPooling()
                                         ? HttpVersion.HTTP_1_1 
                                         : HttpVersion.HTTP_1_0);
 
@@ -994,7 +1165,9 @@ public class FetchHTTP extends Processor implements Lifecycle {
                     .toString(maxLength - 1)));
         }
 
-        if (getSendConnectionClose()) {
+        if (getConnectionPooling()
+                ? curi.isLastInQueueSession()
+                : getSendConnectionClose()) {
             method.addRequestHeader(HEADER_SEND_CONNECTION_CLOSE);
         }
 
@@ -1405,6 +1578,10 @@ public class FetchHTTP extends Processor implements Lifecycle {
      * Perform any final cleanup related to the HttpClient instance.
      */
     protected void cleanupHttp() {
+        HttpConnectionManager cm = this.http.getHttpConnectionManager();
+        if (cm instanceof PooledHttpConnectionManager) {
+            ((PooledHttpConnectionManager) cm).shutdown();
+        }
         this.http = null; 
     }
     
@@ -1448,7 +1625,11 @@ public class FetchHTTP extends Processor implements Lifecycle {
         int timeout = (soTimeout > 0) ? soTimeout : 0;
 
         // HttpConnectionManager cm = new ThreadLocalHttpConnectionManager();
-        HttpConnectionManager cm = new SingleHttpConnectionManager();
+        HttpConnectionManager cm = getConnectionPooling()
+            ? new PooledHttpConnectionManager(getConnectionIdleTimeoutMs(),
+                    getMaxRequestsPerConnection(),
+                    getMaxIdleConnectionsPerServer())
+            : new SingleHttpConnectionManager();
 
         // TODO: The following settings should be made in the corresponding
         // HttpConnectionManager, not here.
@@ -1487,6 +1668,7 @@ public class FetchHTTP extends Processor implements Lifecycle {
         configureBindAddress(addressStr,config);
 
         hcmp.setParameter(SSL_FACTORY_KEY, this.sslfactory);
+        hcmp.setBooleanParameter(SSL_LAYERED_KEY, getConnectionPooling());
     }
 
     /*
@@ -1500,6 +1682,14 @@ public class FetchHTTP extends Processor implements Lifecycle {
         ret.append("  Function:          Fetch HTTP URIs\n");
         ret.append("  CrawlURIs handled: " + this.getURICount() + "\n");
         ret.append("  Recovery retries:   " + this.recoveryRetries + "\n");
+        if (http != null
+                && http.getHttpConnectionManager() instanceof PooledHttpConnectionManager) {
+            PooledHttpConnectionManager cm =
+                (PooledHttpConnectionManager) http.getHttpConnectionManager();
+            ret.append("  Connections opened: " + cm.getConnectionsOpened() + "\n");
+            ret.append("  Connections reused: " + cm.getConnectionsReused() + "\n");
+            ret.append("  Idle connections:   " + cm.getIdleConnectionCount() + "\n");
+        }
 
         return ret.toString();
     }
@@ -71,6 +71,9 @@ public class FetchStats implements Serializable, FetchStatusCodes, Reporter {
     
     protected long lastSuccessTime; 
     
+    protected long connectionUses;   // HTTP responses over a known connection
+    protected long connectionReuses; // ...of which over a reused connection
+    
     /*
      * XXX redundancy with StatisticsTracker.onApplicationEvent() ... CrawledBytesHistotable.accumulate() code path
      */
@@ -102,6 +105,7 @@ public class FetchStats implements Serializable, FetchStatusCodes, Reporter {
                 } 
                 
                 lastSuccessTime = curi.getFetchCompletedTime();
+                tallyConnectionUse(curi);
                 break;
             case DISREGARDED:
                 fetchDisregards++;
@@ -127,12 +131,23 @@ public class FetchStats implements Serializable, FetchStatusCodes, Reporter {
                         novelUrls++;
                     } 
 
+                    tallyConnectionUse(curi);
                 }
                 fetchFailures++;
                 break;
         }
     }
     
+    protected void tallyConnectionUse(CrawlURI curi) {
+        Boolean reused = curi.getHttpConnectionReused();
+        if (reused != null) {
+            connectionUses++;
+            if (reused) {
+                connectionReuses++;
+            }
+        }
+    }
+    
     public long getFetchSuccesses() {
         return fetchSuccesses;
     }
@@ -251,4 +266,20 @@ public class FetchStats implements Serializable, FetchStatusCodes, Reporter {
     public long getLastSuccessTime() {
         return lastSuccessTime;
     }
+
+    public long getConnectionUses() {
+        return connectionUses;
+    }
+
+    public long getConnectionReuses() {
+        return connectionReuses;
+    }
+
+    /**
+     * @return fraction of HTTP responses received over a reused
+     * (persistent) connection, or 0 if none tallied
+     */
+    public double getConnectionReuseRate() {
+        return connectionUses == 0 ? 0 : (double) connectionReuses / connectionUses;
+    }
 }
@@ -46,6 +46,12 @@ import org.archive.httpclient.ConfigurableX509TrustManager;
  * To this, we have dependency on {@link HeritrixProtocolSocketFactory};
  * its assumed this class and it are used together.
  * See {@link HeritrixProtocolSocketFactory#getHostAddress(ServerCache,String)}.
+ * 
+ * When FetchHTTP pools connections (SSL_LAYERED_KEY set in the params), 
+ * SSL sockets are layered over already-connected plain sockets, named by
+ * host and port, so that TLS sessions cached by the SSLContext are resumed
+ * (abbreviated handshakes) on later connections to the same server. 
+ * Otherwise, SSL sockets are created unconnected and unnamed, as always.
  *
  * @author stack
  * @version $Id$
@@ -107,7 +113,9 @@ implements SecureProtocolSocketFactory {
         	SSLSocketFactory factory = (SSLSocketFactory)params.
                 getParameter(FetchHTTP.SSL_FACTORY_KEY);
         	SSLSocketFactory f = (factory != null)? factory: this.sslDefaultFactory;
-            socket = f.createSocket();
+            // If layered, connect a plain socket, to layer SSL over below
+            boolean layered = params.isParameterTrue(FetchHTTP.SSL_LAYERED_KEY);
+            socket = layered ? new Socket() : f.createSocket();
             
             Thread current = Thread.currentThread();
             InetAddress hostAddress;
@@ -128,6 +136,14 @@ implements SecureProtocolSocketFactory {
                 throw new SocketTimeoutException(e.getMessage() +
                     ": timeout set at " + Integer.toString(timeout) + "ms.");
             }
+            if (layered) {
+                // Layer SSL naming the host and port, so the handshake can
+                // resume a session cached (by f's SSLContext) from an 
+                // earlier connection to the same server. (This also sends
+                // the server name, SNI, which a few servers refuse; so 
+                // only when pooling.)
+                socket = f.createSocket(socket, host, port, true);
+            }
             assert socket.isConnected(): "Socket not connected " + host;
         }
         return socket;
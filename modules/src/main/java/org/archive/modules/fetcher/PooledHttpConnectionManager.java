@@ -0,0 +1,310 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.archive.util.Recorder;
+
+/**
+ * HttpConnectionManager keeping finished connections open, in small
+ * per-server (host:port, as with CrawlServer) pools, for reuse by later
+ * requests to the same server.
+ *
+ * A connection is returned to its server's pool only if its response
+ * was read to its framed end, and neither side asked to close it. Pooled
+ * connections are closed once idle longer than the idle timeout, or once
+ * they have carried the maximum number of requests. Idle connections are
+ * detached from any Recorder, and attached to the current thread's
+ * Recorder as they are handed out again, so that each request's
+ * recording holds exactly its own exchange.
+ *
+ * Connections are handed out to a single thread at a time; unlike
+ * MultiThreadedHttpConnectionManager, no limit is kept on connections in
+ * use, as ToeThreads already bound those.
+ */
+public class PooledHttpConnectionManager implements HttpConnectionManager {
+    private static final Logger logger =
+        Logger.getLogger(PooledHttpConnectionManager.class.getName());
+
+    protected HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+
+    /** idle connections per server key, most recently used first */
+    protected Map<String,LinkedList<PooledConnection>> idle =
+        new HashMap<String,LinkedList<PooledConnection>>();
+
+    protected long idleTimeoutMs;
+    protected int maxRequestsPerConnection;
+    protected int maxIdlePerServer;
+
+    protected volatile long lastSweep = System.currentTimeMillis();
+
+    /** whether the calling thread's last connection was a reused one */
+    protected ThreadLocal<Boolean> lastReused = new ThreadLocal<Boolean>();
+
+    protected long connectionsOpened = 0;
+    protected long connectionsReused = 0;
+
+    /**
+     * @param idleTimeoutMs close pooled connections idle longer than this
+     * @param maxRequestsPerConnection close connections after this many
+     * requests; 0 for no limit
+     * @param maxIdlePerServer most idle connections to keep per server
+     */
+    public PooledHttpConnectionManager(long idleTimeoutMs,
+            int maxRequestsPerConnection, int maxIdlePerServer) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        this.maxIdlePerServer = maxIdlePerServer;
+    }
+
+    /**
+     * HttpConnection remembering its server key, use count, and time
+     * of last release.
+     */
+    protected static class PooledConnection extends HttpConnection {
+        protected String serverKey;
+        protected int requestCount = 0;
+        protected long lastReleased;
+
+        public PooledConnection(HostConfiguration hostConfiguration, String serverKey) {
+            super(hostConfiguration);
+            this.serverKey = serverKey;
+        }
+    }
+
+    protected static String serverKeyFor(HostConfiguration hostConfiguration) {
+        StringBuilder key = new StringBuilder();
+        key.append(hostConfiguration.getProtocol().getScheme());
+        key.append("://");
+        key.append(hostConfiguration.getHost());
+        key.append(':');
+        key.append(hostConfiguration.getPort());
+        if (hostConfiguration.getProxyHost() != null) {
+            key.append(" via ");
+            key.append(hostConfiguration.getProxyHost());
+            key.append(':');
+            key.append(hostConfiguration.getProxyPort());
+        }
+        if (hostConfiguration.getLocalAddress() != null) {
+            key.append(" from ");
+            key.append(hostConfiguration.getLocalAddress().getHostAddress());
+        }
+        return key.toString();
+    }
+
+    public HttpConnection getConnection(HostConfiguration hostConfiguration) {
+        return getConnectionWithTimeout(hostConfiguration, 0);
+    }
+
+    /**
+     * @deprecated use getConnectionWithTimeout()
+     */
+    public HttpConnection getConnection(HostConfiguration hostConfiguration,
+            long timeout) {
+        return getConnectionWithTimeout(hostConfiguration, timeout);
+    }
+
+    /**
+     * Hand out the most recently used idle connection to the same server,
+     * if any is still fit for use, or else a new, unopened connection.
+     * Never waits, so the timeout is unused.
+     */
+    public HttpConnection getConnectionWithTimeout(
+            HostConfiguration hostConfiguration, long timeout) {
+        String key = serverKeyFor(hostConfiguration);
+        long now = System.currentTimeMillis();
+        PooledConnection conn;
+        while ((conn = takeIdle(key)) != null) {
+            if (now - conn.lastReleased > idleTimeoutMs) {
+                conn.close();
+                continue;
+            }
+            try {
+                // check while still unrecorded
+                if (conn.closeIfStale() || conn.isResponseAvailable()) {
+                    conn.close();
+                    continue;
+                }
+                conn.attachRecorder(Recorder.getHttpRecorder());
+            } catch (IOException e) {
+                logger.log(Level.FINE, "discarding pooled connection to " + key, e);
+                conn.close();
+                continue;
+            }
+            conn.requestCount++;
+            noteHandedOut(true);
+            return conn;
+        }
+        conn = new PooledConnection(hostConfiguration, key);
+        conn.setHttpConnectionManager(this);
+        conn.getParams().setDefaults(this.params);
+        conn.requestCount++;
+        noteHandedOut(false);
+        return conn;
+    }
+
+    protected synchronized PooledConnection takeIdle(String key) {
+        LinkedList<PooledConnection> conns = idle.get(key);
+        if (conns == null) {
+            return null;
+        }
+        PooledConnection conn = conns.removeFirst();
+        if (conns.isEmpty()) {
+            idle.remove(key);
+        }
+        return conn;
+    }
+
+    protected void noteHandedOut(boolean reused) {
+        lastReused.set(reused);
+        synchronized (this) {
+            if (reused) {
+                connectionsReused++;
+            } else {
+                connectionsOpened++;
+            }
+        }
+    }
+
+    /**
+     * @return true if the calling thread's most recent connection was a
+     * pooled (reused) one; false if it was new
+     */
+    public boolean wasLastConnectionReused() {
+        Boolean reused = lastReused.get();
+        return reused != null && reused;
+    }
+
+    /**
+     * Pool the connection if it is open, ready for another request, and
+     * under its request limit; otherwise close it.
+     */
+    public void releaseConnection(HttpConnection conn) {
+        PooledConnection pooled = (PooledConnection) conn;
+        if (!conn.isOpen() || conn.getLastResponseInputStream() != null
+                || (maxRequestsPerConnection > 0
+                        && pooled.requestCount >= maxRequestsPerConnection)) {
+            // closed by method, or unfinished response, or used up
+            conn.close();
+            return;
+        }
+        try {
+            conn.attachRecorder(null);
+        } catch (IOException e) {
+            // cannot happen when detaching
+            conn.close();
+            return;
+        }
+        pooled.lastReleased = System.currentTimeMillis();
+        PooledConnection evicted = null;
+        synchronized (this) {
+            LinkedList<PooledConnection> conns = idle.get(pooled.serverKey);
+            if (conns == null) {
+                conns = new LinkedList<PooledConnection>();
+                idle.put(pooled.serverKey, conns);
+            }
+            conns.addFirst(pooled);
+            if (conns.size() > maxIdlePerServer) {
+                evicted = conns.removeLast();
+            }
+        }
+        if (evicted != null) {
+            evicted.close();
+        }
+        if (pooled.lastReleased - lastSweep > idleTimeoutMs) {
+            lastSweep = pooled.lastReleased;
+            closeIdleConnections(idleTimeoutMs);
+        }
+    }
+
+    /**
+     * Close all pooled connections idle longer than the given time.
+     */
+    public void closeIdleConnections(long idleTimeout) {
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        LinkedList<PooledConnection> expired = new LinkedList<PooledConnection>();
+        synchronized (this) {
+            Iterator<LinkedList<PooledConnection>> iter = idle.values().iterator();
+            while (iter.hasNext()) {
+                LinkedList<PooledConnection> conns = iter.next();
+                // least recently used at end
+                while (!conns.isEmpty() && conns.getLast().lastReleased < cutoff) {
+                    expired.add(conns.removeLast());
+                }
+                if (conns.isEmpty()) {
+                    iter.remove();
+                }
+            }
+        }
+        for (PooledConnection conn : expired) {
+            conn.close();
+        }
+    }
+
+    /**
+     * Close all pooled connections.
+     */
+    public void shutdown() {
+        LinkedList<PooledConnection> all = new LinkedList<PooledConnection>();
+        synchronized (this) {
+            for (LinkedList<PooledConnection> conns : idle.values()) {
+                all.addAll(conns);
+            }
+            idle.clear();
+        }
+        for (PooledConnection conn : all) {
+            conn.close();
+        }
+    }
+
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (LinkedList<PooledConnection> conns : idle.values()) {
+            count += conns.size();
+        }
+        return count;
+    }
+
+    public synchronized long getConnectionsOpened() {
+        return connectionsOpened;
+    }
+
+    public synchronized long getConnectionsReused() {
+        return connectionsReused;
+    }
+
+    public HttpConnectionManagerParams getParams() {
+        return this.params;
+    }
+
+    public void setParams(HttpConnectionManagerParams params) {
+        this.params = params;
+    }
+}
@@ -0,0 +1,650 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.springframework.context.Lifecycle;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * Resolver of host names to (IPv4) addresses which keeps many DNS queries
+ * outstanding at once, from a single I/O thread: queries go out over one
+ * UDP channel, and responses are matched to them by message id. Queries
+ * are retried, rotating through the configured servers, on timeout or
+ * server failure; truncated responses are retried over TCP, on a second
+ * thread.
+ *
+ * Answers, including negative ones, are kept in a cache shared by all
+ * users until their TTLs run out. So a host pre-resolved (as by
+ * CandidatesProcessor, on scheduling the host's first URIs) is answered
+ * at once when PreconditionEnforcer or FetchDNS comes to need it, and
+ * concurrent requests for one name share a single query.
+ */
+public class DnsResolver implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(DnsResolver.class.getName());
+
+    protected static final int MAX_UDP_SIZE = 512;
+
+    /**
+     * DNS servers to query, as "host" or "host:port"; if empty, those of
+     * the system's configuration (as found by dnsjava).
+     */
+    protected List<String> servers = new ArrayList<String>();
+    public List<String> getServers() {
+        return servers;
+    }
+    public void setServers(List<String> servers) {
+        this.servers = servers;
+    }
+
+    /** milliseconds to await each response before retrying */
+    protected int timeoutMs = 3000;
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /** times to retry a query (on another server, if any) before failing */
+    protected int retries = 2;
+    public int getRetries() {
+        return retries;
+    }
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /** most queries to have outstanding (sent, unanswered) at once */
+    protected int maxOutstanding = 500;
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+    public void setMaxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * most names to have queued or outstanding at once; further prefetch
+     * requests are dropped (though lookups are always accepted)
+     */
+    protected int maxPending = 20000;
+    public int getMaxPending() {
+        return maxPending;
+    }
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * seconds to cache a negative answer (no such name, or no address)
+     * when the response carries no SOA record giving its own
+     */
+    protected long negativeTtlSeconds = 300;
+    public long getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+    public void setNegativeTtlSeconds(long negativeTtlSeconds) {
+        this.negativeTtlSeconds = negativeTtlSeconds;
+    }
+
+    /** most answers to cache; beyond this, expired entries are swept */
+    protected int maxCacheEntries = 100000;
+    public int getMaxCacheEntries() {
+        return maxCacheEntries;
+    }
+    public void setMaxCacheEntries(int maxCacheEntries) {
+        this.maxCacheEntries = maxCacheEntries;
+    }
+
+    /**
+     * Outcome of resolving one name: its address (or none, for a negative
+     * answer), the A records found, and how long it may be trusted.
+     */
+    public static class Answer {
+        protected final String name;
+        protected final Record[] records;
+        protected final InetAddress address;
+        protected final long ttlSeconds;
+        protected final long resolvedTime;
+        protected final String server;
+
+        public Answer(String name, Record[] records, InetAddress address,
+                long ttlSeconds, long resolvedTime, String server) {
+            this.name = name;
+            this.records = records;
+            this.address = address;
+            this.ttlSeconds = ttlSeconds;
+            this.resolvedTime = resolvedTime;
+            this.server = server;
+        }
+        public String getName() {
+            return name;
+        }
+        /** @return A records of the answer; empty for a negative answer */
+        public Record[] getRecords() {
+            return records;
+        }
+        /** @return first address found, or null for a negative answer */
+        public InetAddress getAddress() {
+            return address;
+        }
+        public long getTtlSeconds() {
+            return ttlSeconds;
+        }
+        public long getResolvedTime() {
+            return resolvedTime;
+        }
+        /** @return the server which gave this answer */
+        public String getServer() {
+            return server;
+        }
+        public long getRemainingTtlSeconds(long now) {
+            return Math.max(0, ttlSeconds - (now - resolvedTime) / 1000);
+        }
+        public boolean isExpired(long now) {
+            return now >= resolvedTime + ttlSeconds * 1000;
+        }
+    }
+
+    /** One name being resolved, for any number of waiting threads. */
+    protected static class Query {
+        protected final String name;
+        protected int id;
+        protected int attempt = 0;
+        protected long deadline;
+        protected InetSocketAddress server;
+        protected Message message;
+        protected volatile boolean done = false;
+        protected Answer answer;
+
+        protected Query(String name) {
+            this.name = name;
+        }
+        protected synchronized void complete(Answer answer) {
+            this.answer = answer;
+            this.done = true;
+            notifyAll();
+        }
+        protected synchronized Answer await(long waitMs) throws InterruptedException {
+            long end = System.currentTimeMillis() + waitMs;
+            long remaining = waitMs;
+            while (!done && remaining > 0) {
+                wait(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+            return answer;
+        }
+    }
+
+    protected InetSocketAddress[] serverAddresses;
+    protected Map<String,Answer> cache = new ConcurrentHashMap<String,Answer>();
+    /** queries by name, from request until answer */
+    protected ConcurrentHashMap<String,Query> inFlight = new ConcurrentHashMap<String,Query>();
+    protected ConcurrentLinkedQueue<Query> toSend = new ConcurrentLinkedQueue<Query>();
+    /** queries awaited by lookups, sent ahead of prefetches */
+    protected ConcurrentLinkedQueue<Query> toSendUrgently = new ConcurrentLinkedQueue<Query>();
+    /** sent queries by id, in order sent (and so of deadline); I/O thread only */
+    protected LinkedHashMap<Integer,Query> outstanding = new LinkedHashMap<Integer,Query>();
+    protected Random ids = new Random();
+
+    protected Selector selector;
+    protected DatagramChannel channel;
+    protected Thread ioThread;
+    protected ExecutorService tcpExecutor;
+    protected volatile boolean isRunning = false;
+
+    protected AtomicLong queriesSent = new AtomicLong(0);
+    protected AtomicLong timeouts = new AtomicLong(0);
+    protected AtomicLong cacheHits = new AtomicLong(0);
+    protected AtomicLong failures = new AtomicLong(0);
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        String[] names = servers.isEmpty()
+            ? ResolverConfig.getCurrentConfig().servers()
+            : servers.toArray(new String[servers.size()]);
+        if (names == null || names.length == 0) {
+            logger.warning("no DNS servers configured or found; using localhost");
+            names = new String[] {"127.0.0.1"};
+        }
+        serverAddresses = new InetSocketAddress[names.length];
+        for (int i = 0; i < names.length; i++) {
+            serverAddresses[i] = parseServer(names[i]);
+        }
+        try {
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().bind(null);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ThreadFactory daemons = new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DnsResolver-tcp");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        tcpExecutor = Executors.newSingleThreadExecutor(daemons);
+        isRunning = true;
+        ioThread = new Thread("DnsResolver") {
+            public void run() {
+                runIoLoop();
+            }
+        };
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    protected static InetSocketAddress parseServer(String server) {
+        int colon = server.lastIndexOf(':');
+        if (colon > 0 && server.indexOf(':') == colon) {
+            return new InetSocketAddress(server.substring(0, colon),
+                    Integer.parseInt(server.substring(colon + 1)));
+        }
+        return new InetSocketAddress(server, 53);
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        selector.wakeup();
+        try {
+            ioThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        tcpExecutor.shutdownNow();
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "closing DNS channel", e);
+        }
+        // release any waiters
+        for (Query q : inFlight.values()) {
+            q.complete(null);
+        }
+        inFlight.clear();
+        toSend.clear();
+        toSendUrgently.clear();
+        outstanding.clear();
+    }
+
+    protected static String normalize(String name) {
+        name = name.toLowerCase();
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * @param name host name
+     * @return cached, unexpired answer for name, or null if none
+     */
+    public Answer getCached(String name) {
+        name = normalize(name);
+        Answer answer = cache.get(name);
+        if (answer == null) {
+            return null;
+        }
+        if (answer.isExpired(System.currentTimeMillis())) {
+            cache.remove(name);
+            return null;
+        }
+        return answer;
+    }
+
+    /**
+     * Start resolving the name, if it is not already cached or underway,
+     * without waiting for the answer. Dropped if too many names are
+     * already pending.
+     *
+     * @param name host name
+     */
+    public void prefetch(String name) {
+        if (!isRunning || inFlight.size() >= maxPending || getCached(name) != null) {
+            return;
+        }
+        request(normalize(name), false);
+    }
+
+    /**
+     * Resolve the name, from cache if possible, or else waiting for a
+     * query already underway or newly made; at most long enough for all
+     * of a query's attempts to time out.
+     *
+     * @param name host name
+     * @return the answer (possibly negative), or null if no server answered
+     * @throws InterruptedException
+     */
+    public Answer lookup(String name) throws InterruptedException {
+        Answer answer = getCached(name);
+        if (answer != null) {
+            cacheHits.incrementAndGet();
+            return answer;
+        }
+        if (!isRunning) {
+            return null;
+        }
+        Query q = request(normalize(name), true);
+        return q.await((long) timeoutMs * (retries + 1) + 1000);
+    }
+
+    protected Query request(String name, boolean urgent) {
+        Query q = new Query(name);
+        Query existing = inFlight.putIfAbsent(name, q);
+        if (existing != null) {
+            if (!urgent) {
+                return existing;
+            }
+            // may still be queued behind prefetches; send() skips repeats
+            q = existing;
+        }
+        (urgent ? toSendUrgently : toSend).add(q);
+        selector.wakeup();
+        return q;
+    }
+
+    protected void runIoLoop() {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_UDP_SIZE * 4);
+        while (isRunning) {
+            try {
+                sendQueued();
+                long wait = 0;
+                if (!outstanding.isEmpty()) {
+                    Query first = outstanding.values().iterator().next();
+                    wait = Math.max(1, first.deadline - System.currentTimeMillis());
+                }
+                selector.select(wait);
+                selector.selectedKeys().clear();
+                receive(buf);
+                expireTimedOut();
+            } catch (IOException e) {
+                if (isRunning) {
+                    logger.log(Level.WARNING, "DNS i/o problem", e);
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "DNS resolver loop problem", e);
+            }
+        }
+    }
+
+    protected void sendQueued() throws IOException {
+        while (outstanding.size() < maxOutstanding) {
+            Query q = toSendUrgently.poll();
+            if (q == null) {
+                q = toSend.poll();
+            }
+            if (q == null) {
+                return;
+            }
+            send(q);
+        }
+    }
+
+    protected void send(Query q) throws IOException {
+        if (q.done || (q.message != null && outstanding.get(q.id) == q)) {
+            // already answered, or already sent via the other queue
+            return;
+        }
+        if (q.message == null) {
+            try {
+                q.message = Message.newQuery(Record.newRecord(
+                        Name.fromString(q.name + "."), Type.A, DClass.IN));
+            } catch (TextParseException e) {
+                finish(q, negativeAnswer(q, null, null));
+                return;
+            }
+        }
+        do {
+            q.id = ids.nextInt(0x10000);
+        } while (outstanding.containsKey(q.id));
+        q.message.getHeader().setID(q.id);
+        q.server = serverAddresses[q.attempt % serverAddresses.length];
+        q.deadline = System.currentTimeMillis() + timeoutMs;
+        outstanding.put(q.id, q);
+        channel.send(ByteBuffer.wrap(q.message.toWire()), q.server);
+        queriesSent.incrementAndGet();
+    }
+
+    protected void receive(ByteBuffer buf) throws IOException {
+        while (true) {
+            buf.clear();
+            SocketAddress from = channel.receive(buf);
+            if (from == null) {
+                return;
+            }
+            buf.flip();
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            Message response;
+            try {
+                response = new Message(bytes);
+            } catch (IOException e) {
+                logger.fine("unparseable DNS response from " + from);
+                continue;
+            }
+            Query q = outstanding.get(response.getHeader().getID());
+            if (q == null || !q.server.equals(from) || response.getQuestion() == null
+                    || !response.getQuestion().getName().equals(
+                            q.message.getQuestion().getName())) {
+                // late, or not ours
+                continue;
+            }
+            outstanding.remove(q.id);
+            if (response.getHeader().getFlag(Flags.TC)) {
+                resolveOverTcp(q);
+            } else {
+                handleResponse(q, response);
+            }
+        }
+    }
+
+    protected void resolveOverTcp(final Query q) {
+        tcpExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    SimpleResolver tcp = new SimpleResolver(q.server.getAddress().getHostAddress());
+                    tcp.setPort(q.server.getPort());
+                    tcp.setTCP(true);
+                    tcp.setTimeout(Math.max(1, timeoutMs / 1000));
+                    handleResponse(q, tcp.send(q.message));
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "TCP DNS query failed for " + q.name, e);
+                    retryOrFail(q);
+                }
+            }
+        });
+    }
+
+    /**
+     * Make an answer from the response, or retry on a server failure.
+     * May run on the TCP thread as well as the I/O thread.
+     */
+    protected void handleResponse(Query q, Message response) {
+        int rcode = response.getRcode();
+        if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
+            retryOrFail(q);
+            return;
+        }
+        Record[] answers = response.getSectionArray(Section.ANSWER);
+        List<Record> aRecords = new ArrayList<Record>();
+        for (Record r : answers) {
+            if (r.getType() == Type.A) {
+                aRecords.add(r);
+            }
+        }
+        String server = q.server.getAddress().getHostAddress();
+        if (aRecords.isEmpty()) {
+            finish(q, negativeAnswer(q, response, server));
+            return;
+        }
+        ARecord first = (ARecord) aRecords.get(0);
+        finish(q, new Answer(q.name, aRecords.toArray(new Record[aRecords.size()]),
+                first.getAddress(), first.getTTL(), System.currentTimeMillis(), server));
+    }
+
+    protected Answer negativeAnswer(Query q, Message response, String server) {
+        long ttl = negativeTtlSeconds;
+        if (response != null) {
+            for (Record r : response.getSectionArray(Section.AUTHORITY)) {
+                if (r instanceof SOARecord) {
+                    ttl = Math.min(r.getTTL(), ((SOARecord) r).getMinimum());
+                    break;
+                }
+            }
+        }
+        return new Answer(q.name, new Record[0], null, ttl,
+                System.currentTimeMillis(), server);
+    }
+
+    protected void expireTimedOut() throws IOException {
+        long now = System.currentTimeMillis();
+        List<Query> expired = null;
+        Iterator<Query> iter = outstanding.values().iterator();
+        while (iter.hasNext()) {
+            Query q = iter.next();
+            if (q.deadline > now) {
+                break;
+            }
+            iter.remove();
+            if (expired == null) {
+                expired = new ArrayList<Query>();
+            }
+            expired.add(q);
+        }
+        if (expired != null) {
+            timeouts.addAndGet(expired.size());
+            for (Query q : expired) {
+                retryOrFail(q);
+            }
+        }
+    }
+
+    protected void retryOrFail(Query q) {
+        if (q.attempt < retries) {
+            q.attempt++;
+            toSend.add(q);
+            selector.wakeup();
+        } else {
+            failures.incrementAndGet();
+            finish(q, null);
+        }
+    }
+
+    protected void finish(Query q, Answer answer) {
+        if (answer != null) {
+            if (cache.size() >= maxCacheEntries) {
+                sweepCache();
+            }
+            cache.put(q.name, answer);
+        }
+        inFlight.remove(q.name);
+        q.complete(answer);
+    }
+
+    /**
+     * Remove expired answers; if too many remain, arbitrary others too.
+     */
+    protected void sweepCache() {
+        long now = System.currentTimeMillis();
+        Iterator<Answer> iter = cache.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isExpired(now)) {
+                iter.remove();
+            }
+        }
+        iter = cache.values().iterator();
+        while (cache.size() > maxCacheEntries * 9 / 10 && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    public long getQueriesSent() {
+        return queriesSent.get();
+    }
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+    public long getFailures() {
+        return failures.get();
+    }
+    public int getPendingCount() {
+        return inFlight.size();
+    }
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "DnsResolver" + Arrays.toString(serverAddresses);
+    }
+}
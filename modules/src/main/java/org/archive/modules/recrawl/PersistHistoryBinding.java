@@ -0,0 +1,301 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.archive.bdb.KryoBinding;
+import org.archive.modules.CoreAttributeConstants;
+
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.LongSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Binding for persisted URI state (as in the uri_history database) which
+ * writes a compact format rather than BDB's Java serialization. 
+ * 
+ * Map keys from {@link RecrawlAttributeConstants} (and a few from 
+ * {@link CoreAttributeConstants}) are written as small integers, and 
+ * Integer, Long, String, nested HashMap, and HashMap[] (fetch history) 
+ * values are written directly, integers as variable-length. Any other key 
+ * is written as a string, and any other value via Kryo, so no URI state 
+ * is lost. Reading always produces HashMaps, as stored by the persist 
+ * processors and expected by {@link FetchHistoryProcessor}.
+ * 
+ * Records written by a {@link SerialBinding} remain readable: each compact
+ * record begins with a format byte that no Java-serialized record begins 
+ * with. So an existing history database may be switched to the compact 
+ * format live, old records being rewritten compactly as URIs are 
+ * recrawled, or converted all at once with {@link PersistProcessor#main}.
+ */
+@SuppressWarnings("rawtypes")
+public class PersistHistoryBinding extends KryoBinding<Map> {
+    /** first byte of compact records; Java-serialized records start TC_OBJECT (0x73) */
+    protected static final byte FORMAT_COMPACT_1 = (byte) 0xC1;
+
+    /**
+     * Keys written as their (1-based) index in this list. Append only: 
+     * reordering or removal would misread existing records. 
+     */
+    protected static final List<String> KNOWN_KEYS = Arrays.asList(
+            RecrawlAttributeConstants.A_FETCH_HISTORY,
+            RecrawlAttributeConstants.A_STATUS,
+            CoreAttributeConstants.A_FETCH_BEGAN_TIME,
+            RecrawlAttributeConstants.A_CONTENT_DIGEST,
+            RecrawlAttributeConstants.A_ETAG_HEADER,
+            RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER,
+            RecrawlAttributeConstants.A_REFERENCE_LENGTH,
+            RecrawlAttributeConstants.A_WRITE_TAG,
+            RecrawlAttributeConstants.A_CONTENT_DIGEST_HISTORY,
+            RecrawlAttributeConstants.A_ORIGINAL_URL,
+            RecrawlAttributeConstants.A_WARC_RECORD_ID,
+            RecrawlAttributeConstants.A_WARC_FILENAME,
+            RecrawlAttributeConstants.A_WARC_FILE_OFFSET,
+            RecrawlAttributeConstants.A_ORIGINAL_DATE,
+            RecrawlAttributeConstants.A_CONTENT_DIGEST_COUNT,
+            CoreAttributeConstants.A_HERITABLE_KEYS);
+
+    // value type tags
+    protected static final byte NULL = 0;
+    protected static final byte INT = 1;
+    protected static final byte LONG = 2;
+    protected static final byte STRING = 3;
+    protected static final byte MAP = 4;
+    protected static final byte HISTORY = 5;
+    protected static final byte OBJECT = 6;
+
+    protected static final int INITIAL_BUFFER_SIZE = 1024;
+    protected static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+
+    protected SerialBinding<Map> serialBinding;
+    protected boolean writeCompact;
+
+    protected ThreadLocal<ByteBuffer> threadWriteBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * @param classCatalog catalog for reading (and, if not writeCompact,
+     * writing) Java-serialized records; may be null if there are none
+     * @param writeCompact if true, write the compact format; if false,
+     * write Java-serialized records, as a plain SerialBinding would
+     */
+    public PersistHistoryBinding(StoredClassCatalog classCatalog, boolean writeCompact) {
+        super(Map.class);
+        if (classCatalog != null) {
+            this.serialBinding = new SerialBinding<Map>(classCatalog, Map.class);
+        }
+        if (!writeCompact && serialBinding == null) {
+            throw new IllegalArgumentException(
+                    "classCatalog required to write serialized records");
+        }
+        this.writeCompact = writeCompact;
+    }
+
+    public boolean isWriteCompact() {
+        return writeCompact;
+    }
+
+    /**
+     * @return true if the entry holds a compact-format record
+     */
+    public static boolean isCompact(DatabaseEntry entry) {
+        return entry.getSize() > 0 
+            && entry.getData()[entry.getOffset()] == FORMAT_COMPACT_1;
+    }
+
+    @Override
+    public void objectToEntry(Map object, DatabaseEntry entry) {
+        if (!writeCompact) {
+            serialBinding.objectToEntry(object, entry);
+            return;
+        }
+        ByteBuffer buffer = threadWriteBuffer.get();
+        while (true) {
+            buffer.clear();
+            try {
+                buffer.put(FORMAT_COMPACT_1);
+                writeValue(buffer, object);
+                break;
+            } catch (RuntimeException e) {
+                if (!isOverflow(e) || buffer.capacity() >= MAX_BUFFER_SIZE) {
+                    throw e;
+                }
+                buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_BUFFER_SIZE));
+                threadWriteBuffer.set(buffer);
+            }
+        }
+        byte[] data = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, data, 0, data.length);
+        entry.setData(data);
+    }
+
+    /**
+     * @return true if the exception (as possibly wrapped by Kryo) arises 
+     * from the buffer being too small
+     */
+    protected static boolean isOverflow(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof BufferOverflowException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Map entryToObject(DatabaseEntry entry) {
+        if (!isCompact(entry)) {
+            if (serialBinding == null) {
+                throw new IllegalStateException(
+                        "no class catalog for reading serialized record");
+            }
+            return serialBinding.entryToObject(entry);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(entry.getData(), 
+                entry.getOffset() + 1, entry.getSize() - 1);
+        return (Map) readValue(buffer);
+    }
+
+    protected void writeMap(ByteBuffer buffer, Map<?,?> map) {
+        IntSerializer.put(buffer, map.size(), true);
+        for (Map.Entry<?,?> e : map.entrySet()) {
+            writeKey(buffer, e.getKey());
+            writeValue(buffer, e.getValue());
+        }
+    }
+
+    protected HashMap<String,Object> readMap(ByteBuffer buffer) {
+        int size = IntSerializer.get(buffer, true);
+        HashMap<String,Object> map = new HashMap<String,Object>();
+        for (int i = 0; i < size; i++) {
+            String key = readKey(buffer);
+            map.put(key, readValue(buffer));
+        }
+        return map;
+    }
+
+    protected void writeKey(ByteBuffer buffer, Object key) {
+        int index = KNOWN_KEYS.indexOf(key);
+        IntSerializer.put(buffer, index + 1, true);
+        if (index < 0) {
+            StringSerializer.put(buffer, (String) key);
+        }
+    }
+
+    protected String readKey(ByteBuffer buffer) {
+        int code = IntSerializer.get(buffer, true);
+        if (code == 0) {
+            return StringSerializer.get(buffer);
+        }
+        return KNOWN_KEYS.get(code - 1);
+    }
+
+    protected void writeValue(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.put(NULL);
+        } else if (value.getClass() == Integer.class) {
+            buffer.put(INT);
+            IntSerializer.put(buffer, (Integer) value, false);
+        } else if (value.getClass() == Long.class) {
+            buffer.put(LONG);
+            LongSerializer.put(buffer, (Long) value, false);
+        } else if (value.getClass() == String.class) {
+            buffer.put(STRING);
+            StringSerializer.put(buffer, (String) value);
+        } else if (value.getClass() == HashMap.class && hasStringKeys((Map<?,?>) value)) {
+            buffer.put(MAP);
+            writeMap(buffer, (Map<?,?>) value);
+        } else if (value.getClass() == HashMap[].class && hasStringKeys((Map[]) value)) {
+            buffer.put(HISTORY);
+            Map[] history = (Map[]) value;
+            IntSerializer.put(buffer, history.length, true);
+            for (Map m : history) {
+                if (m == null) {
+                    buffer.put(NULL);
+                } else {
+                    buffer.put(MAP);
+                    writeMap(buffer, m);
+                }
+            }
+        } else {
+            buffer.put(OBJECT);
+            getKryo().writeClassAndObject(buffer, value);
+        }
+    }
+
+    protected Object readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+        case NULL:
+            return null;
+        case INT:
+            return IntSerializer.get(buffer, false);
+        case LONG:
+            return LongSerializer.get(buffer, false);
+        case STRING:
+            return StringSerializer.get(buffer);
+        case MAP:
+            return readMap(buffer);
+        case HISTORY:
+            HashMap[] history = new HashMap[IntSerializer.get(buffer, true)];
+            for (int i = 0; i < history.length; i++) {
+                if (buffer.get() != NULL) {
+                    history[i] = readMap(buffer);
+                }
+            }
+            return history;
+        case OBJECT:
+            return getKryo().readClassAndObject(buffer);
+        default:
+            throw new IllegalStateException("unknown value type " + type);
+        }
+    }
+
+    protected static boolean hasStringKeys(Map<?,?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static boolean hasStringKeys(Map[] maps) {
+        for (Map m : maps) {
+            if (m != null && (m.getClass() != HashMap.class || !hasStringKeys(m))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -25,7 +25,6 @@ import org.archive.bdb.BdbModule;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredSortedMap;
@@ -57,6 +56,21 @@ implements Lifecycle {
         this.historyDbName = name; 
     }
 
+    /**
+     * Whether to write history records in the compact format of 
+     * {@link PersistHistoryBinding}, rather than by Java serialization. 
+     * Records in either format are always readable, so this may be 
+     * enabled for an existing history database; but a database with 
+     * compact records is unreadable by earlier Heritrix versions.
+     */
+    protected boolean compactHistory = false;
+    public boolean getCompactHistory() {
+        return compactHistory;
+    }
+    public void setCompactHistory(boolean compactHistory) {
+        this.compactHistory = compactHistory;
+    }
+
     @SuppressWarnings("unchecked")
     protected StoredSortedMap<String,Map> store;
     protected Database historyDb;
@@ -82,7 +96,7 @@ implements Lifecycle {
                 new StoredSortedMap<String,Map>(
                         historyDb,
                         new StringBinding(), 
-                        new SerialBinding<Map>(classCatalog,Map.class), 
+                        new PersistHistoryBinding(classCatalog, getCompactHistory()), 
                         true);
         } catch (DatabaseException e) {
         	throw new RuntimeException(e);
@@ -46,7 +46,6 @@ import org.archive.util.bdbje.EnhancedEnvironment;
 import org.archive.util.iterator.LineReadingIterator;
 import org.json.JSONObject;
 
-import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
 import com.sleepycat.collections.StoredIterator;
@@ -105,7 +104,9 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
     /**
      * Copies entries from an existing environment db to a new one. If
      * historyMap is not provided, only logs the entries that would have been 
-     * copied.
+     * copied. Source entries may be in either format read by 
+     * {@link PersistHistoryBinding}; they are written in whichever format
+     * historyMap's binding writes.
      * 
      * @param sourceDir existing environment database directory
      * @param historyMap new environment db (or null for a dry run)
@@ -124,8 +125,8 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
         Database sourceHistoryDB = sourceEnv.openDatabase(
                 null, URI_HISTORY_DBNAME, historyDbConfig);
         StoredSortedMap<String,Map> sourceHistoryMap = new StoredSortedMap<String,Map>(sourceHistoryDB,
-                new StringBinding(), new SerialBinding<Map>(sourceClassCatalog,
-                        Map.class), true);
+                new StringBinding(), new PersistHistoryBinding(sourceClassCatalog,
+                        false), true);
 
         Iterator<Entry<String,Map>> iter = sourceHistoryMap.entrySet().iterator();
         while (iter.hasNext()) {
@@ -220,6 +221,29 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
      */
     public static int populatePersistEnv(String sourcePath, File envFile)
         throws IOException {
+        return populatePersistEnv(sourcePath, envFile, false);
+    }
+
+    /**
+     * Populates a new environment db from an old environment db or a persist
+     * log, writing records in the given format. Copying an environment with
+     * compact true converts it to the compact format of 
+     * {@link PersistHistoryBinding}; with compact false, back to Java 
+     * serialization.
+     * 
+     * @param sourcePath
+     *            source of old entries: can be a path to an existing
+     *            environment db, or a URL or path to a persist log
+     * @param envFile
+     *            path to new environment db (or null for a dry run)
+     * @param compact
+     *            if true, write records in the compact format
+     * @return number of records
+     * @throws DatabaseException
+     * @throws IOException
+     */
+    public static int populatePersistEnv(String sourcePath, File envFile, 
+            boolean compact) throws IOException {
         int count = 0;
         StoredSortedMap<String,Map> historyMap = null;
         EnhancedEnvironment targetEnv = null;
@@ -234,8 +258,8 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
             historyDB = targetEnv.openDatabase(null, URI_HISTORY_DBNAME, 
                     HISTORY_DB_CONFIG.toDatabaseConfig());
             historyMap = new StoredSortedMap<String,Map>(historyDB, 
-                    new StringBinding(), new SerialBinding<Map>(classCatalog,
-                        Map.class), true);
+                    new StringBinding(), new PersistHistoryBinding(classCatalog,
+                        compact), true);
         }
 
         try {
@@ -306,7 +330,10 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
     /**
      * Utility main for importing a log into a BDB-JE environment or moving a
      * database between environments (2 arguments), or simply dumping a log
-     * to stderr in a more readable format (1 argument). 
+     * to stderr in a more readable format (1 argument). With a leading 
+     * -compact argument, the target environment's records are written in
+     * the compact format of {@link PersistHistoryBinding}; this converts an
+     * existing environment. 
      * 
      * @param args command-line arguments
      * @throws DatabaseException
@@ -319,7 +346,10 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
         logger.addHandler(handler);
         logger.setUseParentHandlers(false);
 
-        if (args.length == 2) {
+        if (args.length == 3 && args[0].equals("-compact")) {
+            logger.setLevel(Level.INFO);
+            populatePersistEnv(args[1], new File(args[2]), true);
+        } else if (args.length == 2) {
             logger.setLevel(Level.INFO);
             populatePersistEnv(args[0], new File(args[1]));
         } else if (args.length == 1) {
@@ -327,11 +357,13 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
             populatePersistEnv(args[0], null);
         } else {
             System.out.println("Arguments: ");
-            System.out.println("    source [target]");
+            System.out.println("    [-compact] source [target]");
             System.out.println(
                 "...where source is either a txtser log file or BDB env dir");
             System.out.println(
                 "and target, if present, is a BDB env dir. ");
+            System.out.println(
+                "With -compact, target records are written in compact format.");
             return;
         }
     }
@@ -0,0 +1,725 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.writer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPoolSettings;
+import org.archive.modules.CrawlURI;
+import org.archive.util.ArchiveUtils;
+
+/**
+ * Pipelined WARC writing, for WARCWriterProcessor's 'pipelined' mode.
+ * 
+ * Each ToeThread writes (and if compressing, gzips) a URI's records into
+ * its own StagingWARCWriter, in parallel with all other ToeThreads. Staged
+ * records are held in memory up to spillThreshold bytes; larger ones 
+ * spill to a file in the staging directory, so heap use stays bounded 
+ * whatever the size of the records, and are later moved into the pool 
+ * file by FileChannel.transferTo() rather than a heap copy loop. (This
+ * saves only the final copy; the bytes are still written to and read 
+ * from the staging file once, and still read from the Recorder through 
+ * WARCWriter's own stream copy.) The finished records are then 
+ * assigned a position in one of the pipeline's lanes -- one per pool 
+ * file -- and queued; each lane has a single appender thread, which 
+ * appends its queue in order to its current file. ToeThreads thus never
+ * contend for pool files or wait on each other's writes, but only for 
+ * their own records' turn to be appended, or for capacity when more than
+ * maxQueuedBytes of in-memory records are already queued (backpressure).
+ * 
+ * A ToeThread updates its CrawlURI and histories with the filename and
+ * offset of its records only once its lane reports them appended; if 
+ * the append failed, the failure is thrown to the ToeThread instead, 
+ * just as by inline writing.
+ */
+public class WARCWriterPipeline {
+    private static final Logger logger = 
+        Logger.getLogger(WARCWriterPipeline.class.getName());
+
+    protected final WARCWriterProcessor processor;
+    protected final Lane[] lanes;
+    protected final long maxQueuedBytes;
+    protected final File stagingDir;
+    protected final int spillThreshold;
+    protected final AtomicInteger nextLane = new AtomicInteger();
+
+    /** in-memory bytes queued, but not yet appended; guarded by this */
+    protected long queuedBytes = 0;
+    protected final AtomicInteger queuedUris = new AtomicInteger();
+    protected final AtomicLong appendedBytes = new AtomicLong();
+    protected final long startTime = System.currentTimeMillis();
+    protected long lastReportTime = startTime;
+    protected long lastReportBytes = 0;
+
+    /**
+     * @param processor processor whose pool files are appended to
+     * @param laneCount number of lanes (and pool files)
+     * @param maxQueuedBytes maximum in-memory bytes to hold queued
+     * @param stagingDir directory for records spilled from memory
+     * @param spillThreshold staged bytes beyond which a URI's records 
+     * spill to stagingDir; capped at maxQueuedBytes
+     */
+    public WARCWriterPipeline(WARCWriterProcessor processor, int laneCount, 
+            long maxQueuedBytes, File stagingDir, int spillThreshold) {
+        this.processor = processor;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.stagingDir = stagingDir;
+        this.spillThreshold = (int) Math.max(0, 
+                Math.min(spillThreshold, maxQueuedBytes));
+        this.lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
+
+    /**
+     * @return a new writer for staging one thread's URIs' records
+     * @throws IOException
+     */
+    public StagingWARCWriter newStagingWriter() throws IOException {
+        return new StagingWARCWriter(
+                new StagingBuffer(stagingDir, spillThreshold), processor);
+    }
+
+    /**
+     * Queue the records staged for the given CrawlURI for appending, wait
+     * for them to be appended, and update the CrawlURI with their final 
+     * location. Blocks while the pipeline is full. 
+     * 
+     * @param curi CrawlURI whose records were staged
+     * @param staging writer holding those records
+     * @throws IOException if the records could not be appended
+     */
+    public void append(CrawlURI curi, StagingWARCWriter staging) 
+    throws IOException {
+        Staged item = staging.handOff();
+        long offset;
+        boolean queued = false; 
+        try {
+            acquire(item.getHeapLength());
+            try {
+                Lane lane = lanes[(nextLane.getAndIncrement() & Integer.MAX_VALUE) 
+                                  % lanes.length];
+                offset = lane.enqueue(item);
+                queued = true;
+            } finally {
+                if (!queued) {
+                    release(item.getHeapLength());
+                }
+            }
+        } finally {
+            if (!queued) {
+                item.discard();
+            }
+        }
+        item.awaitAppended();
+        staging.placeRecords(item.filename, offset);
+        processor.updateMetadataAfterWrite(curi, staging, item.filename, 
+                offset, item.length);
+    }
+
+    /**
+     * Wait for pipeline capacity for the given number of in-memory bytes. 
+     * (No single item exceeds maxQueuedBytes, as larger records spill.)
+     */
+    protected synchronized void acquire(int length) throws IOException {
+        while (queuedBytes > 0 && queuedBytes + length > maxQueuedBytes) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "interrupted awaiting WARC pipeline capacity");
+            }
+        }
+        queuedBytes += length;
+        queuedUris.incrementAndGet();
+    }
+
+    protected synchronized void release(int length) {
+        queuedBytes -= length;
+        queuedUris.decrementAndGet();
+        notifyAll();
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public int getQueuedUris() {
+        return queuedUris.get();
+    }
+
+    public long getAppendedBytes() {
+        return appendedBytes.get();
+    }
+
+    /**
+     * Wait for all queued records to be appended, then return all lanes'
+     * writers to the pool (for checkpointing or closing). Lanes borrow 
+     * writers anew as needed.
+     */
+    public void releaseWriters() {
+        for (Lane lane : lanes) {
+            lane.releaseWriter();
+        }
+    }
+
+    /**
+     * Append all queued records, return writers to the pool, and end the
+     * appender threads. 
+     */
+    public void close() {
+        releaseWriters();
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+
+    public String report() {
+        long now = System.currentTimeMillis();
+        long appended = appendedBytes.get();
+        long recentRate; 
+        synchronized (this) {
+            recentRate = rate(appended - lastReportBytes, now - lastReportTime);
+            lastReportTime = now;
+            lastReportBytes = appended;
+        }
+        StringBuilder buf = new StringBuilder();
+        buf.append("  Pipeline lanes:    " + lanes.length + "\n");
+        buf.append("  Pipeline queue:    " + getQueuedUris() + " URIs, " 
+                + ArchiveUtils.formatBytesForDisplay(getQueuedBytes()) + " of " 
+                + ArchiveUtils.formatBytesForDisplay(maxQueuedBytes) + "\n");
+        buf.append("  Pipeline appends:  " 
+                + ArchiveUtils.formatBytesForDisplay(recentRate) + "/sec recent, " 
+                + ArchiveUtils.formatBytesForDisplay(rate(appended, now - startTime)) 
+                + "/sec overall\n");
+        return buf.toString();
+    }
+
+    protected static long rate(long bytes, long ms) {
+        return ms > 0 ? (bytes * 1000) / ms : 0;
+    }
+
+    /**
+     * One URI's staged record bytes -- in memory, or spilled to a file --
+     * with where they are to be appended, and whether they have been.
+     */
+    protected static class Staged {
+        /** staged bytes, if in memory; else null */
+        protected final byte[] bytes;
+        /** file of staged bytes, if spilled; else null */
+        protected final File file;
+        protected final long length;
+        protected AppendingWARCWriter writer;
+        protected String filename;
+
+        protected final CountDownLatch appended = new CountDownLatch(1);
+        /** problem appending, if any; set before appended counts down */
+        protected volatile IOException failure;
+
+        protected Staged(byte[] bytes, File file, long length) {
+            this.bytes = bytes;
+            this.file = file;
+            this.length = length;
+        }
+
+        protected int getHeapLength() {
+            return bytes == null ? 0 : (int) length;
+        }
+
+        /**
+         * Note append complete (successfully, if failure is null).
+         */
+        protected void complete(IOException failure) {
+            this.failure = failure;
+            discard();
+            appended.countDown();
+        }
+
+        protected void discard() {
+            if (file != null && file.exists() && !file.delete()) {
+                logger.warning("unable to delete staging file " + file);
+            }
+        }
+
+        /**
+         * Wait for the lane to have appended the staged bytes.
+         * 
+         * @throws IOException if the append failed, or the wait was
+         * interrupted
+         */
+        protected void awaitAppended() throws IOException {
+            try {
+                appended.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "interrupted awaiting append to " + filename);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * A single pool writer, with the queue of staged records its appender
+     * thread will append to it, in order.
+     */
+    protected class Lane implements Runnable {
+        protected final BlockingQueue<Staged> queue = 
+            new LinkedBlockingQueue<Staged>();
+        protected final Thread thread;
+        
+        /** items enqueued but not yet appended; guarded by queue */
+        protected int pending = 0;
+        /** writer whose last append failed; no more is appended to it */
+        protected volatile AppendingWARCWriter failed = null;
+
+        /** current writer, or null if none borrowed; guarded by this */
+        protected AppendingWARCWriter writer = null;
+        /** position to be assigned next item; guarded by this */
+        protected long position; 
+
+        protected Lane(int index) {
+            thread = new Thread(this, "WARCWriterPipeline lane #" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Assign the item a position in this lane's current file, and queue
+         * it for appending. 
+         * 
+         * @return file offset at which item's bytes will be appended
+         */
+        protected synchronized long enqueue(Staged item) throws IOException {
+            prepareWriter();
+            item.writer = writer;
+            item.filename = writer.getFilenameWithoutOccupiedSuffix();
+            long offset = position;
+            position += item.length;
+            synchronized (queue) {
+                pending++;
+            }
+            queue.add(item);
+            return offset;
+        }
+
+        /**
+         * Ensure this lane has a writer with an open file, not overfull:
+         * borrowing a writer if necessary, and rotating or replacing it
+         * once its queue has emptied.
+         */
+        protected void prepareWriter() throws IOException {
+            long max = processor.getMaxFileSizeBytes();
+            if (writer != null && writer != failed 
+                    && (max <= 0 || position <= max)) {
+                return;
+            }
+            awaitIdle();
+            if (writer != null && writer == failed) {
+                processor.getPool().invalidateFile(writer);
+                writer = null;
+            }
+            if (writer == null) {
+                writer = (AppendingWARCWriter) processor.getPool().borrowFile();
+            }
+            // flushes appends, so checkSize() sees the true file length
+            long before = writer.getPosition();
+            writer.checkSize();
+            position = writer.getPosition();
+            if (position != before) {
+                // new file: count its initial warcinfo record
+                processor.setTotalBytesWritten(
+                        processor.getTotalBytesWritten() + position);
+            }
+        }
+
+        protected void awaitIdle() {
+            synchronized (queue) {
+                while (pending > 0) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        protected synchronized void releaseWriter() {
+            awaitIdle();
+            if (writer == null) {
+                return;
+            }
+            try {
+                if (writer == failed) {
+                    processor.getPool().invalidateFile(writer);
+                } else {
+                    processor.getPool().returnFile(writer);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "problem releasing writer", e);
+            }
+            writer = null;
+        }
+
+        public void run() {
+            while (true) {
+                Staged item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                IOException failure = null;
+                try {
+                    append(item);
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "failed append of " + item.length 
+                            + " bytes to " + item.filename, e);
+                    failure = new IOException(e);
+                } finally {
+                    release(item.getHeapLength());
+                    item.complete(failure);
+                    synchronized (queue) {
+                        pending--;
+                        queue.notifyAll();
+                    }
+                }
+            }
+        }
+
+        protected void append(Staged item) throws IOException {
+            if (item.writer == failed) {
+                throw new IOException("not appended: earlier append to " 
+                        + item.filename + " failed");
+            }
+            try {
+                if (item.bytes != null) {
+                    item.writer.append(item.bytes, 0, (int) item.length);
+                } else {
+                    appendFile(item);
+                }
+                appendedBytes.addAndGet(item.length);
+                if (queue.isEmpty() && processor.getFrequentFlushes()) {
+                    item.writer.flushAppends();
+                }
+            } catch (IOException e) {
+                failed = item.writer;
+                logger.log(Level.SEVERE, "failed append of " + item.length 
+                        + " bytes to " + item.filename, e);
+                throw e;
+            }
+        }
+
+        protected void appendFile(Staged item) throws IOException {
+            item.writer.appendFrom(item.file, item.length);
+        }
+    }
+
+    /**
+     * WARCWriter which also accepts already-formed (and, if compressing,
+     * already-gzipped) record bytes, appended directly to its file through
+     * a FileChannel of its own. Once anything is appended, the writer's 
+     * own stream writes nothing more to the file (WARCWriter writes only 
+     * the warcinfo record, on opening each file), so the two never 
+     * overlap.
+     */
+    public static class AppendingWARCWriter extends WARCWriter {
+        /** channel appending to current file, or null; used by one lane */
+        protected FileChannel channel = null;
+        protected File channelFile = null;
+
+        public AppendingWARCWriter(AtomicInteger serialNo, 
+                WARCWriterPoolSettings settings) {
+            super(serialNo, settings);
+        }
+
+        public void append(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            FileChannel ch = getAppendChannel();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+
+        /**
+         * Append the first length bytes of the given (staging) file, by 
+         * FileChannel.transferTo(): file to file within the kernel where
+         * the platform allows, rather than through a heap buffer.
+         */
+        public void appendFrom(File file, long length) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel src = in.getChannel();
+                if (src.size() < length) {
+                    throw new IOException("staging file " + file + " has " 
+                            + src.size() + " bytes, expected " + length);
+                }
+                FileChannel ch = getAppendChannel();
+                long done = 0;
+                while (done < length) {
+                    done += src.transferTo(done, length - done, ch);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * @return channel positioned at the end of the current file, 
+         * opened after flushing anything the writer's stream holds
+         */
+        protected FileChannel getAppendChannel() throws IOException {
+            File f = getFile();
+            if (channel == null || !f.equals(channelFile)) {
+                closeAppendChannel();
+                flush();
+                FileChannel ch = new RandomAccessFile(f, "rw").getChannel();
+                ch.position(ch.size());
+                channel = ch;
+                channelFile = f;
+            }
+            return channel;
+        }
+
+        protected void closeAppendChannel() throws IOException {
+            if (channel != null) {
+                FileChannel ch = channel;
+                channel = null;
+                channelFile = null;
+                ch.close();
+            }
+        }
+
+        public void flushAppends() throws IOException {
+            flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeAppendChannel();
+            super.close();
+        }
+    }
+
+    /**
+     * WARCWriter over a StagingBuffer, for forming a single URI's 
+     * records on the ToeThread. Record offsets in its tmp record log are
+     * relative to the start of the buffer until placeRecords().
+     */
+    public static class StagingWARCWriter extends WARCWriter {
+        protected final StagingBuffer buffer; 
+
+        protected StagingWARCWriter(StagingBuffer buffer, 
+                WARCWriterPoolSettings settings) throws IOException {
+            super(new AtomicInteger(), buffer, new File("staging"), settings);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void writeRecord(WARCRecordInfo recordInfo) throws IOException {
+            flush();
+            long offset = buffer.size();
+            super.writeRecord(recordInfo);
+            recordInfo.setWARCFileOffset(offset);
+        }
+
+        /**
+         * Clear any previous URI's records and stats. 
+         */
+        public void reset() {
+            buffer.reset();
+            resetTmpStats();
+            resetTmpRecordLog();
+        }
+
+        public long getStagedLength() throws IOException {
+            flush();
+            return buffer.size();
+        }
+
+        /**
+         * Give up the staged bytes to the caller, leaving the buffer
+         * empty.
+         */
+        protected Staged handOff() throws IOException {
+            flush();
+            return buffer.handOff();
+        }
+
+        /**
+         * Update the tmp record log for the staged bytes having been 
+         * placed at the given offset of the given file.
+         */
+        public void placeRecords(String filename, long offset) {
+            for (WARCRecordInfo recordInfo : getTmpRecordLog()) {
+                recordInfo.setWARCFilename(filename);
+                recordInfo.setWARCFileOffset(
+                        offset + recordInfo.getWARCFileOffset());
+            }
+        }
+    }
+
+    /**
+     * Stream collecting one URI's staged records: in memory up to the 
+     * spill threshold, then (all of them) in a file in the staging 
+     * directory. Used by a single thread at a time.
+     */
+    protected static class StagingBuffer extends OutputStream {
+        protected static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+        protected static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+        protected final File dir;
+        protected final int spillThreshold;
+
+        protected byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+        /** bytes staged, whether in buf or spill file */
+        protected long size = 0;
+        /** file of staged bytes, once past spillThreshold; else null */
+        protected File spillFile = null;
+        protected OutputStream spillOut = null;
+
+        protected StagingBuffer(File dir, int spillThreshold) {
+            this.dir = dir;
+            this.spillThreshold = spillThreshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spillOut == null && size + len > spillThreshold) {
+                spill();
+            }
+            if (spillOut != null) {
+                spillOut.write(b, off, len);
+            } else {
+                ensureCapacity((int) size + len);
+                System.arraycopy(b, off, buf, (int) size, len);
+            }
+            size += len;
+        }
+
+        protected void ensureCapacity(int length) {
+            if (length > buf.length) {
+                int newLength = (int) Math.min(spillThreshold, 
+                        Math.max(length, 2L * buf.length));
+                byte[] newBuf = new byte[newLength];
+                System.arraycopy(buf, 0, newBuf, 0, (int) size);
+                buf = newBuf;
+            }
+        }
+
+        /**
+         * Move staged bytes so far to a new file, to which all further
+         * bytes go.
+         */
+        protected void spill() throws IOException {
+            spillFile = File.createTempFile("staging", ".warc.tmp", dir);
+            spillOut = new BufferedOutputStream(
+                    new FileOutputStream(spillFile), SPILL_BUFFER_SIZE);
+            spillOut.write(buf, 0, (int) size);
+            if (buf.length > INITIAL_BUFFER_SIZE) {
+                buf = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (spillOut != null) {
+                spillOut.flush();
+            }
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Give up the staged bytes to the caller, leaving this empty.
+         */
+        protected Staged handOff() throws IOException {
+            Staged item;
+            if (spillOut != null) {
+                spillOut.close();
+                item = new Staged(null, spillFile, size);
+                spillOut = null;
+                spillFile = null;
+            } else {
+                item = new Staged(buf, null, size);
+                buf = new byte[INITIAL_BUFFER_SIZE];
+            }
+            size = 0;
+            return item;
+        }
+
+        /**
+         * Discard any staged bytes (as left by a failed staging).
+         */
+        public void reset() {
+            if (spillOut != null) {
+                try {
+                    spillOut.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "problem closing " + spillFile, e);
+                }
+                if (!spillFile.delete()) {
+                    logger.warning("unable to delete staging file " + spillFile);
+                }
+                spillOut = null;
+                spillFile = null;
+            }
+            size = 0;
+        }
+
+        @Override
+        public void close() {
+            reset();
+        }
+    }
+}
@@ -58,6 +58,7 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_RECOR
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WRITE_TAG;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
@@ -80,8 +81,10 @@ import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.format.warc.WARCConstants.WARCRecordType;
 import org.archive.io.ReplayInputStream;
+import org.archive.io.WriterPoolMember;
 import org.archive.io.warc.WARCRecordInfo;
 import org.archive.io.warc.WARCWriter;
 import org.archive.io.warc.WARCWriterPool;
@@ -92,10 +95,13 @@ import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.deciderules.recrawl.IdenticalDigestDecideRule;
 import org.archive.modules.extractor.Link;
+import org.archive.modules.writer.WARCWriterPipeline.AppendingWARCWriter;
+import org.archive.modules.writer.WARCWriterPipeline.StagingWARCWriter;
 import org.archive.spring.ConfigPath;
 import org.archive.uid.RecordIDGenerator;
 import org.archive.uid.UUIDGenerator;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.FileUtils;
 import org.archive.util.anvl.ANVLRecord;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -196,6 +202,68 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         this.generator = generator;
     }
 
+    /**
+     * Whether to write records through a pipeline: each ToeThread forms
+     * (and if compressing, gzips) its URI's records into an in-memory 
+     * buffer, in parallel, then queues them for appending by a single 
+     * appender thread per pool file (poolMaxActive files). ToeThreads then
+     * wait on disk only when the pipeline is full. Default is false, 
+     * meaning each ToeThread writes directly to a borrowed pool file. This 
+     * setting cannot be varied over the life of a crawl.
+     */
+    protected boolean pipelined = false;
+    public boolean getPipelined() {
+        return pipelined;
+    }
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * When pipelined, the maximum bytes of formed records to hold queued
+     * in memory for appending; ToeThreads wait for space beyond this. 
+     * Default is 64MiB.
+     */
+    protected long pipelineMaxQueuedBytes = 64 * 1024 * 1024;
+    public long getPipelineMaxQueuedBytes() {
+        return pipelineMaxQueuedBytes;
+    }
+    public void setPipelineMaxQueuedBytes(long pipelineMaxQueuedBytes) {
+        this.pipelineMaxQueuedBytes = pipelineMaxQueuedBytes;
+    }
+
+    /**
+     * When pipelined, the bytes of a URI's formed records beyond which 
+     * they are spilled from memory to a file in pipelineStagingPath, 
+     * rather than held on the heap until appended; spilled records are 
+     * moved from that file to the WARC by FileChannel.transferTo(). 
+     * Capped at pipelineMaxQueuedBytes. Default is 1MiB.
+     */
+    protected int pipelineSpillThresholdBytes = 1024 * 1024;
+    public int getPipelineSpillThresholdBytes() {
+        return pipelineSpillThresholdBytes;
+    }
+    public void setPipelineSpillThresholdBytes(int pipelineSpillThresholdBytes) {
+        this.pipelineSpillThresholdBytes = pipelineSpillThresholdBytes;
+    }
+
+    /**
+     * When pipelined, directory for records spilled from memory while 
+     * awaiting appending. If relative, interpreted relative to the 
+     * 'directory' property. Best on the same filesystem as storePaths.
+     */
+    protected ConfigPath pipelineStagingPath = 
+        new ConfigPath("pipelined WARC staging path", "staging");
+    public ConfigPath getPipelineStagingPath() {
+        return pipelineStagingPath;
+    }
+    public void setPipelineStagingPath(ConfigPath pipelineStagingPath) {
+        this.pipelineStagingPath = pipelineStagingPath;
+    }
+
+    transient protected WARCWriterPipeline pipeline;
+    transient protected ThreadLocal<StagingWARCWriter> stagingWriters;
+
     private transient List<String> cachedMetadata;
 
     public WARCWriterProcessor() {
@@ -203,7 +271,57 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
 
     @Override
     protected void setupPool(final AtomicInteger serialNo) {
-        setPool(new WARCWriterPool(serialNo, this, getPoolMaxActive(), getMaxWaitForIdleMs()));
+        if (getPipelined()) {
+            setPool(new WARCWriterPool(serialNo, this, getPoolMaxActive(), getMaxWaitForIdleMs()) {
+                @Override
+                protected WriterPoolMember makeWriter() {
+                    return new AppendingWARCWriter(serialNo, WARCWriterProcessor.this);
+                }
+            });
+        } else {
+            setPool(new WARCWriterPool(serialNo, this, getPoolMaxActive(), getMaxWaitForIdleMs()));
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        if (getPipelined()) {
+            stagingWriters = new ThreadLocal<StagingWARCWriter>();
+            getPipelineStagingPath().setBase(getDirectory());
+            File stagingDir = getPipelineStagingPath().getFile();
+            try {
+                FileUtils.ensureWriteableDirectory(stagingDir);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            pipeline = new WARCWriterPipeline(this, getPoolMaxActive(), 
+                    getPipelineMaxQueuedBytes(), stagingDir, 
+                    getPipelineSpillThresholdBytes());
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        super.stop();
+    }
+
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress)
+            throws IOException {
+        if (pipeline != null) {
+            pipeline.releaseWriters();
+        }
+        super.doCheckpoint(checkpointInProgress);
     }
 
     /**
@@ -236,6 +354,9 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
     protected ProcessResult write(final String lowerCaseScheme, 
             final CrawlURI curi)
     throws IOException {
+        if (pipeline != null) {
+            return writePipelined(lowerCaseScheme, curi);
+        }
         WARCWriter writer = (WARCWriter) getPool().borrowFile();
       
         long position = writer.getPosition();
@@ -259,22 +380,7 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
             writer.resetTmpStats();
             writer.resetTmpRecordLog();
             
-            // Write a request, response, and metadata all in the one
-            // 'transaction'.
-            final URI baseid = getRecordID();
-            final String timestamp =
-                ArchiveUtils.getLog14Date(curi.getFetchBeginTime());
-            if (lowerCaseScheme.startsWith("http")) {
-                writeHttpRecords(curi, writer, baseid, timestamp); 
-            } else if (lowerCaseScheme.equals("dns")) {
-                writeDnsRecords(curi, writer, baseid, timestamp);
-            } else if (lowerCaseScheme.equals("ftp")) {
-                writeFtpRecords(writer, curi, baseid, timestamp);
-            } else if (lowerCaseScheme.equals("whois")) {
-                writeWhoisRecords(writer, curi, baseid, timestamp);
-            } else {
-                logger.warning("No handler for scheme " + lowerCaseScheme);
-            }
+            writeRecords(lowerCaseScheme, curi, writer);
         } catch (IOException e) {
             // Invalidate this file (It gets a '.invalid' suffix).
             getPool().invalidateFile(writer);
@@ -291,28 +397,81 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         }
         return checkBytesWritten();
     }
+
+    /**
+     * Pipelined write: form the records in this thread's staging writer,
+     * then queue them for appending, and await their append.
+     */
+    protected ProcessResult writePipelined(final String lowerCaseScheme,
+            final CrawlURI curi)
+    throws IOException {
+        StagingWARCWriter staging = stagingWriters.get();
+        if (staging == null) {
+            staging = pipeline.newStagingWriter();
+            stagingWriters.set(staging);
+        }
+        staging.reset();
+        writeRecords(lowerCaseScheme, curi, staging);
+        pipeline.append(curi, staging);
+        return checkBytesWritten();
+    }
+
+    /**
+     * Write a request, response, and metadata all in the one 'transaction'.
+     */
+    protected void writeRecords(final String lowerCaseScheme,
+            final CrawlURI curi, WARCWriter writer) throws IOException {
+        final URI baseid = getRecordID();
+        final String timestamp =
+            ArchiveUtils.getLog14Date(curi.getFetchBeginTime());
+        if (lowerCaseScheme.startsWith("http")) {
+            writeHttpRecords(curi, writer, baseid, timestamp); 
+        } else if (lowerCaseScheme.equals("dns")) {
+            writeDnsRecords(curi, writer, baseid, timestamp);
+        } else if (lowerCaseScheme.equals("ftp")) {
+            writeFtpRecords(writer, curi, baseid, timestamp);
+        } else if (lowerCaseScheme.equals("whois")) {
+            writeWhoisRecords(writer, curi, baseid, timestamp);
+        } else {
+            logger.warning("No handler for scheme " + lowerCaseScheme);
+        }
+    }
     
     protected void updateMetadataAfterWrite(final CrawlURI curi,
             WARCWriter writer, long startPosition) {
+        updateMetadataAfterWrite(curi, writer, 
+                writer.getFilenameWithoutOccupiedSuffix(), startPosition,
+                writer.getPosition() - startPosition);
+    }
+
+    /**
+     * @param curi CrawlURI whose records were written
+     * @param writer writer with stats and record log of just those records
+     * @param filename name of file records are in
+     * @param startPosition file offset of first record
+     * @param length bytes written to file
+     */
+    protected void updateMetadataAfterWrite(final CrawlURI curi,
+            WARCWriter writer, String filename, long startPosition, 
+            long length) {
         if (WARCWriter.getStat(writer.getTmpStats(), WARCWriter.TOTALS, WARCWriter.NUM_RECORDS) > 0l) {
              addStats(writer.getTmpStats());
              urlsWritten.incrementAndGet();
         }
         if (logger.isLoggable(Level.FINE)) { 
-            logger.fine("wrote " 
-                + WARCWriter.getStat(writer.getTmpStats(), WARCWriter.TOTALS, WARCWriter.SIZE_ON_DISK) 
-                + " bytes to " + writer.getFile().getName() + " for " + curi);
+            logger.fine("wrote " + length + " bytes to " + filename 
+                    + " for " + curi);
         }
-        setTotalBytesWritten(getTotalBytesWritten() + (writer.getPosition() - startPosition));
+        setTotalBytesWritten(getTotalBytesWritten() + length);
 
-        curi.addExtraInfo("warcFilename", writer.getFilenameWithoutOccupiedSuffix());
+        curi.addExtraInfo("warcFilename", filename);
         curi.addExtraInfo("warcFileOffset", startPosition);
 
         // history for uri-based dedupe
         @SuppressWarnings("unchecked")
         Map<String,Object>[] history = (Map<String,Object>[])curi.getData().get(A_FETCH_HISTORY);
         if (history != null && history[0] != null) {
-            history[0].put(A_WRITE_TAG, writer.getFilenameWithoutOccupiedSuffix());
+            history[0].put(A_WRITE_TAG, filename);
         }
         
         // history for uri-agnostic, content digest based dedupe
@@ -1017,6 +1176,9 @@ public class WARCWriterProcessor extends WriterPoolProcessor implements WARCWrit
         buf.append("  Total size on disk ("+ (getCompress() ? "compressed" : "uncompressed") + "): "
                 + getTotalBytesWritten() + " (" + ArchiveUtils.formatBytesForDisplay(getTotalBytesWritten()) + ")\n");
         
+        if (pipeline != null) {
+            buf.append(pipeline.report());
+        }
         return buf.toString();
     }
     
@@ -19,6 +19,10 @@
 
 package org.archive.modules.canonicalize;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
 import org.apache.commons.httpclient.URIException;
 import org.archive.util.TmpDirTestCase;
 
@@ -60,4 +64,47 @@ public class RulesCanonicalizationPolicyTest extends TmpDirTestCase {
         assertTrue("Mangled sessionid", result.equals(
                 policy.canonicalize(tmp)));
     }
+
+    protected RegexRule makeRegexRule(String regex, String format) {
+        RegexRule rule = new RegexRule();
+        rule.setRegex(Pattern.compile(regex));
+        rule.setFormat(format);
+        return rule;
+    }
+
+    /**
+     * Runs of RegexRules give the same results compiled as applied in turn,
+     * including where one rule's output is matched by a later rule.
+     */
+    public void testCompiledRegexRules() {
+        List<CanonicalizationRule> rules = new ArrayList<CanonicalizationRule>();
+        rules.add(new LowercaseRule());
+        rules.add(makeRegexRule("(.*)/index\\.html?", "$1/"));
+        rules.add(makeRegexRule("(.*)[?&]utm_[a-z]+=[^&]*(.*)", "$1$2"));
+        RegexRule disabled = makeRegexRule("(.*)/", "$1");
+        disabled.setEnabled(false);
+        rules.add(disabled);
+        rules.add(makeRegexRule("http://mirror\\.(.*)", "http://$1"));
+        rules.add(makeRegexRule("(http://[^/]+/)(?=a)(.*)", "$1b$2"));
+        rules.add(makeRegexRule("(http://[^/]+)/a/(.*)", "$1/b/$2"));
+        rules.add(new StripWWWRule());
+        policy.setRules(rules);
+
+        String[] urls = {
+            "http://archive.org/",
+            "http://archive.org/INDEX.HTML",
+            "http://mirror.archive.org/dir/index.htm",
+            "http://archive.org/a/x?utm_source=foo",
+            "http://www.archive.org/a/index.html?utm_medium=bar",
+        };
+        for (String url : urls) {
+            policy.setCompileRegexRules(false);
+            String expected = policy.canonicalize(url);
+            policy.setCompileRegexRules(true);
+            assertEquals(url, expected, policy.canonicalize(url));
+        }
+        policy.setCompileRegexRules(true);
+        assertEquals("http://archive.org/ba/", 
+                policy.canonicalize("http://mirror.archive.org/a/index.html"));
+    }
 }
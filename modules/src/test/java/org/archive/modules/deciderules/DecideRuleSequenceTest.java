@@ -1,8 +1,8 @@
 /*
  *  This file is part of the Heritrix web crawler (crawler.archive.org).
  *
- *  Licensed to the Internet Archive (IA) by one or more individual 
- *  contributors. 
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
  *
  *  The IA licenses this file to You under the Apache License, Version 2.0
  *  (the "License"); you may not use this file except in compliance with
@@ -18,14 +18,137 @@
  */
 package org.archive.modules.deciderules;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
 import org.archive.state.ModuleTestBase;
 
 /**
  * Unit test for DecideRuleSequence.
- * 
+ *
  * @author pjack
  */
 public class DecideRuleSequenceTest extends ModuleTestBase {
 
-    // TODO TESTME
+    protected static final String[] URIS = {
+        "http://www.archive.org/",
+        "http://www.archive.org/details/foo.pdf",
+        "http://example.com/a/b/a/b/a/b/",
+        "https://example.com/search?q=1",
+    };
+
+    protected static final String[] REGEXES = {
+        ".*archive\\.org.*", ".*\\.pdf", ".*\\?.*", "https:.*", ".*example.*",
+    };
+
+    public void testShortCircuitMatchesInOrder() throws Exception {
+        Random random = new Random(1234);
+        for (int trial = 0; trial < 500; trial++) {
+            List<DecideRule> rules = randomRules(random, 1 + random.nextInt(20));
+            DecideRuleSequence inOrder = new DecideRuleSequence();
+            inOrder.setRules(rules);
+            DecideRuleSequence shortCircuit = new DecideRuleSequence();
+            shortCircuit.setRules(rules);
+            shortCircuit.setShortCircuit(true);
+            for (String uri : URIS) {
+                CrawlURI curi = createTestUri(uri);
+                assertEquals("trial " + trial + " " + uri,
+                        inOrder.decisionFor(curi), shortCircuit.decisionFor(curi));
+            }
+        }
+    }
+
+    public void testShortCircuitSkipsEarlierRules() throws Exception {
+        MatchesRegexDecideRule first = new MatchesRegexDecideRule();
+        first.setRegex(Pattern.compile(".*"));
+        first.setDecision(DecideResult.REJECT);
+        DecideRuleSequence seq = new DecideRuleSequence();
+        seq.setRules(Arrays.<DecideRule>asList(first, new AcceptDecideRule()));
+        seq.setShortCircuit(true);
+        seq.setCollectRuleStatistics(true);
+
+        assertEquals(DecideResult.ACCEPT, seq.decisionFor(createTestUri(URIS[0])));
+        Map<String,Object> stats = seq.getRuleStatistics();
+        assertFalse(stats.containsKey("#0 MatchesRegexDecideRule"));
+        assertTrue(stats.containsKey("#1 AcceptDecideRule"));
+    }
+
+    public void testSideEffectsForceInOrder() throws Exception {
+        DecideRuleSequence seq = new DecideRuleSequence();
+        ScriptedDecideRule scripted = new ScriptedDecideRule();
+        seq.setRules(Arrays.<DecideRule>asList(scripted, new AcceptDecideRule()));
+        assertTrue(seq.hasSideEffects());
+    }
+
+    public void testInOrderEvaluatesEveryPredicate() throws Exception {
+        CountingDecideRule counting = new CountingDecideRule();
+        PathologicalPathDecideRule pathological = new PathologicalPathDecideRule();
+        DecideRuleSequence seq = new DecideRuleSequence();
+        seq.setRules(Arrays.<DecideRule>asList(
+                new AcceptDecideRule(), counting, pathological));
+        seq.setCollectRuleStatistics(true);
+
+        for (String uri : URIS) {
+            CrawlURI curi = createTestUri(uri);
+            DecideResult expected = pathological.decisionFor(curi) 
+                == DecideResult.REJECT ? DecideResult.REJECT : DecideResult.ACCEPT;
+            assertEquals(uri, expected, seq.decisionFor(curi));
+        }
+        // with short-circuiting off, no predicate is skipped, even when
+        // its only decision is already the result
+        assertEquals(URIS.length, counting.calls);
+        Map<String,Object> stats = seq.getRuleStatistics();
+        assertTrue(stats.containsKey("#1 CountingDecideRule"));
+        assertTrue(stats.containsKey("#2 PathologicalPathDecideRule"));
+    }
+
+    public static class CountingDecideRule extends PredicatedDecideRule {
+        private static final long serialVersionUID = 1L;
+        int calls = 0;
+        @Override
+        protected boolean evaluate(CrawlURI uri) {
+            calls++;
+            return true;
+        }
+    }
+
+    protected List<DecideRule> randomRules(Random random, int count) {
+        List<DecideRule> rules = new ArrayList<DecideRule>();
+        for (int i = 0; i < count; i++) {
+            DecideResult decision =
+                random.nextBoolean() ? DecideResult.ACCEPT : DecideResult.REJECT;
+            switch (random.nextInt(5)) {
+            case 0:
+                rules.add(new AcceptDecideRule());
+                break;
+            case 1:
+                rules.add(new RejectDecideRule());
+                break;
+            case 2:
+                rules.add(new PathologicalPathDecideRule());
+                break;
+            default:
+                MatchesRegexDecideRule rule = random.nextBoolean()
+                    ? new MatchesRegexDecideRule() : new NotMatchesRegexDecideRule("test");
+                rule.setRegex(Pattern.compile(REGEXES[random.nextInt(REGEXES.length)]));
+                rule.setDecision(decision);
+                rule.setEnabled(random.nextInt(10) > 0);
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    protected CrawlURI createTestUri(String urlStr) throws URIException {
+        return new CrawlURI(UURIFactory.getInstance(urlStr), null, null,
+                LinkContext.NAVLINK_MISC);
+    }
 }
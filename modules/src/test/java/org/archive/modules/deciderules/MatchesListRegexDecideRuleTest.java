@@ -0,0 +1,95 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.deciderules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+import org.archive.state.ModuleTestBase;
+
+public class MatchesListRegexDecideRuleTest extends ModuleTestBase {
+
+    protected static final String[] URIS = {
+        "http://www.archive.org/",
+        "http://www.archive.org/calendar/2010/01/",
+        "http://www.archive.org/a/b/a/b/a/b/",
+        "http://www.example.com/list?sort=desc",
+        "http://www.example.com/IMG.JPG",
+    };
+
+    protected List<Pattern> makeRegexList() {
+        List<Pattern> regexes = new ArrayList<Pattern>();
+        regexes.add(Pattern.compile(".*/calendar/.*"));
+        regexes.add(Pattern.compile(".*\\?.*sort=.*"));
+        regexes.add(Pattern.compile("http://www\\.[a-z]+\\.(org|com)/.*"));
+        regexes.add(Pattern.compile(".*(/[^/]+/[^/]+)\\1{2,}/"));
+        regexes.add(Pattern.compile(".*\\.(?i:jpe?g)"));
+        return regexes;
+    }
+
+    protected CrawlURI createTestUri(String urlStr) throws URIException {
+        return new CrawlURI(UURIFactory.getInstance(urlStr), null, null, 
+                LinkContext.NAVLINK_MISC);
+    }
+
+    /**
+     * Compiled and uncompiled lists must decide alike, under both OR and 
+     * AND logic, and for the NotMatches variant.
+     */
+    public void testCompiledSameAsUncompiled() throws Exception {
+        for (boolean or : new boolean[] {true, false}) {
+            for (boolean not : new boolean[] {true, false}) {
+                MatchesListRegexDecideRule plain = not 
+                    ? new NotMatchesListRegexDecideRule() 
+                    : new MatchesListRegexDecideRule();
+                MatchesListRegexDecideRule compiled = not 
+                    ? new NotMatchesListRegexDecideRule() 
+                    : new MatchesListRegexDecideRule();
+                plain.setRegexList(makeRegexList());
+                compiled.setRegexList(plain.getRegexList());
+                plain.setListLogicalOr(or);
+                compiled.setListLogicalOr(or);
+                compiled.setCompileRegexList(true);
+                for (String uri : URIS) {
+                    CrawlURI curi = createTestUri(uri);
+                    assertEquals(uri, plain.evaluate(curi), compiled.evaluate(curi));
+                }
+            }
+        }
+    }
+
+    public void testCompiledListChange() throws Exception {
+        MatchesListRegexDecideRule rule = new MatchesListRegexDecideRule();
+        rule.setCompileRegexList(true);
+        CrawlURI curi = createTestUri("http://www.archive.org/calendar/");
+        assertFalse(rule.evaluate(curi));
+        rule.setRegexList(makeRegexList());
+        assertTrue(rule.evaluate(curi));
+        List<Pattern> other = new ArrayList<Pattern>();
+        other.add(Pattern.compile(".*/other/.*"));
+        rule.setRegexList(other);
+        assertFalse(rule.evaluate(curi));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Simple benchmarking of TokenizingExtractorHTML against the regex-based
+ * ExtractorHTML, over a corpus of pages: the files of a given directory, 
+ * or else generated pages (including unclosed SCRIPT tags, which are 
+ * especially costly for the regex).
+ * 
+ * Usage: BenchmarkExtractorHTML [reps] [corpusDir]
+ * 
+ * Take care when interpreting results; the effect of GC, dynamic 
+ * compilation, and any other activity on test machine may affect 
+ * relative time tallies in unpredictable ways.
+ */
+public class BenchmarkExtractorHTML {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkExtractorHTML()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        List<CharSequence> corpus = (args.length > 1) 
+            ? loadCorpus(new File(args[1])) 
+            : generateCorpus(20, 1024 * 1024);
+        long chars = 0;
+        for (CharSequence page : corpus) {
+            chars += page.length();
+        }
+        System.out.println("reps=" + reps + " pages=" + corpus.size() 
+                + " chars=" + chars);
+
+        ExtractorHTML regex = configure(new ExtractorHTML());
+        ExtractorHTML tokenizing = configure(new TokenizingExtractorHTML());
+        for (int r = 0; r < reps; r++) {
+            long start = System.currentTimeMillis();
+            long regexLinks = 0;
+            for (CharSequence page : corpus) {
+                regexLinks += extract(regex, page);
+            }
+            long regexMs = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            long tokenizingLinks = 0;
+            for (CharSequence page : corpus) {
+                tokenizingLinks += extract(tokenizing, page);
+            }
+            long tokenizingMs = System.currentTimeMillis() - start;
+
+            if (regexLinks != tokenizingLinks) {
+                throw new IllegalStateException("outlink counts differ: " 
+                        + regexLinks + " " + tokenizingLinks);
+            }
+            System.out.println("regex: " + regexMs + "ms (" 
+                    + (chars / 1000 / Math.max(1, regexMs)) + "MB/s) "
+                    + "tokenizing: " + tokenizingMs + "ms ("
+                    + (chars / 1000 / Math.max(1, tokenizingMs)) + "MB/s) "
+                    + "links: " + tokenizingLinks);
+        }
+    }
+
+    protected ExtractorHTML configure(ExtractorHTML extractor) {
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        extractor.setMetadata(metadata);
+        extractor.setExtractorJS(new ExtractorJS());
+        extractor.afterPropertiesSet();
+        return extractor;
+    }
+
+    protected int extract(ExtractorHTML extractor, CharSequence page) 
+    throws IOException {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/start/"));
+        extractor.extract(curi, page);
+        return curi.getOutLinks().size();
+    }
+
+    protected List<CharSequence> loadCorpus(File dir) throws IOException {
+        List<CharSequence> corpus = new ArrayList<CharSequence>();
+        for (File f : dir.listFiles()) {
+            if (f.isFile()) {
+                corpus.add(FileUtils.readFileToString(f));
+            }
+        }
+        return corpus;
+    }
+
+    protected List<CharSequence> generateCorpus(int pages, int pageChars) {
+        List<CharSequence> corpus = new ArrayList<CharSequence>();
+        for (int p = 0; p < pages; p++) {
+            StringBuilder page = new StringBuilder(pageChars);
+            page.append("<html>\n<head><title>page ").append(p)
+                .append("</title>\n<link rel=\"stylesheet\" href=\"/s.css\">\n")
+                .append("<script type=\"text/javascript\">var n = ").append(p)
+                .append(";</script>\n</head>\n<body>\n");
+            for (int i = 0; page.length() < pageChars; i++) {
+                page.append("  <div class=\"item\" style=\"color: red\"><!-- item ")
+                    .append(i).append(" -->\n    <a href=\"/item/").append(i)
+                    .append("\" onclick=\"track(").append(i).append(")\">Item ")
+                    .append(i).append("</a> <img src=\"/thumb/").append(i)
+                    .append(".png\" alt=\"\">\n  </div>\n");
+                if (i % 1000 == 0) {
+                    // unclosed, as in much markup-writing script
+                    page.append("<script>document.write('<scr'+'ipt src=x.js>');\n");
+                }
+            }
+            page.append("</body>\n</html>\n");
+            corpus.add(page.toString());
+        }
+        return corpus;
+    }
+}
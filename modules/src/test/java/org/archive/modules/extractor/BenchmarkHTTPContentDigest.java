@@ -0,0 +1,121 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Simple benchmarking of HTTPContentDigest's streaming digest against the
+ * String-materializing digest it replaced, over a corpus of large pages:
+ * the files of a given directory, or else generated pages.
+ * 
+ * Usage: BenchmarkHTTPContentDigest [reps] [stripRegex] [corpusDir]
+ * 
+ * Take care when interpreting results; the effect of GC, dynamic 
+ * compilation, and any other activity on test machine may affect 
+ * relative time tallies in unpredictable ways.
+ */
+public class BenchmarkHTTPContentDigest {
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkHTTPContentDigest()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        String regex = (args.length > 1) ? args[1] : "<!--.*?-->|\\s+";
+        List<CharSequence> corpus = (args.length > 2) 
+            ? loadCorpus(new File(args[2])) 
+            : generateCorpus(50, 1024 * 1024);
+        long chars = 0;
+        for (CharSequence page : corpus) {
+            chars += page.length();
+        }
+        System.out.println("reps=" + reps + " regex=" + regex + " pages=" 
+                + corpus.size() + " chars=" + chars);
+
+        Pattern pattern = Pattern.compile(regex);
+        for (int r = 0; r < reps; r++) {
+            long start = System.currentTimeMillis();
+            List<byte[]> expected = new ArrayList<byte[]>();
+            for (CharSequence page : corpus) {
+                expected.add(stringDigest(page, pattern));
+            }
+            long stringMs = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            List<byte[]> streamed = new ArrayList<byte[]>();
+            for (CharSequence page : corpus) {
+                streamed.add(HTTPContentDigest.streamingDigests.get().digest(
+                        page, pattern.matcher(page)));
+            }
+            long streamingMs = System.currentTimeMillis() - start;
+
+            for (int i = 0; i < corpus.size(); i++) {
+                if (!Arrays.equals(expected.get(i), streamed.get(i))) {
+                    throw new IllegalStateException("digests differ for page " + i);
+                }
+            }
+            System.out.println("string: " + stringMs + "ms streaming: " 
+                    + streamingMs + "ms");
+        }
+    }
+
+    protected byte[] stringDigest(CharSequence cs, Pattern pattern) 
+    throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA1");
+        String s = pattern.matcher(cs).replaceAll(" ");
+        return digest.digest(s.getBytes());
+    }
+
+    protected List<CharSequence> loadCorpus(File dir) throws IOException {
+        List<CharSequence> corpus = new ArrayList<CharSequence>();
+        for (File f : dir.listFiles()) {
+            if (f.isFile()) {
+                corpus.add(FileUtils.readFileToString(f));
+            }
+        }
+        return corpus;
+    }
+
+    protected List<CharSequence> generateCorpus(int pages, int pageChars) {
+        List<CharSequence> corpus = new ArrayList<CharSequence>();
+        for (int p = 0; p < pages; p++) {
+            StringBuilder page = new StringBuilder(pageChars);
+            page.append("<html>\n<head><title>page ").append(p).append("</title></head>\n<body>\n");
+            for (int i = 0; page.length() < pageChars; i++) {
+                page.append("  <div class=\"item\"><!-- served ")
+                    .append(System.nanoTime()).append(" -->\n    <a href=\"/item/")
+                    .append(i).append("\">Item caf\u00e9 ").append(i).append("</a>\n  </div>\n");
+            }
+            page.append("</body>\n</html>\n");
+            corpus.add(page.toString());
+        }
+        return corpus;
+    }
+}
@@ -18,8 +18,16 @@
  */
 package org.archive.modules.extractor;
 
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
 import org.archive.modules.ProcessorTestBase;
 
+import com.lowagie.text.Chunk;
+import com.lowagie.text.Document;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfWriter;
+
 /**
  * Unit test for {@link ExtractorPDF}.
  *
@@ -27,6 +35,53 @@ import org.archive.modules.ProcessorTestBase;
  */
 public class ExtractorPDFTest extends ProcessorTestBase {
 
-    // TODO TESTME!
-    
+    /**
+     * @return a PDF with a link to each of the given URIs
+     */
+    protected byte[] makePdf(String... uris) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, out);
+        document.open();
+        for (String uri : uris) {
+            Chunk link = new Chunk("link to " + uri);
+            link.setAnchor(uri);
+            document.add(new Paragraph(link));
+        }
+        document.close();
+        return out.toByteArray();
+    }
+
+    public void testExtractURIs() throws Exception {
+        PDFParser parser = new PDFParser(makePdf("http://example.com/1",
+                "http://example.com/2", "http://example.com/3"));
+        ArrayList<String> uris = parser.extractURIs();
+        assertEquals(3, uris.size());
+        assertTrue(uris.contains("http://example.com/2"));
+        assertFalse(parser.isTruncated());
+    }
+
+    public void testMaxAnnotations() throws Exception {
+        PDFParser parser = new PDFParser(makePdf("http://example.com/1",
+                "http://example.com/2", "http://example.com/3"));
+        parser.setMaxAnnotations(1);
+        ArrayList<String> uris = parser.extractURIs();
+        assertTrue(parser.isTruncated());
+        assertTrue(uris.size() <= 1);
+    }
+
+    public void testMaxObjects() throws Exception {
+        byte[] pdf = makePdf("http://example.com/1", "http://example.com/2");
+        PDFParser parser = new PDFParser(pdf);
+        parser.setMaxObjects(3);
+        assertTrue(parser.extractURIs().isEmpty());
+        assertTrue(parser.isTruncated());
+
+        // generous limits change nothing
+        parser.resetState(pdf);
+        parser.setMaxObjects(100000);
+        parser.setMaxAnnotations(1000);
+        assertEquals(2, parser.extractURIs().size());
+        assertFalse(parser.isTruncated());
+    }
 }
@@ -18,6 +18,11 @@
  */
 package org.archive.modules.extractor;
 
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.archive.modules.ProcessorTestBase;
 
 /**
@@ -27,6 +32,86 @@ import org.archive.modules.ProcessorTestBase;
  */
 public class HTTPContentDigestTest extends ProcessorTestBase {
 
-    // TODO TESTME!
-    
+    protected static final String STRIP = "<!--.*?-->|\\s+";
+
+    /**
+     * The digest as computed before streaming: of the whole stripped
+     * document as a String, in the platform-default encoding.
+     */
+    protected static byte[] stringDigest(CharSequence cs, String regex)
+    throws Exception {
+        String s = regex == null 
+            ? cs.toString() 
+            : Pattern.compile(regex).matcher(cs).replaceAll(" ");
+        return MessageDigest.getInstance("SHA1").digest(s.getBytes());
+    }
+
+    protected static byte[] streamingDigest(CharSequence cs, String regex) {
+        Matcher m = regex == null ? null : Pattern.compile(regex).matcher(cs);
+        return HTTPContentDigest.streamingDigests.get().digest(cs, m);
+    }
+
+    protected void assertSameDigest(CharSequence cs, String regex) 
+    throws Exception {
+        assertTrue(Arrays.equals(stringDigest(cs, regex), 
+                streamingDigest(cs, regex)));
+    }
+
+    public void testEmpty() throws Exception {
+        assertSameDigest("", null);
+        assertSameDigest("", STRIP);
+        assertSameDigest("", "x*");
+    }
+
+    public void testStripping() throws Exception {
+        String page = "<html> <!-- generated 12:00 -->\n<body>hello\t world</body></html>";
+        assertSameDigest(page, null);
+        assertSameDigest(page, STRIP);
+        // empty matches each insert a blank
+        assertSameDigest(page, "x*");
+        assertFalse(Arrays.equals(streamingDigest(page, null), 
+                streamingDigest(page, STRIP)));
+        assertTrue(Arrays.equals(streamingDigest(page, STRIP), 
+                streamingDigest(page.replace("12:00", "12:01"), STRIP)));
+    }
+
+    /**
+     * Documents spanning many chunks, with non-ASCII and supplementary
+     * characters (including surrogate pairs split across chunk
+     * boundaries), and unpaired surrogates.
+     */
+    public void testLargeDocuments() throws Exception {
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < HTTPContentDigest.StreamingDigest.CHUNK_CHARS - 1; i++) {
+            page.append('a');
+        }
+        page.append("\ud83d\ude00");
+        assertSameDigest(page, null);
+
+        page.setLength(0);
+        int i = 0;
+        while (page.length() < 5 * HTTPContentDigest.StreamingDigest.CHUNK_CHARS) {
+            page.append("<p>caf\u00e9 \u65e5\u672c <!-- ").append(i++).append(" -->");
+            page.append("\ud83d\ude00");
+        }
+        for (int pad = 0; pad < 3; pad++) {
+            assertSameDigest(page, null);
+            assertSameDigest(page, STRIP);
+            page.insert(0, 'x');
+        }
+        page.append('\ud800');
+        assertSameDigest(page, null);
+        page.insert(HTTPContentDigest.StreamingDigest.CHUNK_CHARS - 1, '\udc00');
+        assertSameDigest(page, STRIP);
+    }
+
+    /**
+     * Reuse of the per-thread digest gives the same results as fresh use.
+     */
+    public void testReuse() throws Exception {
+        String page = "<html><body>reused</body></html>";
+        byte[] first = streamingDigest(page, STRIP);
+        streamingDigest("something else \ud800", null);
+        assertTrue(Arrays.equals(first, streamingDigest(page, STRIP)));
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * TokenizingExtractorHTML tests: all ExtractorHTML tests, plus comparison
+ * of its results against ExtractorHTML's over awkward markup.
+ */
+public class TokenizingExtractorHTMLTest extends ExtractorHTMLTest {
+
+    /** snippets exercising corners of the ExtractorHTML regexes */
+    final public static String[] GOLDEN_SNIPPETS = new String[] {
+        "<a href=\"a.html\">a</a><A HREF='b.html'>b</A><a href=c.html>c</a>",
+        "<a\nhref = \"spaced.html\" >x</a><a title=\"x href=inner.html\" href=outer.html>",
+        "<img src=\"i.gif\" lowsrc=l.gif longdesc='d.html' usemap=\"#m\">",
+        "<body background=\"bg.jpg\" onload=\"go('/onload.html')\">",
+        "<link rel=stylesheet href=\"s.css\"><base href=\"http://base.example.org/dir/\">"
+            + "<a href=\"after-base.html\">",
+        "<frame name=\"main\"src=\"frame.html\"><iframe src=\"if.html\"></iframe>",
+        "<form method=\"get\" action=\"get.cgi\"><form action=\"post.cgi\" method=\"POST\">"
+            + "<form action=\"implied.cgi\"><input type=hidden value=\"/hidden/path.html\">",
+        "<applet code=\"Main\" codebase=\"/applets/\" archive=\"a.jar b.jar\"></applet>"
+            + "<object classid=\"clsid:xyz\" data=\"movie.swf\" codebase=\"/obj/\">",
+        "<param name=\"flashvars\" value=\"file=%2Fmedia%2Fclip.flv&x=1\">"
+            + "<embed flashvars=\"config=/config.xml\" src=\"player.swf\">",
+        "<div style=\"background: url('/styled.png')\">x</div>",
+        "<script src=\"s1.js\"></script><SCRIPT type=\"text/javascript\">"
+            + "var u = \"/from/script.html\";</SCRIPT>",
+        "<script>var unclosed = '/never.html';<a href=\"after-unclosed.html\">",
+        "<script src=\"unclosed-src.js\">var x='/x.html'; <img src=\"later.gif\">",
+        "<style type=\"text/css\">@import url(\"imported.css\"); "
+            + "body { background: url(bg2.png) }</style>",
+        "<style>p{}<!-- no close <a href=\"style-unclosed.html\">",
+        "<!-- <a href=\"commented.html\"> --><a href=\"uncommented.html\">",
+        "<!--[if IE 6]><img src=\"cond.gif\"><![endif]--><!--[IF lt IE 7]><a href=cond2.html><![endif]-->",
+        "<!-- unclosed comment <a href=\"after-open-comment.html\">",
+        "<meta http-equiv=\"refresh\" content=\"0; url=/refreshed.html\">"
+            + "<meta name=\"description\" content=\"nothing\">",
+        "<meta name='robots' content='index,nofollow'><a href='not-followed.html'>",
+        "<svg><use xlink:href=\"#sym\"></use><a xlink:href=\"x-linked.html\">x</a></svg>",
+        "<a href=\"unterminated.html>text</a> <a href=\"next.html\">",
+        "<a href='unterminated-single.html\n>",
+        "<a href=\"&quot;quoted&quot;.html\">&amp;</a><a href=\"q.html?a=1&amp;b=2\">",
+        "<a href=\"javascript:window.open('/popup.html')\">js</a>",
+        "<a onclick=\"location='/clicked.html'\" on-not-handler=\"/x.html\">",
+        "<td data-href=\"/data-attr.html\" data=\"d.bin\" datasrc=\"ds.xml\">",
+        "<a  href=\"double-space.html\"><a\thref=\"tab.html\"><a/href=\"slash.html\">",
+        "<ab_c-d e=f href=ok.html><!DOCTYPE html><a href>bare</a><a href= >",
+        "<a href==\"doubled-equals.html\"><a ==x href=y.html>",
+        "< a href=\"space-after-lt.html\"><<a href=\"double-lt.html\">",
+        "<blockquote cite=\"cited.html\"><head profile=\"http://profile.example.org/\">",
+        "<a href=\"trailing-newline.html\n\"><a href='no-close-at-end",
+    };
+
+    @Override
+    protected Extractor makeExtractor() {
+        return makeExtractor(new TokenizingExtractorHTML());
+    }
+
+    protected ExtractorHTML makeExtractor(ExtractorHTML result) {
+        UriErrorLoggerModule ulm = new UnitTestUriLoggerModule();  
+        result.setLoggerModule(ulm);
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        result.setMetadata(metadata);
+        result.setExtractorJS(new ExtractorJS());
+        result.afterPropertiesSet();
+        return result;
+    }
+
+    /**
+     * Each golden snippet must yield the same outlinks, form offsets, and
+     * meta robots as from ExtractorHTML.
+     */
+    public void testGoldenSnippets() throws Exception {
+        ExtractorHTML regex = makeExtractor(new ExtractorHTML());
+        for (String snippet : GOLDEN_SNIPPETS) {
+            assertSameResults(regex, snippet);
+        }
+    }
+
+    /**
+     * Tighter name/value/element limits change where the regexes cut
+     * attributes; the tokenizer must cut at the same places.
+     */
+    public void testGoldenSnippetsWithShortLimits() throws Exception {
+        ExtractorHTML regex = new ExtractorHTML();
+        regex.setMaxElementLength(2);
+        regex.setMaxAttributeNameLength(3);
+        regex.setMaxAttributeValLength(8);
+        makeExtractor(regex);
+        getExtractor().setMaxElementLength(2);
+        getExtractor().setMaxAttributeNameLength(3);
+        getExtractor().setMaxAttributeValLength(8);
+        getExtractor().afterPropertiesSet();
+        for (String snippet : GOLDEN_SNIPPETS) {
+            assertSameResults(regex, snippet);
+        }
+    }
+
+    /**
+     * Random splicings of golden snippets and markup fragments must
+     * yield the same results as from ExtractorHTML.
+     */
+    public void testGoldenShuffles() throws Exception {
+        ExtractorHTML regex = makeExtractor(new ExtractorHTML());
+        String[] fragments = new String[] {
+            "<", ">", "\"", "'", "=", " ", "\n", "<a ", "href=", "src=",
+            "<script>", "</script>", "<style>", "</style>", "<!--", "-->",
+            "<meta ", "content=", "x.html", "/y.gif", "&amp;", "on", "-",
+        };
+        Random random = new Random(1234L);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder page = new StringBuilder();
+            int parts = 1 + random.nextInt(12);
+            for (int p = 0; p < parts; p++) {
+                if (random.nextBoolean()) {
+                    String snippet = GOLDEN_SNIPPETS[random.nextInt(GOLDEN_SNIPPETS.length)];
+                    // avoid nofollow cutting comparisons short
+                    if (snippet.indexOf("nofollow") < 0) {
+                        page.append(snippet);
+                    }
+                } else {
+                    page.append(fragments[random.nextInt(fragments.length)]);
+                }
+            }
+            assertSameResults(regex, page.toString());
+        }
+    }
+
+    /**
+     * A page spanning several tokenizer buffer fills, opening with an
+     * unclosed SCRIPT, must yield the same results as from ExtractorHTML.
+     */
+    public void testGoldenLargePage() throws Exception {
+        ExtractorHTML regex = makeExtractor(new ExtractorHTML());
+        StringBuilder page = new StringBuilder("<script>var x = 1;\n");
+        for (int round = 0; page.length() < 4 * TokenizingExtractorHTML.CHUNK_LENGTH; round++) {
+            for (String snippet : GOLDEN_SNIPPETS) {
+                if (snippet.indexOf("nofollow") < 0) {
+                    page.append(snippet).append("\n");
+                }
+            }
+            page.append("<a href=\"round-").append(round).append(".html\">\n");
+        }
+        assertSameResults(regex, page.toString());
+    }
+
+    protected void assertSameResults(ExtractorHTML regex, String page) 
+    throws Exception {
+        CrawlURI expected = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/start/"));
+        regex.extract(expected, page);
+        CrawlURI actual = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/start/"));
+        getExtractor().extract(actual, page);
+
+        assertEquals("outlinks differ for: " + page, 
+                sortedLinks(expected), sortedLinks(actual));
+        assertEquals("form offsets differ for: " + page,
+                expected.getDataList(ExtractorHTML.A_FORM_OFFSETS),
+                actual.getDataList(ExtractorHTML.A_FORM_OFFSETS));
+        assertEquals("meta robots differ for: " + page,
+                expected.getData().get(ExtractorHTML.A_META_ROBOTS),
+                actual.getData().get(ExtractorHTML.A_META_ROBOTS));
+        assertEquals("base differs for: " + page,
+                expected.getBaseURI(), actual.getBaseURI());
+    }
+
+    protected List<String> sortedLinks(CrawlURI curi) {
+        List<Link> links = new ArrayList<Link>(curi.getOutLinks());
+        Collections.sort(links);
+        List<String> result = new ArrayList<String>();
+        for (Link link : links) {
+            result.add(link.toString());
+        }
+        return result;
+    }
+}
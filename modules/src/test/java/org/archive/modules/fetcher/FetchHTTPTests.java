@@ -121,7 +121,9 @@ public class FetchHTTPTests extends ProcessorTestBase {
             assertTrue(requestString.startsWith("GET / HTTP/1.0\r\n"));
         }
         assertTrue(requestString.contains("User-Agent: " + getUserAgentString() + "\r\n"));
-        assertTrue(requestString.matches("(?s).*Connection: [Cc]lose\r\n.*"));
+        if (!exclusions.contains("connectionClose")) {
+            assertTrue(requestString.matches("(?s).*Connection: [Cc]lose\r\n.*"));
+        }
         if (!exclusions.contains("acceptHeaders")) {
             assertTrue(requestString.contains("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"));
         }
@@ -654,6 +656,81 @@ public class FetchHTTPTests extends ProcessorTestBase {
         assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
     }
 
+    public void testConnectionPooling() throws Exception {
+        fetcher().stop();
+        fetcher().setConnectionPooling(true);
+        fetcher().start();
+
+        for (int i = 0; i < 3; i++) {
+            CrawlURI curi = makeCrawlURI("http://localhost:7777/");
+            fetcher().process(curi);
+            assertTrue(httpRequestString(curi).startsWith("GET / HTTP/1.1\r\n"));
+            assertFalse(httpRequestString(curi).matches("(?s).*Connection: [Cc]lose\r\n.*"));
+            // each recording holds exactly its own exchange
+            runDefaultChecks(curi, "requestLine", "connectionClose");
+            assertEquals(Boolean.valueOf(i > 0), curi.getHttpConnectionReused());
+            assertFalse(curi.getData().containsKey("http-connection-reused"));
+        }
+
+        // last expected from its queue: asks server to close
+        CrawlURI curi = makeCrawlURI("http://localhost:7777/");
+        curi.setLastInQueueSession(true);
+        fetcher().process(curi);
+        runDefaultChecks(curi, "requestLine");
+        curi = makeCrawlURI("http://localhost:7777/");
+        fetcher().process(curi);
+        assertEquals(Boolean.FALSE, curi.getHttpConnectionReused());
+    }
+
+    public void testPooledChunked() throws Exception {
+        // read stops at the last chunk, without waiting on server close
+        fetcher().stop();
+        fetcher().setSoTimeoutMs(5000);
+        fetcher().setConnectionPooling(true);
+        fetcher().start();
+
+        for (int i = 0; i < 2; i++) {
+            CrawlURI curi = makeCrawlURI("http://localhost:7777/chunked.txt");
+            long start = System.currentTimeMillis();
+            fetcher().process(curi);
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertEquals("chunked", getHttpResponseHeader(curi, "transfer-encoding"));
+            assertEquals("25\r\n" + DEFAULT_PAYLOAD_STRING + "\r\n0\r\n\r\n", messageBodyString(curi));
+            assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
+            assertEquals(Boolean.valueOf(i > 0), curi.getHttpConnectionReused());
+        }
+    }
+
+    /**
+     * Length, time, and rate limits must hold when reading pooled
+     * responses to their framed end, as when reading to EOF.
+     */
+    public void testPooledLimits() throws Exception {
+        fetcher().stop();
+        fetcher().setConnectionPooling(true);
+        fetcher().start();
+
+        fetcher().setMaxLengthBytes(50000);
+        CrawlURI curi = makeCrawlURI("http://localhost:7777/200k");
+        fetcher().process(curi);
+        assertEquals(50001, curi.getRecordedSize());
+        assertTrue(curi.getAnnotations().contains("lenTrunc"));
+        fetcher().setMaxLengthBytes(0);
+
+        fetcher().setMaxFetchKBSec(100);
+        curi = makeCrawlURI("http://localhost:7777/200k");
+        fetcher().process(curi);
+        assertEquals(200000, curi.getContentLength());
+        assertTrue(curi.getFetchDuration() > 1800 && curi.getFetchDuration() < 2200);
+        fetcher().setMaxFetchKBSec(0);
+
+        fetcher().setTimeoutSeconds(2);
+        curi = makeCrawlURI("http://localhost:7777/slow.txt");
+        fetcher().process(curi);
+        assertTrue(curi.getAnnotations().contains("timeTrunc"));
+        assertTrue(curi.getFetchDuration() >= 2000 && curi.getFetchDuration() < 2200);
+    }
+
     protected static class NoResponseServer extends Thread {
         protected String listenAddress;
         protected int listenPort;
@@ -0,0 +1,199 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.net;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+
+/**
+ * DnsResolver tests, against a stub DNS server on localhost which answers
+ * every name with 10.0.0.1, except names beginning "nx" (NXDOMAIN) and
+ * names beginning "drop" (first query ignored).
+ */
+public class DnsResolverTest extends TestCase {
+
+    protected DatagramSocket stubSocket;
+    protected Thread stubThread;
+    protected Map<String,AtomicInteger> queryCounts =
+        new ConcurrentHashMap<String,AtomicInteger>();
+    protected DnsResolver resolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        stubSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        stubThread = new Thread("stub DNS server") {
+            public void run() {
+                serveStub();
+            }
+        };
+        stubThread.setDaemon(true);
+        stubThread.start();
+
+        resolver = new DnsResolver();
+        List<String> servers = new ArrayList<String>();
+        servers.add("127.0.0.1:" + stubSocket.getLocalPort());
+        resolver.setServers(servers);
+        resolver.setTimeoutMs(300);
+        resolver.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        resolver.stop();
+        stubSocket.close();
+        stubThread.join();
+        super.tearDown();
+    }
+
+    protected void serveStub() {
+        byte[] buf = new byte[512];
+        while (true) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            try {
+                stubSocket.receive(packet);
+                byte[] data = new byte[packet.getLength()];
+                System.arraycopy(buf, 0, data, 0, data.length);
+                Message query = new Message(data);
+                Record question = query.getQuestion();
+                String name = question.getName().toString(true);
+                queryCounts.putIfAbsent(name, new AtomicInteger(0));
+                int count = queryCounts.get(name).incrementAndGet();
+                if (name.startsWith("drop") && count == 1) {
+                    continue;
+                }
+                Message response = new Message(query.getHeader().getID());
+                response.getHeader().setFlag(Flags.QR);
+                response.addRecord(question, Section.QUESTION);
+                if (name.startsWith("nx")) {
+                    response.getHeader().setRcode(Rcode.NXDOMAIN);
+                } else {
+                    response.addRecord(new ARecord(question.getName(), DClass.IN,
+                            60, InetAddress.getByName("10.0.0.1")), Section.ANSWER);
+                }
+                byte[] out = response.toWire();
+                stubSocket.send(new DatagramPacket(out, out.length,
+                        packet.getSocketAddress()));
+            } catch (SocketException e) {
+                return; // closed
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    protected int queriesFor(String name) {
+        AtomicInteger count = queryCounts.get(name);
+        return count == null ? 0 : count.get();
+    }
+
+    public void testLookupAndCache() throws Exception {
+        DnsResolver.Answer answer = resolver.lookup("www.example.com");
+        assertNotNull(answer);
+        assertEquals(InetAddress.getByName("10.0.0.1"), answer.getAddress());
+        assertEquals(60, answer.getTtlSeconds());
+        assertEquals("127.0.0.1", answer.getServer());
+
+        // served from cache, case-insensitively, without another query
+        assertSame(answer, resolver.lookup("WWW.example.com."));
+        assertEquals(1, queriesFor("www.example.com"));
+        assertEquals(1, resolver.getCacheHits());
+    }
+
+    public void testNegativeAnswer() throws Exception {
+        DnsResolver.Answer answer = resolver.lookup("nx.example.com");
+        assertNotNull(answer);
+        assertNull(answer.getAddress());
+        assertEquals(0, answer.getRecords().length);
+        assertEquals(resolver.getNegativeTtlSeconds(), answer.getTtlSeconds());
+        assertNotNull(resolver.getCached("nx.example.com"));
+    }
+
+    public void testPrefetch() throws Exception {
+        int n = 200;
+        for (int i = 0; i < n; i++) {
+            resolver.prefetch("host" + i + ".example.com");
+        }
+        long end = System.currentTimeMillis() + 10000;
+        while (resolver.getCacheSize() < n && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        for (int i = 0; i < n; i++) {
+            assertNotNull(resolver.getCached("host" + i + ".example.com"));
+            assertEquals(1, queriesFor("host" + i + ".example.com"));
+        }
+        assertEquals(0, resolver.getPendingCount());
+    }
+
+    public void testConcurrentLookupsShareQuery() throws Exception {
+        final List<DnsResolver.Answer> answers =
+            new ArrayList<DnsResolver.Answer>();
+        Thread[] threads = new Thread[10];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        DnsResolver.Answer a = resolver.lookup("shared.example.com");
+                        synchronized (answers) {
+                            answers.add(a);
+                        }
+                    } catch (InterruptedException e) {
+                        // leave unrecorded; caught by size check below
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(threads.length, answers.size());
+        for (DnsResolver.Answer a : answers) {
+            assertNotNull(a);
+            assertEquals(InetAddress.getByName("10.0.0.1"), a.getAddress());
+        }
+        assertEquals(1, queriesFor("shared.example.com"));
+    }
+
+    public void testRetryAfterTimeout() throws Exception {
+        DnsResolver.Answer answer = resolver.lookup("drop.example.com");
+        assertNotNull(answer);
+        assertEquals(InetAddress.getByName("10.0.0.1"), answer.getAddress());
+        assertEquals(2, queriesFor("drop.example.com"));
+        assertEquals(1, resolver.getTimeouts());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.recrawl;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.CoreAttributeConstants;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * PersistHistoryBinding tests: compact round trip, and reading of (and
+ * size relative to) Java-serialized records.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public class PersistHistoryBindingTest extends TmpDirTestCase 
+implements RecrawlAttributeConstants, CoreAttributeConstants {
+
+    protected Map<String,Object> makeHistoryMap() {
+        HashMap<String,Object> latest = new HashMap<String,Object>();
+        latest.put(A_STATUS, 200);
+        latest.put(A_FETCH_BEGAN_TIME, 1300000000000L);
+        latest.put(A_CONTENT_DIGEST, "sha1:3I42H3S6NNFQ2MSVX7XZKYAYSCX5QBYJ");
+        latest.put(A_ETAG_HEADER, "\"abc123\"");
+        latest.put(A_LAST_MODIFIED_HEADER, "Sat, 12 Mar 2011 00:00:00 GMT");
+        latest.put(A_REFERENCE_LENGTH, 12345L);
+        latest.put(A_WRITE_TAG, "example-20110312-00000.warc.gz/1234");
+        HashMap<String,Object> previous = new HashMap<String,Object>();
+        previous.put(A_STATUS, -2);
+        previous.put(A_FETCH_BEGAN_TIME, null);
+        previous.put("unknown-key", new HashSet<String>());
+        HashMap[] history = new HashMap[] { latest, previous, null };
+
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put(A_FETCH_HISTORY, history);
+        HashSet<String> heritable = new HashSet<String>();
+        heritable.add("custom");
+        map.put(A_HERITABLE_KEYS, heritable);
+        map.put("custom", 3.5d);
+        return map;
+    }
+
+    protected void assertSameHistoryMap(Map<String,Object> expected, Map<String,Object> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        HashMap[] expectedHistory = (HashMap[]) expected.get(A_FETCH_HISTORY);
+        HashMap[] actualHistory = (HashMap[]) actual.get(A_FETCH_HISTORY);
+        assertEquals(expectedHistory.length, actualHistory.length);
+        for (int i = 0; i < expectedHistory.length; i++) {
+            assertEquals(expectedHistory[i], actualHistory[i]);
+        }
+        assertEquals(expected.get(A_HERITABLE_KEYS), actual.get(A_HERITABLE_KEYS));
+        assertEquals(expected.get("custom"), actual.get("custom"));
+    }
+
+    public void testCompactRoundTrip() {
+        PersistHistoryBinding binding = new PersistHistoryBinding(null, true);
+        Map<String,Object> map = makeHistoryMap();
+        DatabaseEntry entry = new DatabaseEntry();
+        binding.objectToEntry(map, entry);
+        assertTrue(PersistHistoryBinding.isCompact(entry));
+        assertSameHistoryMap(map, binding.entryToObject(entry));
+    }
+
+    public void testReadsSerializedRecords() throws Exception {
+        File envDir = new File(getTmpDir(), "PersistHistoryBindingTest");
+        FileUtils.deleteDirectory(envDir);
+        org.archive.util.FileUtils.ensureWriteableDirectory(envDir);
+        EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(envDir);
+        try {
+            SerialBinding<Map> serialBinding = 
+                new SerialBinding<Map>(env.getClassCatalog(), Map.class);
+            PersistHistoryBinding binding = 
+                new PersistHistoryBinding(env.getClassCatalog(), true);
+            Map<String,Object> map = makeHistoryMap();
+
+            DatabaseEntry serialized = new DatabaseEntry();
+            serialBinding.objectToEntry(map, serialized);
+            assertFalse(PersistHistoryBinding.isCompact(serialized));
+            assertSameHistoryMap(map, binding.entryToObject(serialized));
+
+            DatabaseEntry compact = new DatabaseEntry();
+            binding.objectToEntry(map, compact);
+            assertTrue("compact " + compact.getSize() + " not smaller than serialized " 
+                    + serialized.getSize(), compact.getSize() < serialized.getSize());
+
+            // writing serialized records, as before
+            DatabaseEntry rewritten = new DatabaseEntry();
+            new PersistHistoryBinding(env.getClassCatalog(), false).objectToEntry(map, rewritten);
+            assertFalse(PersistHistoryBinding.isCompact(rewritten));
+            assertSameHistoryMap(map, serialBinding.entryToObject(rewritten));
+        } finally {
+            env.close();
+            FileUtils.deleteDirectory(envDir);
+        }
+    }
+}
@@ -19,29 +19,43 @@
 
 package org.archive.modules.writer;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.archive.format.warc.WARCConstants;
+import org.archive.io.ArchiveRecord;
 import org.archive.io.WriterPool;
 import org.archive.io.WriterPoolMember;
 import org.archive.io.WriterPoolSettings;
+import org.archive.io.warc.WARCReader;
+import org.archive.io.warc.WARCReaderFactory;
 import org.archive.io.warc.WARCRecordInfo;
 import org.archive.io.warc.WARCWriter;
+import org.archive.io.warc.WARCWriterPool;
+import org.archive.io.warc.WARCWriterPoolSettings;
 import org.archive.io.warc.WARCWriterPoolSettingsData;
+import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlMetadata;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessorTestBase;
 import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.modules.fetcher.FetchStatusCodes;
+import org.archive.modules.writer.WARCWriterPipeline.AppendingWARCWriter;
 import org.archive.net.UURIFactory;
 import org.archive.spring.ConfigPath;
 import org.archive.uid.RecordIDGenerator;
 import org.archive.uid.UUIDGenerator;
 import org.archive.util.FileUtils;
+import org.archive.util.Recorder;
 import org.archive.util.TmpDirTestCase;
 
 /**
@@ -133,6 +147,150 @@ public class WARCWriterProcessorTest extends ProcessorTestBase {
         }
         fail("second process() call got blocked too long");
     }
+
+    /**
+     * Pipelined writing from several threads, with small files and a small
+     * queue: every URI's response record must be found at the file and 
+     * offset noted on the CrawlURI.
+     */
+    public void testPipelinedWrites() throws Exception {
+        final WARCWriterProcessor wwp = newTestWarcWriter("testPipelinedWrites");
+        checkPipelinedWrites(wwp);
+    }
+
+    /**
+     * Pipelined writing as above, but with records too large to hold in
+     * memory, so spilled to staging files.
+     */
+    public void testPipelinedSpilledWrites() throws Exception {
+        final WARCWriterProcessor wwp = newTestWarcWriter("testPipelinedSpilledWrites");
+        wwp.setPipelineSpillThresholdBytes(512);
+        checkPipelinedWrites(wwp);
+        File stagingDir = wwp.getPipelineStagingPath().getFile();
+        assertEquals(0, stagingDir.list().length);
+    }
+
+    protected void checkPipelinedWrites(final WARCWriterProcessor wwp) throws Exception {
+        for (File dir : wwp.calcOutputDirs()) {
+            org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        }
+        wwp.setPipelined(true);
+        wwp.setPoolMaxActive(2);
+        wwp.setPipelineMaxQueuedBytes(4096);
+        wwp.setMaxFileSizeBytes(20000);
+        wwp.start();
+
+        final File recDir = new File(TmpDirTestCase.tmpDir(), "testPipelinedWritesRec");
+        FileUtils.ensureWriteableDirectory(recDir);
+        final List<CrawlURI> curis = Collections.synchronizedList(new ArrayList<CrawlURI>());
+        final List<Exception> problems = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int tn = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 25; i++) {
+                            CrawlURI curi = makeDnsCrawlURI(recDir, "host" + tn + "-" + i + ".example.com");
+                            wwp.process(curi);
+                            assertTrue(curi.getNonFatalFailures().isEmpty());
+                            curis.add(curi);
+                        }
+                    } catch (Exception e) {
+                        problems.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(problems.toString(), problems.isEmpty());
+        String report = wwp.report();
+        assertTrue(report, report.contains("Pipeline queue:"));
+        wwp.stop();
+
+        File warcDir = wwp.calcOutputDirs().get(0);
+        assertTrue(warcDir.list().length > 2);
+        assertEquals(100, curis.size());
+        for (CrawlURI curi : curis) {
+            File warc = new File(warcDir, curi.getExtraInfo().getString("warcFilename"));
+            WARCReader reader = WARCReaderFactory.get(warc, curi.getExtraInfo().getLong("warcFileOffset"));
+            try {
+                ArchiveRecord record = reader.get();
+                assertEquals(curi.getUURI().toString(), record.getHeader().getUrl());
+                assertEquals(Long.toString(curi.getRecorder().getRecordedInput().getSize()),
+                        record.getHeader().getHeaderValue(WARCConstants.CONTENT_LENGTH));
+            } finally {
+                reader.close();
+            }
+            curi.getRecorder().cleanup();
+        }
+    }
+
+    /**
+     * A failed pipelined append must be reported on the CrawlURI, which
+     * must not be noted as written.
+     */
+    public void testPipelinedAppendFailure() throws Exception {
+        final WARCWriterProcessor wwp = new WARCWriterProcessor() {
+            @Override
+            protected void setupPool(final AtomicInteger serialNo) {
+                final WARCWriterPoolSettings settings = this;
+                setPool(new WARCWriterPool(serialNo, settings, 1, getMaxWaitForIdleMs()) {
+                    @Override
+                    protected WriterPoolMember makeWriter() {
+                        return new AppendingWARCWriter(serialNo, settings) {
+                            @Override
+                            public void append(byte[] b, int off, int len) throws IOException {
+                                throw new IOException("pretend no space left on device");
+                            }
+                        };
+                    }
+                };
+            }
+        };
+        File tmp = new File(TmpDirTestCase.tmpDir(), "testPipelinedAppendFailure");
+        FileUtils.ensureWriteableDirectory(tmp);
+        wwp.setDirectory(new ConfigPath("test", tmp.getAbsolutePath()));
+        wwp.setServerCache(new DefaultServerCache());
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        wwp.setMetadataProvider(metadata);
+        wwp.setPipelined(true);
+        wwp.start();
+
+        File recDir = new File(TmpDirTestCase.tmpDir(), "testPipelinedAppendFailureRec");
+        FileUtils.ensureWriteableDirectory(recDir);
+        for (int i = 0; i < 2; i++) {
+            CrawlURI curi = makeDnsCrawlURI(recDir, "host" + i + ".example.com");
+            wwp.process(curi);
+            assertEquals(1, curi.getNonFatalFailures().size());
+            assertFalse(curi.getExtraInfo().has("warcFilename"));
+            curi.getRecorder().cleanup();
+        }
+        wwp.stop();
+    }
+
+    protected static CrawlURI makeDnsCrawlURI(File recDir, String host) throws IOException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("dns:" + host));
+        curi.setFetchStatus(FetchStatusCodes.S_DNS_SUCCESS);
+        curi.setContentType("text/dns");
+        curi.getData().put(CoreAttributeConstants.A_DNS_SERVER_IP_LABEL, "127.0.0.1");
+        Recorder rec = new Recorder(recDir, host);
+        curi.setRecorder(rec);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            content.append(host).append("\t3600\tIN\tA\t10.0.0.").append(i).append("\n");
+        }
+        InputStream is = rec.inputWrap(new ByteArrayInputStream(content.toString().getBytes("US-ASCII")));
+        while (is.read(new byte[1024]) != -1) {
+        }
+        is.close();
+        curi.setContentSize(rec.getRecordedInput().getSize());
+        return curi;
+    }
     /**
      * WARCWriter whose getPosition() always fails.
      * It simulates disk full during last write() (it didn't fail